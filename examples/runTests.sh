@@ -1,29 +1,29 @@
 #!/bin/sh
 echo "=== Test01.rl ==="
-java -cp ../target/org.reldb.relang-0.0.1-SNAPSHOT.jar:"../target/lib/*" Relang < test01.rl
+../relang < test01.rl
 echo "=== Test02.rl ==="
-java -cp ../target/org.reldb.relang-0.0.1-SNAPSHOT.jar:"../target/lib/*" Relang < test02.rl
+../relang < test02.rl
 echo "=== Test03.rl ==="
-java -cp ../target/org.reldb.relang-0.0.1-SNAPSHOT.jar:"../target/lib/*" Relang < test03.rl
+../relang < test03.rl
 echo "=== Test04.rl ==="
-java -cp ../target/org.reldb.relang-0.0.1-SNAPSHOT.jar:"../target/lib/*" Relang < test04.rl
+../relang < test04.rl
 echo "=== Test05.rl ==="
-java -cp ../target/org.reldb.relang-0.0.1-SNAPSHOT.jar:"../target/lib/*" Relang < test05.rl
+../relang < test05.rl
 echo "=== Test06.rl ==="
-java -cp ../target/org.reldb.relang-0.0.1-SNAPSHOT.jar:"../target/lib/*" Relang < test06.rl
+../relang < test06.rl
 echo "=== Test07.rl ==="
-java -cp ../target/org.reldb.relang-0.0.1-SNAPSHOT.jar:"../target/lib/*" Relang < test07.rl
+../relang < test07.rl
 echo "=== Test08.rl ==="
-java -cp ../target/org.reldb.relang-0.0.1-SNAPSHOT.jar:"../target/lib/*" Relang < test08.rl
+../relang < test08.rl
 echo "=== Test09.rl ==="
-java -cp ../target/org.reldb.relang-0.0.1-SNAPSHOT.jar:"../target/lib/*" Relang < test09.rl
+../relang < test09.rl
 echo "=== Test10.rl ==="
-java -cp ../target/org.reldb.relang-0.0.1-SNAPSHOT.jar:"../target/lib/*" Relang < test10.rl
+../relang < test10.rl
 echo "=== Test11.rl ==="
-java -cp ../target/org.reldb.relang-0.0.1-SNAPSHOT.jar:"../target/lib/*" Relang < test11.rl
+../relang < test11.rl
 echo "=== Test12.rl ==="
-java -cp ../target/org.reldb.relang-0.0.1-SNAPSHOT.jar:"../target/lib/*" Relang < test12.rl
+../relang < test12.rl
 echo "=== Test13.rl ==="
-java -cp ../target/org.reldb.relang-0.0.1-SNAPSHOT.jar:"../target/lib/*" Relang < test13.rl
+../relang < test13.rl
 echo "=== Test14.rl ==="
-java -cp ../target/org.reldb.relang-0.0.1-SNAPSHOT.jar:"../target/lib/*" Relang < test14.rl
+../relang < test14.rl
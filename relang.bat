@@ -0,0 +1,3 @@
+@echo off
+rem Run Relang, with the class-data-sharing archive built by mvn package for faster startup.
+java -XX:SharedArchiveFile="%~dp0target\relang.jsa" -Xlog:all=warning:stderr -jar "%~dp0target\org.reldb.relang-0.0.1-SNAPSHOT.jar" %*
@@ -0,0 +1,76 @@
+package org.reldb.relang;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+
+/**
+ * A thin client for a Daemon, used in place of Main: it takes the same arguments and reads a script from stdin,
+ * has the daemon run it, and copies the output the daemon streams back to stdout and stderr. It loads little
+ * more than this class, so it starts quickly. If no daemon is listening, it runs the script itself with Main.
+ * <p>
+ * A request is the argument count, each argument, the source length and the source. The response is a sequence
+ * of frames, each a channel (stdout or stderr), a length and that many bytes, ended by endOfResponse.
+ */
+public class Client {
+
+	static final int endOfResponse = 0;
+	static final int stdout = 1;
+	static final int stderr = 2;
+
+	/** Get the path of the daemon's socket: $RELANG_SOCKET if set, otherwise a per-user file in the temporary directory. */
+	public static Path getSocketPath() {
+		var path = System.getenv("RELANG_SOCKET");
+		return (path != null)
+				? Path.of(path)
+				: Path.of(System.getProperty("java.io.tmpdir"), "relang-" + System.getProperty("user.name") + ".sock");
+	}
+
+	/**
+	 * Have the daemon listening on a given socket run a script.
+	 *
+	 * @return false if no daemon is listening.
+	 * @throws IOException if the connection to the daemon fails part way through.
+	 */
+	public static boolean run(Path socketPath, String[] args, InputStream input, OutputStream output, OutputStream errors) throws IOException {
+		SocketChannel channel;
+		try {
+			channel = SocketChannel.open(UnixDomainSocketAddress.of(socketPath));
+		} catch (IOException noDaemon) {
+			return false;
+		}
+		try (channel) {
+			var request = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+			request.writeInt(args.length);
+			for (var arg : args)
+				request.writeUTF(arg);
+			var source = input.readAllBytes();
+			request.writeInt(source.length);
+			request.write(source);
+			request.flush();
+			var response = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+			for (var channelId = response.readUnsignedByte(); channelId != endOfResponse; channelId = response.readUnsignedByte()) {
+				var bytes = new byte[response.readInt()];
+				response.readFully(bytes);
+				var target = (channelId == stderr) ? errors : output;
+				target.write(bytes);
+				target.flush();
+			}
+		}
+		return true;
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (!run(getSocketPath(), args, System.in, System.out, System.err))
+			Main.main(args);
+	}
+
+}
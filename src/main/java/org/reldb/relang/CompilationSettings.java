@@ -0,0 +1,129 @@
+package org.reldb.relang;
+
+import java.util.Collection;
+
+import org.reldb.relang.interpreter.Profile;
+import org.reldb.relang.ir.Lowering;
+import org.reldb.relang.ir.Operator;
+import org.reldb.relang.java.ClassFileCache;
+import org.reldb.relang.java.JavaCompiler;
+import org.reldb.relang.java.ProgramCache;
+import org.reldb.relang.optimiser.OptimisationLevel;
+import org.reldb.relang.optimiser.Optimiser;
+import org.reldb.relang.optimiser.PassManager;
+import org.reldb.relang.parser.ast.SimpleNode;
+import org.reldb.relang.transpiler.InliningPolicy;
+import org.reldb.relang.transpiler.MemoisationPolicy;
+import org.reldb.relang.transpiler.ParallelisationPolicy;
+import org.reldb.relang.transpiler.SourceGenerator;
+
+/**
+ * How programs are optimised and compiled: the backend, the policies and optimisation level, and whether Java source
+ * is compiled via files on disk. Main, TieredExecutor and ScriptBatch take them from here, so they all compile a
+ * program the same way, and cache it under the same key. Immutable; each with... method returns a changed copy.
+ */
+public class CompilationSettings {
+
+	/** Compile via Java source, in memory, at OptimisationLevel.O2 with InliningPolicy.standard, without memoising or parallelising. */
+	public static final CompilationSettings defaults = new CompilationSettings(Main.Backends.SOURCE, MemoisationPolicy.none,
+			ParallelisationPolicy.none, InliningPolicy.standard, OptimisationLevel.O2, false);
+
+	private final Main.Backends backend;
+	private final MemoisationPolicy memoisationPolicy;
+	private final ParallelisationPolicy parallelisationPolicy;
+	private final InliningPolicy inliningPolicy;
+	private final OptimisationLevel optimisationLevel;
+	private final boolean onDisk;
+
+	private CompilationSettings(Main.Backends backend, MemoisationPolicy memoisationPolicy, ParallelisationPolicy parallelisationPolicy,
+			InliningPolicy inliningPolicy, OptimisationLevel optimisationLevel, boolean onDisk) {
+		this.backend = backend;
+		this.memoisationPolicy = memoisationPolicy;
+		this.parallelisationPolicy = parallelisationPolicy;
+		this.inliningPolicy = inliningPolicy;
+		this.optimisationLevel = optimisationLevel;
+		this.onDisk = onDisk;
+	}
+
+	public CompilationSettings withBackend(Main.Backends backend) {
+		return new CompilationSettings(backend, memoisationPolicy, parallelisationPolicy, inliningPolicy, optimisationLevel, onDisk);
+	}
+
+	public CompilationSettings withMemoisationPolicy(MemoisationPolicy memoisationPolicy) {
+		return new CompilationSettings(backend, memoisationPolicy, parallelisationPolicy, inliningPolicy, optimisationLevel, onDisk);
+	}
+
+	public CompilationSettings withParallelisationPolicy(ParallelisationPolicy parallelisationPolicy) {
+		return new CompilationSettings(backend, memoisationPolicy, parallelisationPolicy, inliningPolicy, optimisationLevel, onDisk);
+	}
+
+	public CompilationSettings withInliningPolicy(InliningPolicy inliningPolicy) {
+		return new CompilationSettings(backend, memoisationPolicy, parallelisationPolicy, inliningPolicy, optimisationLevel, onDisk);
+	}
+
+	public CompilationSettings withOptimisationLevel(OptimisationLevel optimisationLevel) {
+		return new CompilationSettings(backend, memoisationPolicy, parallelisationPolicy, inliningPolicy, optimisationLevel, onDisk);
+	}
+
+	/** If onDisk is true, Java source is compiled via files in the data directory, so they can be inspected. */
+	public CompilationSettings withOnDisk(boolean onDisk) {
+		return new CompilationSettings(backend, memoisationPolicy, parallelisationPolicy, inliningPolicy, optimisationLevel, onDisk);
+	}
+
+	public Main.Backends getBackend() {
+		return backend;
+	}
+
+	public MemoisationPolicy getMemoisationPolicy() {
+		return memoisationPolicy;
+	}
+
+	public ParallelisationPolicy getParallelisationPolicy() {
+		return parallelisationPolicy;
+	}
+
+	/** Get the policy for inlining. Nothing is inlined at OptimisationLevel.O0, whatever policy was set. */
+	public InliningPolicy getInliningPolicy() {
+		return (optimisationLevel == OptimisationLevel.O0) ? InliningPolicy.none : inliningPolicy;
+	}
+
+	public OptimisationLevel getOptimisationLevel() {
+		return optimisationLevel;
+	}
+
+	public boolean isOnDisk() {
+		return onDisk;
+	}
+
+	/** Get an Optimiser at this optimisation level, which checks PARALLEL FOR loops if parallelising. */
+	public Optimiser createOptimiser(Collection<String> liveVariables, boolean rootVariablesLive) {
+		return new Optimiser(liveVariables, rootVariablesLive, parallelisationPolicy.isParallel(), optimisationLevel);
+	}
+
+	/** Get the passes over the IR at this optimisation level, with these policies, and the given profile, which may be null. */
+	public PassManager<Operator> createPassManager(Profile profile) {
+		return Lowering.createPassManager(optimisationLevel, getInliningPolicy(), memoisationPolicy, parallelisationPolicy, profile);
+	}
+
+	/** Get a SourceGenerator that generates Java source with these policies. */
+	public SourceGenerator createSourceGenerator(String className) {
+		return new SourceGenerator(className, memoisationPolicy, parallelisationPolicy);
+	}
+
+	/** Lower a program to the IR, run the passes over it with the given profile, which may be null, and generate Java source from it. */
+	public String transpile(String className, SimpleNode program, Profile profile) {
+		var lowered = createPassManager(profile).run(Lowering.lower(SourceGenerator.generatedCodeMainMethodName, program));
+		return createSourceGenerator(className).generate(lowered);
+	}
+
+	public JavaCompiler createJavaCompiler(boolean verbose) {
+		return new JavaCompiler(verbose, onDisk);
+	}
+
+	/** Get the key a program is cached under, which differs for settings that generate different code. */
+	public String getKey(String runMode, String source) {
+		return ProgramCache.getKey(ClassFileCache.getVersion(), backend.name(), runMode, memoisationPolicy.toString(),
+				parallelisationPolicy.toString(), getInliningPolicy().toString(), optimisationLevel.name(), source);
+	}
+
+}
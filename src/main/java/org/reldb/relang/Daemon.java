@@ -0,0 +1,200 @@
+package org.reldb.relang;
+
+import org.reldb.relang.exceptions.ExceptionFatal;
+import org.reldb.relang.java.ClassFileCache;
+import org.reldb.relang.java.JavaCompiler;
+import org.reldb.relang.java.ProgramCache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A resident process that runs scripts for Clients, so they don't each pay for JVM startup, loading the Java
+ * compiler and JIT warm-up. It listens on a Unix domain socket, and runs each request on a thread of its own,
+ * in a Main of its own configured by the request's arguments as the command line would be. All requests share a
+ * ProgramCache and ClassFileCache, so a script run before isn't compiled again.
+ * <p>
+ * Output of a run, including WRITE output and errors, is streamed back to the client as it's produced.
+ * <p>
+ * Run with: java -cp target/classes:target/lib/* org.reldb.relang.Daemon [socket path]
+ */
+public class Daemon implements Closeable {
+
+	/** System.out and System.err, routed so each request's output goes to its client. Installed once, when first needed. */
+	private static class SystemOutput {
+		static final ThreadOutputStream out = new ThreadOutputStream(System.out);
+		static final ThreadOutputStream err = new ThreadOutputStream(System.err);
+
+		static {
+			System.setOut(new PrintStream(out, true));
+			System.setErr(new PrintStream(err, true));
+		}
+
+		/** Make sure output is routed. */
+		static void install() {
+		}
+	}
+
+	/** Output to a client, on one of its channels. */
+	private static class FrameOutputStream extends OutputStream {
+		private final DataOutputStream response;
+		private final int channelId;
+
+		FrameOutputStream(DataOutputStream response, int channelId) {
+			this.response = response;
+			this.channelId = channelId;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] {(byte)b}, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			if (len == 0)
+				return;
+			synchronized (response) {
+				response.writeByte(channelId);
+				response.writeInt(len);
+				response.write(b, off, len);
+			}
+		}
+
+		@Override
+		public void flush() throws IOException {
+			synchronized (response) {
+				response.flush();
+			}
+		}
+	}
+
+	private final Path socketPath;
+	private final ProgramCache programCache = new ProgramCache();
+	private final ClassFileCache classFileCache;
+	private final ExecutorService requestThreads = Executors.newCachedThreadPool(runnable -> {
+		var thread = new Thread(runnable, "Relang daemon request");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private ServerSocketChannel server = null;
+
+	/**
+	 * Ctor.
+	 *
+	 * @param socketPath - path of the socket to listen on.
+	 * @param classFileCache - persistent cache of compiled classes. Null to disable.
+	 */
+	public Daemon(Path socketPath, ClassFileCache classFileCache) {
+		this.socketPath = socketPath;
+		this.classFileCache = classFileCache;
+	}
+
+	public ProgramCache getProgramCache() {
+		return programCache;
+	}
+
+	/** Start listening, on a thread of its own. Throw ExceptionFatal if another daemon is already listening. */
+	public synchronized void start() throws IOException {
+		if (server != null)
+			return;
+		try {
+			SocketChannel.open(UnixDomainSocketAddress.of(socketPath)).close();
+			throw new ExceptionFatal("A daemon is already listening on " + socketPath);
+		} catch (IOException noDaemon) {
+			// Nothing listening, so any socket file is left over from a daemon that didn't close.
+			Files.deleteIfExists(socketPath);
+		}
+		var listener = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+		listener.bind(UnixDomainSocketAddress.of(socketPath));
+		server = listener;
+		// Route output before any request runs, so the first one doesn't race with installing it.
+		SystemOutput.install();
+		var acceptor = new Thread(() -> accept(listener), "Relang daemon");
+		acceptor.start();
+	}
+
+	private void accept(ServerSocketChannel listener) {
+		while (listener.isOpen()) {
+			try {
+				var channel = listener.accept();
+				requestThreads.execute(() -> handle(channel));
+			} catch (IOException closed) {
+				return;
+			}
+		}
+	}
+
+	private void handle(SocketChannel channel) {
+		try (channel) {
+			var request = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+			var args = new String[request.readInt()];
+			for (var i = 0; i < args.length; i++)
+				args[i] = request.readUTF();
+			var source = new byte[request.readInt()];
+			request.readFully(source);
+			var response = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+			SystemOutput.out.set(new FrameOutputStream(response, Client.stdout));
+			SystemOutput.err.set(new FrameOutputStream(response, Client.stderr));
+			try {
+				var relang = new Main(programCache);
+				relang.setClassFileCache(classFileCache);
+				Main.runCommand(relang, args, new ByteArrayInputStream(source));
+				System.out.flush();
+				System.err.flush();
+			} finally {
+				SystemOutput.out.remove();
+				SystemOutput.err.remove();
+			}
+			synchronized (response) {
+				response.writeByte(Client.endOfResponse);
+				response.flush();
+			}
+		} catch (IOException clientGone) {
+			// Nobody to report it to.
+		}
+	}
+
+	/** Stop listening, and remove the socket. Requests in progress run to completion. */
+	@Override
+	public synchronized void close() throws IOException {
+		if (server == null)
+			return;
+		server.close();
+		server = null;
+		requestThreads.shutdown();
+		Files.deleteIfExists(socketPath);
+	}
+
+	public static void main(String[] args) throws IOException {
+		var socketPath = (args.length > 0) ? Path.of(args[0]) : Client.getSocketPath();
+		var daemon = new Daemon(socketPath, new ClassFileCache(Path.of(JavaCompiler.dataDir, "cache")));
+		daemon.start();
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+			try {
+				daemon.close();
+			} catch (IOException ioe) {
+				// Exiting anyway.
+			}
+		}));
+		System.out.println("Relang daemon listening on " + socketPath);
+	}
+
+}
@@ -1,82 +1,305 @@
 package org.reldb.relang;
 
+import org.reldb.relang.bytecode.BytecodeGenerator;
+import org.reldb.relang.exceptions.ExceptionFatal;
 import org.reldb.relang.exceptions.ExceptionSemantic;
-import org.reldb.relang.java.DirClassLoader;
+import org.reldb.relang.interpreter.InterpretationPolicy;
+import org.reldb.relang.interpreter.Interpreter;
+import org.reldb.relang.interpreter.TieredExecutor;
+import org.reldb.relang.ir.Lowering;
+import org.reldb.relang.java.ClassFileCache;
+import org.reldb.relang.java.GeneratedProgram;
 import org.reldb.relang.java.JavaCompiler;
+import org.reldb.relang.java.ProgramCache;
+import org.reldb.relang.optimiser.OptimisationLevel;
 import org.reldb.relang.parser.ast.*;
-import org.reldb.relang.transpiler.Parser;
+import org.reldb.relang.runtime.MemoCache;
+import org.reldb.relang.transpiler.InliningPolicy;
+import org.reldb.relang.transpiler.MemoisationPolicy;
+import org.reldb.relang.transpiler.ParallelisationPolicy;
 import org.reldb.relang.transpiler.ParserDebugger;
+import org.reldb.relang.transpiler.SourceGenerator;
 
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.StringReader;
+import java.nio.file.Path;
 import java.lang.reflect.InvocationTargetException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import static org.reldb.relang.transpiler.Formatter.indent;
 
+/**
+ * Runs Relang programs. An instance may be shared by concurrent threads: each run parses, generates and
+ * compiles into objects of its own, generated class names are derived from the program rather than a counter,
+ * and compiled programs are kept in a thread-safe ProgramCache. Settings are visible to all threads, but
+ * should be made before an instance is shared, as a run in progress may see a change part way through.
+ */
 public class Main {
 
 	public enum DebugModes {
 		NORMAL,
 		VERBOSE_RUN,
+		VERBOSE_RUN_ON_DISK,
 		EMIT_AST_AND_QUIT
 	}
 
+	public enum Backends {
+		SOURCE,
+		BYTECODE
+	}
+
+	public enum ExecutionModes {
+		COMPILE,
+		INTERPRET,
+		AUTOMATIC,
+		TIERED
+	}
+
 	private void usage() {
-		System.out.println("Usage: relang [-d0 | -d1] < <source>");
+		System.out.println("Usage: relang [-d0 | -d1 | -d2] [-bc] [-c | -i | -a] [-m[:<operator>,...]] [-p[:<cutoff>]] [-n] [-O0 | -O1 | -O2] [-e] < <source>");
 		System.out.println("          -d0 -- run-time debugging");
 		System.out.println("          -d1 -- output AST");
+		System.out.println("          -d2 -- run-time debugging, compiling via files in the data directory");
+		System.out.println("          -bc -- generate bytecode directly, rather than via Java source");
+		System.out.println("          -c  -- always compile");
+		System.out.println("          -i  -- always interpret");
+		System.out.println("          -a  -- interpret or compile, as the interpretation policy decides, without switching tiers");
+		System.out.println("          -m  -- cache the results of pure operators, or of those named, in compiled Java source");
+		System.out.println("          -p  -- evaluate independent invocations of pure operators, and PARALLEL FOR loops, in parallel,");
+		System.out.println("                 in compiled Java source, until a worker has more than cutoff (at least 1) tasks queued");
+		System.out.println("          -n  -- don't inline operators in compiled Java source");
+		System.out.println("          -O0 -- don't optimise, to compile quickest");
+		System.out.println("          -O1 -- fold constants, remove unused code, and turn tail calls into loops");
+		System.out.println("          -O2 -- also optimise loops and eliminate common subexpressions, to run quickest (default)");
+		System.out.println("          -e  -- evaluate: the source ends with RETURN, and the value returned is output");
+	}
+
+	enum RunModes {
+		EXECUTE,
+		EVALUATE
+	}
+
+	static String getClassName(String key) {
+		return "RelangGenerated_" + key.substring(0, 16);
+	}
+
+	/** Normalise line endings and trailing whitespace, so trivially different submissions share a cache entry. */
+	static String normalise(String source) {
+		return source.replaceAll("[ \\t\\f]*(\\r\\n|\\r|\\n)", "\n").stripTrailing() + "\n";
+	}
+
+	static String readSource(InputStream inputStream) {
+		try {
+			return new String(inputStream.readAllBytes());
+		} catch (IOException ioe) {
+			throw new ExceptionFatal("Unable to read source: " + ioe);
+		}
 	}
 
-	private static long unique = 0;
+	private volatile DebugModes debugMode = DebugModes.NORMAL;
 
-	private static String getClassName() {
-		return "RelangGenerated" + unique++;
+	private final ProgramCache programCache;
+
+	private volatile ClassFileCache classFileCache = null;
+
+	public Main(ProgramCache programCache) {
+		this.programCache = programCache;
 	}
 
-	private DebugModes debugMode = DebugModes.NORMAL;
+	public Main() {
+		this(new ProgramCache());
+	}
 
 	public void setDebugMode(DebugModes _debugMode) {
 		debugMode = _debugMode;
 	}
 
+	private volatile CompilationSettings settings = CompilationSettings.defaults;
+
+	/** Get the backend, policies and optimisation level programs are compiled with, e.g., to compile a ScriptBatch the same way. */
+	public CompilationSettings getCompilationSettings() {
+		return settings;
+	}
+
+	/** Set the backend, policies and optimisation level programs are compiled with, all at once. */
+	public void setCompilationSettings(CompilationSettings settings) {
+		this.settings = settings;
+	}
+
+	/** Select how code is generated: transpiled to Java source and compiled (the default), or emitted directly as bytecode. */
+	public void setBackend(Backends _backend) {
+		settings = settings.withBackend(_backend);
+	}
+
+	private volatile ExecutionModes executionMode = ExecutionModes.COMPILE;
+
+	private volatile InterpretationPolicy interpretationPolicy = new InterpretationPolicy();
+
+	/**
+	 * Select whether programs are compiled (the default), interpreted, or either as chosen by the InterpretationPolicy.
+	 * TIERED is like AUTOMATIC, but profiles interpreted programs, and switches them to compiled code if they turn out to be hot.
+	 * Only the Java source backend compiles the rest of a running program, so with the bytecode backend, TIERED is AUTOMATIC.
+	 */
+	public void setExecutionMode(ExecutionModes _executionMode) {
+		executionMode = _executionMode;
+	}
+
+	/** Set the policy that decides whether to interpret a program in ExecutionModes.AUTOMATIC. */
+	public void setInterpretationPolicy(InterpretationPolicy interpretationPolicy) {
+		this.interpretationPolicy = interpretationPolicy;
+	}
+
+	/** Set which pure operators cache their results. None by default. Only the Java source backend memoises. */
+	public void setMemoisationPolicy(MemoisationPolicy memoisationPolicy) {
+		settings = settings.withMemoisationPolicy(memoisationPolicy);
+	}
+
+	/** Set whether independent invocations of pure operators, and PARALLEL FOR loops, are evaluated in parallel. Not by default. Only the Java source backend does. */
+	public void setParallelisationPolicy(ParallelisationPolicy parallelisationPolicy) {
+		settings = settings.withParallelisationPolicy(parallelisationPolicy);
+	}
+
+	/** Set which invocations are inlined. InliningPolicy.standard by default. Only the Java source backend inlines. */
+	public void setInliningPolicy(InliningPolicy inliningPolicy) {
+		settings = settings.withInliningPolicy(inliningPolicy);
+	}
+
+	/** Set how much to optimise programs. OptimisationLevel.O2 by default. At O0, nothing is inlined either. */
+	public void setOptimisationLevel(OptimisationLevel optimisationLevel) {
+		settings = settings.withOptimisationLevel(optimisationLevel);
+	}
+
+	// Get the settings for this run, compiling via files on disk if debugging asks for it.
+	private CompilationSettings getRunSettings() {
+		return settings.withOnDisk(debugMode == DebugModes.VERBOSE_RUN_ON_DISK);
+	}
+
+	public ProgramCache getProgramCache() {
+		return programCache;
+	}
+
+	/** Set a persistent cache of compiled classes, shared across runs and processes. Null to disable. */
+	public void setClassFileCache(ClassFileCache classFileCache) {
+		this.classFileCache = classFileCache;
+	}
+
+	private SimpleNode parse(String source, RunModes runMode, CompilationSettings settings) throws ParseException {
+		var relang = new Relang(new StringReader(source));
+		var program = (runMode == RunModes.EVALUATE)
+			? relang.evaluate()
+			: relang.execute();
+		var optimiser = settings.createOptimiser(Set.of(), false);
+		var optimised = optimiser.optimise(program);
+		if (debugMode == DebugModes.VERBOSE_RUN || debugMode == DebugModes.VERBOSE_RUN_ON_DISK)
+			System.out.println("Optimised at " + settings.getOptimisationLevel() + ": " + optimiser.getPassManager().getTimingReport());
+		return optimised;
+	}
+
+	private boolean shouldInterpret(SimpleNode program) {
+		return switch (executionMode) {
+			case COMPILE -> false;
+			case INTERPRET -> true;
+			case AUTOMATIC, TIERED -> interpretationPolicy.shouldInterpret(program);
+		};
+	}
+
+	private GeneratedProgram compile(SimpleNode program, String key, CompilationSettings settings)
+			throws IllegalAccessException,
+				NoSuchMethodException,
+				ClassNotFoundException {
+		var className = getClassName(key);
+		var verbose = debugMode == DebugModes.VERBOSE_RUN || debugMode == DebugModes.VERBOSE_RUN_ON_DISK;
+		if (verbose) {
+			System.out.println("Compiling...");
+		}
+		// Lower the AST to the IR and optimise it, then generate bytecode or Java source from it.
+		var passes = settings.createPassManager(null);
+		var lowered = passes.run(Lowering.lower(SourceGenerator.generatedCodeMainMethodName, program));
+		if (verbose) {
+			System.out.println("Lowered at " + settings.getOptimisationLevel() + ": " + passes.getTimingReport());
+			System.out.println(indent(lowered.toString()));
+		}
+		Map<String, byte[]> classes;
+		if (settings.getBackend() == Backends.BYTECODE) {
+			classes = BytecodeGenerator.generate(className, lowered);
+			if (verbose) {
+				System.out.println("Generated " + classes.keySet());
+				System.out.println("Executing...");
+			}
+		} else {
+			var java = settings.createSourceGenerator(className).generate(lowered);
+			// Dump if debugging
+			if (verbose) {
+				System.out.println("Compiled:");
+				System.out.println(indent(java));
+				System.out.println("Executing...");
+			}
+			// compile translated code
+			var compiler = settings.createJavaCompiler(verbose);
+			classes = compiler.compile(className, java);
+		}
+		if (debugMode == DebugModes.NORMAL && classFileCache != null)
+			classFileCache.store(key, classes);
+		// load translated code
+		return new GeneratedProgram(classes, className, SourceGenerator.generatedCodeMainMethodName);
+	}
+
+	private Object run(InputStream inputStream, RunModes runMode)
+			throws InvocationTargetException,
+				IllegalAccessException,
+				NoSuchMethodException,
+				ClassNotFoundException,
+				ParseException {
+		var source = normalise(readSource(inputStream));
+		// Take the settings once, so the whole run uses the same ones.
+		var settings = getRunSettings();
+		var key = settings.getKey(runMode.name(), source);
+		// Only cache in normal mode, so debug modes always show compilation, and never run a cached compiled program when told to interpret.
+		var useCache = debugMode == DebugModes.NORMAL && executionMode != ExecutionModes.INTERPRET;
+		var generatedProgram = useCache ? programCache.get(key) : null;
+		if (generatedProgram == null && useCache && classFileCache != null) {
+			var classes = classFileCache.load(key);
+			if (classes != null)
+				generatedProgram = new GeneratedProgram(classes, getClassName(key), SourceGenerator.generatedCodeMainMethodName);
+		}
+		if (generatedProgram == null) {
+			var program = parse(source, runMode, settings);
+			if (debugMode == DebugModes.EMIT_AST_AND_QUIT) {
+				program.jjtAccept(new ParserDebugger(), null);
+				return null;
+			}
+			// Interpreting costs nothing up front, so it's preferred for cheap programs that haven't been compiled already.
+			if (shouldInterpret(program)) {
+				var verbose = debugMode != DebugModes.NORMAL;
+				if (verbose)
+					System.out.println("Interpreting...");
+				// Only the Java source backend compiles continuations, so bytecode programs don't switch tiers.
+				if (executionMode == ExecutionModes.TIERED && settings.getBackend() == Backends.SOURCE)
+					return new TieredExecutor(getClassName(key), TieredExecutor.defaultCompileThreshold, verbose, settings).run(program);
+				return new Interpreter().run(program);
+			}
+			generatedProgram = compile(program, key, settings);
+			if (useCache)
+				programCache.put(key, generatedProgram);
+		}
+		var result = generatedProgram.run();
+		if (debugMode != DebugModes.NORMAL)
+			for (var cache : generatedProgram.getMemoCaches())
+				System.out.println(cache);
+		return result;
+	}
+
 	public Object evaluate(InputStream inputStream)
 			throws InvocationTargetException,
 			IllegalAccessException,
 			NoSuchMethodException,
 			ClassNotFoundException,
 			ParseException {
-		var relang = new Relang(inputStream);
-		var className = getClassName();
-		var parser = debugMode == DebugModes.EMIT_AST_AND_QUIT
-				? new ParserDebugger()
-				: new Parser(className);
-		if (debugMode == DebugModes.VERBOSE_RUN) {
-			System.out.println("Compiling...");
-		}
-		// Run the input stream through the translator to get translated code.
-		var java = (String)relang.evaluate().jjtAccept(parser, null);
-		if (debugMode == DebugModes.EMIT_AST_AND_QUIT) {
-			return null;
-		}
-		// Dump if debugging
-		if (debugMode == DebugModes.VERBOSE_RUN) {
-			System.out.println("Compiled:");
-			System.out.println(indent(java));
-			System.out.println("Executing...");
-		}
-		// compile translated code
-		var compiler = new JavaCompiler(debugMode == DebugModes.VERBOSE_RUN);
-		compiler.compile(className, java);
-		// load and run translated code
-		var classLoader = new DirClassLoader(JavaCompiler.dataDir);
-		var generatedClass = classLoader.forName(className);
-		Object returnValue;
-		try {
-			var mainMethod = generatedClass.getMethod(Parser.generatedCodeMainMethodName, (Class<?>[]) null);
-			returnValue = mainMethod.invoke(null);
-		} finally {
-			classLoader.unload(className);
-		}
-		return returnValue;
+		return run(inputStream, RunModes.EVALUATE);
 	}
 
 	public void execute(InputStream inputStream)
@@ -85,53 +308,79 @@ public class Main {
 				NoSuchMethodException,
 				ClassNotFoundException,
 				ParseException {
-		var relang = new Relang(inputStream);
-		var className = getClassName();
-		var parser = debugMode == DebugModes.EMIT_AST_AND_QUIT
-			? new ParserDebugger()
-			: new Parser(className);
-		if (debugMode == DebugModes.VERBOSE_RUN) {
-			System.out.println("Compiling...");
-		}
-		// Run the input stream through the translator to get translated code.
-		var java = (String)relang.execute().jjtAccept(parser, null);
-		if (debugMode == DebugModes.EMIT_AST_AND_QUIT) {
-			return;
-		}
-		// Dump if debugging
-		if (debugMode == DebugModes.VERBOSE_RUN) {
-			System.out.println("Compiled:");
-			System.out.println(indent(java));
-			System.out.println("Executing...");
-		}
-		// compile translated code
-		var compiler = new JavaCompiler(debugMode == DebugModes.VERBOSE_RUN);
-		compiler.compile(className, java);
-		// load and run translated code
-		var classLoader = new DirClassLoader(JavaCompiler.dataDir);
-		var generatedClass = classLoader.forName(className);
+		run(inputStream, RunModes.EXECUTE);
+	}
+
+	// Parse the cutoff given by -p:, or return 0 if it isn't a number.
+	private static int parseCutoff(String cutoff) {
 		try {
-			var mainMethod = generatedClass.getMethod(Parser.generatedCodeMainMethodName, (Class<?>[]) null);
-			mainMethod.invoke(null);
-		} finally {
-			classLoader.unload(className);
+			return Integer.parseInt(cutoff);
+		} catch (NumberFormatException nfe) {
+			return 0;
 		}
 	}
 
-	public static void main(String[] args) {
-		var relang = new Main();
-		if (args.length == 1) {
-			if (args[0].equals("-d0"))
+	/**
+	 * Run the script read from the given input, as the command line does, with the given command-line arguments.
+	 * Output and errors go to System.out, and stack traces to System.err.
+	 */
+	static void runCommand(Main relang, String[] args, InputStream input) {
+		relang.setExecutionMode(ExecutionModes.TIERED);
+		var evaluate = false;
+		for (var arg : args) {
+			if (arg.equals("-d0"))
 				relang.setDebugMode(DebugModes.VERBOSE_RUN);
-			else if (args[0].equals("-d1"))
+			else if (arg.equals("-d1"))
 				relang.setDebugMode(DebugModes.EMIT_AST_AND_QUIT);
+			else if (arg.equals("-d2"))
+				relang.setDebugMode(DebugModes.VERBOSE_RUN_ON_DISK);
+			else if (arg.equals("-bc"))
+				relang.setBackend(Backends.BYTECODE);
+			else if (arg.equals("-c"))
+				relang.setExecutionMode(ExecutionModes.COMPILE);
+			else if (arg.equals("-i"))
+				relang.setExecutionMode(ExecutionModes.INTERPRET);
+			else if (arg.equals("-a"))
+				relang.setExecutionMode(ExecutionModes.AUTOMATIC);
+			else if (arg.equals("-m"))
+				relang.setMemoisationPolicy(new MemoisationPolicy());
+			else if (arg.startsWith("-m:")) {
+				var operators = new HashSet<>(List.of(arg.substring(3).split(",", -1)));
+				if (operators.contains("")) {
+					relang.usage();
+					return;
+				}
+				relang.setMemoisationPolicy(new MemoisationPolicy(operators, MemoCache.defaultCapacity, MemoCache.Eviction.TWO_WAY_LRU));
+			}
+			else if (arg.equals("-p"))
+				relang.setParallelisationPolicy(new ParallelisationPolicy());
+			else if (arg.startsWith("-p:")) {
+				var cutoff = parseCutoff(arg.substring(3));
+				if (cutoff < 1) {
+					relang.usage();
+					return;
+				}
+				relang.setParallelisationPolicy(new ParallelisationPolicy(cutoff));
+			}
+			else if (arg.equals("-n"))
+				relang.setInliningPolicy(InliningPolicy.none);
+			else if (arg.equals("-O0") || arg.equals("-O1") || arg.equals("-O2"))
+				relang.setOptimisationLevel(OptimisationLevel.valueOf(arg.substring(1)));
+			else if (arg.equals("-e"))
+				evaluate = true;
 			else {
 				relang.usage();
 				return;
 			}
 		}
 		try {
-			relang.execute(System.in);
+			if (evaluate) {
+				var value = relang.evaluate(input);
+				// No value if only the AST was output.
+				if (value != null)
+					System.out.println(value);
+			} else
+				relang.execute(input);
 		} catch (ExceptionSemantic es) {
 			System.out.println(es.getMessage());
 		} catch (Throwable e) {
@@ -139,4 +388,10 @@ public class Main {
 			e.printStackTrace();
 		}
 	}
+
+	public static void main(String[] args) {
+		var relang = new Main();
+		relang.setClassFileCache(new ClassFileCache(Path.of(JavaCompiler.dataDir, "cache")));
+		runCommand(relang, args, System.in);
+	}
 }
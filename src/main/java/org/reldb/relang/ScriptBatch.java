@@ -0,0 +1,198 @@
+package org.reldb.relang;
+
+import org.reldb.relang.java.GeneratedProgram;
+import org.reldb.relang.java.ProgramCache;
+import org.reldb.relang.parser.ast.Relang;
+import org.reldb.relang.transpiler.SourceGenerator;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Compile many scripts at once, e.g., to deploy a rule set. Scripts are parsed and transpiled in
+ * parallel, then the generated classes are compiled in one compiler invocation per thread, each
+ * taking an equal share of them. A script that fails doesn't stop the others; its error is reported
+ * in its Result.
+ * <p>
+ * If a ProgramCache is set, programs already in it aren't compiled again, and compiled programs are
+ * added to it, so a Main that shares it, and its CompilationSettings, can run them without compiling.
+ */
+public class ScriptBatch {
+
+	/** The outcome of compiling one script: a program ready to run, or an error. */
+	public static class Result {
+		private final GeneratedProgram program;
+		private final String error;
+
+		private Result(GeneratedProgram program, String error) {
+			this.program = program;
+			this.error = error;
+		}
+
+		/** Get the compiled program. Null if the script failed to compile. */
+		public GeneratedProgram getProgram() {
+			return program;
+		}
+
+		/** Get a description of why the script failed to compile. Null if it compiled. */
+		public String getError() {
+			return error;
+		}
+
+		public boolean isCompiled() {
+			return program != null;
+		}
+	}
+
+	private final int parallelism;
+
+	private ProgramCache programCache = null;
+
+	private CompilationSettings settings = CompilationSettings.defaults;
+
+	/** Ctor. Use the given number of threads. */
+	public ScriptBatch(int parallelism) {
+		this.parallelism = parallelism;
+	}
+
+	/** Ctor. Use a thread per processor. */
+	public ScriptBatch() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	/** Set a cache to take already-compiled programs from, and put newly compiled ones in. Null to disable. */
+	public void setProgramCache(ProgramCache programCache) {
+		this.programCache = programCache;
+	}
+
+	/**
+	 * Set the policies and optimisation level scripts are compiled with, e.g., from Main.getCompilationSettings().
+	 * CompilationSettings.defaults by default. Throw IllegalArgumentException if the backend isn't SOURCE, as
+	 * scripts are compiled together from Java source.
+	 */
+	public void setCompilationSettings(CompilationSettings settings) {
+		if (settings.getBackend() != Main.Backends.SOURCE)
+			throw new IllegalArgumentException("Only the Java source backend compiles scripts in a batch, but the backend is " + settings.getBackend());
+		this.settings = settings;
+	}
+
+	/** A script on its way through the batch. */
+	private static class Script {
+		final String name;
+		final String key;
+		final String className;
+		final String source;
+		String java;
+		String error;
+
+		Script(String name, String key, String source) {
+			this.name = name;
+			this.key = key;
+			this.className = Main.getClassName(key);
+			this.source = source;
+		}
+	}
+
+	/**
+	 * Compile scripts.
+	 *
+	 * @param sources - the source of each script, by name.
+	 * @param evaluate - if true, scripts are compiled as for Main.evaluate(), otherwise as for Main.execute().
+	 * @return the Result for each script, by name, in the order given.
+	 */
+	public Map<String, Result> compile(Map<String, String> sources, boolean evaluate) throws InterruptedException {
+		var runMode = evaluate ? Main.RunModes.EVALUATE : Main.RunModes.EXECUTE;
+		// Take the settings once, so the whole batch uses the same ones.
+		var settings = this.settings;
+		var results = new LinkedHashMap<String, Result>();
+		var scripts = new ArrayList<Script>();
+		for (var entry : sources.entrySet()) {
+			var source = Main.normalise(entry.getValue());
+			var key = settings.getKey(runMode.name(), source);
+			var cached = (programCache != null) ? programCache.get(key) : null;
+			results.put(entry.getKey(), (cached != null) ? new Result(cached, null) : null);
+			if (cached == null)
+				scripts.add(new Script(entry.getKey(), key, source));
+		}
+		var executor = Executors.newFixedThreadPool(parallelism);
+		try {
+			// Parse and transpile.
+			var transpilations = new ArrayList<Callable<Object>>();
+			for (var script : scripts)
+				transpilations.add(Executors.callable(() -> transpile(script, evaluate, settings)));
+			invokeAll(executor, transpilations);
+			// Compile each group of classes in one compiler invocation. Identical scripts share a class.
+			var groups = new ArrayList<Map<String, String>>();
+			for (var i = 0; i < parallelism; i++)
+				groups.add(new HashMap<>());
+			var groupIndex = 0;
+			for (var script : scripts) {
+				if (script.error != null || groups.stream().anyMatch(group -> group.containsKey(script.className)))
+					continue;
+				groups.get(groupIndex++ % parallelism).put(script.className, script.java);
+			}
+			var programs = new ConcurrentHashMap<String, GeneratedProgram>();
+			var errors = new ConcurrentHashMap<String, String>();
+			var compilations = new ArrayList<Callable<Object>>();
+			for (var group : groups)
+				if (!group.isEmpty())
+					compilations.add(Executors.callable(() -> compileGroup(group, programs, errors, settings)));
+			invokeAll(executor, compilations);
+			for (var script : scripts) {
+				var program = programs.get(script.className);
+				var error = (script.error != null) ? script.error : errors.get(script.className);
+				results.put(script.name, new Result(program, error));
+				if (program != null && programCache != null)
+					programCache.put(script.key, program);
+			}
+		} finally {
+			executor.shutdown();
+		}
+		return results;
+	}
+
+	private static void invokeAll(ExecutorService executor, List<Callable<Object>> tasks) throws InterruptedException {
+		for (var future : executor.invokeAll(tasks)) {
+			try {
+				future.get();
+			} catch (ExecutionException unexpected) {
+				throw new RuntimeException(unexpected.getCause());
+			}
+		}
+	}
+
+	private static void transpile(Script script, boolean evaluate, CompilationSettings settings) {
+		try {
+			var relang = new Relang(new StringReader(script.source));
+			var program = settings.createOptimiser(Set.of(), false).optimise(evaluate ? relang.evaluate() : relang.execute());
+			script.java = settings.transpile(script.className, program, null);
+		} catch (Throwable error) {
+			// Parse errors, semantic errors, and anything else the transpiler objects to.
+			script.error = error.getMessage();
+		}
+	}
+
+	private static void compileGroup(Map<String, String> group, Map<String, GeneratedProgram> programs, Map<String, String> errors, CompilationSettings settings) {
+		var groupErrors = new HashMap<String, String>();
+		var compiled = settings.createJavaCompiler(false).compileAll(group, groupErrors);
+		errors.putAll(groupErrors);
+		compiled.forEach((className, classes) -> {
+			try {
+				programs.put(className, new GeneratedProgram(classes, className, SourceGenerator.generatedCodeMainMethodName));
+			} catch (ReflectiveOperationException loadFailure) {
+				errors.put(className, "Unable to load " + className + ": " + loadFailure);
+			}
+		});
+	}
+
+}
@@ -0,0 +1,138 @@
+package org.reldb.relang;
+
+import org.reldb.relang.ir.Lowering;
+import org.reldb.relang.java.JavaCompiler;
+import org.reldb.relang.java.MemoryClassLoader;
+import org.reldb.relang.optimiser.Optimiser;
+import org.reldb.relang.parser.ast.ParseException;
+import org.reldb.relang.parser.ast.Relang;
+import org.reldb.relang.parser.ast.SimpleNode;
+import org.reldb.relang.transpiler.SessionOperator;
+import org.reldb.relang.transpiler.SourceGenerator;
+
+import java.io.InputStream;
+import java.io.StringReader;
+import java.lang.reflect.InvocationTargetException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.reldb.relang.transpiler.Formatter.indent;
+
+/**
+ * A sequence of submissions that share root variables and operators, e.g., for a REPL.
+ * <p>
+ * Each submission is compiled to its own class, which is loaded by a class loader whose parent loaded
+ * the previous submission. Only the submission is compiled: it invokes operators of earlier submissions
+ * in the classes they were compiled to, and takes root variables from, and stores them back to, a Map
+ * held by the session. A submission that fails to compile or run leaves the session as it was.
+ * <p>
+ * Operators may be redefined by later submissions. Root variables keep their first type.
+ */
+public class Session {
+
+	private final Map<String, byte[]> classes = new HashMap<>();
+
+	private Map<String, Object> variables = new HashMap<>();
+	private Map<String, String> variableTypes = new LinkedHashMap<>();
+	private Collection<SessionOperator> operators = List.of();
+	private ClassLoader classLoader = Session.class.getClassLoader();
+	private int submissionCount = 0;
+	private boolean verbose = false;
+
+	/** If true, show generated code and compiler progress on System.out. */
+	public void setVerbose(boolean verbose) {
+		this.verbose = verbose;
+	}
+
+	/** Get the root variables, by name. */
+	public synchronized Map<String, Object> getVariables() {
+		return Collections.unmodifiableMap(variables);
+	}
+
+	/** Get the number of submissions that have completed. */
+	public synchronized int getSubmissionCount() {
+		return submissionCount;
+	}
+
+	private Object run(SimpleNode program)
+			throws InvocationTargetException,
+				IllegalAccessException,
+				NoSuchMethodException,
+				ClassNotFoundException {
+		var className = "RelangSession_" + submissionCount;
+		// Root variables outlive the submission, so they're kept even if it doesn't read them.
+		var optimised = new Optimiser(variableTypes.keySet(), true).optimise(program);
+		var lowered = Lowering.lowerSubmission(SourceGenerator.generatedCodeMainMethodName, optimised, variableTypes, operators);
+		var root = CompilationSettings.defaults.createPassManager(null).run(lowered);
+		var generator = new SourceGenerator(className);
+		var java = generator.generate(root);
+		if (verbose) {
+			System.out.println("Compiled:");
+			System.out.println(indent(java));
+		}
+		var submissionClasses = new JavaCompiler(verbose).compile(className, java, classes);
+		var submissionClassLoader = new MemoryClassLoader(submissionClasses, classLoader);
+		var main = submissionClassLoader.loadClass(className).getMethod(SourceGenerator.generatedCodeMainMethodName, Map.class);
+		// Run against a copy, so a failed run leaves the session's variables untouched.
+		var state = new HashMap<>(variables);
+		var value = main.invoke(null, state);
+		classes.putAll(submissionClasses);
+		classLoader = submissionClassLoader;
+		variables = state;
+		variableTypes = new LinkedHashMap<>();
+		for (var variable : root.getVariables())
+			variableTypes.put(variable.getName(), variable.getType());
+		// Operators defined by the submission replace those of the same names.
+		var sessionOperators = new LinkedHashMap<String, SessionOperator>();
+		for (var operator : operators)
+			sessionOperators.put(operator.getName(), operator);
+		for (var operator : generator.getSessionOperators())
+			sessionOperators.put(operator.getName(), operator);
+		operators = sessionOperators.values();
+		submissionCount++;
+		return value;
+	}
+
+	/** Run a submission of one or more statements. */
+	public synchronized void execute(String source)
+			throws InvocationTargetException,
+				IllegalAccessException,
+				NoSuchMethodException,
+				ClassNotFoundException,
+				ParseException {
+		run(new Relang(new StringReader(source)).execute());
+	}
+
+	/** Run a submission of zero or more statements followed by RETURN and an expression, and return the expression's value. */
+	public synchronized Object evaluate(String source)
+			throws InvocationTargetException,
+				IllegalAccessException,
+				NoSuchMethodException,
+				ClassNotFoundException,
+				ParseException {
+		return run(new Relang(new StringReader(source)).evaluate());
+	}
+
+	public void execute(InputStream inputStream)
+			throws InvocationTargetException,
+				IllegalAccessException,
+				NoSuchMethodException,
+				ClassNotFoundException,
+				ParseException {
+		execute(Main.readSource(inputStream));
+	}
+
+	public Object evaluate(InputStream inputStream)
+			throws InvocationTargetException,
+				IllegalAccessException,
+				NoSuchMethodException,
+				ClassNotFoundException,
+				ParseException {
+		return evaluate(Main.readSource(inputStream));
+	}
+
+}
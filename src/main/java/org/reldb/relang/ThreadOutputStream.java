@@ -0,0 +1,50 @@
+package org.reldb.relang;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * An OutputStream that writes to a stream set for the current thread, or inherited from the thread that started
+ * it, or otherwise to a default stream. Installed as System.out and System.err, it lets each of several concurrent
+ * runs have its own output.
+ */
+class ThreadOutputStream extends OutputStream {
+
+	private final OutputStream defaultStream;
+	private final InheritableThreadLocal<OutputStream> threadStream = new InheritableThreadLocal<>();
+
+	ThreadOutputStream(OutputStream defaultStream) {
+		this.defaultStream = defaultStream;
+	}
+
+	/** Send output from the current thread, and threads it starts, to the given stream. */
+	void set(OutputStream stream) {
+		threadStream.set(stream);
+	}
+
+	/** Send output from the current thread to the default stream. */
+	void remove() {
+		threadStream.remove();
+	}
+
+	private OutputStream get() {
+		var stream = threadStream.get();
+		return (stream != null) ? stream : defaultStream;
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		get().write(b);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		get().write(b, off, len);
+	}
+
+	@Override
+	public void flush() throws IOException {
+		get().flush();
+	}
+
+}
@@ -0,0 +1,53 @@
+package org.reldb.relang;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+
+/**
+ * A training run for building a class-data-sharing archive. It runs every .rl script in the given directories
+ * in each of the ways Main can run one, so the classes a run may need, including the compiler's, are loaded when
+ * the JVM writes the archive at exit. Script output is discarded, and failing scripts are ignored.
+ * <p>
+ * The Maven package phase runs it over the examples to produce target/relang.jsa.
+ */
+public class Training {
+
+	private static void run(Path script, Main.Backends backend, Main.ExecutionModes executionMode, Main.DebugModes debugMode) {
+		var relang = new Main();
+		relang.setBackend(backend);
+		relang.setExecutionMode(executionMode);
+		relang.setDebugMode(debugMode);
+		try (var input = Files.newInputStream(script)) {
+			relang.execute(input);
+		} catch (Throwable failure) {
+			// Only the classes loaded matter.
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		var scripts = new ArrayList<Path>();
+		for (var arg : args)
+			try (var files = Files.list(Path.of(arg))) {
+				files.filter(path -> path.toString().endsWith(".rl")).sorted().forEach(scripts::add);
+			}
+		var out = System.out;
+		System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+		try {
+			for (var script : scripts) {
+				run(script, Main.Backends.SOURCE, Main.ExecutionModes.COMPILE, Main.DebugModes.NORMAL);
+				run(script, Main.Backends.BYTECODE, Main.ExecutionModes.COMPILE, Main.DebugModes.NORMAL);
+				run(script, Main.Backends.SOURCE, Main.ExecutionModes.TIERED, Main.DebugModes.NORMAL);
+				run(script, Main.Backends.SOURCE, Main.ExecutionModes.TIERED, Main.DebugModes.VERBOSE_RUN);
+				run(script, Main.Backends.SOURCE, Main.ExecutionModes.TIERED, Main.DebugModes.EMIT_AST_AND_QUIT);
+			}
+		} finally {
+			System.setOut(out);
+		}
+		System.out.println("Trained on " + scripts.size() + " scripts.");
+	}
+
+}
@@ -0,0 +1,353 @@
+package org.reldb.relang.bytecode;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+
+import org.reldb.relang.ir.Expression;
+import org.reldb.relang.ir.Operator;
+import org.reldb.relang.ir.Slot;
+import org.reldb.relang.ir.Statement;
+import org.reldb.relang.transpiler.TypeInference;
+
+import static org.objectweb.asm.Opcodes.*;
+
+/**
+ * Generate JVM bytecode directly from a program lowered to the IR, as an alternative to generating Java source from
+ * it with SourceGenerator and compiling that with JavaCompiler.
+ * <p>
+ * The IR gives the type of every slot, operand and operator, and which slots nested operators capture, so code is
+ * generated in one pass: a static method per operator, and a closure class for each operator with nested operators.
+ */
+public class BytecodeGenerator {
+
+	public static final String generatedCodeMainMethodName = "__main";
+
+	private final String generatedCodeClassName;
+	private final ClassWriter classWriter;
+	private final Map<String, byte[]> classes = new HashMap<>();
+
+	// The operator currently being generated.
+	private BytecodeOperator currentOperator = null;
+
+	private BytecodeGenerator(String generatedCodeClassName) {
+		this.generatedCodeClassName = generatedCodeClassName;
+		classWriter = new ClassWriter(ClassWriter.COMPUTE_FRAMES) {
+			// Generated classes can't be loaded here, and only ever merge with Object.
+			@Override
+			protected String getCommonSuperClass(String type1, String type2) {
+				return "java/lang/Object";
+			}
+		};
+	}
+
+	/**
+	 * Generate the classes for a program.
+	 *
+	 * @param generatedCodeClassName - name of the main generated class.
+	 * @param program - root operator of a program, as lowered by Lowering, named generatedCodeMainMethodName.
+	 * @return a map of binary class names to class file bytes.
+	 */
+	public static Map<String, byte[]> generate(String generatedCodeClassName, Operator program) {
+		var generator = new BytecodeGenerator(generatedCodeClassName);
+		generator.classWriter.visit(V1_8, ACC_PUBLIC | ACC_SUPER, generatedCodeClassName, null, "java/lang/Object", null);
+		generator.generateOperator(program);
+		generator.classWriter.visitEnd();
+		generator.classes.put(generatedCodeClassName, generator.classWriter.toByteArray());
+		return generator.classes;
+	}
+
+	private void generateOperator(Operator operator) {
+		var method = classWriter.visitMethod(ACC_PUBLIC | ACC_STATIC, operator.getName(), BytecodeOperator.getMethodDescriptor(generatedCodeClassName, operator), null, null);
+		currentOperator = new BytecodeOperator(generatedCodeClassName, operator, method);
+		currentOperator.beginMethod();
+		generateBlock(operator.getBody());
+		currentOperator.endMethod();
+		if (!operator.getOperators().isEmpty())
+			classes.put(BytecodeOperator.getClosureClassName(generatedCodeClassName, operator), currentOperator.generateClosureClass());
+		for (var nested : operator.getOperators())
+			generateOperator(nested);
+	}
+
+	private void emit(int opcode) {
+		currentOperator.getMethod().visitInsn(opcode);
+	}
+
+	private void jump(int opcode, Label label) {
+		currentOperator.getMethod().visitJumpInsn(opcode, label);
+	}
+
+	private void label(Label label) {
+		currentOperator.getMethod().visitLabel(label);
+	}
+
+	private void generateBlock(Statement.Block block) {
+		for (var statement : block.getStatements())
+			generateStatement(statement);
+	}
+
+	private void generateStatement(Statement statement) {
+		if (statement instanceof Statement.Assign)
+			assign((Statement.Assign)statement);
+		else if (statement instanceof Statement.Increment) {
+			var increment = (Statement.Increment)statement;
+			currentOperator.getMethod().visitIincInsn(currentOperator.getLocal(increment.getTarget()).getIndex(), increment.getStep());
+		} else if (statement instanceof Statement.If)
+			ifStatement((Statement.If)statement);
+		else if (statement instanceof Statement.Loop)
+			loop((Statement.Loop)statement);
+		else if (statement instanceof Statement.Block)
+			generateBlock((Statement.Block)statement);
+		else if (statement instanceof Statement.Write) {
+			var value = ((Statement.Write)statement).getValue();
+			currentOperator.getMethod().visitFieldInsn(GETSTATIC, "java/lang/System", "out", "Ljava/io/PrintStream;");
+			generateExpression(value);
+			currentOperator.getMethod().visitMethodInsn(INVOKEVIRTUAL, "java/io/PrintStream", "println", "(" + ValueType.forName(value.getType()).getDescriptor() + ")V", false);
+		} else if (statement instanceof Statement.Call) {
+			var invocation = ((Statement.Call)statement).getInvocation();
+			generateExpression(invocation);
+			var type = ValueType.forName(invocation.getType());
+			if (type.getSize() == 2)
+				emit(POP2);
+			else if (type.getSize() == 1)
+				emit(POP);
+		} else if (statement instanceof Statement.Return) {
+			var value = ((Statement.Return)statement).getValue();
+			generateExpression(value);
+			emit(ValueType.forName(value.getType()).getReturnOpcode());
+		} else
+			throw new IllegalArgumentException("Unable to generate " + statement.getClass().getSimpleName());
+	}
+
+	// Get the number of operators out from the current one that an operator is.
+	private int getNesting(Operator operator) {
+		var nesting = 0;
+		for (var outer = currentOperator.getOperator(); outer != operator; outer = outer.getParent())
+			nesting++;
+		return nesting;
+	}
+
+	// Push the closure of the operator nesting levels out from the current one. Nesting must be at least 1.
+	private void loadClosure(int nesting) {
+		var method = currentOperator.getMethod();
+		method.visitVarInsn(ALOAD, 0);
+		var operator = currentOperator.getOperator();
+		for (var level = 1; level < nesting; level++) {
+			var owner = operator.getParent();
+			method.visitFieldInsn(GETFIELD, BytecodeOperator.getClosureClassName(generatedCodeClassName, owner), "__closure",
+					BytecodeOperator.getClosureDescriptor(generatedCodeClassName, owner.getParent()));
+			operator = owner;
+		}
+	}
+
+	// Push the frame that holds a captured slot.
+	private void loadFrameOf(Slot slot) {
+		var nesting = getNesting(slot.getOwner());
+		if (nesting == 0)
+			currentOperator.loadFrame();
+		else
+			loadClosure(nesting);
+	}
+
+	private void assign(Statement.Assign assign) {
+		var target = assign.getTarget();
+		var type = ValueType.forName(target.getType());
+		var local = (target.getOwner() == currentOperator.getOperator()) ? currentOperator.getLocal(target) : null;
+		if (local != null) {
+			generateExpression(assign.getValue());
+			currentOperator.getMethod().visitVarInsn(type.getStoreOpcode(), local.getIndex());
+			return;
+		}
+		loadFrameOf(target);
+		generateExpression(assign.getValue());
+		currentOperator.getMethod().visitFieldInsn(PUTFIELD, BytecodeOperator.getClosureClassName(generatedCodeClassName, target.getOwner()), target.getName(), type.getDescriptor());
+	}
+
+	private void load(Slot slot) {
+		var type = ValueType.forName(slot.getType());
+		var local = (slot.getOwner() == currentOperator.getOperator()) ? currentOperator.getLocal(slot) : null;
+		if (local != null) {
+			currentOperator.getMethod().visitVarInsn(type.getLoadOpcode(), local.getIndex());
+			return;
+		}
+		loadFrameOf(slot);
+		currentOperator.getMethod().visitFieldInsn(GETFIELD, BytecodeOperator.getClosureClassName(generatedCodeClassName, slot.getOwner()), slot.getName(), type.getDescriptor());
+	}
+
+	private void ifStatement(Statement.If ifStatement) {
+		var elseLabel = new Label();
+		generateExpression(ifStatement.getCondition());
+		jump(IFEQ, elseLabel);
+		generateBlock(ifStatement.getThen());
+		if (ifStatement.getOtherwise() != null) {
+			var endLabel = new Label();
+			jump(GOTO, endLabel);
+			label(elseLabel);
+			generateBlock(ifStatement.getOtherwise());
+			label(endLabel);
+		} else
+			label(elseLabel);
+	}
+
+	private void loop(Statement.Loop loop) {
+		var conditionLabel = new Label();
+		var endLabel = new Label();
+		label(conditionLabel);
+		generateExpression(loop.getCondition());
+		jump(IFEQ, endLabel);
+		generateBlock(loop.getBody());
+		generateBlock(loop.getUpdate());
+		jump(GOTO, conditionLabel);
+		label(endLabel);
+	}
+
+	private void invoke(Expression.Invoke invoke) {
+		var operator = invoke.getOperator();
+		var nesting = getNesting(operator.getParent());
+		if (nesting == 0)
+			currentOperator.loadFrame();
+		else
+			loadClosure(nesting);
+		for (var argument : invoke.getArguments())
+			generateExpression(argument);
+		currentOperator.getMethod().visitMethodInsn(INVOKESTATIC, generatedCodeClassName, operator.getName(), BytecodeOperator.getMethodDescriptor(generatedCodeClassName, operator), false);
+	}
+
+	// Emit code to push 1 if the comparison jump is taken, 0 otherwise.
+	private void pushComparison(int jumpOpcode) {
+		var trueLabel = new Label();
+		var endLabel = new Label();
+		jump(jumpOpcode, trueLabel);
+		emit(ICONST_0);
+		jump(GOTO, endLabel);
+		label(trueLabel);
+		emit(ICONST_1);
+		label(endLabel);
+	}
+
+	// Get the jump taken if a comparison of a value with zero holds.
+	private static int getJump(Expression.Binary.Kind kind) {
+		return switch (kind) {
+			case EQUAL -> IFEQ;
+			case NOT_EQUAL -> IFNE;
+			case LESS -> IFLT;
+			case LESS_OR_EQUAL -> IFLE;
+			case GREATER -> IFGT;
+			default -> IFGE;
+		};
+	}
+
+	private void compare(Expression.Binary binary) {
+		generateExpression(binary.getLeft());
+		generateExpression(binary.getRight());
+		var jump = getJump(binary.getKind());
+		var operandType = binary.getOperandType();
+		if (operandType.equals(TypeInference.typeInt) || operandType.equals(TypeInference.typeBoolean)) {
+			// IF_ICMPxx follows IFxx in the same order.
+			pushComparison(jump + (IF_ICMPEQ - IFEQ));
+			return;
+		}
+		if (operandType.equals(TypeInference.typeDouble)) {
+			// NaN makes < and <= false.
+			var lessThan = binary.getKind() == Expression.Binary.Kind.LESS || binary.getKind() == Expression.Binary.Kind.LESS_OR_EQUAL;
+			emit(lessThan ? DCMPG : DCMPL);
+		} else
+			emit(LCMP);
+		pushComparison(jump);
+	}
+
+	private void arithmetic(Expression.Binary binary) {
+		generateExpression(binary.getLeft());
+		generateExpression(binary.getRight());
+		var isDouble = binary.getType().equals(TypeInference.typeDouble);
+		emit(switch (binary.getKind()) {
+			case ADD -> isDouble ? DADD : LADD;
+			case SUBTRACT -> isDouble ? DSUB : LSUB;
+			case MULTIPLY -> isDouble ? DMUL : LMUL;
+			default -> isDouble ? DDIV : LDIV;
+		});
+	}
+
+	// Emit AND or OR, which only evaluate their right operand if their left doesn't decide the result.
+	private void logical(Expression.Binary binary) {
+		var isAnd = binary.getKind() == Expression.Binary.Kind.AND;
+		var decidedLabel = new Label();
+		var endLabel = new Label();
+		generateExpression(binary.getLeft());
+		jump(isAnd ? IFEQ : IFNE, decidedLabel);
+		generateExpression(binary.getRight());
+		jump(isAnd ? IFEQ : IFNE, decidedLabel);
+		emit(isAnd ? ICONST_1 : ICONST_0);
+		jump(GOTO, endLabel);
+		label(decidedLabel);
+		emit(isAnd ? ICONST_0 : ICONST_1);
+		label(endLabel);
+	}
+
+	private void constant(Expression.Constant constant) {
+		var method = currentOperator.getMethod();
+		var value = constant.getValue();
+		switch (ValueType.forName(constant.getType())) {
+			case LONG -> {
+				var longValue = (long)(Long)value;
+				if (longValue == 0 || longValue == 1)
+					emit(longValue == 0 ? LCONST_0 : LCONST_1);
+				else
+					method.visitLdcInsn(longValue);
+			}
+			case INT -> {
+				var intValue = (int)(Integer)value;
+				if (intValue >= -1 && intValue <= 5)
+					emit(ICONST_0 + intValue);
+				else
+					method.visitLdcInsn(intValue);
+			}
+			case BOOLEAN -> emit((Boolean)value ? ICONST_1 : ICONST_0);
+			default -> method.visitLdcInsn(value);
+		}
+	}
+
+	private void convert(Expression.Convert convert) {
+		generateExpression(convert.getOperand());
+		var from = convert.getOperand().getType();
+		var to = convert.getType();
+		if (from.equals(TypeInference.typeInt))
+			emit(I2L);
+		else if (to.equals(TypeInference.typeInt))
+			emit(L2I);
+		else
+			emit(L2D);
+	}
+
+	// Emit code to push the value of an expression.
+	private void generateExpression(Expression expression) {
+		if (expression instanceof Expression.Constant)
+			constant((Expression.Constant)expression);
+		else if (expression instanceof Expression.Load)
+			load(((Expression.Load)expression).getSlot());
+		else if (expression instanceof Expression.Convert)
+			convert((Expression.Convert)expression);
+		else if (expression instanceof Expression.Binary) {
+			var binary = (Expression.Binary)expression;
+			if (binary.getKind().isArithmetic())
+				arithmetic(binary);
+			else if (binary.getKind().isComparison())
+				compare(binary);
+			else
+				logical(binary);
+		} else if (expression instanceof Expression.Not) {
+			generateExpression(((Expression.Not)expression).getOperand());
+			emit(ICONST_1);
+			emit(IXOR);
+		} else if (expression instanceof Expression.Negate) {
+			generateExpression(((Expression.Negate)expression).getOperand());
+			emit(expression.getType().equals(TypeInference.typeDouble) ? DNEG : LNEG);
+		} else if (expression instanceof Expression.Invoke)
+			invoke((Expression.Invoke)expression);
+		else
+			throw new IllegalArgumentException("Unable to generate " + expression.getClass().getSimpleName());
+	}
+
+}
@@ -0,0 +1,195 @@
+package org.reldb.relang.bytecode;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+
+import org.reldb.relang.ir.Operator;
+import org.reldb.relang.ir.Slot;
+
+import static org.objectweb.asm.Opcodes.*;
+
+/**
+ * This class holds the method an operator's code is emitted to, and where each of its slots lives. It is the
+ * bytecode counterpart of what SourceGenerator emits for an operator, and generates much the same shape of code: a static
+ * method per operator, plus a closure class for operators nested within it. An operator with nested operators
+ * allocates one instance of that class, its frame, on entry. The slots its nested operators capture are kept there,
+ * so they share them; the rest stay in locals.
+ */
+class BytecodeOperator {
+
+	private final String className;
+	private final Operator operator;
+	private final MethodVisitor method;
+	// Slots held in locals. Captured slots are held in the frame.
+	private final Map<Slot, Local> locals = new HashMap<>();
+
+	private int nextLocalIndex;
+	// Local holding the frame. Negative if this operator has none.
+	private int frameIndex = -1;
+
+	BytecodeOperator(String className, Operator operator, MethodVisitor method) {
+		this.className = className;
+		this.operator = operator;
+		this.method = method;
+		nextLocalIndex = (operator.getParent() != null) ? 1 : 0;
+	}
+
+	Operator getOperator() {
+		return operator;
+	}
+
+	/** Get the internal name of an operator's closure class. */
+	static String getClosureClassName(String className, Operator operator) {
+		return className + "$" + operator.getPath() + "_closure";
+	}
+
+	static String getClosureDescriptor(String className, Operator operator) {
+		return "L" + getClosureClassName(className, operator) + ";";
+	}
+
+	/** Get the slots an operator's frame holds, in constructor parameter order. */
+	static List<Slot> getClosureSlots(Operator operator) {
+		var closureSlots = new ArrayList<Slot>();
+		for (var parameter : operator.getParameters())
+			if (parameter.isCaptured())
+				closureSlots.add(parameter);
+		for (var variable : operator.getVariables())
+			if (variable.isCaptured())
+				closureSlots.add(variable);
+		return closureSlots;
+	}
+
+	static String getMethodDescriptor(String className, Operator operator) {
+		var descriptor = new StringBuilder("(");
+		if (operator.getParent() != null)
+			descriptor.append(getClosureDescriptor(className, operator.getParent()));
+		for (var parameter : operator.getParameters())
+			descriptor.append(ValueType.forName(parameter.getType()).getDescriptor());
+		return descriptor.append(")").append(ValueType.forName(operator.getReturnType()).getDescriptor()).toString();
+	}
+
+	private String getClosureConstructorDescriptor() {
+		var descriptor = new StringBuilder("(");
+		if (operator.getParent() != null)
+			descriptor.append(getClosureDescriptor(className, operator.getParent()));
+		for (var slot : getClosureSlots(operator))
+			descriptor.append(ValueType.forName(slot.getType()).getDescriptor());
+		return descriptor.append(")V").toString();
+	}
+
+	private Local allocate(Slot slot) {
+		var type = ValueType.forName(slot.getType());
+		var local = new Local(slot.getName(), type, nextLocalIndex);
+		nextLocalIndex += type.getSize();
+		return local;
+	}
+
+	/**
+	 * Begin this operator's method. Variables are zeroed, so every path sees them initialised. If the operator has
+	 * nested operators, its frame is created from the closure parameter, captured parameters and zeroed variables.
+	 */
+	void beginMethod() {
+		method.visitCode();
+		var parameters = new HashMap<Slot, Local>();
+		for (var parameter : operator.getParameters()) {
+			parameters.put(parameter, allocate(parameter));
+			if (!parameter.isCaptured())
+				locals.put(parameter, parameters.get(parameter));
+		}
+		if (!operator.getOperators().isEmpty()) {
+			frameIndex = nextLocalIndex++;
+			var closureClassName = getClosureClassName(className, operator);
+			method.visitTypeInsn(NEW, closureClassName);
+			method.visitInsn(DUP);
+			if (operator.getParent() != null)
+				method.visitVarInsn(ALOAD, 0);
+			for (var slot : getClosureSlots(operator)) {
+				if (slot.isParameter()) {
+					var parameter = parameters.get(slot);
+					method.visitVarInsn(parameter.getType().getLoadOpcode(), parameter.getIndex());
+				} else
+					pushZero(ValueType.forName(slot.getType()));
+			}
+			method.visitMethodInsn(INVOKESPECIAL, closureClassName, "<init>", getClosureConstructorDescriptor(), false);
+			method.visitVarInsn(ASTORE, frameIndex);
+		}
+		for (var variable : operator.getVariables()) {
+			if (variable.isCaptured())
+				continue;
+			var local = allocate(variable);
+			locals.put(variable, local);
+			pushZero(local.getType());
+			method.visitVarInsn(local.getType().getStoreOpcode(), local.getIndex());
+		}
+	}
+
+	private void pushZero(ValueType type) {
+		switch (type) {
+			case LONG -> method.visitInsn(LCONST_0);
+			case DOUBLE -> method.visitInsn(DCONST_0);
+			default -> method.visitInsn(ICONST_0);
+		}
+	}
+
+	/** Emit code to push this operator's frame. Only valid if it has nested operators. */
+	void loadFrame() {
+		method.visitVarInsn(ALOAD, frameIndex);
+	}
+
+	/** Get the local holding one of this operator's slots. Null if it's captured, so it's held in the frame. */
+	Local getLocal(Slot slot) {
+		return locals.get(slot);
+	}
+
+	MethodVisitor getMethod() {
+		return method;
+	}
+
+	/** Finish this operator's method. */
+	void endMethod() {
+		if (operator.getReturnType() == null)
+			method.visitInsn(RETURN);
+		method.visitMaxs(0, 0);
+		method.visitEnd();
+	}
+
+	/** Generate this operator's closure class. Only valid if it has nested operators. */
+	byte[] generateClosureClass() {
+		var closureClassName = getClosureClassName(className, operator);
+		var parent = operator.getParent();
+		var classWriter = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+		classWriter.visit(V1_8, ACC_PUBLIC | ACC_SUPER, closureClassName, null, "java/lang/Object", null);
+		if (parent != null)
+			classWriter.visitField(ACC_PUBLIC, "__closure", getClosureDescriptor(className, parent), null, null).visitEnd();
+		for (var slot : getClosureSlots(operator))
+			classWriter.visitField(ACC_PUBLIC, slot.getName(), ValueType.forName(slot.getType()).getDescriptor(), null, null).visitEnd();
+		var constructor = classWriter.visitMethod(ACC_PUBLIC, "<init>", getClosureConstructorDescriptor(), null, null);
+		constructor.visitCode();
+		constructor.visitVarInsn(ALOAD, 0);
+		constructor.visitMethodInsn(INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
+		var argumentIndex = 1;
+		if (parent != null) {
+			constructor.visitVarInsn(ALOAD, 0);
+			constructor.visitVarInsn(ALOAD, argumentIndex++);
+			constructor.visitFieldInsn(PUTFIELD, closureClassName, "__closure", getClosureDescriptor(className, parent));
+		}
+		for (var slot : getClosureSlots(operator)) {
+			var type = ValueType.forName(slot.getType());
+			constructor.visitVarInsn(ALOAD, 0);
+			constructor.visitVarInsn(type.getLoadOpcode(), argumentIndex);
+			constructor.visitFieldInsn(PUTFIELD, closureClassName, slot.getName(), type.getDescriptor());
+			argumentIndex += type.getSize();
+		}
+		constructor.visitInsn(RETURN);
+		constructor.visitMaxs(0, 0);
+		constructor.visitEnd();
+		classWriter.visitEnd();
+		return classWriter.toByteArray();
+	}
+
+}
@@ -0,0 +1,28 @@
+package org.reldb.relang.bytecode;
+
+/** A parameter or variable of an operator, held in a JVM local variable. */
+class Local {
+
+	private final String name;
+	private final ValueType type;
+	private final int index;
+
+	Local(String name, ValueType type, int index) {
+		this.name = name;
+		this.type = type;
+		this.index = index;
+	}
+
+	String getName() {
+		return name;
+	}
+
+	ValueType getType() {
+		return type;
+	}
+
+	int getIndex() {
+		return index;
+	}
+
+}
@@ -0,0 +1,68 @@
+package org.reldb.relang.bytecode;
+
+import static org.objectweb.asm.Opcodes.*;
+
+/** The types of value a Relang expression may have, with their JVM representation. */
+public enum ValueType {
+	LONG("long", "J", LLOAD, LSTORE, LRETURN, 2),
+	DOUBLE("double", "D", DLOAD, DSTORE, DRETURN, 2),
+	BOOLEAN("boolean", "Z", ILOAD, ISTORE, IRETURN, 1),
+	// Only used to store a long variable that type inference has found always fits, and to compare such variables.
+	INT("int", "I", ILOAD, ISTORE, IRETURN, 1),
+	VOID("void", "V", NOP, NOP, RETURN, 0);
+
+	private final String name;
+	private final String descriptor;
+	private final int loadOpcode;
+	private final int storeOpcode;
+	private final int returnOpcode;
+	private final int size;
+
+	ValueType(String name, String descriptor, int loadOpcode, int storeOpcode, int returnOpcode, int size) {
+		this.name = name;
+		this.descriptor = descriptor;
+		this.loadOpcode = loadOpcode;
+		this.storeOpcode = storeOpcode;
+		this.returnOpcode = returnOpcode;
+		this.size = size;
+	}
+
+	/** Get the ValueType for one of TypeInference's type names, or VOID for null, i.e., no value. */
+	public static ValueType forName(String typeName) {
+		if (typeName == null)
+			return VOID;
+		for (var type : values())
+			if (type.name.equals(typeName))
+				return type;
+		throw new IllegalArgumentException("There is no value type " + typeName);
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public String getDescriptor() {
+		return descriptor;
+	}
+
+	public int getLoadOpcode() {
+		return loadOpcode;
+	}
+
+	public int getStoreOpcode() {
+		return storeOpcode;
+	}
+
+	public int getReturnOpcode() {
+		return returnOpcode;
+	}
+
+	/** Number of local variable or operand stack slots occupied. */
+	public int getSize() {
+		return size;
+	}
+
+	public String toString() {
+		return name;
+	}
+}
@@ -0,0 +1,41 @@
+package org.reldb.relang.interpreter;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/** The run-time state of an invocation of an operator: its slots, the operators defined in it, and the closure it was passed. */
+class Activation {
+
+	private final Closure closure;
+	private final Map<String, Object> slots = new HashMap<>();
+	// Linked, so operators can be listed in definition order.
+	private final Map<String, OperatorNode> operators = new LinkedHashMap<>();
+
+	private Closure frame = null;
+
+	Activation(Closure closure) {
+		this.closure = closure;
+	}
+
+	/** Get the closure passed to this activation.  Null if this is the root operator. */
+	Closure getClosure() {
+		return closure;
+	}
+
+	Map<String, Object> getSlots() {
+		return slots;
+	}
+
+	Map<String, OperatorNode> getOperators() {
+		return operators;
+	}
+
+	/** Get the frame to pass to operators defined in this activation. It's created on first use, and shares this activation's slots. */
+	Closure getFrame() {
+		if (frame == null)
+			frame = new Closure(closure, slots, operators);
+		return frame;
+	}
+
+}
@@ -0,0 +1,36 @@
+package org.reldb.relang.interpreter;
+
+import java.util.Map;
+
+/**
+ * The frame of an operator activation, passed to the operators nested within it. It shares the
+ * activation's slots, so assignments through it change the activation's variables. This mirrors
+ * the *_closure frames of generated code.
+ */
+class Closure {
+
+	private final Closure parent;
+	private final Map<String, Object> slots;
+	private final Map<String, OperatorNode> operators;
+
+	Closure(Closure parent, Map<String, Object> slots, Map<String, OperatorNode> operators) {
+		this.parent = parent;
+		this.slots = slots;
+		this.operators = operators;
+	}
+
+	/** Get the closure of the enclosing operator.  Null if this is the closure of the root operator. */
+	Closure getParent() {
+		return parent;
+	}
+
+	Map<String, Object> getSlots() {
+		return slots;
+	}
+
+	/** Get the operators defined in the operator this is a closure of. */
+	Map<String, OperatorNode> getOperators() {
+		return operators;
+	}
+
+}
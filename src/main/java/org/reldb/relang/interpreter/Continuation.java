@@ -0,0 +1,54 @@
+package org.reldb.relang.interpreter;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.reldb.relang.java.MemoryClassLoader;
+import org.reldb.relang.transpiler.SourceGenerator;
+
+/**
+ * The compiled remainder of a program, from a given safe point. It can only resume a run at that
+ * safe point, and only if the run has the root variables and operators it was compiled for.
+ */
+class Continuation {
+
+	private final int statementIndex;
+	private final boolean atLoopBackEdge;
+	private final Map<String, String> variableTypes;
+	private final List<String> operatorNames;
+	private final MethodHandle entryPoint;
+
+	Continuation(Map<String, byte[]> classes, String className, SafePoint safePoint)
+			throws ClassNotFoundException,
+				NoSuchMethodException,
+				IllegalAccessException {
+		this.statementIndex = safePoint.getStatementIndex();
+		this.atLoopBackEdge = safePoint.isAtLoopBackEdge();
+		this.variableTypes = safePoint.getVariableTypes();
+		this.operatorNames = safePoint.getOperatorNames();
+		var generatedClass = new MemoryClassLoader(classes).loadClass(className);
+		var method = generatedClass.getMethod(SourceGenerator.generatedCodeMainMethodName, Map.class);
+		// Adapt to (Map)Object so it can be invoked exactly. A void entry point returns null.
+		entryPoint = MethodHandles.publicLookup()
+				.unreflect(method)
+				.asType(MethodType.methodType(Object.class, Map.class));
+	}
+
+	/** Return true if this can resume a run at the given safe point. */
+	boolean canResume(SafePoint safePoint) {
+		return statementIndex == safePoint.getStatementIndex()
+				&& atLoopBackEdge == safePoint.isAtLoopBackEdge()
+				&& variableTypes.equals(safePoint.getVariableTypes())
+				&& operatorNames.equals(safePoint.getOperatorNames());
+	}
+
+	/** Resume a run with the given root variables. Return the program's value, or null if it doesn't return one. */
+	Object resume(Map<String, Object> variables) throws Throwable {
+		return (Object)entryPoint.invokeExact((Map)new HashMap<>(variables));
+	}
+
+}
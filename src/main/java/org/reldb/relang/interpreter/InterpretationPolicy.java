@@ -0,0 +1,140 @@
+package org.reldb.relang.interpreter;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.reldb.relang.parser.ast.*;
+import org.reldb.relang.transpiler.BaseASTNode;
+import org.reldb.relang.transpiler.TypeInference;
+
+/**
+ * Decide whether a program is cheap enough to interpret rather than compile.
+ * <p>
+ * A program is interpreted if it's small and its estimated work is low. Work is estimated by
+ * counting the nodes that would be visited: a FOR loop's nodes are counted once per estimated
+ * trip, and a call counts the nodes of the operator it invokes. A loop's trips are known when it
+ * counts from one integer literal to another; otherwise they're assumed to be unknownTripCount.
+ * Recursive operators are assumed to be expensive, so programs that use them are compiled.
+ */
+public class InterpretationPolicy {
+
+	public static final int defaultMaximumNodes = 1000;
+	public static final long defaultMaximumWork = 100_000;
+	public static final long unknownTripCount = 100;
+
+	private final int maximumNodes;
+	private final long maximumWork;
+
+	/**
+	 * Ctor.
+	 *
+	 * @param maximumNodes - largest program, in AST nodes, that will be interpreted.
+	 * @param maximumWork - largest estimated work, in AST nodes visited, that will be interpreted.
+	 */
+	public InterpretationPolicy(int maximumNodes, long maximumWork) {
+		this.maximumNodes = maximumNodes;
+		this.maximumWork = maximumWork;
+	}
+
+	public InterpretationPolicy() {
+		this(defaultMaximumNodes, defaultMaximumWork);
+	}
+
+	/** Return true if the given program should be interpreted. */
+	public boolean shouldInterpret(SimpleNode program) {
+		return countNodes(program) <= maximumNodes && new WorkEstimator().estimate(program) <= maximumWork;
+	}
+
+	private static int countNodes(Node node) {
+		var count = 1;
+		for (var i = 0; i < node.jjtGetNumChildren(); i++)
+			count += countNodes(node.jjtGetChild(i));
+		return count;
+	}
+
+	private static long multiply(long value0, long value1) {
+		try {
+			return Math.multiplyExact(value0, value1);
+		} catch (ArithmeticException overflow) {
+			return Long.MAX_VALUE;
+		}
+	}
+
+	private static long add(long value0, long value1) {
+		try {
+			return Math.addExact(value0, value1);
+		} catch (ArithmeticException overflow) {
+			return Long.MAX_VALUE;
+		}
+	}
+
+	private static Long getIntegerLiteral(Node node) {
+		if (!(node instanceof ASTInteger))
+			return null;
+		try {
+			return TypeInference.parseInteger(((BaseASTNode)node).tokenValue);
+		} catch (NumberFormatException nfe) {
+			return null;
+		}
+	}
+
+	/** Estimate the trips around a FOR loop of the form FOR (i = a; i op b; ...) where a and b are integer literals. */
+	static long estimateTripCount(ASTForLoop loop) {
+		var initialisation = loop.jjtGetChild(0);
+		var condition = loop.jjtGetChild(1);
+		if (!(initialisation instanceof ASTAssignment) || condition.jjtGetNumChildren() != 2)
+			return unknownTripCount;
+		var variable = ((BaseASTNode)initialisation.jjtGetChild(0)).tokenValue;
+		var start = getIntegerLiteral(initialisation.jjtGetChild(1));
+		var bound = condition.jjtGetChild(0);
+		if (!(bound instanceof ASTDereference) || !((BaseASTNode)bound).tokenValue.equals(variable))
+			return unknownTripCount;
+		var end = getIntegerLiteral(condition.jjtGetChild(1));
+		if (start == null || end == null)
+			return unknownTripCount;
+		var inclusive = (condition instanceof ASTCompLTE || condition instanceof ASTCompGTE) ? 1 : 0;
+		if (!(condition instanceof ASTCompLT || condition instanceof ASTCompGT || inclusive == 1))
+			return unknownTripCount;
+		var span = Math.abs((double)end - (double)start) + inclusive;
+		return (span >= Long.MAX_VALUE) ? Long.MAX_VALUE : (long)span;
+	}
+
+	/** Estimates work. Operators are found by name alone, which is close enough for an estimate. */
+	private static class WorkEstimator {
+		private final Map<String, Long> operatorWork = new HashMap<>();
+		private final Set<String> defining = new HashSet<>();
+
+		long estimate(Node node) {
+			if (node instanceof ASTFnDef || node instanceof ASTFnDefPure) {
+				var name = ((BaseASTNode)node.jjtGetChild(0)).tokenValue;
+				defining.add(name);
+				var work = 1L;
+				for (var i = 1; i < node.jjtGetNumChildren(); i++)
+					work = add(work, estimate(node.jjtGetChild(i)));
+				defining.remove(name);
+				operatorWork.put(name, work);
+				return 1;
+			}
+			var work = 1L;
+			if (node instanceof ASTCall || node instanceof ASTFnInvoke) {
+				var name = ((BaseASTNode)node.jjtGetChild(0)).tokenValue;
+				if (defining.contains(name))
+					return Long.MAX_VALUE;
+				work = add(work, operatorWork.getOrDefault(name, 1L));
+			}
+			if (node instanceof ASTForLoop) {
+				var trips = estimateTripCount((ASTForLoop)node);
+				work = add(work, estimate(node.jjtGetChild(0)));
+				for (var i = 1; i < node.jjtGetNumChildren(); i++)
+					work = add(work, multiply(trips, estimate(node.jjtGetChild(i))));
+				return work;
+			}
+			for (var i = 0; i < node.jjtGetNumChildren(); i++)
+				work = add(work, estimate(node.jjtGetChild(i)));
+			return work;
+		}
+	}
+
+}
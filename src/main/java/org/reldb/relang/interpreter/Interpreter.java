@@ -0,0 +1,495 @@
+package org.reldb.relang.interpreter;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.Map;
+import java.util.function.IntPredicate;
+
+import org.reldb.relang.exceptions.ExceptionSemantic;
+import org.reldb.relang.parser.ast.*;
+import org.reldb.relang.transpiler.BaseASTNode;
+import org.reldb.relang.transpiler.TypeInference;
+
+/**
+ * Run a Relang AST directly, by walking it, rather than generating and loading code. This
+ * costs nothing up front, so it suits cold and short-lived scripts; see InterpretationPolicy.
+ * <p>
+ * Values are Long, Double or Boolean. Operators behave as they do in generated code: an operator
+ * receives the frame of the activation of the operator it's defined in, so it sees the current
+ * values of that operator's slots, and its assignments to them are seen there too.
+ * <p>
+ * Variables have the types TypeInference gives them, as in generated code, so a value assigned to a variable is
+ * widened to its type: a variable assigned both longs and doubles holds doubles from its first assignment.
+ * <p>
+ * Semantic errors are only detected on the paths that are run, and are thrown when they're reached.
+ * <p>
+ * Visitors are passed the current Activation. Visitors of expressions return the value; visitors
+ * of statements return null.
+ */
+public class Interpreter implements RelangVisitor {
+
+	private final Profile profile;
+
+	// Types of the variables of the program being run.
+	private TypeInference types = null;
+
+	/** Ctor. If profile is not null, calls and loop trips are counted in it. */
+	public Interpreter(Profile profile) {
+		this.profile = profile;
+	}
+
+	public Interpreter() {
+		this(null);
+	}
+
+	/**
+	 * Run a program.
+	 *
+	 * @param program - root of an AST produced by Relang.execute() or Relang.evaluate().
+	 * @return the value of the expression for Relang.evaluate(), or null for Relang.execute().
+	 * @throws InvocationTargetException if the program fails at run time, e.g., by dividing by zero.
+	 */
+	public Object run(SimpleNode program) throws InvocationTargetException {
+		prepare(program);
+		try {
+			return program.jjtAccept(this, new Activation(null));
+		} catch (ExceptionSemantic semanticError) {
+			throw semanticError;
+		} catch (Throwable throwable) {
+			throw new InvocationTargetException(throwable);
+		}
+	}
+
+	/** Infer the types of a program's variables. Must be done before running it, or any part of it. */
+	void prepare(SimpleNode program) {
+		types = new TypeInference(program);
+	}
+
+	// Return the number of children of the given node
+	private static int getChildCount(SimpleNode node) {
+		return node.jjtGetNumChildren();
+	}
+
+	// Run a given child of the given node.
+	Object runChild(SimpleNode node, int childIndex, Object data) {
+		return node.jjtGetChild(childIndex).jjtAccept(this, data);
+	}
+
+	// Run all children of the given node, and return the value of the last.
+	private Object runChildren(SimpleNode node, Object data) {
+		Object value = null;
+		for (var i = 0; i < getChildCount(node); i++)
+			value = runChild(node, i, data);
+		return value;
+	}
+
+	// Get the token of the ith child.
+	private static String getTokenOfChild(SimpleNode node, int childIndex) {
+		return ((BaseASTNode)node.jjtGetChild(childIndex)).tokenValue;
+	}
+
+	// Evaluate a given child expression.
+	private Object evaluate(SimpleNode node, int childIndex, Object data) {
+		var value = runChild(node, childIndex, data);
+		if (value == null)
+			throw new ExceptionSemantic("Operator does not return a value", node);
+		return value;
+	}
+
+	// Get the TypeInference type name of a value.
+	private static String typeOf(Object value) {
+		if (value instanceof Long)
+			return TypeInference.typeLong;
+		if (value instanceof Double)
+			return TypeInference.typeDouble;
+		return TypeInference.typeBoolean;
+	}
+
+	// Convert a value to a given type, as an assignment or argument would.
+	private static Object convert(Object value, String to, Node node) {
+		var from = typeOf(value);
+		if (from.equals(to))
+			return value;
+		if (from.equals(TypeInference.typeLong) && to.equals(TypeInference.typeDouble))
+			return ((Long)value).doubleValue();
+		throw new ExceptionSemantic("Expected a value of type " + to + " but got " + from, node);
+	}
+
+	public Object visit(SimpleNode node, Object data) {
+		System.out.println(node + ": acceptor not implemented in subclass?");
+		return null;
+	}
+
+	// Run a Relang program.
+	public Object visit(ASTExecute node, Object data) {
+		runChildren(node, data);
+		return null;
+	}
+
+	// Run a Relang program, possibly empty, followed by an expression whose value is returned.
+	public Object visit(ASTEvaluate node, Object data) {
+		return runChildren(node, data);
+	}
+
+	// Run a statement
+	public Object visit(ASTStatement node, Object data) {
+		runChildren(node, data);
+		return null;
+	}
+
+	// Run a block
+	public Object visit(ASTBlock node, Object data) {
+		runChildren(node, data);
+		return null;
+	}
+
+	// Define an operator in the current activation.
+	private Object defineOperator(SimpleNode node, Object data) {
+		var activation = (Activation)data;
+		var name = getTokenOfChild(node, 0);
+		var operator = activation.getOperators().get(name);
+		// A definition inside a loop body is run once per iteration.
+		if (operator != null && operator.getDefinition() != node)
+			throw new ExceptionSemantic(name + " is already defined", node);
+		activation.getOperators().put(name, new OperatorNode(name, node));
+		return null;
+	}
+
+	// Function definition (pure)
+	public Object visit(ASTFnDefPure node, Object data) {
+		return defineOperator(node, data);
+	}
+
+	// Function definition (impure)
+	public Object visit(ASTFnDef node, Object data) {
+		return defineOperator(node, data);
+	}
+
+	// Function definition parameter def. Parameters are bound by invoke.
+	public Object visit(ASTParameter node, Object data) {
+		return null;
+	}
+
+	// Function definition parameter list. Parameters are bound by invoke.
+	public Object visit(ASTParmlist node, Object data) {
+		return null;
+	}
+
+	// Function body
+	public Object visit(ASTFnBody node, Object data) {
+		runChildren(node, data);
+		return null;
+	}
+
+	// Function return expression
+	public Object visit(ASTReturnExpression node, Object data) {
+		return evaluate(node, 0, data);
+	}
+
+	// Function invocation argument list. Arguments are evaluated by fnInvoke.
+	public Object visit(ASTArgList node, Object data) {
+		return null;
+	}
+
+	// Invoke an operator, passing it the given closure, and return its value or null if it doesn't return one.
+	private Object invoke(OperatorNode operator, Closure closure, SimpleNode arglist, Activation caller) {
+		var definition = operator.getDefinition();
+		var parmlist = (SimpleNode)definition.jjtGetChild(1);
+		if (getChildCount(arglist) != getChildCount(parmlist))
+			throw new ExceptionSemantic("Operator " + operator.getName() + " expects " + getChildCount(parmlist) + " argument(s)", arglist);
+		if (profile != null)
+			profile.countCall(definition);
+		var activation = new Activation(closure);
+		for (var i = 0; i < getChildCount(parmlist); i++) {
+			var parameter = (SimpleNode)parmlist.jjtGetChild(i);
+			var parameterTypeName = getTokenOfChild(parameter, 0);
+			var parameterName = getTokenOfChild(parameter, 1);
+			if (!parameterTypeName.equals(TypeInference.typeLong) && !parameterTypeName.equals(TypeInference.typeDouble) && !parameterTypeName.equals(TypeInference.typeBoolean))
+				throw new ExceptionSemantic("Unsupported parameter type " + parameterTypeName, parameter);
+			if (activation.getSlots().containsKey(parameterName))
+				throw new ExceptionSemantic(parameterName + " is already defined in operator " + operator.getName(), parameter);
+			activation.getSlots().put(parameterName, convert(evaluate(arglist, i, caller), parameterTypeName, arglist));
+		}
+		if (definition instanceof ASTFnDefPure)
+			// Child 2 - return expression
+			return runChild(definition, 2, activation);
+		// Child 2 - function body
+		runChild(definition, 2, activation);
+		// optional Child 3 - return expression
+		return (getChildCount(definition) == 4) ? runChild(definition, 3, activation) : null;
+	}
+
+	private Object fnInvoke(SimpleNode node, Object data) {
+		var activation = (Activation)data;
+		// Child 0 - identifier (fn name)
+		var fnname = getTokenOfChild(node, 0);
+		// Child 1 - arglist
+		var arglist = (SimpleNode)node.jjtGetChild(1);
+		// An operator defined in this one gets this activation's frame; one defined further out gets the closure it was defined with.
+		var operator = activation.getOperators().get(fnname);
+		if (operator != null)
+			return invoke(operator, activation.getFrame(), arglist, activation);
+		for (var closure = activation.getClosure(); closure != null; closure = closure.getParent()) {
+			operator = closure.getOperators().get(fnname);
+			if (operator != null)
+				return invoke(operator, closure, arglist, activation);
+		}
+		throw new ExceptionSemantic("Can't find operator " + fnname, node);
+	}
+
+	// Function call
+	public Object visit(ASTCall node, Object data) {
+		fnInvoke(node, data);
+		return null;
+	}
+
+	// Function invocation in an expression
+	public Object visit(ASTFnInvoke node, Object data) {
+		return fnInvoke(node, data);
+	}
+
+	// Evaluate a condition.
+	boolean condition(SimpleNode node, int childIndex, Object data) {
+		var value = evaluate(node, childIndex, data);
+		if (!(value instanceof Boolean))
+			throw new ExceptionSemantic("Expected a boolean condition but got " + typeOf(value), node);
+		return (Boolean)value;
+	}
+
+	// Run an IF
+	public Object visit(ASTIfStatement node, Object data) {
+		if (condition(node, 0, data))
+			runChild(node, 1, data);
+		else if (node.ifHasElse)
+			runChild(node, 2, data);
+		return null;
+	}
+
+	// Run a FOR loop
+	public Object visit(ASTForLoop node, Object data) {
+		for (runChild(node, 0, data); condition(node, 1, data); runChild(node, 2, data)) {
+			runChild(node, 3, data);
+			if (profile != null)
+				profile.countTrip(node);
+		}
+		return null;
+	}
+
+	// Process an identifier
+	// This doesn't do anything, but needs to be here because we need an ASTIdentifier node.
+	public Object visit(ASTIdentifier node, Object data) {
+		return null;
+	}
+
+	// Run the WRITE statement
+	public Object visit(ASTWrite node, Object data) {
+		System.out.println(evaluate(node, 0, data));
+		return null;
+	}
+
+	// Find the slots holding a variable or parameter: the activation's own, or those of a closure. Null if not found.
+	private static Map<String, Object> findReference(String refname, Activation activation) {
+		if (activation.getSlots().containsKey(refname))
+			return activation.getSlots();
+		for (var closure = activation.getClosure(); closure != null; closure = closure.getParent())
+			if (closure.getSlots().containsKey(refname))
+				return closure.getSlots();
+		return null;
+	}
+
+	// Dereference a variable or parameter
+	public Object visit(ASTDereference node, Object data) {
+		var refname = node.tokenValue;
+		var slots = findReference(refname, (Activation)data);
+		if (slots == null)
+			throw new ExceptionSemantic("ERROR: Variable " + refname + " has not been initialised.", node);
+		return slots.get(refname);
+	}
+
+	// Run an assignment statement; evaluate a value and assign it to a variable or parameter.
+	public Object visit(ASTAssignment node, Object data) {
+		var activation = (Activation)data;
+		var targetName = getTokenOfChild(node, 0);
+		var value = evaluate(node, 1, data);
+		var slots = findReference(targetName, activation);
+		var type = getVariableType(node);
+		if (type == null)
+			type = (slots == null) ? typeOf(value) : typeOf(slots.get(targetName));
+		if (slots == null)
+			slots = activation.getSlots();
+		slots.put(targetName, convert(value, type, node));
+		return null;
+	}
+
+	// Get the type of the variable an assignment assigns, reading int as long. Null if it isn't known.
+	private String getVariableType(ASTAssignment assignment) {
+		var type = types.getVariableType(assignment);
+		return TypeInference.typeInt.equals(type) ? TypeInference.typeLong : type;
+	}
+
+	private static boolean isNumeric(Object value) {
+		return value instanceof Long || value instanceof Double;
+	}
+
+	// Evaluate both operands, which must be numeric.
+	private Object[] numericOperands(SimpleNode node, Object data) {
+		var value0 = evaluate(node, 0, data);
+		var value1 = evaluate(node, 1, data);
+		if (!isNumeric(value0) || !isNumeric(value1))
+			throw new ExceptionSemantic("Expected numeric operands but got " + typeOf(value0) + " and " + typeOf(value1), node);
+		return new Object[] {value0, value1};
+	}
+
+	// Compare numeric operands, promoted to a common type, as Long.compare or Double.compare would. NaN compares false.
+	private Object compare(SimpleNode node, Object data, IntPredicate test) {
+		var operands = numericOperands(node, data);
+		if (operands[0] instanceof Long && operands[1] instanceof Long)
+			return test.test(Long.compare((Long)operands[0], (Long)operands[1]));
+		var double0 = ((Number)operands[0]).doubleValue();
+		var double1 = ((Number)operands[1]).doubleValue();
+		if (Double.isNaN(double0) || Double.isNaN(double1))
+			return test.test(1) && test.test(-1);
+		return test.test(double0 < double1 ? -1 : (double0 > double1 ? 1 : 0));
+	}
+
+	private Object equality(SimpleNode node, Object data, boolean equal) {
+		var value0 = evaluate(node, 0, data);
+		var value1 = evaluate(node, 1, data);
+		if (value0 instanceof Boolean || value1 instanceof Boolean) {
+			if (!(value0 instanceof Boolean) || !(value1 instanceof Boolean))
+				throw new ExceptionSemantic("Expected numeric operands but got " + typeOf(value0) + " and " + typeOf(value1), node);
+			return value0.equals(value1) == equal;
+		}
+		if (value0 instanceof Long && value1 instanceof Long)
+			return ((Long)value0).longValue() == (Long)value1 == equal;
+		return (((Number)value0).doubleValue() == ((Number)value1).doubleValue()) == equal;
+	}
+
+	private interface LongOperation {
+		long apply(long value0, long value1);
+	}
+
+	private interface DoubleOperation {
+		double apply(double value0, double value1);
+	}
+
+	private Object arithmetic(SimpleNode node, Object data, LongOperation longOperation, DoubleOperation doubleOperation) {
+		var operands = numericOperands(node, data);
+		if (operands[0] instanceof Long && operands[1] instanceof Long)
+			return longOperation.apply((Long)operands[0], (Long)operands[1]);
+		return doubleOperation.apply(((Number)operands[0]).doubleValue(), ((Number)operands[1]).doubleValue());
+	}
+
+	private boolean booleanOperand(SimpleNode node, int childIndex, Object data) {
+		var value = evaluate(node, childIndex, data);
+		if (!(value instanceof Boolean))
+			throw new ExceptionSemantic("Expected a boolean operand but got " + typeOf(value), node);
+		return (Boolean)value;
+	}
+
+	// OR
+	public Object visit(ASTOr node, Object data) {
+		return booleanOperand(node, 0, data) || booleanOperand(node, 1, data);
+	}
+
+	// AND
+	public Object visit(ASTAnd node, Object data) {
+		return booleanOperand(node, 0, data) && booleanOperand(node, 1, data);
+	}
+
+	// ==
+	public Object visit(ASTCompEqual node, Object data) {
+		return equality(node, data, true);
+	}
+
+	// !=
+	public Object visit(ASTCompNequal node, Object data) {
+		return equality(node, data, false);
+	}
+
+	// >=
+	public Object visit(ASTCompGTE node, Object data) {
+		return compare(node, data, comparison -> comparison >= 0);
+	}
+
+	// <=
+	public Object visit(ASTCompLTE node, Object data) {
+		return compare(node, data, comparison -> comparison <= 0);
+	}
+
+	// >
+	public Object visit(ASTCompGT node, Object data) {
+		return compare(node, data, comparison -> comparison > 0);
+	}
+
+	// <
+	public Object visit(ASTCompLT node, Object data) {
+		return compare(node, data, comparison -> comparison < 0);
+	}
+
+	// +
+	public Object visit(ASTAdd node, Object data) {
+		return arithmetic(node, data, (value0, value1) -> value0 + value1, (value0, value1) -> value0 + value1);
+	}
+
+	// -
+	public Object visit(ASTSubtract node, Object data) {
+		return arithmetic(node, data, (value0, value1) -> value0 - value1, (value0, value1) -> value0 - value1);
+	}
+
+	// *
+	public Object visit(ASTTimes node, Object data) {
+		return arithmetic(node, data, (value0, value1) -> value0 * value1, (value0, value1) -> value0 * value1);
+	}
+
+	// /
+	public Object visit(ASTDivide node, Object data) {
+		return arithmetic(node, data, (value0, value1) -> value0 / value1, (value0, value1) -> value0 / value1);
+	}
+
+	// NOT
+	public Object visit(ASTUnaryNot node, Object data) {
+		return !booleanOperand(node, 0, data);
+	}
+
+	// + (unary)
+	public Object visit(ASTUnaryPlus node, Object data) {
+		var value = evaluate(node, 0, data);
+		if (!isNumeric(value))
+			throw new ExceptionSemantic("Expected a numeric operand but got " + typeOf(value), node);
+		return value;
+	}
+
+	// - (unary)
+	public Object visit(ASTUnaryMinus node, Object data) {
+		var value = evaluate(node, 0, data);
+		if (value instanceof Long)
+			return -(Long)value;
+		if (value instanceof Double)
+			return -(Double)value;
+		throw new ExceptionSemantic("Expected a numeric operand but got " + typeOf(value), node);
+	}
+
+	// integer literal
+	public Object visit(ASTInteger node, Object data) {
+		try {
+			return TypeInference.parseInteger(node.tokenValue);
+		} catch (NumberFormatException nfe) {
+			throw new ExceptionSemantic("Invalid integer " + node.tokenValue, node);
+		}
+	}
+
+	// floating point literal
+	public Object visit(ASTRational node, Object data) {
+		return Double.parseDouble(node.tokenValue);
+	}
+
+	// true literal
+	public Object visit(ASTTrue node, Object data) {
+		return true;
+	}
+
+	// false literal
+	public Object visit(ASTFalse node, Object data) {
+		return false;
+	}
+}
@@ -0,0 +1,24 @@
+package org.reldb.relang.interpreter;
+
+import org.reldb.relang.parser.ast.SimpleNode;
+
+/** An operator definition: its name, and the ASTFnDef or ASTFnDefPure node that defines it. */
+class OperatorNode {
+
+	private final String name;
+	private final SimpleNode definition;
+
+	OperatorNode(String name, SimpleNode definition) {
+		this.name = name;
+		this.definition = definition;
+	}
+
+	String getName() {
+		return name;
+	}
+
+	SimpleNode getDefinition() {
+		return definition;
+	}
+
+}
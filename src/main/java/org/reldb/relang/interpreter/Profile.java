@@ -0,0 +1,73 @@
+package org.reldb.relang.interpreter;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import org.reldb.relang.parser.ast.Node;
+
+/**
+ * Counts collected while interpreting a program: calls per operator, and trips around each FOR loop.
+ * Counts are keyed by AST node, so they can be applied when transpiling the same AST. Call counts
+ * choose the operators to inline, and all counts add up to the events that decide when to compile.
+ * Not thread-safe; take a copy to hand to another thread.
+ */
+public class Profile {
+
+	private final Map<Node, long[]> calls;
+	private final Map<Node, long[]> trips;
+	private long eventCount;
+
+	public Profile() {
+		calls = new IdentityHashMap<>();
+		trips = new IdentityHashMap<>();
+	}
+
+	private Profile(Profile profile) {
+		calls = copy(profile.calls);
+		trips = copy(profile.trips);
+		eventCount = profile.eventCount;
+	}
+
+	private static Map<Node, long[]> copy(Map<Node, long[]> counts) {
+		var copy = new IdentityHashMap<Node, long[]>();
+		counts.forEach((node, count) -> copy.put(node, count.clone()));
+		return copy;
+	}
+
+	/** Get an independent copy of this profile. */
+	public Profile copy() {
+		return new Profile(this);
+	}
+
+	void countCall(Node definition) {
+		calls.computeIfAbsent(definition, node -> new long[1])[0]++;
+		eventCount++;
+	}
+
+	void countTrip(Node loop) {
+		trips.computeIfAbsent(loop, node -> new long[1])[0]++;
+		eventCount++;
+	}
+
+	/** Get the number of calls to the operator defined by the given ASTFnDef or ASTFnDefPure. */
+	public long getCallCount(Node definition) {
+		var count = calls.get(definition);
+		return (count == null) ? 0 : count[0];
+	}
+
+	/** Get the number of trips around the given ASTForLoop. */
+	public long getTripCount(Node loop) {
+		var count = trips.get(loop);
+		return (count == null) ? 0 : count[0];
+	}
+
+	/** Get the total of all counts. */
+	public long getEventCount() {
+		return eventCount;
+	}
+
+	public String toString() {
+		return calls.size() + " operator(s) called, " + trips.size() + " loop(s) run, " + eventCount + " event(s)";
+	}
+
+}
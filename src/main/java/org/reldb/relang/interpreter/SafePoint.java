@@ -0,0 +1,67 @@
+package org.reldb.relang.interpreter;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.reldb.relang.parser.ast.SimpleNode;
+
+/**
+ * A point in a run of a program where execution may switch from interpreted to compiled code: before
+ * a top-level statement, or at the back edge of a top-level FOR loop. No operator is active there,
+ * so the run's state is just the root activation's variables and operators.
+ */
+class SafePoint {
+
+	private final int statementIndex;
+	private final boolean atLoopBackEdge;
+	private final Map<String, String> variableTypes = new LinkedHashMap<>();
+	private final List<String> operatorNames = new ArrayList<>();
+	private final List<SimpleNode> definitions = new ArrayList<>();
+
+	SafePoint(Activation root, int statementIndex, boolean atLoopBackEdge) {
+		this.statementIndex = statementIndex;
+		this.atLoopBackEdge = atLoopBackEdge;
+		root.getSlots().forEach((name, value) -> variableTypes.put(name, getTypeName(value)));
+		for (var operator : root.getOperators().values()) {
+			operatorNames.add(operator.getName());
+			definitions.add(operator.getDefinition());
+		}
+	}
+
+	private static String getTypeName(Object value) {
+		if (value instanceof Long)
+			return "long";
+		if (value instanceof Double)
+			return "double";
+		return "boolean";
+	}
+
+	int getStatementIndex() {
+		return statementIndex;
+	}
+
+	boolean isAtLoopBackEdge() {
+		return atLoopBackEdge;
+	}
+
+	/** Get the Relang type names of the root variables, by name. */
+	Map<String, String> getVariableTypes() {
+		return variableTypes;
+	}
+
+	List<String> getOperatorNames() {
+		return operatorNames;
+	}
+
+	/** Get the definitions of the root operators, in definition order. */
+	List<SimpleNode> getDefinitions() {
+		return definitions;
+	}
+
+	public String toString() {
+		return (atLoopBackEdge ? "back edge of loop at statement " : "statement ") + statementIndex;
+	}
+
+}
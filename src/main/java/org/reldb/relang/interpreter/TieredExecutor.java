@@ -0,0 +1,211 @@
+package org.reldb.relang.interpreter;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import org.reldb.relang.CompilationSettings;
+import org.reldb.relang.Main;
+import org.reldb.relang.exceptions.ExceptionSemantic;
+import org.reldb.relang.ir.Lowering;
+import org.reldb.relang.parser.ast.ASTEvaluate;
+import org.reldb.relang.parser.ast.ASTForLoop;
+import org.reldb.relang.parser.ast.SimpleNode;
+import org.reldb.relang.transpiler.SourceGenerator;
+
+import static org.reldb.relang.transpiler.Formatter.indent;
+
+/**
+ * Run a program in tiers. It starts in the Interpreter, which collects a Profile. Once the profile
+ * holds compileThreshold events, the rest of the program is transpiled with the profile applied and
+ * compiled on a background thread, while interpretation carries on. When it's ready, the run switches
+ * to the compiled code at the next SafePoint it can resume from. With only one processor, a background
+ * thread would just slow interpretation, so the run compiles and switches at the safe point it's hot at.
+ * <p>
+ * Safe points are only at the top level, so a program that spends its time in one long call, rather
+ * than in a top-level loop, won't switch; InterpretationPolicy should send such programs to be compiled.
+ * A program that fails to compile carries on being interpreted.
+ * <p>
+ * The rest of the program is transpiled to Java source with the policies in the given CompilationSettings.
+ * <p>
+ * An instance runs one program.
+ */
+public class TieredExecutor {
+
+	public static final long defaultCompileThreshold = 10_000;
+
+	/** Compilations to try before settling for interpretation, if the run keeps moving past the safe point compiled for. */
+	public static final int maximumCompilations = 3;
+
+	private final String className;
+	private final long compileThreshold;
+	private final boolean verbose;
+	private final CompilationSettings settings;
+
+	private final Profile profile = new Profile();
+	private final Interpreter interpreter = new Interpreter(profile);
+
+	private ExecutorService compilerThread = null;
+	private Future<Continuation> pendingContinuation = null;
+	private int compilations = 0;
+	private boolean resumed = false;
+
+	/**
+	 * Ctor.
+	 *
+	 * @param className - name of the class the rest of the program is compiled to.
+	 * @param compileThreshold - profile events after which the rest of the program is compiled.
+	 * @param verbose - if true, report profiling and compilation, and output the compiled Java source, on System.out.
+	 * @param settings - how to compile the rest of the program. The backend must be Main.Backends.SOURCE.
+	 */
+	public TieredExecutor(String className, long compileThreshold, boolean verbose, CompilationSettings settings) {
+		if (settings.getBackend() != Main.Backends.SOURCE)
+			throw new IllegalArgumentException("Only the Java source backend compiles the rest of a program, but the backend is " + settings.getBackend());
+		this.className = className;
+		this.compileThreshold = compileThreshold;
+		this.verbose = verbose;
+		this.settings = settings;
+	}
+
+	public TieredExecutor(String className, long compileThreshold, boolean verbose) {
+		this(className, compileThreshold, verbose, CompilationSettings.defaults);
+	}
+
+	public TieredExecutor(String className) {
+		this(className, defaultCompileThreshold, false);
+	}
+
+	/** Get the profile collected so far. */
+	public Profile getProfile() {
+		return profile;
+	}
+
+	/** Return true if the run switched to compiled code. */
+	public boolean hasResumedCompiled() {
+		return resumed;
+	}
+
+	/**
+	 * Run a program.
+	 *
+	 * @param program - root of an AST produced by Relang.execute() or Relang.evaluate().
+	 * @return the value of the expression for Relang.evaluate(), or null for Relang.execute().
+	 * @throws InvocationTargetException if the program fails at run time, e.g., by dividing by zero.
+	 */
+	public Object run(SimpleNode program) throws InvocationTargetException {
+		interpreter.prepare(program);
+		var root = new Activation(null);
+		try {
+			var statementCount = program.jjtGetNumChildren();
+			for (var i = 0; i < statementCount; i++) {
+				var continuation = reachSafePoint(program, root, i, false);
+				if (continuation != null)
+					return resume(continuation, root);
+				var statement = (SimpleNode)program.jjtGetChild(i);
+				var loop = (statement.jjtGetNumChildren() == 1 && statement.jjtGetChild(0) instanceof ASTForLoop)
+						? (ASTForLoop)statement.jjtGetChild(0)
+						: null;
+				if (loop == null) {
+					var value = interpreter.runChild(program, i, root);
+					if (i == statementCount - 1 && program instanceof ASTEvaluate)
+						return value;
+					continue;
+				}
+				// Run a top-level loop here, so its back edge can be a safe point.
+				interpreter.runChild(loop, 0, root);
+				while (interpreter.condition(loop, 1, root)) {
+					interpreter.runChild(loop, 3, root);
+					profile.countTrip(loop);
+					interpreter.runChild(loop, 2, root);
+					continuation = reachSafePoint(program, root, i, true);
+					if (continuation != null)
+						return resume(continuation, root);
+				}
+			}
+			return null;
+		} catch (ExceptionSemantic semanticError) {
+			throw semanticError;
+		} catch (Throwable throwable) {
+			throw new InvocationTargetException(throwable);
+		} finally {
+			if (compilerThread != null)
+				compilerThread.shutdownNow();
+		}
+	}
+
+	private Object resume(Continuation continuation, Activation root) throws Throwable {
+		resumed = true;
+		return continuation.resume(root.getSlots());
+	}
+
+	/*
+	 * At a safe point, start compiling the rest of the program if it's hot, or return the compiled continuation if
+	 * it's ready and can resume from here. Otherwise return null to carry on interpreting.
+	 */
+	private Continuation reachSafePoint(SimpleNode program, Activation root, int statementIndex, boolean atLoopBackEdge) {
+		if (pendingContinuation == null) {
+			if (profile.getEventCount() < compileThreshold || compilations >= maximumCompilations)
+				return null;
+			startCompilation(program, new SafePoint(root, statementIndex, atLoopBackEdge));
+		}
+		if (!pendingContinuation.isDone())
+			return null;
+		var safePoint = new SafePoint(root, statementIndex, atLoopBackEdge);
+		Continuation continuation;
+		try {
+			continuation = pendingContinuation.get();
+		} catch (ExecutionException | InterruptedException failure) {
+			if (verbose)
+				System.out.println("Compilation failed, so interpretation continues: " + failure.getCause());
+			compilations = maximumCompilations;
+			pendingContinuation = null;
+			return null;
+		}
+		pendingContinuation = null;
+		if (continuation.canResume(safePoint)) {
+			if (verbose)
+				System.out.println("Resuming compiled at " + safePoint + "...");
+			return continuation;
+		}
+		if (verbose)
+			System.out.println("Discarded compilation; run has moved to " + safePoint);
+		return null;
+	}
+
+	private void startCompilation(SimpleNode program, SafePoint safePoint) {
+		compilations++;
+		// Copy the profile here, as the interpreter carries on updating it.
+		var profileCopy = profile.copy();
+		if (verbose)
+			System.out.println("Compiling from " + safePoint + " with profile: " + profileCopy);
+		Callable<Continuation> compilation = () -> {
+			var lowered = Lowering.lowerContinuation(SourceGenerator.generatedCodeMainMethodName, program, safePoint.getDefinitions(), safePoint.getVariableTypes(),
+					safePoint.getStatementIndex(), safePoint.isAtLoopBackEdge());
+			var java = settings.createSourceGenerator(className).generate(settings.createPassManager(profileCopy).run(lowered));
+			if (verbose) {
+				System.out.println("Compiled:");
+				System.out.println(indent(java));
+			}
+			var classes = settings.createJavaCompiler(false).compile(className, java);
+			return new Continuation(classes, className, safePoint);
+		};
+		if (Runtime.getRuntime().availableProcessors() == 1) {
+			var task = new FutureTask<>(compilation);
+			task.run();
+			pendingContinuation = task;
+			return;
+		}
+		if (compilerThread == null)
+			compilerThread = Executors.newSingleThreadExecutor(runnable -> {
+				var thread = new Thread(runnable, "Relang tiered compiler");
+				thread.setDaemon(true);
+				return thread;
+			});
+		pendingContinuation = compilerThread.submit(compilation);
+	}
+
+}
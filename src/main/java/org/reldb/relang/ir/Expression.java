@@ -0,0 +1,227 @@
+package org.reldb.relang.ir;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.reldb.relang.transpiler.TypeInference;
+
+/**
+ * An expression in the IR. Every expression has one of TypeInference's types, or null if it's an invocation of an
+ * operator that doesn't return a value. Operands always have the types their operation expects: wherever a value
+ * changes type, e.g., a long added to a double, there is an explicit Convert. Expressions are immutable, so passes
+ * build new ones.
+ */
+public abstract class Expression {
+
+	private final String type;
+
+	Expression(String type) {
+		this.type = type;
+	}
+
+	/** Get the type of this expression's value. Null if it has none. */
+	public String getType() {
+		return type;
+	}
+
+	/** Get the expressions this one is computed from, in evaluation order. */
+	public List<Expression> getOperands() {
+		return List.of();
+	}
+
+	/** A literal: a Long, Double, Boolean or, for an int, Integer. */
+	public static class Constant extends Expression {
+		private final Object value;
+
+		public Constant(String type, Object value) {
+			super(type);
+			this.value = value;
+		}
+
+		public Object getValue() {
+			return value;
+		}
+
+		public String toString() {
+			return String.valueOf(value);
+		}
+	}
+
+	/** The value of a parameter or variable. */
+	public static class Load extends Expression {
+		private final Slot slot;
+
+		public Load(Slot slot) {
+			super(slot.getType());
+			this.slot = slot;
+		}
+
+		public Slot getSlot() {
+			return slot;
+		}
+
+		public String toString() {
+			return slot.getName();
+		}
+	}
+
+	/** A value converted to another type: a long to a double, a long to an int, or an int to a long. */
+	public static class Convert extends Expression {
+		private final Expression operand;
+
+		public Convert(String type, Expression operand) {
+			super(type);
+			this.operand = operand;
+		}
+
+		public Expression getOperand() {
+			return operand;
+		}
+
+		public List<Expression> getOperands() {
+			return List.of(operand);
+		}
+
+		public String toString() {
+			return "(" + getType() + ")" + operand;
+		}
+	}
+
+	/** A binary operation. Its operands have the same type. */
+	public static class Binary extends Expression {
+
+		public enum Kind {
+			ADD("+"), SUBTRACT("-"), MULTIPLY("*"), DIVIDE("/"),
+			EQUAL("=="), NOT_EQUAL("<>"), LESS("<"), LESS_OR_EQUAL("<="), GREATER(">"), GREATER_OR_EQUAL(">="),
+			AND("and"), OR("or");
+
+			private final String symbol;
+
+			Kind(String symbol) {
+				this.symbol = symbol;
+			}
+
+			/** True if this is +, -, * or /, whose value has the type of its operands. Otherwise it's a boolean. */
+			public boolean isArithmetic() {
+				return ordinal() <= DIVIDE.ordinal();
+			}
+
+			public boolean isComparison() {
+				return ordinal() >= EQUAL.ordinal() && ordinal() <= GREATER_OR_EQUAL.ordinal();
+			}
+
+			public String toString() {
+				return symbol;
+			}
+		}
+
+		private final Kind kind;
+		private final Expression left;
+		private final Expression right;
+
+		public Binary(Kind kind, Expression left, Expression right) {
+			super(kind.isArithmetic() ? left.getType() : TypeInference.typeBoolean);
+			this.kind = kind;
+			this.left = left;
+			this.right = right;
+		}
+
+		public Kind getKind() {
+			return kind;
+		}
+
+		public Expression getLeft() {
+			return left;
+		}
+
+		public Expression getRight() {
+			return right;
+		}
+
+		/** Get the type of the operands. */
+		public String getOperandType() {
+			return left.getType();
+		}
+
+		public List<Expression> getOperands() {
+			return List.of(left, right);
+		}
+
+		public String toString() {
+			return "(" + left + " " + kind + " " + right + ")";
+		}
+	}
+
+	/** NOT of a boolean. */
+	public static class Not extends Expression {
+		private final Expression operand;
+
+		public Not(Expression operand) {
+			super(TypeInference.typeBoolean);
+			this.operand = operand;
+		}
+
+		public Expression getOperand() {
+			return operand;
+		}
+
+		public List<Expression> getOperands() {
+			return List.of(operand);
+		}
+
+		public String toString() {
+			return "not " + operand;
+		}
+	}
+
+	/** Negation of a long or double. */
+	public static class Negate extends Expression {
+		private final Expression operand;
+
+		public Negate(Expression operand) {
+			super(operand.getType());
+			this.operand = operand;
+		}
+
+		public Expression getOperand() {
+			return operand;
+		}
+
+		public List<Expression> getOperands() {
+			return List.of(operand);
+		}
+
+		public String toString() {
+			return "-" + operand;
+		}
+	}
+
+	/** An invocation of an operator. Each argument has the type of the corresponding parameter. */
+	public static class Invoke extends Expression {
+		private final Operator operator;
+		private final List<Expression> arguments;
+
+		public Invoke(Operator operator, List<Expression> arguments) {
+			super(operator.getReturnType());
+			this.operator = operator;
+			this.arguments = List.copyOf(arguments);
+		}
+
+		public Operator getOperator() {
+			return operator;
+		}
+
+		public List<Expression> getArguments() {
+			return arguments;
+		}
+
+		public List<Expression> getOperands() {
+			return arguments;
+		}
+
+		public String toString() {
+			return operator.getName() + "(" + arguments.stream().map(Object::toString).collect(Collectors.joining(", ")) + ")";
+		}
+	}
+
+}
@@ -0,0 +1,42 @@
+package org.reldb.relang.ir;
+
+import org.reldb.relang.transpiler.TypeInference;
+
+/**
+ * Turn v = v + n and v = v - n, where v is an int variable of the operator it's assigned in and n a literal that
+ * fits a short, into an Increment, which bytecode can do in place.
+ */
+public class Increments extends Rewriter {
+
+	protected Statement rewrite(Statement statement) {
+		var rewritten = super.rewrite(statement);
+		if (!(rewritten instanceof Statement.Assign))
+			return rewritten;
+		var assign = (Statement.Assign)rewritten;
+		var target = assign.getTarget();
+		if (!target.getType().equals(TypeInference.typeInt) || target.getOwner() != getOperator() || target.isCaptured())
+			return assign;
+		var step = getStep(target, assign.getValue());
+		return (step == null) ? assign : new Statement.Increment(target, step);
+	}
+
+	// Get n from (int)(v + n) or (int)(v - n), negated for the latter, if it fits a short. Null if it's not one of those.
+	private static Integer getStep(Slot target, Expression value) {
+		if (!(value instanceof Expression.Convert) || !(((Expression.Convert)value).getOperand() instanceof Expression.Binary))
+			return null;
+		var binary = (Expression.Binary)((Expression.Convert)value).getOperand();
+		var kind = binary.getKind();
+		if (kind != Expression.Binary.Kind.ADD && kind != Expression.Binary.Kind.SUBTRACT)
+			return null;
+		if (!(binary.getLeft() instanceof Expression.Convert) || !(binary.getRight() instanceof Expression.Constant))
+			return null;
+		var operand = ((Expression.Convert)binary.getLeft()).getOperand();
+		if (!(operand instanceof Expression.Load) || ((Expression.Load)operand).getSlot() != target)
+			return null;
+		long step = (Long)((Expression.Constant)binary.getRight()).getValue();
+		if (kind == Expression.Binary.Kind.SUBTRACT)
+			step = -step;
+		return (step >= Short.MIN_VALUE && step <= Short.MAX_VALUE) ? (int)step : null;
+	}
+
+}
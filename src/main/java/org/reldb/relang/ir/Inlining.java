@@ -0,0 +1,309 @@
+package org.reldb.relang.ir;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.reldb.relang.interpreter.Profile;
+import org.reldb.relang.transpiler.InliningPolicy;
+import org.reldb.relang.transpiler.MemoisationPolicy;
+import org.reldb.relang.transpiler.ParallelisationPolicy;
+import org.reldb.relang.transpiler.TypeInference;
+
+/**
+ * Replace invocations of operators defined by an expression, i.e., whose body only returns one, with the expression,
+ * its parameters replaced by the arguments. The InliningPolicy decides which by the size of the expression, and
+ * whether the operator is invoked at only one place or a Profile shows it's hot. Operators that are to be memoised
+ * are left alone, as are invocations of operators that aren't cheap when parallelising, so they may be forked.
+ * <p>
+ * Arguments must invoke nothing, and are only duplicated if they're simple: a literal, or a slot. An argument that
+ * may fail, e.g., by dividing by zero, must be evaluated exactly once, unconditionally, by an expression that invokes
+ * nothing, so it still fails, and before anything with effects. Every slot the expression uses must be visible at
+ * the call site, and operators nested in an inlined one must be inlined too.
+ * <p>
+ * Afterwards, nested operators that nothing invokes are removed, and captures are found again.
+ */
+public class Inlining extends Rewriter {
+
+	/** Calls, in a profile, that make an operator hot enough to inline. */
+	public static final long hotCallCount = 1000;
+
+	// An operator being inlined, with its arguments by parameter, and the parameters whose arguments are simple enough to duplicate.
+	private static class Inlined {
+		final Operator operator;
+		final Inlined outer;
+		final Map<Slot, Expression> arguments;
+		final Set<Slot> simpleParameters;
+		final int depth;
+
+		Inlined(Operator operator, Inlined outer, Map<Slot, Expression> arguments, Set<Slot> simpleParameters) {
+			this.operator = operator;
+			this.outer = outer;
+			this.arguments = arguments;
+			this.simpleParameters = simpleParameters;
+			depth = (outer == null) ? 1 : outer.depth + 1;
+		}
+
+		// Get the inlining of the given operator, here or in an outer one. Null if it isn't being inlined.
+		Inlined find(Operator owner) {
+			for (var inlined = this; inlined != null; inlined = inlined.outer)
+				if (inlined.operator == owner)
+					return inlined;
+			return null;
+		}
+	}
+
+	private final InliningPolicy policy;
+	private final MemoisationPolicy memoisationPolicy;
+	private final ParallelisationPolicy parallelisationPolicy;
+	private final Profile profile;
+
+	// Number of invocations of each operator in the program.
+	private final Map<Operator, Integer> callSites = new HashMap<>();
+
+	/**
+	 * Ctor.
+	 *
+	 * @param policy - which invocations are inlined.
+	 * @param memoisationPolicy - which operators are memoised, and so not inlined.
+	 * @param parallelisationPolicy - whether invocations may be forked, and so not inlined.
+	 * @param profile - profile of an interpreted run of the program, or null.
+	 */
+	public Inlining(InliningPolicy policy, MemoisationPolicy memoisationPolicy, ParallelisationPolicy parallelisationPolicy, Profile profile) {
+		this.policy = policy;
+		this.memoisationPolicy = memoisationPolicy;
+		this.parallelisationPolicy = parallelisationPolicy;
+		this.profile = profile;
+	}
+
+	public Operator run(Operator program) {
+		callSites.clear();
+		countCallSites(program);
+		super.run(program);
+		removeUninvoked(program);
+		program.findCaptures();
+		return program;
+	}
+
+	private void countCallSites(Operator operator) {
+		Traversal.forEach(operator.getBody(), statement -> {}, expression -> {
+			if (expression instanceof Expression.Invoke)
+				callSites.merge(((Expression.Invoke)expression).getOperator(), 1, Integer::sum);
+		});
+		for (var nested : operator.getOperators())
+			countCallSites(nested);
+	}
+
+	protected Statement rewrite(Statement statement) {
+		// A call's result is discarded, so it's not inlined, though its arguments may be.
+		if (statement instanceof Statement.Call) {
+			var invocation = ((Statement.Call)statement).getInvocation();
+			var arguments = new ArrayList<Expression>();
+			for (var argument : invocation.getArguments())
+				arguments.add(rewrite(argument));
+			return new Statement.Call(new Expression.Invoke(invocation.getOperator(), arguments));
+		}
+		return super.rewrite(statement);
+	}
+
+	protected Expression rewrite(Expression expression) {
+		var rewritten = super.rewrite(expression);
+		if (rewritten instanceof Expression.Invoke) {
+			var inlined = inline((Expression.Invoke)rewritten, null);
+			if (inlined != null)
+				return inlined;
+		}
+		return rewritten;
+	}
+
+	// Get the expression an operator returns, if that's all its body does. Null if it isn't.
+	private static Expression getDefiningExpression(Operator operator) {
+		if (operator.isExternal() || operator.getReturnType() == null)
+			return null;
+		var statements = operator.getBody().getStatements();
+		if (statements.size() != 1 || !(statements.get(0) instanceof Statement.Return))
+			return null;
+		return ((Statement.Return)statements.get(0)).getValue();
+	}
+
+	// Count the operators, operands and invocations in an expression. Conversions are implicit in the source, so don't count.
+	private static int getSize(Expression expression) {
+		var size = (expression instanceof Expression.Convert) ? 0 : 1;
+		for (var operand : expression.getOperands())
+			size += getSize(operand);
+		return size;
+	}
+
+	private static boolean isSimple(Expression expression) {
+		if (expression instanceof Expression.Convert)
+			return isSimple(((Expression.Convert)expression).getOperand());
+		return expression instanceof Expression.Constant || expression instanceof Expression.Load;
+	}
+
+	// Return true if an expression can't fail: it invokes nothing, and only divides integers by non-zero literals.
+	private static boolean cannotFail(Expression expression) {
+		if (expression instanceof Expression.Invoke)
+			return false;
+		if (expression instanceof Expression.Binary) {
+			var binary = (Expression.Binary)expression;
+			if (binary.getKind() == Expression.Binary.Kind.DIVIDE && !binary.getOperandType().equals(TypeInference.typeDouble)) {
+				var divisor = binary.getRight();
+				if (!(divisor instanceof Expression.Constant) || ((Number)((Expression.Constant)divisor).getValue()).longValue() == 0)
+					return false;
+			}
+		}
+		for (var operand : expression.getOperands())
+			if (!cannotFail(operand))
+				return false;
+		return true;
+	}
+
+	private static boolean isLoadOf(Expression expression, Slot slot) {
+		return expression instanceof Expression.Load && ((Expression.Load)expression).getSlot() == slot;
+	}
+
+	private static int countReferences(Expression expression, Slot slot) {
+		var count = isLoadOf(expression, slot) ? 1 : 0;
+		for (var operand : expression.getOperands())
+			count += countReferences(operand, slot);
+		return count;
+	}
+
+	// Count the references to a slot in an expression that are always evaluated: not in the right operand of AND or OR.
+	private static int countUnconditionalReferences(Expression expression, Slot slot) {
+		if (isLoadOf(expression, slot))
+			return 1;
+		var operands = expression.getOperands();
+		if (expression instanceof Expression.Binary) {
+			var kind = ((Expression.Binary)expression).getKind();
+			if (kind == Expression.Binary.Kind.AND || kind == Expression.Binary.Kind.OR)
+				operands = operands.subList(0, 1);
+		}
+		var count = 0;
+		for (var operand : operands)
+			count += countUnconditionalReferences(operand, slot);
+		return count;
+	}
+
+	// Return true if an operator's slots, or the operators nested in it, are visible from the operator being rewritten.
+	private boolean isVisible(Operator owner) {
+		for (var operator = getOperator(); operator != null; operator = operator.getParent())
+			if (operator == owner)
+				return true;
+		return false;
+	}
+
+	/*
+	 * Inline an invocation, in the given inlining or at the call site if null, if the policies and its arguments
+	 * allow, and every slot and operator its expression refers to can be referred to at the call site. Return null if
+	 * it isn't inlined. Its arguments are already valid at the call site.
+	 */
+	private Expression inline(Expression.Invoke invocation, Inlined outer) {
+		var operator = invocation.getOperator();
+		var expression = getDefiningExpression(operator);
+		if (expression == null)
+			return null;
+		if ((outer != null && (outer.depth >= policy.getDepth() || outer.find(operator) != null)) || memoisationPolicy.isMemoised(operator.getName(), operator.isCheap()))
+			return null;
+		if (outer == null && parallelisationPolicy.isParallel() && !operator.isCheap())
+			return null;
+		var hot = profile != null && operator.getDefinition() != null && profile.getCallCount(operator.getDefinition()) >= hotCallCount;
+		if (!policy.isInlined(getSize(expression), hot || callSites.getOrDefault(operator, 0) <= 1))
+			return null;
+		var parameters = operator.getParameters();
+		var arguments = new HashMap<Slot, Expression>();
+		var simpleParameters = new HashSet<Slot>();
+		for (var i = 0; i < parameters.size(); i++) {
+			var argument = invocation.getArguments().get(i);
+			var parameter = parameters.get(i);
+			if (Traversal.invokes(argument))
+				return null;
+			if (isSimple(argument))
+				simpleParameters.add(parameter);
+			arguments.put(parameter, argument);
+			var references = countReferences(expression, parameter);
+			if (!simpleParameters.contains(parameter) && references > 1)
+				return null;
+			// An argument that may fail must still be evaluated, and before anything with effects.
+			if (!cannotFail(argument) && (references != 1 || countUnconditionalReferences(expression, parameter) != 1 || Traversal.invokes(expression)))
+				return null;
+		}
+		return substitute(expression, new Inlined(operator, outer, arguments, simpleParameters));
+	}
+
+	// Get an expression of an operator being inlined as it is at the call site. Null if it can't be.
+	private Expression substitute(Expression expression, Inlined inlined) {
+		if (expression instanceof Expression.Load) {
+			var slot = ((Expression.Load)expression).getSlot();
+			var owner = inlined.find(slot.getOwner());
+			if (owner == null)
+				return isVisible(slot.getOwner()) ? expression : null;
+			if (owner != inlined && !owner.simpleParameters.contains(slot))
+				return null;
+			return owner.arguments.get(slot);
+		}
+		var operands = new ArrayList<Expression>();
+		for (var operand : expression.getOperands()) {
+			var substituted = substitute(operand, inlined);
+			if (substituted == null)
+				return null;
+			operands.add(substituted);
+		}
+		if (expression instanceof Expression.Invoke) {
+			var invocation = new Expression.Invoke(((Expression.Invoke)expression).getOperator(), operands);
+			var operator = invocation.getOperator();
+			var nested = !operator.isExternal() && inlined.find(operator.getParent()) != null;
+			if (!nested && !operator.isExternal() && !isVisible(operator.getParent()))
+				return null;
+			var inlinedInvocation = inline(invocation, inlined);
+			// An operator nested in one being inlined can't be invoked from the call site.
+			if (inlinedInvocation == null)
+				return nested ? null : invocation;
+			return inlinedInvocation;
+		}
+		return rebuild(expression, operands);
+	}
+
+	private static Expression rebuild(Expression expression, List<Expression> operands) {
+		if (expression instanceof Expression.Convert)
+			return new Expression.Convert(expression.getType(), operands.get(0));
+		if (expression instanceof Expression.Binary)
+			return new Expression.Binary(((Expression.Binary)expression).getKind(), operands.get(0), operands.get(1));
+		if (expression instanceof Expression.Not)
+			return new Expression.Not(operands.get(0));
+		if (expression instanceof Expression.Negate)
+			return new Expression.Negate(operands.get(0));
+		return expression;
+	}
+
+	// Remove nested operators that no live operator invokes. The root's own are kept, as later session submissions may invoke them.
+	private static void removeUninvoked(Operator program) {
+		var live = new HashSet<Operator>();
+		live.add(program);
+		live.addAll(program.getOperators());
+		var pending = new ArrayDeque<>(live);
+		while (!pending.isEmpty())
+			Traversal.forEach(pending.pop().getBody(), statement -> {}, expression -> {
+				if (expression instanceof Expression.Invoke) {
+					var invoked = ((Expression.Invoke)expression).getOperator();
+					if (live.add(invoked))
+						pending.push(invoked);
+				}
+			});
+		removeUninvoked(program, live);
+	}
+
+	private static void removeUninvoked(Operator operator, Set<Operator> live) {
+		for (var nested : new ArrayList<>(operator.getOperators())) {
+			if (live.contains(nested))
+				removeUninvoked(nested, live);
+			else
+				operator.removeOperator(nested);
+		}
+	}
+
+}
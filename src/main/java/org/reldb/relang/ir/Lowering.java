@@ -0,0 +1,460 @@
+package org.reldb.relang.ir;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+import org.reldb.relang.exceptions.ExceptionFatal;
+import org.reldb.relang.exceptions.ExceptionSemantic;
+import org.reldb.relang.interpreter.Profile;
+import org.reldb.relang.optimiser.OptimisationLevel;
+import org.reldb.relang.optimiser.PassManager;
+import org.reldb.relang.parser.ast.*;
+import org.reldb.relang.transpiler.BaseASTNode;
+import org.reldb.relang.transpiler.InliningPolicy;
+import org.reldb.relang.transpiler.MemoisationPolicy;
+import org.reldb.relang.transpiler.ParallelisationPolicy;
+import org.reldb.relang.transpiler.ParallelLoop;
+import org.reldb.relang.transpiler.SessionOperator;
+import org.reldb.relang.transpiler.TypeInference;
+
+/**
+ * Lower a program's AST, typed by TypeInference, to the IR. Names are resolved as the code generators resolve them,
+ * in the order the program defines them, so each dereference becomes a Load of a slot, each invocation refers to its
+ * operator, and a slot used by an operator nested in its owner is marked captured, and added to the captures of the
+ * operators between. Conversions are made explicit, and type errors are reported here, as are PARALLEL FOR loops
+ * that can't be evaluated in parallel.
+ */
+public class Lowering {
+
+	/** The slots and operators of an operator that may be referenced so far. */
+	private static class Scope {
+		final Scope parent;
+		final Operator operator;
+		final Map<String, Slot> slots = new HashMap<>();
+		final Map<String, Operator> operators = new HashMap<>();
+
+		Scope(Scope parent, Operator operator) {
+			this.parent = parent;
+			this.operator = operator;
+		}
+	}
+
+	private final TypeInference types;
+
+	// Operators of earlier submissions to a session, by name, found if no scope has the name.
+	private final Map<String, Operator> externalOperators = new HashMap<>();
+
+	private Scope scope = null;
+
+	private Lowering(TypeInference types) {
+		this.types = types;
+	}
+
+	/**
+	 * Lower a program.
+	 *
+	 * @param rootName - name of the operator that is the root of the program.
+	 * @param program - root of an AST produced by Relang.execute() or Relang.evaluate(), perhaps optimised.
+	 * @return the root operator.
+	 */
+	public static Operator lower(String rootName, SimpleNode program) {
+		return new Lowering(new TypeInference(program)).lowerProgram(rootName, program);
+	}
+
+	/**
+	 * Lower a submission to a session. Its root takes the values of the session's variables from its state Map, and
+	 * stores them back, along with any new ones, when it finishes.
+	 *
+	 * @param rootName - name of the operator that is the root of the program.
+	 * @param program - the submission's AST, perhaps optimised.
+	 * @param variableTypes - the types of the session's root variables, by name.
+	 * @param operators - root operators of earlier submissions, which are invoked if the submission doesn't define its own.
+	 * @return the root operator.
+	 */
+	public static Operator lowerSubmission(String rootName, SimpleNode program, Map<String, String> variableTypes, Collection<SessionOperator> operators) {
+		var returnTypes = new HashMap<String, String>();
+		for (var operator : operators)
+			returnTypes.put(operator.getName(), operator.getReturnType());
+		var lowering = new Lowering(new TypeInference(program, variableTypes, returnTypes, false));
+		var root = lowering.beginRoot(rootName, program, variableTypes);
+		root.setState(true, true);
+		for (var operator : operators)
+			lowering.addExternalOperator(operator);
+		root.setBody(lowering.lowerBlock(program, 0));
+		return root;
+	}
+
+	/**
+	 * Lower the remainder of a program, to resume an interpreted run of it at a safe point: either before a top-level
+	 * statement, or at the back edge of a top-level FOR loop, i.e., just before its condition is tested. The root takes
+	 * the values of the root variables from its state Map.
+	 *
+	 * @param rootName - name of the operator that is the root of the program.
+	 * @param program - the program's AST.
+	 * @param definitions - the ASTFnDef or ASTFnDefPure nodes of the root operators defined so far, in definition order.
+	 * @param variableTypes - the types of the root variables, by name.
+	 * @param statementIndex - index of the top-level statement to resume at.
+	 * @param atLoopBackEdge - true to resume at the back edge of the FOR loop that is the statement at statementIndex.
+	 * @return the root operator.
+	 */
+	public static Operator lowerContinuation(String rootName, SimpleNode program, List<SimpleNode> definitions, Map<String, String> variableTypes, int statementIndex, boolean atLoopBackEdge) {
+		var lowering = new Lowering(new TypeInference(program, variableTypes, Map.of(), false));
+		var root = lowering.beginRoot(rootName, program, variableTypes);
+		root.setState(true, false);
+		for (var definition : definitions)
+			lowering.defineOperator(definition);
+		var statements = new ArrayList<Statement>();
+		for (var i = statementIndex; i < program.jjtGetNumChildren(); i++) {
+			if (i == statementIndex && atLoopBackEdge) {
+				var loop = (ASTForLoop)program.jjtGetChild(i).jjtGetChild(0);
+				statements.add(lowering.lowerLoop(loop, loop.isParallel ? new ParallelLoop(loop) : null));
+			} else
+				lowering.lowerStatement(program.jjtGetChild(i), statements);
+		}
+		root.setBody(new Statement.Block(statements));
+		return root;
+	}
+
+	/**
+	 * Get the passes over the IR at an optimisation level: none at O0, otherwise inlining, then narrowing, then increments.
+	 *
+	 * @param level - the optimisation level.
+	 * @param inliningPolicy - which invocations are inlined.
+	 * @param memoisationPolicy - which operators are memoised, and so not inlined.
+	 * @param parallelisationPolicy - whether invocations may be forked, and so not inlined.
+	 * @param profile - profile of an interpreted run of the program, or null. Hot operators are inlined as if invoked at only one place.
+	 */
+	public static PassManager<Operator> createPassManager(OptimisationLevel level, InliningPolicy inliningPolicy, MemoisationPolicy memoisationPolicy, ParallelisationPolicy parallelisationPolicy, Profile profile) {
+		var passes = new PassManager<Operator>();
+		if (level != OptimisationLevel.O0) {
+			passes.add("inline", new Inlining(inliningPolicy, memoisationPolicy, parallelisationPolicy, profile));
+			passes.add("narrow", new Narrowing());
+			passes.add("increments", new Increments());
+		}
+		return passes;
+	}
+
+	/** Get the passes over the IR at an optimisation level, with the standard inlining policy, no memoisation or parallelisation, and no profile. */
+	public static PassManager<Operator> createPassManager(OptimisationLevel level) {
+		return createPassManager(level, InliningPolicy.standard, MemoisationPolicy.none, ParallelisationPolicy.none, null);
+	}
+
+	private static String getToken(Node node) {
+		return ((BaseASTNode)node).tokenValue;
+	}
+
+	private Operator lowerProgram(String rootName, SimpleNode program) {
+		// Null if unknown, which its RETURN reports.
+		var returnType = (program instanceof ASTEvaluate) ? types.getReturnType(program) : null;
+		var root = new Operator(rootName, null, returnType, null);
+		scope = new Scope(null, root);
+		root.setBody(lowerBlock(program, 0));
+		return root;
+	}
+
+	// Begin the root of a program whose root variables, of the given types, are taken from its state Map.
+	private Operator beginRoot(String rootName, SimpleNode program, Map<String, String> variableTypes) {
+		// Null if unknown, which its RETURN reports.
+		var returnType = (program instanceof ASTEvaluate) ? types.getReturnType(program) : null;
+		var root = new Operator(rootName, null, returnType, null);
+		scope = new Scope(null, root);
+		variableTypes.forEach((name, type) -> scope.slots.put(name, root.addStateVariable(name, type)));
+		return root;
+	}
+
+	// Make an operator of an earlier submission invocable. Its closure is built from the root variables of the same names.
+	private void addExternalOperator(SessionOperator sessionOperator) {
+		var operator = new Operator(sessionOperator.getClassName(), sessionOperator.getName(), sessionOperator.getReturnType());
+		sessionOperator.getParameterTypes().forEach(operator::addParameter);
+		for (var name : sessionOperator.getClosureVariables()) {
+			var slot = scope.slots.get(name);
+			if (slot == null)
+				throw new ExceptionFatal("Operator " + sessionOperator.getName() + " needs root variable " + name + ", which the session doesn't have");
+			operator.addCapture(slot);
+		}
+		externalOperators.put(operator.getName(), operator);
+	}
+
+	// Lower the children of a node, from the given one on.
+	private Statement.Block lowerBlock(Node node, int first) {
+		var statements = new ArrayList<Statement>();
+		for (var i = first; i < node.jjtGetNumChildren(); i++)
+			lowerStatement(node.jjtGetChild(i), statements);
+		return new Statement.Block(statements);
+	}
+
+	private Statement.Block lowerBlock(Node node) {
+		var statements = new ArrayList<Statement>();
+		lowerStatement(node, statements);
+		return new Statement.Block(statements);
+	}
+
+	private void lowerStatement(Node node, List<Statement> statements) {
+		if (node instanceof ASTStatement || node instanceof ASTBlock || node instanceof ASTFnBody) {
+			for (var i = 0; i < node.jjtGetNumChildren(); i++)
+				lowerStatement(node.jjtGetChild(i), statements);
+		} else if (node instanceof ASTFnDef || node instanceof ASTFnDefPure)
+			defineOperator((SimpleNode)node);
+		else if (node instanceof ASTAssignment)
+			statements.add(assign((ASTAssignment)node));
+		else if (node instanceof ASTIfStatement) {
+			var condition = condition(node, 0);
+			var then = lowerBlock(node.jjtGetChild(1));
+			var otherwise = ((ASTIfStatement)node).ifHasElse ? lowerBlock(node.jjtGetChild(2)) : null;
+			statements.add(new Statement.If(condition, then, otherwise));
+		} else if (node instanceof ASTForLoop) {
+			var loop = (ASTForLoop)node;
+			// Checked first, so a PARALLEL FOR loop that can't be evaluated in parallel is rejected whatever evaluates it.
+			var parallelLoop = loop.isParallel ? new ParallelLoop(loop) : null;
+			statements.add(assign((ASTAssignment)node.jjtGetChild(0)));
+			statements.add(lowerLoop(loop, parallelLoop));
+		} else if (node instanceof ASTWrite)
+			statements.add(new Statement.Write(value(node.jjtGetChild(0))));
+		else if (node instanceof ASTCall)
+			statements.add(new Statement.Call(invoke(node)));
+		else if (node instanceof ASTReturnExpression) {
+			// Lowered first, so an operator it invokes that can't be found is reported, not the type that leaves unknown.
+			var value = value(node.jjtGetChild(0));
+			if (scope.operator.getReturnType() == null)
+				throw new ExceptionSemantic("Unable to determine the return type of operator " + scope.operator.getName(), node);
+			statements.add(new Statement.Return(convert(value, scope.operator.getReturnType(), node)));
+		}
+		else
+			throw new ExceptionFatal("Unable to lower " + node);
+	}
+
+	// Lower a FOR loop after its initialisation, which has been lowered.
+	private Statement.Loop lowerLoop(ASTForLoop node, ParallelLoop parallelLoop) {
+		var condition = condition(node, 1);
+		var body = lowerBlock(node.jjtGetChild(3));
+		var update = lowerBlock(node.jjtGetChild(2));
+		return new Statement.Loop(condition, body, update, (parallelLoop != null) ? parallel(parallelLoop) : null);
+	}
+
+	/*
+	 * Describe a PARALLEL FOR loop, once its body has been lowered, so its variables have slots. Null if it's evaluated
+	 * sequentially, as its body has effects, or a reduction variable is never assigned.
+	 */
+	private Statement.Loop.Parallel parallel(ParallelLoop parallelLoop) {
+		if (parallelLoop.isSequential())
+			return null;
+		var reductions = new LinkedHashMap<Slot, String>();
+		for (var reduction : parallelLoop.getReductions().entrySet()) {
+			var slot = resolve(reduction.getKey());
+			if (slot == null)
+				return null;
+			reductions.put(slot, reduction.getValue());
+		}
+		var privates = new LinkedHashSet<Slot>();
+		for (var name : parallelLoop.getPrivates())
+			privates.add(resolve(name));
+		return new Statement.Loop.Parallel(resolve(parallelLoop.getVariable()), parallelLoop.getStep(), parallelLoop.isAscending(), parallelLoop.isInclusive(), reductions, privates);
+	}
+
+	private void defineOperator(SimpleNode definition) {
+		var name = getToken(definition.jjtGetChild(0));
+		if (scope.operators.containsKey(name))
+			throw new ExceptionSemantic(name + " is already defined in operator " + scope.operator.getName(), definition);
+		var returned = definition instanceof ASTFnDefPure || definition.jjtGetNumChildren() == 4;
+		var returnType = returned ? types.getReturnType(definition) : null;
+		if (returned && returnType == null)
+			throw new ExceptionSemantic("Unable to determine the return type of operator " + name, definition);
+		var operator = new Operator(name, scope.operator, returnType, definition);
+		// Defined before its body is lowered, so it can invoke itself.
+		scope.operators.put(name, operator);
+		scope = new Scope(scope, operator);
+		try {
+			var parmlist = definition.jjtGetChild(1);
+			for (var i = 0; i < parmlist.jjtGetNumChildren(); i++) {
+				var parameter = parmlist.jjtGetChild(i);
+				var parameterTypeName = getToken(parameter.jjtGetChild(0));
+				var parameterName = getToken(parameter.jjtGetChild(1));
+				if (!parameterTypeName.equals(TypeInference.typeLong) && !parameterTypeName.equals(TypeInference.typeDouble) && !parameterTypeName.equals(TypeInference.typeBoolean))
+					throw new ExceptionSemantic("Unsupported parameter type " + parameterTypeName, parameter);
+				if (scope.slots.containsKey(parameterName))
+					throw new ExceptionSemantic(parameterName + " is already defined in operator " + name, parameter);
+				scope.slots.put(parameterName, operator.addParameter(parameterName, parameterTypeName));
+			}
+			operator.setBody(lowerBlock(definition, 2));
+		} finally {
+			scope = scope.parent;
+		}
+	}
+
+	// Find the slot a name refers to, and capture it if it belongs to an enclosing operator. Null if there isn't one.
+	private Slot resolve(String name) {
+		for (var outer = scope; outer != null; outer = outer.parent) {
+			var slot = outer.slots.get(name);
+			if (slot == null)
+				continue;
+			if (outer != scope) {
+				slot.setCaptured(true);
+				for (var inner = scope; inner != outer; inner = inner.parent)
+					inner.operator.addCapture(slot);
+			}
+			return slot;
+		}
+		return null;
+	}
+
+	private Statement assign(ASTAssignment assignment) {
+		var name = getToken(assignment.jjtGetChild(0));
+		var target = resolve(name);
+		var value = value(assignment.jjtGetChild(1));
+		if (target == null) {
+			var type = types.getVariableType(assignment);
+			if (type == null)
+				throw new ExceptionSemantic("Unable to determine the type of " + name + " in operator " + scope.operator.getName(), assignment);
+			target = scope.operator.addVariable(name, type);
+			scope.slots.put(name, target);
+		}
+		return new Statement.Assign(target, convert(value, target.getType(), assignment));
+	}
+
+	// Convert a value to the given type, if it can be.
+	private static Expression convert(Expression value, String type, Node node) {
+		var valueType = value.getType();
+		if (valueType.equals(type))
+			return value;
+		if (valueType.equals(TypeInference.typeLong) && (type.equals(TypeInference.typeDouble) || type.equals(TypeInference.typeInt)))
+			return new Expression.Convert(type, value);
+		throw new ExceptionSemantic("Expected a value of type " + type + " but got " + valueType, node);
+	}
+
+	private Expression.Invoke invoke(Node node) {
+		var name = getToken(node.jjtGetChild(0));
+		Operator operator = null;
+		for (var outer = scope; outer != null && operator == null; outer = outer.parent)
+			operator = outer.operators.get(name);
+		if (operator == null) {
+			operator = externalOperators.get(name);
+			if (operator == null)
+				throw new ExceptionSemantic("Can't find operator " + name, node);
+			// The closure it's given is built from root variables, so operators between capture them.
+			for (var slot : operator.getCaptures())
+				resolve(slot.getName());
+		}
+		var arglist = node.jjtGetChild(1);
+		var parameters = operator.getParameters();
+		if (arglist.jjtGetNumChildren() != parameters.size())
+			throw new ExceptionSemantic("Operator " + name + " expects " + parameters.size() + " argument(s)", node);
+		var arguments = new ArrayList<Expression>();
+		for (var i = 0; i < parameters.size(); i++)
+			arguments.add(convert(value(arglist.jjtGetChild(i)), parameters.get(i).getType(), arglist));
+		return new Expression.Invoke(operator, arguments);
+	}
+
+	// Lower an expression that must have a value.
+	private Expression value(Node node) {
+		var expression = lowerExpression(node);
+		if (expression.getType() == null)
+			throw new ExceptionSemantic("Operator does not return a value", node);
+		return expression;
+	}
+
+	private Expression condition(Node node, int childIndex) {
+		var condition = value(node.jjtGetChild(childIndex));
+		if (!condition.getType().equals(TypeInference.typeBoolean))
+			throw new ExceptionSemantic("Expected a boolean condition but got " + condition.getType(), node);
+		return condition;
+	}
+
+	private Expression booleanOperand(Node node, int childIndex) {
+		var operand = value(node.jjtGetChild(childIndex));
+		if (!operand.getType().equals(TypeInference.typeBoolean))
+			throw new ExceptionSemantic("Expected a boolean operand but got " + operand.getType(), node);
+		return operand;
+	}
+
+	private Expression numericOperand(Node node) {
+		var operand = value(node.jjtGetChild(0));
+		if (operand.getType().equals(TypeInference.typeBoolean))
+			throw new ExceptionSemantic("Expected a numeric operand but got " + operand.getType(), node);
+		return operand;
+	}
+
+	// Lower both operands, converted to a common numeric type, as a binary operation.
+	private Expression numeric(Node node, Expression.Binary.Kind kind) {
+		var left = value(node.jjtGetChild(0));
+		var right = value(node.jjtGetChild(1));
+		if (left.getType().equals(TypeInference.typeBoolean) || right.getType().equals(TypeInference.typeBoolean))
+			throw new ExceptionSemantic("Expected numeric operands but got " + left.getType() + " and " + right.getType(), node);
+		var type = TypeInference.promote(left.getType(), right.getType());
+		return new Expression.Binary(kind, convert(left, type, node), convert(right, type, node));
+	}
+
+	// Lower == or <>, which compare booleans or numbers.
+	private Expression equality(Node node, Expression.Binary.Kind kind) {
+		var left = value(node.jjtGetChild(0));
+		var right = value(node.jjtGetChild(1));
+		if (left.getType().equals(TypeInference.typeBoolean) && right.getType().equals(TypeInference.typeBoolean))
+			return new Expression.Binary(kind, left, right);
+		return numeric(node, kind);
+	}
+
+	private Expression logical(Node node, Expression.Binary.Kind kind) {
+		return new Expression.Binary(kind, booleanOperand(node, 0), booleanOperand(node, 1));
+	}
+
+	// Lower an expression. Its type is null if it's an invocation of an operator that doesn't return a value.
+	private Expression lowerExpression(Node node) {
+		if (node instanceof ASTDereference) {
+			var slot = resolve(getToken(node));
+			if (slot == null)
+				throw new ExceptionSemantic("ERROR: Variable " + getToken(node) + " has not been initialised.", node);
+			// An int is read as a long, so arithmetic on it can't overflow where a long wouldn't.
+			var load = new Expression.Load(slot);
+			return slot.getType().equals(TypeInference.typeInt) ? new Expression.Convert(TypeInference.typeLong, load) : load;
+		}
+		if (node instanceof ASTFnInvoke)
+			return invoke(node);
+		if (node instanceof ASTInteger) {
+			try {
+				return new Expression.Constant(TypeInference.typeLong, TypeInference.parseInteger(getToken(node)));
+			} catch (NumberFormatException nfe) {
+				throw new ExceptionSemantic("Invalid integer " + getToken(node), node);
+			}
+		}
+		if (node instanceof ASTRational)
+			return new Expression.Constant(TypeInference.typeDouble, Double.parseDouble(getToken(node)));
+		if (node instanceof ASTTrue || node instanceof ASTFalse)
+			return new Expression.Constant(TypeInference.typeBoolean, node instanceof ASTTrue);
+		if (node instanceof ASTAdd)
+			return numeric(node, Expression.Binary.Kind.ADD);
+		if (node instanceof ASTSubtract)
+			return numeric(node, Expression.Binary.Kind.SUBTRACT);
+		if (node instanceof ASTTimes)
+			return numeric(node, Expression.Binary.Kind.MULTIPLY);
+		if (node instanceof ASTDivide)
+			return numeric(node, Expression.Binary.Kind.DIVIDE);
+		if (node instanceof ASTCompEqual)
+			return equality(node, Expression.Binary.Kind.EQUAL);
+		if (node instanceof ASTCompNequal)
+			return equality(node, Expression.Binary.Kind.NOT_EQUAL);
+		if (node instanceof ASTCompLT)
+			return numeric(node, Expression.Binary.Kind.LESS);
+		if (node instanceof ASTCompLTE)
+			return numeric(node, Expression.Binary.Kind.LESS_OR_EQUAL);
+		if (node instanceof ASTCompGT)
+			return numeric(node, Expression.Binary.Kind.GREATER);
+		if (node instanceof ASTCompGTE)
+			return numeric(node, Expression.Binary.Kind.GREATER_OR_EQUAL);
+		if (node instanceof ASTAnd)
+			return logical(node, Expression.Binary.Kind.AND);
+		if (node instanceof ASTOr)
+			return logical(node, Expression.Binary.Kind.OR);
+		if (node instanceof ASTUnaryNot)
+			return new Expression.Not(booleanOperand(node, 0));
+		if (node instanceof ASTUnaryPlus)
+			return numericOperand(node);
+		if (node instanceof ASTUnaryMinus)
+			return new Expression.Negate(numericOperand(node));
+		throw new ExceptionFatal("Unable to lower " + node);
+	}
+
+}
@@ -0,0 +1,60 @@
+package org.reldb.relang.ir;
+
+import org.reldb.relang.transpiler.TypeInference;
+
+/**
+ * Avoid needless conversions. A converted constant becomes a constant of the new type, and a comparison of an int
+ * variable, read as a long, with another int variable or a literal that fits an int, compares them as ints, so
+ * counted loops test their variable without widening it.
+ */
+public class Narrowing extends Rewriter {
+
+	protected Expression rewrite(Expression expression) {
+		var rewritten = super.rewrite(expression);
+		if (rewritten instanceof Expression.Convert)
+			return foldConversion((Expression.Convert)rewritten);
+		if (rewritten instanceof Expression.Binary)
+			return narrowComparison((Expression.Binary)rewritten);
+		return rewritten;
+	}
+
+	private static Expression foldConversion(Expression.Convert convert) {
+		if (!(convert.getOperand() instanceof Expression.Constant) || !convert.getOperand().getType().equals(TypeInference.typeLong))
+			return convert;
+		var value = (Long)((Expression.Constant)convert.getOperand()).getValue();
+		if (convert.getType().equals(TypeInference.typeDouble))
+			return new Expression.Constant(TypeInference.typeDouble, (double)value);
+		if (convert.getType().equals(TypeInference.typeInt) && fitsInt(value))
+			return new Expression.Constant(TypeInference.typeInt, (int)(long)value);
+		return convert;
+	}
+
+	private static boolean fitsInt(long value) {
+		return value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE;
+	}
+
+	// True if an operand is an int read as a long.
+	private static boolean isWidenedInt(Expression operand) {
+		return operand instanceof Expression.Convert && ((Expression.Convert)operand).getOperand().getType().equals(TypeInference.typeInt);
+	}
+
+	// Get an operand of a long comparison as an int, or null if it isn't one.
+	private static Expression toInt(Expression operand) {
+		if (isWidenedInt(operand))
+			return ((Expression.Convert)operand).getOperand();
+		if (operand instanceof Expression.Constant && operand.getType().equals(TypeInference.typeLong)) {
+			var value = (Long)((Expression.Constant)operand).getValue();
+			return fitsInt(value) ? new Expression.Constant(TypeInference.typeInt, (int)(long)value) : null;
+		}
+		return null;
+	}
+
+	private static Expression narrowComparison(Expression.Binary binary) {
+		if (!binary.getKind().isComparison() || !(isWidenedInt(binary.getLeft()) || isWidenedInt(binary.getRight())))
+			return binary;
+		var left = toInt(binary.getLeft());
+		var right = toInt(binary.getRight());
+		return (left == null || right == null) ? binary : new Expression.Binary(binary.getKind(), left, right);
+	}
+
+}
@@ -0,0 +1,246 @@
+package org.reldb.relang.ir;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.reldb.relang.parser.ast.SimpleNode;
+
+/**
+ * An operator in the IR, or the root of a program: its typed parameters and variables, the operators nested in it,
+ * the slots of enclosing operators it captures, and its body. Nested operators aren't statements; invocations
+ * refer to them directly, as names were resolved when the program was lowered.
+ * <p>
+ * An operator compiled in an earlier submission to a session is external: it has no body, isn't nested in the
+ * program, and its captures are the root slots its closure is built from.
+ */
+public class Operator {
+
+	private final String name;
+	private final Operator parent;
+	private final String returnType;
+	private final SimpleNode definition;
+	private final String className;
+	private final List<Slot> parameters = new ArrayList<>();
+	private final List<Slot> variables = new ArrayList<>();
+	private final List<Operator> operators = new ArrayList<>();
+	private final Set<Slot> captures = new LinkedHashSet<>();
+	private final List<Slot> stateVariables = new ArrayList<>();
+	private Statement.Block body = new Statement.Block(List.of());
+	private boolean takesState = false;
+	private boolean storesState = false;
+
+	Operator(String name, Operator parent, String returnType, SimpleNode definition) {
+		this.name = name;
+		this.parent = parent;
+		this.returnType = returnType;
+		this.definition = definition;
+		className = null;
+		if (parent != null)
+			parent.operators.add(this);
+	}
+
+	// An external operator, compiled to the given class.
+	Operator(String className, String name, String returnType) {
+		this.name = name;
+		this.className = className;
+		this.returnType = returnType;
+		parent = null;
+		definition = null;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/** Get a name for this operator that is unique within the program. */
+	public String getPath() {
+		return (parent == null) ? name : parent.getPath() + "_" + name;
+	}
+
+	/** Get the operator this one is nested in. Null if this is the root of the program. */
+	public Operator getParent() {
+		return parent;
+	}
+
+	/** Get the AST node that defines this operator, e.g., to find it in a Profile. Null for the root, or if external. */
+	public SimpleNode getDefinition() {
+		return definition;
+	}
+
+	/** Get the class an external operator was compiled to. Null if it's in this program. */
+	public String getClassName() {
+		return className;
+	}
+
+	/** Return true if this operator was compiled in an earlier submission to a session. */
+	public boolean isExternal() {
+		return className != null;
+	}
+
+	/** Return true if this root takes the values of its state variables from a Map, as a continuation or session submission does. */
+	public boolean takesState() {
+		return takesState;
+	}
+
+	/** Return true if this root stores every variable back in its state Map when it finishes. */
+	public boolean storesState() {
+		return storesState;
+	}
+
+	/** Get the variables whose values this root takes from its state Map, in order. */
+	public List<Slot> getStateVariables() {
+		return Collections.unmodifiableList(stateVariables);
+	}
+
+	/** Get the type of value this operator returns. Null if it doesn't return one. */
+	public String getReturnType() {
+		return returnType;
+	}
+
+	public List<Slot> getParameters() {
+		return Collections.unmodifiableList(parameters);
+	}
+
+	/** Get the variables, in the order they're first assigned. */
+	public List<Slot> getVariables() {
+		return Collections.unmodifiableList(variables);
+	}
+
+	/** Get the operators nested in this one, in the order they're defined. */
+	public List<Operator> getOperators() {
+		return Collections.unmodifiableList(operators);
+	}
+
+	/** Get the slots of enclosing operators that this operator, or one nested in it, uses. */
+	public Set<Slot> getCaptures() {
+		return Collections.unmodifiableSet(captures);
+	}
+
+	public Statement.Block getBody() {
+		return body;
+	}
+
+	/** Replace the body, e.g., in a pass. */
+	public void setBody(Statement.Block body) {
+		this.body = body;
+	}
+
+	/** Return true if this operator, and those nested in it, invoke nothing and have no loops. */
+	public boolean isCheap() {
+		var cheap = new boolean[] {true};
+		Traversal.forEach(body, statement -> {
+			if (statement instanceof Statement.Loop || statement instanceof Statement.Call)
+				cheap[0] = false;
+		}, expression -> {
+			if (expression instanceof Expression.Invoke)
+				cheap[0] = false;
+		});
+		return cheap[0] && operators.stream().allMatch(Operator::isCheap);
+	}
+
+	void setState(boolean takesState, boolean storesState) {
+		this.takesState = takesState;
+		this.storesState = storesState;
+	}
+
+	Slot addStateVariable(String name, String type) {
+		var variable = addVariable(name, type);
+		stateVariables.add(variable);
+		return variable;
+	}
+
+	Slot addParameter(String name, String type) {
+		var parameter = new Slot(this, name, type, true);
+		parameters.add(parameter);
+		return parameter;
+	}
+
+	Slot addVariable(String name, String type) {
+		var variable = new Slot(this, name, type, false);
+		variables.add(variable);
+		return variable;
+	}
+
+	void addCapture(Slot slot) {
+		captures.add(slot);
+	}
+
+	void removeOperator(Operator operator) {
+		operators.remove(operator);
+	}
+
+	/*
+	 * In the root, find again which slots operators capture, from the slots their bodies use and the closures of
+	 * external operators they invoke, e.g., after a pass has changed which operators use which slots.
+	 */
+	void findCaptures() {
+		var all = new ArrayList<Operator>();
+		collect(all);
+		for (var operator : all) {
+			operator.captures.clear();
+			for (var slot : operator.parameters)
+				slot.setCaptured(false);
+			for (var slot : operator.variables)
+				slot.setCaptured(false);
+		}
+		for (var operator : all)
+			for (var slot : getUsedSlots(operator.body))
+				if (slot.getOwner() != operator) {
+					slot.setCaptured(true);
+					for (var inner = operator; inner != slot.getOwner(); inner = inner.parent)
+						inner.captures.add(slot);
+				}
+	}
+
+	private void collect(List<Operator> all) {
+		all.add(this);
+		for (var operator : operators)
+			operator.collect(all);
+	}
+
+	private static Set<Slot> getUsedSlots(Statement.Block body) {
+		var slots = new LinkedHashSet<Slot>();
+		Traversal.forEach(body, statement -> {
+			if (statement instanceof Statement.Assign)
+				slots.add(((Statement.Assign)statement).getTarget());
+			else if (statement instanceof Statement.Increment)
+				slots.add(((Statement.Increment)statement).getTarget());
+		}, expression -> {
+			if (expression instanceof Expression.Load)
+				slots.add(((Expression.Load)expression).getSlot());
+			else if (expression instanceof Expression.Invoke && ((Expression.Invoke)expression).getOperator().isExternal())
+				slots.addAll(((Expression.Invoke)expression).getOperator().getCaptures());
+		});
+		return slots;
+	}
+
+	void print(StringBuilder out, String indent) {
+		out.append(indent).append(name).append("(")
+				.append(parameters.stream().map(parameter -> parameter.getType() + " " + parameter).collect(Collectors.joining(", ")))
+				.append(")");
+		if (returnType != null)
+			out.append(" -> ").append(returnType);
+		if (!captures.isEmpty())
+			out.append(" captures ").append(captures.stream().map(Slot::getName).collect(Collectors.joining(", ")));
+		out.append(" {\n");
+		for (var variable : variables)
+			out.append(indent).append("   ").append(variable.getType()).append(" ").append(variable).append(variable.isCaptured() ? " captured\n" : "\n");
+		for (var statement : body.getStatements())
+			statement.print(out, indent + "   ");
+		for (var operator : operators)
+			operator.print(out, indent + "   ");
+		out.append(indent).append("}\n");
+	}
+
+	/** Get a listing of this operator, and those nested in it. */
+	public String toString() {
+		var out = new StringBuilder();
+		print(out, "");
+		return out.toString();
+	}
+
+}
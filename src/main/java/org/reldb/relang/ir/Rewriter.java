@@ -0,0 +1,87 @@
+package org.reldb.relang.ir;
+
+import java.util.ArrayList;
+
+import org.reldb.relang.optimiser.PassManager;
+
+/**
+ * A pass that rebuilds the body of every operator in a program, bottom up. By default each node is rebuilt from its
+ * rewritten children; a pass overrides rewrite() for the nodes it changes.
+ */
+public abstract class Rewriter implements PassManager.Pass<Operator> {
+
+	private Operator operator;
+
+	public Operator run(Operator program) {
+		rewriteOperator(program);
+		return program;
+	}
+
+	private void rewriteOperator(Operator operator) {
+		this.operator = operator;
+		operator.setBody(rewriteBlock(operator.getBody()));
+		for (var nested : operator.getOperators())
+			rewriteOperator(nested);
+	}
+
+	/** Get the operator whose body is being rewritten. */
+	protected Operator getOperator() {
+		return operator;
+	}
+
+	protected Statement.Block rewriteBlock(Statement.Block block) {
+		var statements = new ArrayList<Statement>();
+		for (var statement : block.getStatements())
+			statements.add(rewrite(statement));
+		return new Statement.Block(statements);
+	}
+
+	protected Statement rewrite(Statement statement) {
+		if (statement instanceof Statement.Assign) {
+			var assign = (Statement.Assign)statement;
+			return new Statement.Assign(assign.getTarget(), rewrite(assign.getValue()));
+		}
+		if (statement instanceof Statement.If) {
+			var ifStatement = (Statement.If)statement;
+			var otherwise = ifStatement.getOtherwise();
+			return new Statement.If(rewrite(ifStatement.getCondition()), rewriteBlock(ifStatement.getThen()), (otherwise == null) ? null : rewriteBlock(otherwise));
+		}
+		if (statement instanceof Statement.Loop) {
+			var loop = (Statement.Loop)statement;
+			return new Statement.Loop(rewrite(loop.getCondition()), rewriteBlock(loop.getBody()), rewriteBlock(loop.getUpdate()), loop.getParallel());
+		}
+		if (statement instanceof Statement.Block)
+			return rewriteBlock((Statement.Block)statement);
+		if (statement instanceof Statement.Write)
+			return new Statement.Write(rewrite(((Statement.Write)statement).getValue()));
+		if (statement instanceof Statement.Call)
+			return new Statement.Call((Expression.Invoke)rewrite(((Statement.Call)statement).getInvocation()));
+		if (statement instanceof Statement.Return)
+			return new Statement.Return(rewrite(((Statement.Return)statement).getValue()));
+		return statement;
+	}
+
+	protected Expression rewrite(Expression expression) {
+		if (expression instanceof Expression.Convert) {
+			var convert = (Expression.Convert)expression;
+			return new Expression.Convert(convert.getType(), rewrite(convert.getOperand()));
+		}
+		if (expression instanceof Expression.Binary) {
+			var binary = (Expression.Binary)expression;
+			return new Expression.Binary(binary.getKind(), rewrite(binary.getLeft()), rewrite(binary.getRight()));
+		}
+		if (expression instanceof Expression.Not)
+			return new Expression.Not(rewrite(((Expression.Not)expression).getOperand()));
+		if (expression instanceof Expression.Negate)
+			return new Expression.Negate(rewrite(((Expression.Negate)expression).getOperand()));
+		if (expression instanceof Expression.Invoke) {
+			var invoke = (Expression.Invoke)expression;
+			var arguments = new ArrayList<Expression>();
+			for (var argument : invoke.getArguments())
+				arguments.add(rewrite(argument));
+			return new Expression.Invoke(invoke.getOperator(), arguments);
+		}
+		return expression;
+	}
+
+}
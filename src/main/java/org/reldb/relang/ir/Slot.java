@@ -0,0 +1,52 @@
+package org.reldb.relang.ir;
+
+/**
+ * A parameter or variable of an operator. Its type is one of TypeInference's, and never changes. A slot is
+ * captured if an operator nested in its owner reads or assigns it, so it must outlive a single invocation's locals.
+ */
+public class Slot {
+
+	private final Operator owner;
+	private final String name;
+	private final String type;
+	private final boolean parameter;
+	private boolean captured = false;
+
+	Slot(Operator owner, String name, String type, boolean parameter) {
+		this.owner = owner;
+		this.name = name;
+		this.type = type;
+		this.parameter = parameter;
+	}
+
+	/** Get the operator this slot belongs to. */
+	public Operator getOwner() {
+		return owner;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public String getType() {
+		return type;
+	}
+
+	public boolean isParameter() {
+		return parameter;
+	}
+
+	/** True if an operator nested in the owner uses this slot. */
+	public boolean isCaptured() {
+		return captured;
+	}
+
+	void setCaptured(boolean captured) {
+		this.captured = captured;
+	}
+
+	public String toString() {
+		return name;
+	}
+
+}
@@ -0,0 +1,270 @@
+package org.reldb.relang.ir;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A statement in the IR. Control flow is explicit: an IF has its branches, and a loop its condition, body and
+ * update, each a Block. Statements are immutable, so passes build new ones.
+ */
+public abstract class Statement {
+
+	abstract void print(StringBuilder out, String indent);
+
+	public String toString() {
+		var out = new StringBuilder();
+		print(out, "");
+		return out.toString();
+	}
+
+	/** Statements run in order. */
+	public static class Block extends Statement {
+		private final List<Statement> statements;
+
+		public Block(List<Statement> statements) {
+			this.statements = List.copyOf(statements);
+		}
+
+		public List<Statement> getStatements() {
+			return statements;
+		}
+
+		void print(StringBuilder out, String indent) {
+			for (var statement : statements)
+				statement.print(out, indent);
+		}
+	}
+
+	/** Assign a value of the slot's type to a slot. */
+	public static class Assign extends Statement {
+		private final Slot target;
+		private final Expression value;
+
+		public Assign(Slot target, Expression value) {
+			this.target = target;
+			this.value = value;
+		}
+
+		public Slot getTarget() {
+			return target;
+		}
+
+		public Expression getValue() {
+			return value;
+		}
+
+		void print(StringBuilder out, String indent) {
+			out.append(indent).append(target).append(" = ").append(value).append("\n");
+		}
+	}
+
+	/** Add a constant that fits a short to an int slot of the operator it's in. */
+	public static class Increment extends Statement {
+		private final Slot target;
+		private final int step;
+
+		public Increment(Slot target, int step) {
+			this.target = target;
+			this.step = step;
+		}
+
+		public Slot getTarget() {
+			return target;
+		}
+
+		public int getStep() {
+			return step;
+		}
+
+		void print(StringBuilder out, String indent) {
+			out.append(indent).append(target).append(" += ").append(step).append("\n");
+		}
+	}
+
+	/** IF, with an optional ELSE. */
+	public static class If extends Statement {
+		private final Expression condition;
+		private final Block then;
+		private final Block otherwise;
+
+		/** Ctor. otherwise is null if there's no ELSE. */
+		public If(Expression condition, Block then, Block otherwise) {
+			this.condition = condition;
+			this.then = then;
+			this.otherwise = otherwise;
+		}
+
+		public Expression getCondition() {
+			return condition;
+		}
+
+		public Block getThen() {
+			return then;
+		}
+
+		/** Get the ELSE branch. Null if there isn't one. */
+		public Block getOtherwise() {
+			return otherwise;
+		}
+
+		void print(StringBuilder out, String indent) {
+			out.append(indent).append("if ").append(condition).append(" {\n");
+			then.print(out, indent + "   ");
+			if (otherwise != null) {
+				out.append(indent).append("} else {\n");
+				otherwise.print(out, indent + "   ");
+			}
+			out.append(indent).append("}\n");
+		}
+	}
+
+	/** While the condition holds, run the body then the update. */
+	public static class Loop extends Statement {
+		private final Expression condition;
+		private final Block body;
+		private final Block update;
+		private final Parallel parallel;
+
+		/**
+		 * How a PARALLEL FOR loop, checked by ParallelLoop, counts and what its body shares. The loop starts at the
+		 * value its variable has been assigned, and is bounded by the right operand of its condition.
+		 */
+		public static class Parallel {
+			private final Slot variable;
+			private final long step;
+			private final boolean ascending;
+			private final boolean inclusive;
+			private final Map<Slot, String> reductions;
+			private final Set<Slot> privates;
+
+			public Parallel(Slot variable, long step, boolean ascending, boolean inclusive, Map<Slot, String> reductions, Set<Slot> privates) {
+				this.variable = variable;
+				this.step = step;
+				this.ascending = ascending;
+				this.inclusive = inclusive;
+				this.reductions = Collections.unmodifiableMap(new LinkedHashMap<>(reductions));
+				this.privates = Collections.unmodifiableSet(new LinkedHashSet<>(privates));
+			}
+
+			public Slot getVariable() {
+				return variable;
+			}
+
+			/** Get how much the variable changes each time round. Always positive. */
+			public long getStep() {
+				return step;
+			}
+
+			public boolean isAscending() {
+				return ascending;
+			}
+
+			/** Return true if the loop goes on while the variable equals the bound. */
+			public boolean isInclusive() {
+				return inclusive;
+			}
+
+			/** Get the kind of each reduction variable. */
+			public Map<Slot, String> getReductions() {
+				return reductions;
+			}
+
+			/** Get the variables only used in the body. */
+			public Set<Slot> getPrivates() {
+				return privates;
+			}
+		}
+
+		public Loop(Expression condition, Block body, Block update) {
+			this(condition, body, update, null);
+		}
+
+		public Loop(Expression condition, Block body, Block update, Parallel parallel) {
+			this.condition = condition;
+			this.body = body;
+			this.update = update;
+			this.parallel = parallel;
+		}
+
+		public Expression getCondition() {
+			return condition;
+		}
+
+		public Block getBody() {
+			return body;
+		}
+
+		public Block getUpdate() {
+			return update;
+		}
+
+		/** Get how a PARALLEL FOR loop may be evaluated in parallel. Null if it's sequential. */
+		public Parallel getParallel() {
+			return parallel;
+		}
+
+		void print(StringBuilder out, String indent) {
+			out.append(indent).append((parallel != null) ? "parallel while " : "while ").append(condition).append(" {\n");
+			body.print(out, indent + "   ");
+			out.append(indent).append("} then {\n");
+			update.print(out, indent + "   ");
+			out.append(indent).append("}\n");
+		}
+	}
+
+	/** WRITE a value. */
+	public static class Write extends Statement {
+		private final Expression value;
+
+		public Write(Expression value) {
+			this.value = value;
+		}
+
+		public Expression getValue() {
+			return value;
+		}
+
+		void print(StringBuilder out, String indent) {
+			out.append(indent).append("write ").append(value).append("\n");
+		}
+	}
+
+	/** Invoke an operator, discarding any value it returns. */
+	public static class Call extends Statement {
+		private final Expression.Invoke invocation;
+
+		public Call(Expression.Invoke invocation) {
+			this.invocation = invocation;
+		}
+
+		public Expression.Invoke getInvocation() {
+			return invocation;
+		}
+
+		void print(StringBuilder out, String indent) {
+			out.append(indent).append(invocation).append("\n");
+		}
+	}
+
+	/** Return a value of the operator's return type. It ends the operator's body. */
+	public static class Return extends Statement {
+		private final Expression value;
+
+		public Return(Expression value) {
+			this.value = value;
+		}
+
+		public Expression getValue() {
+			return value;
+		}
+
+		void print(StringBuilder out, String indent) {
+			out.append(indent).append("return ").append(value).append("\n");
+		}
+	}
+
+}
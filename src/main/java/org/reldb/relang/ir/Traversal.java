@@ -0,0 +1,52 @@
+package org.reldb.relang.ir;
+
+import java.util.function.Consumer;
+
+/**
+ * Visit the statements and expressions of a body, each before those it contains, for analyses that don't rebuild
+ * the IR as a Rewriter does. Nested operators aren't visited, as they aren't statements.
+ */
+public class Traversal {
+
+	/** Visit a statement and those in it, then the expressions in each. */
+	public static void forEach(Statement statement, Consumer<Statement> statements, Consumer<Expression> expressions) {
+		statements.accept(statement);
+		if (statement instanceof Statement.Block) {
+			for (var nested : ((Statement.Block)statement).getStatements())
+				forEach(nested, statements, expressions);
+		} else if (statement instanceof Statement.Assign)
+			forEach(((Statement.Assign)statement).getValue(), expressions);
+		else if (statement instanceof Statement.If) {
+			var ifStatement = (Statement.If)statement;
+			forEach(ifStatement.getCondition(), expressions);
+			forEach(ifStatement.getThen(), statements, expressions);
+			if (ifStatement.getOtherwise() != null)
+				forEach(ifStatement.getOtherwise(), statements, expressions);
+		} else if (statement instanceof Statement.Loop) {
+			var loop = (Statement.Loop)statement;
+			forEach(loop.getCondition(), expressions);
+			forEach(loop.getBody(), statements, expressions);
+			forEach(loop.getUpdate(), statements, expressions);
+		} else if (statement instanceof Statement.Write)
+			forEach(((Statement.Write)statement).getValue(), expressions);
+		else if (statement instanceof Statement.Call)
+			forEach(((Statement.Call)statement).getInvocation(), expressions);
+		else if (statement instanceof Statement.Return)
+			forEach(((Statement.Return)statement).getValue(), expressions);
+	}
+
+	/** Visit an expression and its operands. */
+	public static void forEach(Expression expression, Consumer<Expression> expressions) {
+		expressions.accept(expression);
+		for (var operand : expression.getOperands())
+			forEach(operand, expressions);
+	}
+
+	/** Return true if an expression invokes an operator. */
+	public static boolean invokes(Expression expression) {
+		var invokes = new boolean[] {false};
+		forEach(expression, operand -> invokes[0] |= operand instanceof Expression.Invoke);
+		return invokes[0];
+	}
+
+}
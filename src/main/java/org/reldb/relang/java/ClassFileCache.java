@@ -0,0 +1,215 @@
+package org.reldb.relang.java;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.channels.FileChannel;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.UUID;
+import java.util.jar.Manifest;
+
+import org.reldb.relang.exceptions.ExceptionFatal;
+
+/**
+ * A persistent cache of compiled class files, keyed by a hash of program source. It may be
+ * shared by concurrent processes: entries are written to a temporary file and atomically
+ * renamed into place, so readers never see a partial entry, and writers serialise on a lock
+ * file. When the cache exceeds its capacity, least recently used entries are deleted.
+ * <p>
+ * Nothing here loads the Java compiler, so a process that only hits the cache never loads ECJ.
+ */
+public class ClassFileCache {
+
+	public final static long defaultCapacityBytes = 64L * 1024 * 1024;
+
+	// Bump when the entry format or generated code changes incompatibly.
+	private final static int formatVersion = 1;
+	private final static int magic = 0x52654c43;	// "ReLC"
+	private final static String entrySuffix = ".rlc";
+	private final static String lockFileName = "cache.lock";
+
+	private final Path dir;
+	private final long capacityBytes;
+
+	public ClassFileCache(Path dir, long capacityBytes) {
+		this.dir = dir;
+		this.capacityBytes = capacityBytes;
+		try {
+			Files.createDirectories(dir);
+		} catch (IOException ioe) {
+			throw new ExceptionFatal("Unable to create " + dir + ": " + ioe);
+		}
+	}
+
+	public ClassFileCache(Path dir) {
+		this(dir, defaultCapacityBytes);
+	}
+
+	private static String getManifestVersion(String classResourceName) {
+		var classURL = ClassFileCache.class.getClassLoader().getResource(classResourceName);
+		if (classURL == null)
+			return "unknown";
+		if (classURL.getProtocol().equals("file"))
+			return getClassesHash(classURL);
+		if (!classURL.getProtocol().equals("jar"))
+			return "development";
+		var jarURL = classURL.toString();
+		try (var stream = new URL(jarURL.substring(0, jarURL.indexOf("!/") + 2) + "META-INF/MANIFEST.MF").openStream()) {
+			var attributes = new Manifest(stream).getMainAttributes();
+			var bundleVersion = attributes.getValue("Bundle-Version");
+			if (bundleVersion != null)
+				return bundleVersion;
+			var implementationVersion = attributes.getValue("Implementation-Version");
+			return (implementationVersion != null) ? implementationVersion : "unknown";
+		} catch (IOException ioe) {
+			return "unknown";
+		}
+	}
+
+	/**
+	 * Get a hash of the class files in and below the parent of a class file's package, when it's in a build directory
+	 * rather than a jar. For Relang's, that's all its code, so rebuilding changed code changes the version. If they can't be read, return a value unique to
+	 * this process, so nothing cached by another build is used.
+	 */
+	private static String getClassesHash(URL classURL) {
+		try {
+			var packageDir = Path.of(classURL.toURI()).getParent().getParent();
+			var digest = MessageDigest.getInstance("SHA-256");
+			try (var files = Files.walk(packageDir)) {
+				for (var file : (Iterable<Path>)files.filter(path -> path.toString().endsWith(".class")).sorted()::iterator) {
+					digest.update(packageDir.relativize(file).toString().getBytes(StandardCharsets.UTF_8));
+					digest.update(Files.readAllBytes(file));
+				}
+			}
+			return "development-" + HexFormat.of().formatHex(digest.digest());
+		} catch (IOException | URISyntaxException | NoSuchAlgorithmException e) {
+			return "development-" + UUID.randomUUID();
+		}
+	}
+
+	/**
+	 * Get a string identifying the Relang, compiler and runtime versions, to be included
+	 * in every cache key so that entries from other versions are never used.
+	 */
+	public static String getVersion() {
+		return Version.value;
+	}
+
+	/** The version string, computed once, when first needed. */
+	private static class Version {
+		static final String value = "format=" + formatVersion
+				+ ";relang=" + getManifestVersion(ClassFileCache.class.getName().replace('.', '/') + ".class")
+				+ ";ecj=" + getManifestVersion("org/eclipse/jdt/internal/compiler/Compiler.class")
+				+ ";java=" + Runtime.version().feature();
+	}
+
+	private Path getEntryPath(String key) {
+		return dir.resolve(key + entrySuffix);
+	}
+
+	/** Load the classes cached under the given key. Return null if there is no valid entry. */
+	public Map<String, byte[]> load(String key) {
+		var path = getEntryPath(key);
+		try (var input = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+			if (input.readInt() != magic || input.readInt() != formatVersion)
+				return null;
+			var classCount = input.readInt();
+			var classes = new HashMap<String, byte[]>();
+			for (var i = 0; i < classCount; i++) {
+				var name = input.readUTF();
+				var bytes = new byte[input.readInt()];
+				input.readFully(bytes);
+				classes.put(name, bytes);
+			}
+			// Record use, for least-recently-used eviction.
+			Files.setLastModifiedTime(path, FileTime.fromMillis(System.currentTimeMillis()));
+			return classes;
+		} catch (IOException ioe) {
+			// Not cached, evicted while being read, or unreadable. Either way, treat it as a miss.
+			return null;
+		}
+	}
+
+	/** Cache the given classes under the given key, then evict old entries if over capacity. */
+	public synchronized void store(String key, Map<String, byte[]> classes) {
+		try (var lockChannel = FileChannel.open(dir.resolve(lockFileName), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+			// Held until the channel is closed.
+			lockChannel.lock();
+			var temporary = Files.createTempFile(dir, key, ".tmp");
+			try {
+				try (var output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+					output.writeInt(magic);
+					output.writeInt(formatVersion);
+					output.writeInt(classes.size());
+					for (var entry : classes.entrySet()) {
+						output.writeUTF(entry.getKey());
+						output.writeInt(entry.getValue().length);
+						output.write(entry.getValue());
+					}
+				}
+				try {
+					Files.move(temporary, getEntryPath(key), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+				} catch (AtomicMoveNotSupportedException amnse) {
+					Files.move(temporary, getEntryPath(key), StandardCopyOption.REPLACE_EXISTING);
+				}
+			} finally {
+				Files.deleteIfExists(temporary);
+			}
+			evict();
+		} catch (IOException | OverlappingFileLockException e) {
+			// A cache that can't be written is only a missed optimisation.
+		}
+	}
+
+	/** Delete least recently used entries until the cache is within capacity. Must be called with the lock held. */
+	private void evict() throws IOException {
+		var entries = new ArrayList<Path>();
+		var lastUsed = new HashMap<Path, Long>();
+		var totalSize = 0L;
+		try (var stream = Files.newDirectoryStream(dir, "*" + entrySuffix)) {
+			for (var path : stream) {
+				try {
+					lastUsed.put(path, Files.getLastModifiedTime(path).toMillis());
+					totalSize += Files.size(path);
+					entries.add(path);
+				} catch (NoSuchFileException nsfe) {
+					// deleted concurrently
+				}
+			}
+		}
+		if (totalSize <= capacityBytes)
+			return;
+		entries.sort(Comparator.comparing(lastUsed::get));
+		for (var path : entries) {
+			if (totalSize <= capacityBytes)
+				break;
+			try {
+				var size = Files.size(path);
+				Files.delete(path);
+				totalSize -= size;
+			} catch (IOException ioe) {
+				// in use or already gone; try the next one
+			}
+		}
+	}
+
+}
@@ -0,0 +1,80 @@
+package org.reldb.relang.java;
+
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.jdt.core.compiler.CharOperation;
+import org.eclipse.jdt.internal.compiler.classfmt.ClassFileReader;
+import org.eclipse.jdt.internal.compiler.classfmt.ClassFormatException;
+import org.eclipse.jdt.internal.compiler.env.INameEnvironment;
+import org.eclipse.jdt.internal.compiler.env.NameEnvironmentAnswer;
+
+/**
+ * An ECJ name environment that resolves referenced types through a ClassPathIndex rather
+ * than by scanning the classpath, so compilation needs no command line and no files.
+ * One is created per compilation; the index behind it is shared.
+ */
+class ClassLoaderNameEnvironment implements INameEnvironment {
+
+	private final ClassPathIndex classPathIndex;
+	private final Set<String> compilingClassNames;
+	private final Map<String, byte[]> referencedClasses;
+
+	/**
+	 * Ctor.
+	 *
+	 * @param classPathIndex - index used to find the class files of referenced types.
+	 * @param compilingClassNames - names of the top-level classes being compiled, which are never packages.
+	 * @param referencedClasses - class file bytes, by binary name, of previously compiled classes that aren't on the classpath.
+	 */
+	ClassLoaderNameEnvironment(ClassPathIndex classPathIndex, Set<String> compilingClassNames, Map<String, byte[]> referencedClasses) {
+		this.classPathIndex = classPathIndex;
+		this.compilingClassNames = compilingClassNames;
+		this.referencedClasses = referencedClasses;
+	}
+
+	private static String getName(char[][] packageName, char[] typeName) {
+		var name = new String(CharOperation.concatWith(packageName, '.'));
+		return (name.length() > 0) ? name + '.' + new String(typeName) : new String(typeName);
+	}
+
+	private NameEnvironmentAnswer findType(String className) {
+		if (compilingClassNames.contains(className))
+			return null;
+		var bytes = referencedClasses.get(className);
+		if (bytes != null) {
+			try {
+				return new NameEnvironmentAnswer(new ClassFileReader(bytes, (className + ".class").toCharArray(), true), null);
+			} catch (ClassFormatException cfe) {
+				return null;
+			}
+		}
+		var reader = classPathIndex.getType(className);
+		return (reader != null) ? new NameEnvironmentAnswer(reader, null) : null;
+	}
+
+	private boolean isClass(String className) {
+		return compilingClassNames.contains(className) || referencedClasses.containsKey(className) || classPathIndex.isClass(className);
+	}
+
+	@Override
+	public NameEnvironmentAnswer findType(char[][] compoundTypeName) {
+		return findType(new String(CharOperation.concatWith(compoundTypeName, '.')));
+	}
+
+	@Override
+	public NameEnvironmentAnswer findType(char[] typeName, char[][] packageName) {
+		return findType(getName(packageName, typeName));
+	}
+
+	/** A name is a package if it doesn't name a class. */
+	@Override
+	public boolean isPackage(char[][] parentPackageName, char[] packageName) {
+		return !isClass(getName(parentPackageName, packageName));
+	}
+
+	@Override
+	public void cleanup() {
+	}
+
+}
@@ -0,0 +1,55 @@
+package org.reldb.relang.java;
+
+import java.io.IOException;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.eclipse.jdt.internal.compiler.classfmt.ClassFileReader;
+import org.eclipse.jdt.internal.compiler.classfmt.ClassFormatException;
+
+/**
+ * An index of the types visible through a ClassLoader, built lazily as the compiler asks for
+ * them and kept across compilations, so each JDK and library class file is found and parsed
+ * at most once. Safe to share between threads.
+ * <p>
+ * Readers are fully initialised when created, after which ECJ only reads them, so a single
+ * ClassFileReader may be used by concurrent compilations.
+ */
+class ClassPathIndex {
+
+	private final ClassLoader classLoader;
+	private final ConcurrentHashMap<String, Optional<ClassFileReader>> types = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<String, Boolean> classNames = new ConcurrentHashMap<>();
+
+	ClassPathIndex(ClassLoader classLoader) {
+		this.classLoader = classLoader;
+	}
+
+	private static String getResourceName(String className) {
+		return className.replace('.', '/') + ".class";
+	}
+
+	private ClassFileReader read(String className) {
+		try (var stream = classLoader.getResourceAsStream(getResourceName(className))) {
+			if (stream == null)
+				return null;
+			return new ClassFileReader(stream.readAllBytes(), className.toCharArray(), true);
+		} catch (IOException | ClassFormatException e) {
+			return null;
+		}
+	}
+
+	/** Get the parsed class file for a given fully-qualified class name. Return null if there isn't one. */
+	ClassFileReader getType(String className) {
+		return types.computeIfAbsent(className, name -> Optional.ofNullable(read(name))).orElse(null);
+	}
+
+	/** Return true if the given fully-qualified name has a class file. */
+	boolean isClass(String className) {
+		var type = types.get(className);
+		if (type != null)
+			return type.isPresent();
+		return classNames.computeIfAbsent(className, name -> classLoader.getResource(getResourceName(name)) != null);
+	}
+
+}
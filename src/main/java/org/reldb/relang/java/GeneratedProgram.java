@@ -0,0 +1,67 @@
+package org.reldb.relang.java;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.reldb.relang.runtime.MemoCache;
+
+/**
+ * A compiled program, loaded in its own MemoryClassLoader and started via a MethodHandle
+ * to its entry point. Nothing else holds the loader, so once a GeneratedProgram is
+ * unreachable its classes may be unloaded.
+ */
+public class GeneratedProgram {
+
+	private final Class<?> generatedClass;
+	private final MethodHandle entryPoint;
+
+	/**
+	 * Load a program.
+	 *
+	 * @param classes - class file bytes, as returned by JavaCompiler.compile.
+	 * @param className - name of the generated class.
+	 * @param entryPointName - name of a public static, parameterless method in the generated class.
+	 */
+	public GeneratedProgram(Map<String, byte[]> classes, String className, String entryPointName)
+			throws ClassNotFoundException,
+				NoSuchMethodException,
+				IllegalAccessException {
+		var classLoader = new MemoryClassLoader(classes);
+		generatedClass = classLoader.loadClass(className);
+		var method = generatedClass.getMethod(entryPointName);
+		// Adapt to ()Object so every entry point can be invoked exactly. A void entry point returns null.
+		entryPoint = MethodHandles.publicLookup()
+				.unreflect(method)
+				.asType(MethodType.methodType(Object.class));
+	}
+
+	/** Run the program. Return the value it returns, or null if it doesn't return a value. */
+	public Object run() throws InvocationTargetException {
+		try {
+			return (Object)entryPoint.invokeExact();
+		} catch (Throwable t) {
+			throw new InvocationTargetException(t);
+		}
+	}
+
+	/** Get the caches of the program's memoised operators, e.g., to report their hit rates. */
+	public List<MemoCache> getMemoCaches() {
+		var caches = new ArrayList<MemoCache>();
+		for (var field : generatedClass.getFields())
+			if (field.getType() == MemoCache.class && Modifier.isStatic(field.getModifiers())) {
+				try {
+					caches.add((MemoCache)field.get(null));
+				} catch (IllegalAccessException iae) {
+					// Only public fields are listed, so this can't happen.
+				}
+			}
+		return caches;
+	}
+
+}
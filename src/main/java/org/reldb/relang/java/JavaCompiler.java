@@ -9,24 +9,167 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.PrintStream;
 import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
 import java.util.StringTokenizer;
 
+import org.eclipse.jdt.core.compiler.CharOperation;
 import org.eclipse.jdt.core.compiler.CompilationProgress;
+import org.eclipse.jdt.internal.compiler.CompilationResult;
+import org.eclipse.jdt.internal.compiler.Compiler;
+import org.eclipse.jdt.internal.compiler.DefaultErrorHandlingPolicies;
+import org.eclipse.jdt.internal.compiler.batch.CompilationUnit;
+import org.eclipse.jdt.internal.compiler.env.ICompilationUnit;
+import org.eclipse.jdt.internal.compiler.impl.CompilerOptions;
+import org.eclipse.jdt.internal.compiler.problem.DefaultProblemFactory;
 
 import org.reldb.relang.exceptions.ExceptionFatal;
 
+/**
+ * Compiles generated Java. Instances are cheap. Classpath types found by the in-memory compiler
+ * are kept in a ClassPathIndex shared by all instances, so after the first compilation the JDK and
+ * libraries are not searched or parsed again. Instances may be used concurrently; compiling on disk
+ * uses a fresh directory under dataDir for each compilation, so concurrent compilations, even of
+ * classes with the same name, don't see each other's files.
+ */
 public class JavaCompiler {
 
 	public final static String dataDir = "data";
 
+	private final static ClassPathIndex classPathIndex = new ClassPathIndex(JavaCompiler.class.getClassLoader());
+	private final static Map<String, String> compilerSettings = getCompilerSettings();
+
 	private final boolean verbose;
+	private final boolean onDisk;
 
 	public JavaCompiler(boolean verbose) {
+		this(verbose, false);
+	}
+
+	/**
+	 * Ctor.
+	 *
+	 * @param verbose - if true, report compiler progress.
+	 * @param onDisk - if true, compile via source and class files in dataDir, which is slow but handy for debugging.
+	 */
+	public JavaCompiler(boolean verbose, boolean onDisk) {
 		this.verbose = verbose;
+		this.onDisk = onDisk;
+	}
+
+	/**
+	 * Compile foreign code using Eclipse JDT compiler.
+	 *
+	 * @return a map of binary class names to class file bytes, including those of nested classes.
+	 */
+	public Map<String, byte[]> compile(String className, String src) {
+		return compile(className, src, Map.of());
+	}
+
+	/**
+	 * Compile foreign code that may refer to previously compiled classes, such as those of earlier submissions to a session.
+	 * Only supported in memory.
+	 *
+	 * @param referencedClasses - a map of binary class names to class file bytes of classes the code may refer to.
+	 * @return a map of binary class names to class file bytes, including those of nested classes.
+	 */
+	public Map<String, byte[]> compile(String className, String src, Map<String, byte[]> referencedClasses) {
+		if (onDisk && !referencedClasses.isEmpty())
+			throw new ExceptionFatal("Compiling on disk can't refer to previously compiled classes.");
+		return onDisk
+				? compileOnDisk(className, src)
+				: compileInMemory(className, src, referencedClasses);
+	}
+
+	private static Map<String, String> getCompilerSettings() {
+		var settings = new HashMap<String, String>();
+		settings.put(CompilerOptions.OPTION_Compliance, CompilerOptions.VERSION_1_8);
+		settings.put(CompilerOptions.OPTION_Source, CompilerOptions.VERSION_1_8);
+		settings.put(CompilerOptions.OPTION_TargetPlatform, CompilerOptions.VERSION_1_8);
+		settings.put(CompilerOptions.OPTION_LineNumberAttribute, CompilerOptions.GENERATE);
+		settings.put(CompilerOptions.OPTION_SourceFileAttribute, CompilerOptions.GENERATE);
+		return settings;
 	}
 
-	/** Compile foreign code using Eclipse JDT compiler. */
-	public void compile(String className, String src) {
+	/** Compile without touching the filesystem. Source is handed to ECJ as a compilation unit; class files are collected in memory. */
+	private Map<String, byte[]> compileInMemory(String className, String src, Map<String, byte[]> referencedClasses) {
+		notify("ForeignCompilerJava: compiling " + className + " in memory");
+		var errors = new HashMap<String, String>();
+		var classes = compileUnits(Map.of(className, src), referencedClasses, errors).get(className);
+		if (classes == null)
+			throw new ExceptionFatal("Compilation failed due to errors: \n" + errors.get(className) + "\n");
+		return classes;
+	}
+
+	/**
+	 * Compile several independent classes in one compiler invocation. A class that fails to compile doesn't stop the others.
+	 *
+	 * @param sources - Java source, by class name.
+	 * @param errors - receives the compiler messages, by class name, of each class that failed to compile.
+	 * @return for each class that compiled, by class name, a map of binary class names to class file bytes.
+	 */
+	public Map<String, Map<String, byte[]>> compileAll(Map<String, String> sources, Map<String, String> errors) {
+		if (!onDisk) {
+			notify("ForeignCompilerJava: compiling " + sources.size() + " classes in memory");
+			return compileUnits(sources, Map.of(), errors);
+		}
+		var compiled = new HashMap<String, Map<String, byte[]>>();
+		sources.forEach((className, src) -> {
+			try {
+				compiled.put(className, compileOnDisk(className, src));
+			} catch (ExceptionFatal fatal) {
+				errors.put(className, fatal.getMessage());
+			}
+		});
+		return compiled;
+	}
+
+	private Map<String, Map<String, byte[]>> compileUnits(Map<String, String> sources, Map<String, byte[]> referencedClasses, Map<String, String> errors) {
+		var units = new ICompilationUnit[sources.size()];
+		var classNamesByFileName = new HashMap<String, String>();
+		var unitIndex = 0;
+		for (var source : sources.entrySet()) {
+			var fileName = getStrippedClassname(source.getKey()) + ".java";
+			units[unitIndex++] = new CompilationUnit(source.getValue().toCharArray(), fileName, null);
+			classNamesByFileName.put(fileName, source.getKey());
+		}
+		var nameEnvironment = new ClassLoaderNameEnvironment(classPathIndex, sources.keySet(), referencedClasses);
+		var compiled = new HashMap<String, Map<String, byte[]>>();
+		var compiler = new Compiler(
+				nameEnvironment,
+				DefaultErrorHandlingPolicies.proceedWithAllProblems(),
+				new CompilerOptions(compilerSettings),
+				(CompilationResult result) -> {
+					var fileName = new String(result.getFileName());
+					var className = classNamesByFileName.get(fileName);
+					var compilerMessages = new StringBuilder();
+					if (result.getProblems() != null)
+						for (var problem : result.getProblems())
+							compilerMessages
+									.append(problem.isError() ? "ERROR" : "WARNING")
+									.append(" in ").append(fileName)
+									.append(" (at line ").append(problem.getSourceLineNumber()).append(")\n")
+									.append(problem.getMessage()).append('\n');
+					if (result.hasErrors()) {
+						errors.put(className, compilerMessages.toString());
+						return;
+					}
+					var classes = new HashMap<String, byte[]>();
+					for (var classFile : result.getClassFiles())
+						classes.put(new String(CharOperation.concatWith(classFile.getCompoundName(), '.')), classFile.getBytes());
+					compiled.put(className, classes);
+				},
+				new DefaultProblemFactory(Locale.getDefault()));
+		compiler.compile(units);
+		nameEnvironment.cleanup();
+		return compiled;
+	}
+
+	/** Compile by writing source to dataDir and invoking the batch compiler, then read the resulting class files back. */
+	private Map<String, byte[]> compileOnDisk(String className, String src) {
 		var messageStream = new ByteArrayOutputStream();
 		var warningStream = new ByteArrayOutputStream();
 		var warningSetting = "allDeprecation,"
@@ -58,11 +201,14 @@ public class JavaCompiler {
 				+ "unusedPrivate,"
 				+ "unusedThrown";
 
-		// If resource directory doesn't exist, create it.
-		var resourceDir = new File(dataDir);
-		if (!(resourceDir.exists()))
-			if (!resourceDir.mkdirs())
-				throw new ExceptionFatal("Unable to create " + resourceDir);
+		// Compile in a directory of our own, so concurrent compilations don't see each other's files.
+		File resourceDir;
+		try {
+			var dataPath = Files.createDirectories(Path.of(dataDir));
+			resourceDir = Files.createTempDirectory(dataPath, getStrippedClassname(className) + "_").toFile();
+		} catch (IOException ioe) {
+			throw new ExceptionFatal("Unable to create a directory in " + dataDir + ": " + ioe);
+		}
 		File sourcef;
 		try {
 			// Write source to a Java source file
@@ -74,7 +220,7 @@ public class JavaCompiler {
 			throw new ExceptionFatal("Unable to save Java source: " + ioe);
 		}
 
-		var classpath = cleanClassPath(System.getProperty("java.class.path")) + java.io.File.pathSeparatorChar
+		var classpath = CleanedClassPath.value + java.io.File.pathSeparatorChar
 				+ resourceDir.getAbsolutePath();
 
 		notify("ForeignCompilerJava: classpath = " + classpath);
@@ -140,6 +286,31 @@ public class JavaCompiler {
 
 		if (!compiled)
 			throw new ExceptionFatal("Compilation failed due to errors: \n" + compilerMessages + "\n");
+
+		return loadClassFiles(resourceDir, className);
+	}
+
+	/** Read the class files for a given class, and its nested classes, from a directory. */
+	private static Map<String, byte[]> loadClassFiles(File dir, String className) {
+		var classes = new HashMap<String, byte[]>();
+		var files = dir.listFiles((file, name) ->
+				name.endsWith(".class") && (name.equals(className + ".class") || name.startsWith(className + "$")));
+		if (files == null)
+			throw new ExceptionFatal("Unable to list " + dir);
+		for (var file : files) {
+			var fileName = file.getName();
+			try {
+				classes.put(fileName.substring(0, fileName.length() - ".class".length()), Files.readAllBytes(file.toPath()));
+			} catch (IOException ioe) {
+				throw new ExceptionFatal("Error reading " + file + ": " + ioe);
+			}
+		}
+		return classes;
+	}
+
+	/** The cleaned java.class.path, computed once, when first needed. */
+	private static class CleanedClassPath {
+		static final String value = cleanClassPath(System.getProperty("java.class.path"));
 	}
 
 	/**
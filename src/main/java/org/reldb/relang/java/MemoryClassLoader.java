@@ -0,0 +1,31 @@
+package org.reldb.relang.java;
+
+import java.util.Map;
+
+/**
+ * A class loader that defines classes from in-memory class file bytes, as produced
+ * by JavaCompiler.
+ */
+public class MemoryClassLoader extends ClassLoader {
+
+	private final Map<String, byte[]> classes;
+
+	public MemoryClassLoader(Map<String, byte[]> classes) {
+		this(classes, MemoryClassLoader.class.getClassLoader());
+	}
+
+	/** Ctor for a loader whose classes may refer to those of the given parent, e.g., a previous submission to a session. */
+	public MemoryClassLoader(Map<String, byte[]> classes, ClassLoader parent) {
+		super(parent);
+		this.classes = classes;
+	}
+
+	@Override
+	protected Class<?> findClass(String name) throws ClassNotFoundException {
+		var bytes = classes.get(name);
+		if (bytes == null)
+			throw new ClassNotFoundException(name);
+		return defineClass(name, bytes, 0, bytes.length);
+	}
+
+}
@@ -0,0 +1,84 @@
+package org.reldb.relang.java;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.reldb.relang.exceptions.ExceptionFatal;
+
+/**
+ * A bounded cache of loaded GeneratedProgramS, keyed by a hash of their source. When full,
+ * the least recently used program is evicted. Safe to share between threads.
+ */
+public class ProgramCache {
+
+	public final static int defaultCapacity = 256;
+
+	private final LinkedHashMap<String, GeneratedProgram> programs;
+
+	private long hits = 0;
+	private long misses = 0;
+
+	public ProgramCache(int capacity) {
+		programs = new LinkedHashMap<>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, GeneratedProgram> eldest) {
+				return size() > capacity;
+			}
+		};
+	}
+
+	public ProgramCache() {
+		this(defaultCapacity);
+	}
+
+	/** Return a key for the given content, as a hex SHA-256 hash of the parts. */
+	public static String getKey(String... parts) {
+		try {
+			var digest = MessageDigest.getInstance("SHA-256");
+			for (var part : parts) {
+				digest.update(part.getBytes(StandardCharsets.UTF_8));
+				digest.update((byte)0);
+			}
+			return HexFormat.of().formatHex(digest.digest());
+		} catch (NoSuchAlgorithmException nsae) {
+			throw new ExceptionFatal("Unable to hash source: " + nsae);
+		}
+	}
+
+	/** Get the program with the given key. Return null if it isn't cached. */
+	public synchronized GeneratedProgram get(String key) {
+		var program = programs.get(key);
+		if (program == null)
+			misses++;
+		else
+			hits++;
+		return program;
+	}
+
+	/** Cache a program under the given key. */
+	public synchronized void put(String key, GeneratedProgram program) {
+		programs.put(key, program);
+	}
+
+	/** Discard all cached programs. Hit and miss counts are retained. */
+	public synchronized void clear() {
+		programs.clear();
+	}
+
+	public synchronized int size() {
+		return programs.size();
+	}
+
+	public synchronized long getHitCount() {
+		return hits;
+	}
+
+	public synchronized long getMissCount() {
+		return misses;
+	}
+
+}
@@ -0,0 +1,313 @@
+package org.reldb.relang.optimiser;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.reldb.relang.parser.ast.*;
+
+import static org.reldb.relang.optimiser.Optimiser.dereference;
+import static org.reldb.relang.optimiser.Optimiser.getToken;
+import static org.reldb.relang.optimiser.Optimiser.indexOf;
+import static org.reldb.relang.optimiser.Optimiser.key;
+import static org.reldb.relang.optimiser.Optimiser.replaceChild;
+
+/**
+ * Evaluate common subexpressions once. Where an expression that reads variables or invokes pure operators is
+ * evaluated again, and must have the same value, both places read a new variable instead, assigned the expression
+ * just before the statement where it was first evaluated.
+ * <p>
+ * Values are reused along a list of statements, and from before an IF, or its condition, in its branches, until
+ * a variable they read is assigned. A WRITE, a CALL, or an invocation of an operator that isn't pure may have
+ * effects, or assign variables, so nothing evaluated before one is reused after it. A pure operator is the only
+ * operator of its name, defined by an expression, as in f(x) -> e, that reads only its parameters and invokes only
+ * such operators, without recursion. An operator with a body, as in f(x) -> {...}, is never pure.
+ * <p>
+ * The right operand of AND or OR isn't always evaluated, so values it computes aren't reused after it. The body of a
+ * FOR loop or an operator starts with no values to reuse, as it may run many times. PARALLEL FOR loops are left
+ * alone, as are statements outside operator definitions when root variables outlive the program, as the new
+ * variables would outlive it too.
+ * <p>
+ * Variables are identified by name alone, as in the Optimiser.
+ */
+class CommonSubexpressionOptimiser {
+
+	private static final String commonPrefix = "__common";
+
+	// An expression whose value may be reused, the variables it reads, and the variable that holds it once it's reused.
+	private static class Evaluation {
+		final Node first;
+		final Set<String> reads;
+		String variable;
+
+		Evaluation(Node first, Set<String> reads) {
+			this.first = first;
+			this.reads = reads;
+		}
+	}
+
+	private final boolean rootVariablesLive;
+
+	private final Set<String> names = new HashSet<>();
+	private final Map<String, List<SimpleNode>> operators = new HashMap<>();
+	private final Map<String, Boolean> pureOperators = new HashMap<>();
+	private int temporaryCount = 0;
+	private boolean changed = false;
+
+	/**
+	 * Ctor.
+	 *
+	 * @param live - names of variables that are defined before the program runs, which new variables mustn't use.
+	 * @param rootVariablesLive - if true, variables assigned outside an operator definition are read after the program ends.
+	 */
+	CommonSubexpressionOptimiser(Set<String> live, boolean rootVariablesLive) {
+		names.addAll(live);
+		this.rootVariablesLive = rootVariablesLive;
+	}
+
+	/** Eliminate the common subexpressions of a program, in place. Return true if anything changed. */
+	boolean optimise(SimpleNode program) {
+		collect(program);
+		if (rootVariablesLive) {
+			for (var definition : findDefinitions(program, new ArrayList<>()))
+				operator(definition);
+		} else
+			statements(program, new HashMap<>());
+		return changed;
+	}
+
+	private void collect(Node node) {
+		if (getToken(node) != null)
+			names.add(getToken(node));
+		if (node instanceof ASTFnDef || node instanceof ASTFnDefPure)
+			operators.computeIfAbsent(getToken(node.jjtGetChild(0)), name -> new ArrayList<>()).add((SimpleNode)node);
+		for (var i = 0; i < node.jjtGetNumChildren(); i++)
+			collect(node.jjtGetChild(i));
+	}
+
+	// Get the operators with bodies that aren't defined in other operators.
+	private static List<ASTFnDef> findDefinitions(Node node, List<ASTFnDef> definitions) {
+		if (node instanceof ASTFnDef) {
+			definitions.add((ASTFnDef)node);
+			return definitions;
+		}
+		for (var i = 0; i < node.jjtGetNumChildren(); i++)
+			findDefinitions(node.jjtGetChild(i), definitions);
+		return definitions;
+	}
+
+	private void operator(Node definition) {
+		var available = new HashMap<String, Evaluation>();
+		statements(definition.jjtGetChild(2), available);
+		if (definition.jjtGetNumChildren() == 4)
+			expression(definition.jjtGetChild(3), 0, available);
+	}
+
+	// Optimise the statements of an Execute, Evaluate, Block or FnBody, in order, and the return expression of an Evaluate.
+	private void statements(Node list, Map<String, Evaluation> available) {
+		var children = new ArrayList<Node>();
+		for (var i = 0; i < list.jjtGetNumChildren(); i++)
+			children.add(list.jjtGetChild(i));
+		for (var child : children) {
+			if (child instanceof ASTStatement)
+				statement(child.jjtGetChild(0), available);
+			else
+				expression(child, 0, available);
+		}
+	}
+
+	private void statement(Node content, Map<String, Evaluation> available) {
+		if (content instanceof ASTAssignment) {
+			expression(content, 1, available);
+			kill(available, getToken(content.jjtGetChild(0)));
+		} else if (content instanceof ASTBlock)
+			statements(content, available);
+		else if (content instanceof ASTIfStatement) {
+			expression(content, 0, available);
+			for (var i = 1; i < content.jjtGetNumChildren(); i++)
+				statement(content.jjtGetChild(i).jjtGetChild(0), new HashMap<>(available));
+			afterwards(content, available);
+		} else if (content instanceof ASTForLoop) {
+			if (!((ASTForLoop)content).isParallel)
+				statement(content.jjtGetChild(3).jjtGetChild(0), new HashMap<>());
+			afterwards(content, available);
+		} else if (content instanceof ASTFnDef)
+			operator(content);
+		else if (content instanceof ASTWrite) {
+			expression(content, 0, available);
+			available.clear();
+		} else if (content instanceof ASTCall) {
+			var arglist = content.jjtGetChild(1);
+			for (var i = 0; i < arglist.jjtGetNumChildren(); i++)
+				expression(arglist, i, available);
+			available.clear();
+		}
+	}
+
+	// Forget the values that an IF or FOR may have changed.
+	private void afterwards(Node statement, Map<String, Evaluation> available) {
+		if (hasEffects(statement)) {
+			available.clear();
+			return;
+		}
+		var assigned = new HashSet<String>();
+		collectAssigned(statement, assigned);
+		for (var name : assigned)
+			kill(available, name);
+	}
+
+	private static void kill(Map<String, Evaluation> available, String name) {
+		available.values().removeIf(evaluation -> evaluation.reads.contains(name));
+	}
+
+	// Optimise the expression that is the given child of a node, largest subexpressions first, in the order they're evaluated.
+	private void expression(Node parent, int childIndex, Map<String, Evaluation> available) {
+		var node = parent.jjtGetChild(childIndex);
+		var reusable = isReusable(node);
+		var key = reusable ? key(node) : null;
+		// Collect the variables read before subexpressions are replaced with temporaries, which would hide them.
+		var reads = new HashSet<String>();
+		if (reusable) {
+			var evaluation = available.get(key);
+			if (evaluation != null) {
+				reuse(evaluation, parent, childIndex);
+				return;
+			}
+			collectReads(node, reads);
+		}
+		if (node instanceof ASTFnInvoke) {
+			var arglist = node.jjtGetChild(1);
+			for (var i = 0; i < arglist.jjtGetNumChildren(); i++)
+				expression(arglist, i, available);
+			if (!isPureOperator(getToken(node.jjtGetChild(0)), new HashSet<>()))
+				available.clear();
+		} else if (node instanceof ASTAnd || node instanceof ASTOr) {
+			expression(node, 0, available);
+			expression(node, 1, new HashMap<>(available));
+			if (hasEffects(node.jjtGetChild(1)))
+				available.clear();
+		} else {
+			for (var i = 0; i < node.jjtGetNumChildren(); i++)
+				expression(node, i, available);
+		}
+		if (reusable)
+			available.put(key, new Evaluation(node, reads));
+	}
+
+	// Replace the given child of a node with a variable holding the value of an earlier evaluation, created if need be.
+	private void reuse(Evaluation evaluation, Node parent, int childIndex) {
+		if (evaluation.variable == null) {
+			var first = evaluation.first;
+			var statement = getStatement(first);
+			var name = newTemporary();
+			var firstParent = first.jjtGetParent();
+			replaceChild(firstParent, indexOf(firstParent, first), dereference(name, first));
+			insertBefore(statement, Optimiser.assignment(name, first, first));
+			evaluation.variable = name;
+		}
+		replaceChild(parent, childIndex, dereference(evaluation.variable, parent.jjtGetChild(childIndex)));
+		changed = true;
+	}
+
+	// Get the statement, or return expression, that evaluates an expression.
+	private static Node getStatement(Node expression) {
+		var node = expression;
+		while (!(node instanceof ASTStatement || node instanceof ASTReturnExpression))
+			node = node.jjtGetParent();
+		return node;
+	}
+
+	private static void insertBefore(Node statement, ASTStatement assignment) {
+		var parent = statement.jjtGetParent();
+		if (parent instanceof ASTFnDef) {
+			// The return expression of an operator, evaluated after its body.
+			var body = parent.jjtGetChild(2);
+			replaceChild(body, body.jjtGetNumChildren(), assignment);
+		} else
+			Optimiser.insertBefore(statement, List.of(assignment));
+	}
+
+	// Return true if an expression's value may be reused: it's an operation or invocation that reads variables or only invokes pure operators.
+	private boolean isReusable(Node node) {
+		return node.jjtGetNumChildren() > 0 && readsOrInvokes(node) && !hasEffects(node);
+	}
+
+	private static boolean readsOrInvokes(Node node) {
+		if (node instanceof ASTDereference || node instanceof ASTFnInvoke)
+			return true;
+		for (var i = 0; i < node.jjtGetNumChildren(); i++)
+			if (readsOrInvokes(node.jjtGetChild(i)))
+				return true;
+		return false;
+	}
+
+	// Return true if a node contains a WRITE, a CALL, or an invocation of an operator that isn't pure.
+	private boolean hasEffects(Node node) {
+		if (node instanceof ASTWrite || node instanceof ASTCall)
+			return true;
+		if (node instanceof ASTFnInvoke && !isPureOperator(getToken(node.jjtGetChild(0)), new HashSet<>()))
+			return true;
+		for (var i = 0; i < node.jjtGetNumChildren(); i++)
+			if (hasEffects(node.jjtGetChild(i)))
+				return true;
+		return false;
+	}
+
+	private boolean isPureOperator(String name, Set<String> invoking) {
+		var known = pureOperators.get(name);
+		if (known != null)
+			return known;
+		var definitions = operators.get(name);
+		if (invoking.contains(name) || definitions == null || definitions.size() != 1 || !(definitions.get(0) instanceof ASTFnDefPure))
+			return false;
+		var definition = definitions.get(0);
+		var parameters = new HashSet<String>();
+		var parmlist = definition.jjtGetChild(1);
+		for (var i = 0; i < parmlist.jjtGetNumChildren(); i++)
+			parameters.add(getToken(parmlist.jjtGetChild(i).jjtGetChild(1)));
+		invoking.add(name);
+		var pure = isPureExpression(definition.jjtGetChild(2).jjtGetChild(0), parameters, invoking);
+		invoking.remove(name);
+		if (invoking.isEmpty())
+			pureOperators.put(name, pure);
+		return pure;
+	}
+
+	private boolean isPureExpression(Node expression, Set<String> parameters, Set<String> invoking) {
+		if (expression instanceof ASTDereference)
+			return parameters.contains(getToken(expression));
+		if (expression instanceof ASTFnInvoke && !isPureOperator(getToken(expression.jjtGetChild(0)), invoking))
+			return false;
+		for (var i = 0; i < expression.jjtGetNumChildren(); i++)
+			if (!isPureExpression(expression.jjtGetChild(i), parameters, invoking))
+				return false;
+		return true;
+	}
+
+	private static void collectReads(Node node, Set<String> reads) {
+		if (node instanceof ASTDereference)
+			reads.add(getToken(node));
+		for (var i = 0; i < node.jjtGetNumChildren(); i++)
+			collectReads(node.jjtGetChild(i), reads);
+	}
+
+	private static void collectAssigned(Node node, Set<String> assigned) {
+		if (node instanceof ASTAssignment)
+			assigned.add(getToken(node.jjtGetChild(0)));
+		for (var i = 0; i < node.jjtGetNumChildren(); i++)
+			collectAssigned(node.jjtGetChild(i), assigned);
+	}
+
+	private String newTemporary() {
+		String name;
+		do {
+			name = commonPrefix + temporaryCount++;
+		} while (names.contains(name));
+		names.add(name);
+		return name;
+	}
+
+}
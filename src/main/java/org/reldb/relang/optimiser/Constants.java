@@ -0,0 +1,189 @@
+package org.reldb.relang.optimiser;
+
+import org.reldb.relang.parser.ast.*;
+import org.reldb.relang.transpiler.BaseASTNode;
+import org.reldb.relang.transpiler.TypeInference;
+
+/**
+ * Evaluate constant expressions at compile time. Values are Long, Double or Boolean, as in the interpreter.
+ * Negative numbers are written as a unary minus applied to a literal, which counts as a literal here.
+ */
+class Constants {
+
+	/** Get the value of a literal. Null if the node isn't one. */
+	static Object valueOf(Node node) {
+		if (node instanceof ASTInteger) {
+			try {
+				return TypeInference.parseInteger(((BaseASTNode)node).tokenValue);
+			} catch (NumberFormatException nfe) {
+				return null;
+			}
+		}
+		if (node instanceof ASTRational)
+			return Double.parseDouble(((BaseASTNode)node).tokenValue);
+		if (node instanceof ASTTrue)
+			return Boolean.TRUE;
+		if (node instanceof ASTFalse)
+			return Boolean.FALSE;
+		if (node instanceof ASTUnaryMinus && (node.jjtGetChild(0) instanceof ASTInteger || node.jjtGetChild(0) instanceof ASTRational)) {
+			var value = valueOf(node.jjtGetChild(0));
+			if (value instanceof Long)
+				return -(Long)value;
+			if (value instanceof Double)
+				return -(Double)value;
+		}
+		return null;
+	}
+
+	private static boolean isLiteral(Node node) {
+		return valueOf(node) != null;
+	}
+
+	// Return true if a node is certainly a boolean expression, whatever its operands.
+	private static boolean isBoolean(Node node) {
+		return node instanceof ASTTrue || node instanceof ASTFalse
+				|| node instanceof ASTOr || node instanceof ASTAnd || node instanceof ASTUnaryNot
+				|| node instanceof ASTCompEqual || node instanceof ASTCompNequal
+				|| node instanceof ASTCompLT || node instanceof ASTCompLTE
+				|| node instanceof ASTCompGT || node instanceof ASTCompGTE;
+	}
+
+	/** Make a literal of a value, positioned at the given node. Null if it can't be written as one. */
+	static SimpleNode literal(Object value, Node like) {
+		SimpleNode literal;
+		if (value instanceof Boolean)
+			literal = (Boolean)value ? new ASTTrue(RelangTreeConstants.JJTTRUE) : new ASTFalse(RelangTreeConstants.JJTFALSE);
+		else if (value instanceof Long) {
+			var longValue = (Long)value;
+			if (longValue == Long.MIN_VALUE)
+				return null;
+			if (longValue < 0)
+				return negated(literal(-longValue, like), like);
+			literal = new ASTInteger(RelangTreeConstants.JJTINTEGER);
+			// Generated Java source would take a plain literal out of int range as an int, so mark it long.
+			literal.tokenValue = longValue + ((longValue > Integer.MAX_VALUE) ? "L" : "");
+		} else {
+			var doubleValue = (Double)value;
+			if (doubleValue.isNaN() || doubleValue.isInfinite())
+				return null;
+			if (doubleValue < 0 || (doubleValue == 0 && 1 / doubleValue < 0))
+				return negated(literal(-doubleValue, like), like);
+			literal = new ASTRational(RelangTreeConstants.JJTRATIONAL);
+			literal.tokenValue = doubleValue.toString();
+		}
+		var base = (BaseASTNode)like;
+		literal.first_token = base.first_token;
+		literal.last_token = base.last_token;
+		return literal;
+	}
+
+	private static SimpleNode negated(SimpleNode literal, Node like) {
+		var minus = new ASTUnaryMinus(RelangTreeConstants.JJTUNARYMINUS);
+		minus.jjtAddChild(literal, 0);
+		literal.jjtSetParent(minus);
+		minus.first_token = ((BaseASTNode)like).first_token;
+		minus.last_token = ((BaseASTNode)like).last_token;
+		return minus;
+	}
+
+	/** Fold an expression whose operands have been folded. Return the node to replace it with, or null if it can't be folded. */
+	static Node fold(Node node) {
+		if (isLiteral(node) || node.jjtGetNumChildren() == 0)
+			return null;
+		var value0 = valueOf(node.jjtGetChild(0));
+		if (node.jjtGetNumChildren() == 1)
+			return (value0 == null) ? null : foldUnary(node, value0);
+		var value1 = valueOf(node.jjtGetChild(1));
+		if (node instanceof ASTAnd || node instanceof ASTOr)
+			return foldLogical(node, value0, value1);
+		if (value0 == null || value1 == null)
+			return null;
+		Object value;
+		if (node instanceof ASTCompEqual || node instanceof ASTCompNequal) {
+			if (value0 instanceof Boolean && value1 instanceof Boolean)
+				value = value0.equals(value1);
+			else if (value0 instanceof Number && value1 instanceof Number)
+				value = compare(value0, value1) == 0;
+			else
+				return null;
+			if (node instanceof ASTCompNequal)
+				value = !(Boolean)value;
+		} else {
+			if (!(value0 instanceof Number && value1 instanceof Number))
+				return null;
+			value = foldNumeric(node, (Number)value0, (Number)value1);
+		}
+		return (value == null) ? null : literal(value, node);
+	}
+
+	private static Node foldUnary(Node node, Object value) {
+		if (node instanceof ASTUnaryNot)
+			return (value instanceof Boolean) ? literal(!(Boolean)value, node) : null;
+		if (!(value instanceof Number))
+			return null;
+		if (node instanceof ASTUnaryPlus)
+			return literal(value, node);
+		if (node instanceof ASTUnaryMinus)
+			return (value instanceof Long) ? literal(-(Long)value, node) : literal(-(Double)value, node);
+		return null;
+	}
+
+	// AND and OR with at least one constant operand. A constant left operand decides whether the right is evaluated.
+	private static Node foldLogical(Node node, Object value0, Object value1) {
+		var isAnd = node instanceof ASTAnd;
+		var left = node.jjtGetChild(0);
+		var right = node.jjtGetChild(1);
+		if (value0 instanceof Boolean && value1 instanceof Boolean)
+			return literal(isAnd ? (Boolean)value0 && (Boolean)value1 : (Boolean)value0 || (Boolean)value1, node);
+		if (value0 instanceof Boolean && isBoolean(right))
+			return ((Boolean)value0 == isAnd) ? right : literal(value0, node);
+		// The left operand must still be evaluated, so only an identity right operand can be dropped.
+		if (value1 instanceof Boolean && isBoolean(left) && (Boolean)value1 == isAnd)
+			return left;
+		return null;
+	}
+
+	private static int compare(Object value0, Object value1) {
+		if (value0 instanceof Long && value1 instanceof Long)
+			return Long.compare((Long)value0, (Long)value1);
+		var double0 = ((Number)value0).doubleValue();
+		var double1 = ((Number)value1).doubleValue();
+		return (double0 < double1) ? -1 : (double0 > double1) ? 1 : 0;
+	}
+
+	private static Object foldNumeric(Node node, Number value0, Number value1) {
+		if (node instanceof ASTCompLT)
+			return compare(value0, value1) < 0;
+		if (node instanceof ASTCompLTE)
+			return compare(value0, value1) <= 0;
+		if (node instanceof ASTCompGT)
+			return compare(value0, value1) > 0;
+		if (node instanceof ASTCompGTE)
+			return compare(value0, value1) >= 0;
+		if (value0 instanceof Long && value1 instanceof Long) {
+			long long0 = (Long)value0;
+			long long1 = (Long)value1;
+			if (node instanceof ASTAdd)
+				return long0 + long1;
+			if (node instanceof ASTSubtract)
+				return long0 - long1;
+			if (node instanceof ASTTimes)
+				return long0 * long1;
+			if (node instanceof ASTDivide)
+				return (long1 == 0) ? null : long0 / long1;
+			return null;
+		}
+		var double0 = value0.doubleValue();
+		var double1 = value1.doubleValue();
+		if (node instanceof ASTAdd)
+			return double0 + double1;
+		if (node instanceof ASTSubtract)
+			return double0 - double1;
+		if (node instanceof ASTTimes)
+			return double0 * double1;
+		if (node instanceof ASTDivide)
+			return double0 / double1;
+		return null;
+	}
+
+}
@@ -0,0 +1,497 @@
+package org.reldb.relang.optimiser;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.reldb.relang.parser.ast.*;
+import org.reldb.relang.transpiler.BaseASTNode;
+
+import static org.reldb.relang.optimiser.Optimiser.dereference;
+import static org.reldb.relang.optimiser.Optimiser.getToken;
+import static org.reldb.relang.optimiser.Optimiser.indexOf;
+import static org.reldb.relang.optimiser.Optimiser.insertBefore;
+import static org.reldb.relang.optimiser.Optimiser.key;
+import static org.reldb.relang.optimiser.Optimiser.positioned;
+import static org.reldb.relang.optimiser.Optimiser.replaceChild;
+
+/**
+ * Optimise FOR loops, innermost first. An expression in a loop whose value can't change while the loop runs is
+ * evaluated once, before it, into a new variable: loop-invariant code motion. Where a loop steps its variable i by
+ * a literal, each product i * c, with c an invariant long, is kept in a new variable that step * c is added to at
+ * the end of each iteration, rather than multiplied out: strength reduction.
+ * <p>
+ * A hoisted expression is evaluated even if the loop runs no iterations, so only expressions that can't fail or
+ * have side effects are hoisted: they read variables assigned before the loop and not in it, divide only by nonzero
+ * literals, and invoke only pure operators that are defined once, aren't recursive, and are made of such expressions
+ * of their parameters. Loops that define operators are left alone, as are loops outside operator definitions when
+ * root variables outlive the program, as the new variables would outlive it too. So are PARALLEL FOR loops, whose
+ * iterations must stay independent, though loops in their bodies aren't.
+ * <p>
+ * Types are inferred from names, as the Optimiser identifies variables: a variable is long if every assignment to a
+ * variable of that name, and every parameter of that name, is long.
+ */
+class LoopOptimiser {
+
+	private static final String invariantPrefix = "__invariant";
+	private static final String inductionPrefix = "__induction";
+
+	private static final String typeLong = "long";
+	private static final String typeDouble = "double";
+	private static final String typeBoolean = "boolean";
+	// The type of a variable whose type depends on itself, which doesn't decide it.
+	private static final String typeAny = "";
+
+	private final Set<String> live;
+	private final boolean rootVariablesLive;
+
+	private final Set<String> names = new HashSet<>();
+	private final Map<String, List<String>> parameterTypes = new HashMap<>();
+	private final List<ASTAssignment> assignments = new ArrayList<>();
+	private final Map<String, List<SimpleNode>> operators = new HashMap<>();
+	private final Set<String> assignedInOperators = new HashSet<>();
+	private final Map<String, Boolean> safeOperators = new HashMap<>();
+
+	// Variables created here, and those of them now assigned before the loops that read them.
+	private final Set<String> temporaries = new HashSet<>();
+	private final Set<String> hoisted = new HashSet<>();
+	private int temporaryCount = 0;
+
+	// The start of the loop being optimised.
+	private Token loopStart;
+
+	/**
+	 * Ctor.
+	 *
+	 * @param live - names of variables that are defined before the program runs, and read after it ends.
+	 * @param rootVariablesLive - if true, variables assigned outside an operator definition are read after the program ends.
+	 */
+	LoopOptimiser(Set<String> live, boolean rootVariablesLive) {
+		this.live = live;
+		this.rootVariablesLive = rootVariablesLive;
+	}
+
+	/** Optimise the loops of a program, in place. Return true if anything changed. */
+	boolean optimise(SimpleNode program) {
+		collect(program, false);
+		var changed = false;
+		for (var loop : findLoops(program, false, new ArrayList<>()))
+			changed |= loop(loop);
+		return changed;
+	}
+
+	private void collect(Node node, boolean inOperator) {
+		if (node instanceof BaseASTNode && getToken(node) != null)
+			names.add(getToken(node));
+		if (node instanceof ASTAssignment) {
+			assignments.add((ASTAssignment)node);
+			if (inOperator)
+				assignedInOperators.add(getToken(node.jjtGetChild(0)));
+		} else if (node instanceof ASTParameter)
+			parameterTypes.computeIfAbsent(getToken(node.jjtGetChild(1)), name -> new ArrayList<>()).add(getToken(node.jjtGetChild(0)));
+		var isOperator = node instanceof ASTFnDef || node instanceof ASTFnDefPure;
+		if (isOperator)
+			operators.computeIfAbsent(getToken(node.jjtGetChild(0)), name -> new ArrayList<>()).add((SimpleNode)node);
+		for (var i = 0; i < node.jjtGetNumChildren(); i++)
+			collect(node.jjtGetChild(i), inOperator || isOperator);
+	}
+
+	// Get the loops that may be optimised, inner loops before the loops that contain them.
+	private List<ASTForLoop> findLoops(Node node, boolean inOperator, List<ASTForLoop> loops) {
+		var isOperator = node instanceof ASTFnDef || node instanceof ASTFnDefPure;
+		for (var i = 0; i < node.jjtGetNumChildren(); i++)
+			findLoops(node.jjtGetChild(i), inOperator || isOperator, loops);
+		if (node instanceof ASTForLoop && !((ASTForLoop)node).isParallel && (inOperator || !rootVariablesLive) && !Optimiser.definesOperators(node))
+			loops.add((ASTForLoop)node);
+		return loops;
+	}
+
+	private boolean loop(ASTForLoop loop) {
+		loopStart = ((BaseASTNode)loop).first_token;
+		var assigned = new HashSet<String>();
+		collectAssigned(loop, assigned);
+		// An operator invoked in the loop may assign variables it shares with the loop.
+		var hasUnsafeInvocation = hasUnsafeInvocation(loop);
+		if (hasUnsafeInvocation)
+			assigned.addAll(assignedInOperators);
+		var prelude = new ArrayList<ASTStatement>();
+		if (!hasUnsafeInvocation || !assignedInOperators.contains(getToken(loop.jjtGetChild(0).jjtGetChild(0))))
+			reduceStrength(loop, assigned, prelude);
+		hoistTemporaries(loop, assigned, prelude);
+		hoist(loop, 1, assigned, prelude);
+		hoist(loop.jjtGetChild(2), 1, assigned, prelude);
+		hoist(loop, 3, assigned, prelude);
+		if (prelude.isEmpty())
+			return false;
+		insertBefore((ASTStatement)loop.jjtGetParent(), prelude);
+		return true;
+	}
+
+	private static void collectAssigned(Node node, Set<String> assigned) {
+		if (node instanceof ASTAssignment)
+			assigned.add(getToken(node.jjtGetChild(0)));
+		for (var i = 0; i < node.jjtGetNumChildren(); i++)
+			collectAssigned(node.jjtGetChild(i), assigned);
+	}
+
+	// Return true if a node contains a CALL, or an invocation of an operator that isn't safe to hoist.
+	private boolean hasUnsafeInvocation(Node node) {
+		if (node instanceof ASTCall || (node instanceof ASTFnInvoke && !isSafeOperator(getToken(node.jjtGetChild(0)), new HashSet<>())))
+			return true;
+		for (var i = 0; i < node.jjtGetNumChildren(); i++)
+			if (hasUnsafeInvocation(node.jjtGetChild(i)))
+				return true;
+		return false;
+	}
+
+	/*
+	 * Strength-reduce FOR (i = a; ...; i = i + s) where s is an integer literal, i is a long assigned nowhere else in
+	 * the loop, and a can be evaluated again before the loop. Each distinct invariant long c in i * c or c * i in the
+	 * body gets a variable t, assigned a * c before the loop and t + s * c at the end of the body, and the products
+	 * are replaced by t. There is no way out of a loop body part way through, so t is always i * c where it's read.
+	 */
+	private void reduceStrength(ASTForLoop loop, Set<String> assigned, List<ASTStatement> prelude) {
+		var initialisation = loop.jjtGetChild(0);
+		var update = loop.jjtGetChild(2);
+		var variable = getToken(initialisation.jjtGetChild(0));
+		var step = Optimiser.getStep(update.jjtGetChild(1), variable);
+		if (step == null || !variable.equals(getToken(update.jjtGetChild(0))) || !typeLong.equals(variableType(variable, new HashSet<>())))
+			return;
+		var start = initialisation.jjtGetChild(1);
+		if (!isInvariant(start, Set.of()))
+			return;
+		var assignedInBody = new HashSet<String>();
+		collectAssigned(loop.jjtGetChild(3), assignedInBody);
+		if (assignedInBody.contains(variable))
+			return;
+		var products = new LinkedHashMap<String, List<Node>>();
+		findProducts(loop.jjtGetChild(3), variable, assigned, products);
+		var increments = new ArrayList<ASTStatement>();
+		for (var occurrences : products.values()) {
+			var first = (SimpleNode)occurrences.get(0);
+			var factor = getFactor(first, variable);
+			var name = newTemporary(inductionPrefix);
+			var startValue = Constants.valueOf(start);
+			Node initial;
+			if (Long.valueOf(0).equals(startValue))
+				initial = Constants.literal(0L, first);
+			else if (Long.valueOf(1).equals(startValue))
+				initial = copy(factor);
+			else
+				initial = binary(new ASTTimes(RelangTreeConstants.JJTTIMES), copy(start), copy(factor), first);
+			prelude.add(assignment(name, initial, first));
+			var increment = (Math.abs(step) == 1) ? copy(factor) : binary(new ASTTimes(RelangTreeConstants.JJTTIMES), Constants.literal(Math.abs(step), first), copy(factor), first);
+			var sum = (step > 0) ? new ASTAdd(RelangTreeConstants.JJTADD) : new ASTSubtract(RelangTreeConstants.JJTSUBTRACT);
+			increments.add(assignment(name, binary(sum, dereference(name, first), increment, first), first));
+			for (var product : occurrences) {
+				var parent = product.jjtGetParent();
+				replaceChild(parent, indexOf(parent, product), dereference(name, product));
+			}
+			assigned.add(name);
+		}
+		if (!increments.isEmpty())
+			appendToBody(loop, increments);
+	}
+
+	// Find the products of a loop variable and an invariant long in a node, grouped by the invariant.
+	private void findProducts(Node node, String variable, Set<String> assigned, Map<String, List<Node>> products) {
+		var factor = (node instanceof ASTTimes) ? getFactor(node, variable) : null;
+		if (factor != null && isInvariant(factor, assigned) && typeLong.equals(typeOf(factor, new HashSet<>()))) {
+			var value = Constants.valueOf(factor);
+			// Multiplying by a literal -1, 0 or 1 costs no more than adding.
+			if (value == null || Math.abs((Long)value) > 1)
+				products.computeIfAbsent(key(factor), key -> new ArrayList<>()).add(node);
+			return;
+		}
+		for (var i = 0; i < node.jjtGetNumChildren(); i++)
+			findProducts(node.jjtGetChild(i), variable, assigned, products);
+	}
+
+	// Get c from i * c or c * i. Null if the product isn't of that form.
+	private static Node getFactor(Node product, String variable) {
+		if (Optimiser.isDereferenceOf(product.jjtGetChild(0), variable))
+			return product.jjtGetChild(1);
+		if (Optimiser.isDereferenceOf(product.jjtGetChild(1), variable))
+			return product.jjtGetChild(0);
+		return null;
+	}
+
+	/*
+	 * Move assignments to hoisted variables, left at the top level of a loop body by the loops it contains, out of
+	 * the loop if their values are invariant in it too.
+	 */
+	private void hoistTemporaries(ASTForLoop loop, Set<String> assigned, List<ASTStatement> prelude) {
+		var body = loop.jjtGetChild(3);
+		var isBlock = body.jjtGetChild(0) instanceof ASTBlock;
+		var statements = isBlock ? body.jjtGetChild(0) : loop;
+		var kept = new ArrayList<Node>();
+		for (var i = isBlock ? 0 : 3; i < (isBlock ? statements.jjtGetNumChildren() : 4); i++) {
+			var statement = statements.jjtGetChild(i);
+			var content = statement.jjtGetChild(0);
+			if (content instanceof ASTAssignment && isHoistedVariable(getToken(content.jjtGetChild(0)))) {
+				var name = getToken(content.jjtGetChild(0));
+				assigned.remove(name);
+				if (isInvariant(content.jjtGetChild(1), assigned)) {
+					prelude.add((ASTStatement)statement);
+					hoisted.add(name);
+					continue;
+				}
+				assigned.add(name);
+			}
+			kept.add(statement);
+		}
+		if (!isBlock) {
+			if (kept.isEmpty())
+				replaceChild(loop, 3, Optimiser.emptyStatement(body));
+			return;
+		}
+		var block = positioned(new ASTBlock(RelangTreeConstants.JJTBLOCK), statements);
+		for (var i = 0; i < kept.size(); i++)
+			replaceChild(block, i, kept.get(i));
+		replaceChild(body, 0, block);
+	}
+
+	private boolean isHoistedVariable(String name) {
+		return temporaries.contains(name) && name.startsWith(invariantPrefix);
+	}
+
+	// Hoist the invariant expressions of a child of a node, largest first.
+	private void hoist(Node parent, int childIndex, Set<String> assigned, List<ASTStatement> prelude) {
+		var node = parent.jjtGetChild(childIndex);
+		if (isWorthHoisting(node) && isInvariant(node, assigned)) {
+			var name = newTemporary(invariantPrefix);
+			replaceChild(parent, childIndex, dereference(name, node));
+			prelude.add(assignment(name, node, node));
+			hoisted.add(name);
+			return;
+		}
+		for (var i = 0; i < node.jjtGetNumChildren(); i++)
+			hoist(node, i, assigned, prelude);
+	}
+
+	// Return true if an expression does enough work to be worth a variable.
+	private boolean isWorthHoisting(Node node) {
+		if (node instanceof ASTFnInvoke)
+			return true;
+		if (!isOperation(node) || !readsVariables(node))
+			return false;
+		if (isArithmetic(node)) {
+			var type = typeOf(node, new HashSet<>());
+			return type != null && !type.equals(typeAny);
+		}
+		return true;
+	}
+
+	private static boolean isOperation(Node node) {
+		return isArithmetic(node)
+				|| node instanceof ASTOr || node instanceof ASTAnd || node instanceof ASTUnaryNot
+				|| node instanceof ASTCompEqual || node instanceof ASTCompNequal
+				|| node instanceof ASTCompLT || node instanceof ASTCompLTE
+				|| node instanceof ASTCompGT || node instanceof ASTCompGTE;
+	}
+
+	private static boolean isArithmetic(Node node) {
+		return node instanceof ASTAdd || node instanceof ASTSubtract || node instanceof ASTTimes || node instanceof ASTDivide
+				|| node instanceof ASTUnaryPlus || node instanceof ASTUnaryMinus;
+	}
+
+	private static boolean readsVariables(Node node) {
+		if (node instanceof ASTDereference || node instanceof ASTFnInvoke)
+			return true;
+		for (var i = 0; i < node.jjtGetNumChildren(); i++)
+			if (readsVariables(node.jjtGetChild(i)))
+				return true;
+		return false;
+	}
+
+	// Return true if an expression has the same value wherever it's evaluated in the loop, and evaluating it can't fail or have side effects.
+	private boolean isInvariant(Node expression, Set<String> assigned) {
+		if (expression instanceof ASTDereference) {
+			var name = getToken(expression);
+			return !assigned.contains(name) && isAssignedBefore(name);
+		}
+		if (expression instanceof ASTFnInvoke) {
+			var name = getToken(expression.jjtGetChild(0));
+			if (!isSafeOperator(name, new HashSet<>()) || !precedesLoop(operators.get(name).get(0)))
+				return false;
+			return isInvariant(expression.jjtGetChild(1), assigned);
+		}
+		if (expression instanceof ASTDivide && !isSafeDivisor(expression.jjtGetChild(1)))
+			return false;
+		for (var i = 0; i < expression.jjtGetNumChildren(); i++)
+			if (!isInvariant(expression.jjtGetChild(i), assigned))
+				return false;
+		return true;
+	}
+
+	private static boolean isSafeDivisor(Node divisor) {
+		var value = Constants.valueOf(divisor);
+		return value instanceof Double || (value instanceof Long && (Long)value != 0);
+	}
+
+	// Return true if a variable is certainly assigned before the loop starts, so reading it there can't fail.
+	private boolean isAssignedBefore(String name) {
+		if (live.contains(name) || hoisted.contains(name) || parameterTypes.containsKey(name))
+			return true;
+		for (var assignment : assignments)
+			if (name.equals(getToken(assignment.jjtGetChild(0))) && precedesLoop(assignment) && !temporaries.contains(name))
+				return true;
+		return false;
+	}
+
+	private boolean precedesLoop(Node node) {
+		var token = ((BaseASTNode)node).first_token;
+		if (token == null || loopStart == null)
+			return false;
+		return token.beginLine < loopStart.beginLine || (token.beginLine == loopStart.beginLine && token.beginColumn < loopStart.beginColumn);
+	}
+
+	/*
+	 * Return true if an operator can be invoked anywhere without failing or side effects: it's the only operator of
+	 * its name, it's pure, and its expression only reads its parameters, divides by nonzero literals, and invokes
+	 * other such operators, without recursion.
+	 */
+	private boolean isSafeOperator(String name, Set<String> invoking) {
+		var known = safeOperators.get(name);
+		if (known != null)
+			return known;
+		var definitions = operators.get(name);
+		if (invoking.contains(name) || definitions == null || definitions.size() != 1 || !(definitions.get(0) instanceof ASTFnDefPure))
+			return false;
+		var definition = definitions.get(0);
+		var parameters = new HashSet<String>();
+		var parmlist = definition.jjtGetChild(1);
+		for (var i = 0; i < parmlist.jjtGetNumChildren(); i++)
+			parameters.add(getToken(parmlist.jjtGetChild(i).jjtGetChild(1)));
+		invoking.add(name);
+		var safe = isSafeExpression(definition.jjtGetChild(2).jjtGetChild(0), parameters, invoking);
+		invoking.remove(name);
+		if (invoking.isEmpty())
+			safeOperators.put(name, safe);
+		return safe;
+	}
+
+	private boolean isSafeExpression(Node expression, Set<String> parameters, Set<String> invoking) {
+		if (expression instanceof ASTDereference)
+			return parameters.contains(getToken(expression));
+		if (expression instanceof ASTFnInvoke) {
+			if (!isSafeOperator(getToken(expression.jjtGetChild(0)), invoking))
+				return false;
+			return isSafeExpression(expression.jjtGetChild(1), parameters, invoking);
+		}
+		if (expression instanceof ASTDivide && !isSafeDivisor(expression.jjtGetChild(1)))
+			return false;
+		for (var i = 0; i < expression.jjtGetNumChildren(); i++)
+			if (!isSafeExpression(expression.jjtGetChild(i), parameters, invoking))
+				return false;
+		return true;
+	}
+
+	// Get the type of an expression as the interpreter computes it. Null if it can't be inferred.
+	private String typeOf(Node expression, Set<String> inferring) {
+		if (expression instanceof ASTInteger)
+			return typeLong;
+		if (expression instanceof ASTRational)
+			return typeDouble;
+		if (expression instanceof ASTDereference)
+			return variableType(getToken(expression), inferring);
+		if ((isOperation(expression) && !isArithmetic(expression)) || expression instanceof ASTTrue || expression instanceof ASTFalse)
+			return typeBoolean;
+		if (expression instanceof ASTUnaryPlus || expression instanceof ASTUnaryMinus)
+			return typeOf(expression.jjtGetChild(0), inferring);
+		if (!isArithmetic(expression))
+			return null;
+		var type0 = typeOf(expression.jjtGetChild(0), inferring);
+		var type1 = typeOf(expression.jjtGetChild(1), inferring);
+		if (type0 == null || type1 == null || typeBoolean.equals(type0) || typeBoolean.equals(type1))
+			return null;
+		if (type0.equals(typeAny))
+			return type1;
+		if (type1.equals(typeAny) || type0.equals(type1))
+			return type0;
+		return typeDouble;
+	}
+
+	private String variableType(String name, Set<String> inferring) {
+		if (inferring.contains(name))
+			return typeAny;
+		inferring.add(name);
+		String type = typeAny;
+		for (var parameterType : parameterTypes.getOrDefault(name, List.of()))
+			type = merge(type, parameterType);
+		for (var assignment : assignments)
+			if (type != null && name.equals(getToken(assignment.jjtGetChild(0))))
+				type = merge(type, typeOf(assignment.jjtGetChild(1), inferring));
+		inferring.remove(name);
+		if (type != null && type.equals(typeAny) && inferring.isEmpty())
+			return null;
+		return type;
+	}
+
+	private static String merge(String type0, String type1) {
+		if (type0 == null || type1 == null)
+			return null;
+		if (type0.equals(typeAny))
+			return type1;
+		if (type1.equals(typeAny) || type0.equals(type1))
+			return type0;
+		return null;
+	}
+
+	private String newTemporary(String prefix) {
+		String name;
+		do {
+			name = prefix + temporaryCount++;
+		} while (names.contains(name));
+		names.add(name);
+		temporaries.add(name);
+		return name;
+	}
+
+	private ASTStatement assignment(String name, Node expression, Node like) {
+		var statement = Optimiser.assignment(name, expression, like);
+		assignments.add((ASTAssignment)statement.jjtGetChild(0));
+		return statement;
+	}
+
+	private static SimpleNode binary(SimpleNode operation, Node operand0, Node operand1, Node like) {
+		positioned(operation, like);
+		replaceChild(operation, 0, operand0);
+		replaceChild(operation, 1, operand1);
+		return operation;
+	}
+
+	// Copy an expression.
+	private static Node copy(Node node) {
+		var original = (SimpleNode)node;
+		SimpleNode copy;
+		try {
+			copy = original.getClass().getConstructor(int.class).newInstance(original.getId());
+		} catch (ReflectiveOperationException e) {
+			throw new RuntimeException("Unable to copy " + original, e);
+		}
+		copy.tokenValue = original.tokenValue;
+		copy.ifHasElse = original.ifHasElse;
+		positioned(copy, original);
+		for (var i = 0; i < original.jjtGetNumChildren(); i++)
+			replaceChild(copy, i, copy(original.jjtGetChild(i)));
+		return copy;
+	}
+
+	private static void appendToBody(ASTForLoop loop, List<ASTStatement> statements) {
+		var body = loop.jjtGetChild(3);
+		var content = body.jjtGetChild(0);
+		if (!(content instanceof ASTBlock)) {
+			content = positioned(new ASTBlock(RelangTreeConstants.JJTBLOCK), body);
+			replaceChild(content, 0, body);
+			replaceChild(loop, 3, Optimiser.newStatement(content));
+		}
+		for (var statement : statements)
+			replaceChild(content, content.jjtGetNumChildren(), statement);
+	}
+
+}
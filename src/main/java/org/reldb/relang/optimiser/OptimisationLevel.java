@@ -0,0 +1,11 @@
+package org.reldb.relang.optimiser;
+
+/** How much optimisation to do, trading time spent compiling for time spent running. */
+public enum OptimisationLevel {
+	/** Only check the program: PARALLEL FOR loops are still rejected if they can't be evaluated in parallel. Nothing is inlined. */
+	O0,
+	/** Also fold constants, remove statements with no effect, and turn self-recursive tail calls into loops. */
+	O1,
+	/** Also optimise FOR loops and eliminate common subexpressions. The default. */
+	O2
+}
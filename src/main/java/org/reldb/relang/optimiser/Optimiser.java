@@ -0,0 +1,538 @@
+package org.reldb.relang.optimiser;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+
+import org.reldb.relang.parser.ast.*;
+import org.reldb.relang.transpiler.BaseASTNode;
+import org.reldb.relang.transpiler.ParallelLoop;
+
+/**
+ * Simplify a Relang AST before code is generated from it or it's interpreted. Constant long, double and
+ * boolean expressions are folded, an IF with a constant condition is replaced by the branch that would run,
+ * and statements with no visible effect are removed: assignments to variables that are never read, and FOR
+ * loops that count from one integer literal to another and only assign variables that aren't read elsewhere.
+ * <p>
+ * Folding follows the arithmetic of the interpreter. A division by zero, or a result that can't be written as
+ * a literal, isn't folded, so it still happens, or fails, at run time. A statement is only removed if running
+ * it couldn't fail: it invokes no operators, divides only by nonzero literals, and only reads variables the
+ * program assigns or has as parameters. A branch or loop that defines operators is kept, as the operators
+ * are defined even where the code that defines them isn't run.
+ * <p>
+ * Self-recursive tail calls are then turned into loops; see TailCallOptimiser. Invariant expressions are hoisted out
+ * of FOR loops and products of their variables strength-reduced; see LoopOptimiser. Common subexpressions are then
+ * evaluated once, into new variables; see CommonSubexpressionOptimiser.
+ * <p>
+ * Variables are identified by name alone, so a variable counts as read if any variable of that name is.
+ * <p>
+ * A PARALLEL FOR loop is checked before it's simplified, and rejected if it can't be evaluated in parallel; see
+ * ParallelLoop.
+ * <p>
+ * Each of these is a pass, run by a PassManager, which times them and lets others be registered among them. The
+ * OptimisationLevel decides which run: at O0, only the check of PARALLEL FOR loops.
+ * <p>
+ * The AST is changed in place, but removing statements may replace the node that holds them, so use the
+ * returned root.
+ */
+public class Optimiser {
+
+	private final Set<String> liveVariables;
+	private final boolean rootVariablesLive;
+	private final boolean parallel;
+
+	// Reads of each variable name, and names that are assigned or are parameters, as of the start of a pass.
+	private final Map<String, Integer> reads = new HashMap<>();
+	private final Set<String> defined = new HashSet<>();
+	private final Set<String> live = new HashSet<>();
+
+	private boolean changed;
+	// True if a pass since the program was first simplified has changed it, so it's worth simplifying again.
+	private boolean transformed;
+
+	private final PassManager<SimpleNode> passes = new PassManager<>();
+
+	/**
+	 * Ctor.
+	 *
+	 * @param liveVariables - names of variables that are read after the program ends, e.g., by later submissions to a session.
+	 * @param rootVariablesLive - if true, every variable assigned outside an operator definition is read after the program ends.
+	 * @param parallel - if true, independent invocations are to be evaluated in parallel, so tail calls don't separate them.
+	 * @param level - which passes to run.
+	 */
+	public Optimiser(Collection<String> liveVariables, boolean rootVariablesLive, boolean parallel, OptimisationLevel level) {
+		this.liveVariables = Set.copyOf(liveVariables);
+		this.rootVariablesLive = rootVariablesLive;
+		this.parallel = parallel;
+		passes.add("check", Optimiser::check);
+		if (level == OptimisationLevel.O0)
+			return;
+		passes.add("simplify", this::simplify);
+		passes.add("tail calls", root -> {
+			transformed |= new TailCallOptimiser(this.liveVariables, parallel).optimise(root);
+			return root;
+		});
+		if (level == OptimisationLevel.O2) {
+			passes.add("loops", root -> {
+				analyse(root);
+				transformed |= new LoopOptimiser(live, rootVariablesLive).optimise(root);
+				return root;
+			});
+			passes.add("common subexpressions", root -> {
+				analyse(root);
+				transformed |= new CommonSubexpressionOptimiser(live, rootVariablesLive).optimise(root);
+				return root;
+			});
+		}
+		passes.add("simplify again", root -> transformed ? simplify(root) : root);
+	}
+
+	public Optimiser(Collection<String> liveVariables, boolean rootVariablesLive, boolean parallel) {
+		this(liveVariables, rootVariablesLive, parallel, OptimisationLevel.O2);
+	}
+
+	public Optimiser(Collection<String> liveVariables, boolean rootVariablesLive) {
+		this(liveVariables, rootVariablesLive, false);
+	}
+
+	/** Ctor for a program whose variables are gone when it ends. */
+	public Optimiser() {
+		this(Set.of(), false);
+	}
+
+	/** Get the passes, e.g., to register others or to see how long each took. */
+	public PassManager<SimpleNode> getPassManager() {
+		return passes;
+	}
+
+	/**
+	 * Optimise a program by running the passes of its OptimisationLevel in order. At O1 and above, the program is
+	 * simplified, with passes over it repeated until one changes nothing, as removing statements may leave others
+	 * unused. Tail calls are then optimised by TailCallOptimiser. At O2, FOR loops are optimised by LoopOptimiser and
+	 * common subexpressions by CommonSubexpressionOptimiser. The result is then simplified again if it changed.
+	 *
+	 * @param program - root of an AST produced by Relang.execute() or Relang.evaluate().
+	 * @return the root of the optimised AST.
+	 */
+	public SimpleNode optimise(SimpleNode program) {
+		transformed = false;
+		return passes.run(program);
+	}
+
+	// Reject PARALLEL FOR loops that can't be evaluated in parallel.
+	private static SimpleNode check(SimpleNode program) {
+		checkLoops(program);
+		return program;
+	}
+
+	private static void checkLoops(Node node) {
+		if (node instanceof ASTForLoop && ((ASTForLoop)node).isParallel)
+			new ParallelLoop((ASTForLoop)node);
+		for (var i = 0; i < node.jjtGetNumChildren(); i++)
+			checkLoops(node.jjtGetChild(i));
+	}
+
+	private SimpleNode simplify(SimpleNode program) {
+		var root = program;
+		do {
+			changed = false;
+			analyse(root);
+			root = statementList(root);
+		} while (changed);
+		return root;
+	}
+
+	private void analyse(SimpleNode root) {
+		reads.clear();
+		defined.clear();
+		live.clear();
+		live.addAll(liveVariables);
+		countReads(root, reads);
+		collectDefinitions(root, true);
+		defined.addAll(live);
+	}
+
+	private static void countReads(Node node, Map<String, Integer> reads) {
+		if (node instanceof ASTDereference)
+			reads.merge(getToken(node), 1, Integer::sum);
+		for (var i = 0; i < node.jjtGetNumChildren(); i++)
+			countReads(node.jjtGetChild(i), reads);
+	}
+
+	private void collectDefinitions(Node node, boolean atRoot) {
+		if (node instanceof ASTAssignment) {
+			defined.add(getToken(node.jjtGetChild(0)));
+			if (atRoot && rootVariablesLive)
+				live.add(getToken(node.jjtGetChild(0)));
+		} else if (node instanceof ASTParameter)
+			defined.add(getToken(node.jjtGetChild(1)));
+		var inOperator = node instanceof ASTFnDef || node instanceof ASTFnDefPure;
+		for (var i = 0; i < node.jjtGetNumChildren(); i++)
+			collectDefinitions(node.jjtGetChild(i), atRoot && !inOperator);
+	}
+
+	static String getToken(Node node) {
+		return ((BaseASTNode)node).tokenValue;
+	}
+
+	private boolean isRead(String name) {
+		return live.contains(name) || reads.getOrDefault(name, 0) > 0;
+	}
+
+	// Replace a child of a node.
+	static void replaceChild(Node parent, int childIndex, Node child) {
+		parent.jjtAddChild(child, childIndex);
+		child.jjtSetParent(parent);
+	}
+
+	static <T extends SimpleNode> T positioned(T node, Node like) {
+		var base = (BaseASTNode)like;
+		node.first_token = base.first_token;
+		node.last_token = base.last_token;
+		return node;
+	}
+
+	private static SimpleNode newStatementList(SimpleNode like) {
+		SimpleNode list;
+		if (like instanceof ASTExecute)
+			list = new ASTExecute(RelangTreeConstants.JJTEXECUTE);
+		else if (like instanceof ASTEvaluate)
+			list = new ASTEvaluate(RelangTreeConstants.JJTEVALUATE);
+		else if (like instanceof ASTFnBody)
+			list = new ASTFnBody(RelangTreeConstants.JJTFNBODY);
+		else
+			list = new ASTBlock(RelangTreeConstants.JJTBLOCK);
+		list.jjtSetParent(like.jjtGetParent());
+		return positioned(list, like);
+	}
+
+	static ASTStatement newStatement(Node content) {
+		var statement = positioned(new ASTStatement(RelangTreeConstants.JJTSTATEMENT), content);
+		replaceChild(statement, 0, content);
+		return statement;
+	}
+
+	static ASTStatement emptyStatement(Node like) {
+		return newStatement(positioned(new ASTBlock(RelangTreeConstants.JJTBLOCK), like));
+	}
+
+	static ASTStatement assignment(String name, Node expression, Node like) {
+		var identifier = positioned(new ASTIdentifier(RelangTreeConstants.JJTIDENTIFIER), like);
+		identifier.tokenValue = name;
+		var assignment = positioned(new ASTAssignment(RelangTreeConstants.JJTASSIGNMENT), like);
+		replaceChild(assignment, 0, identifier);
+		replaceChild(assignment, 1, expression);
+		return newStatement(assignment);
+	}
+
+	static ASTDereference dereference(String name, Node like) {
+		var dereference = positioned(new ASTDereference(RelangTreeConstants.JJTDEREFERENCE), like);
+		dereference.tokenValue = name;
+		return dereference;
+	}
+
+	static int indexOf(Node parent, Node child) {
+		for (var i = 0; i < parent.jjtGetNumChildren(); i++)
+			if (parent.jjtGetChild(i) == child)
+				return i;
+		throw new IllegalStateException("Node isn't a child of its parent");
+	}
+
+	// A string that is the same for structurally identical expressions.
+	static String key(Node node) {
+		var key = new StringBuilder(node.getClass().getSimpleName());
+		if (getToken(node) != null)
+			key.append(':').append(getToken(node));
+		key.append('(');
+		for (var i = 0; i < node.jjtGetNumChildren(); i++)
+			key.append(key(node.jjtGetChild(i))).append(',');
+		return key.append(')').toString();
+	}
+
+	// Insert statements before a statement, in the list that holds it, or with it in a new block if it isn't in a list.
+	static void insertBefore(Node statement, List<ASTStatement> statements) {
+		var parent = statement.jjtGetParent();
+		var index = indexOf(parent, statement);
+		if (parent instanceof ASTExecute || parent instanceof ASTEvaluate || parent instanceof ASTBlock || parent instanceof ASTFnBody) {
+			for (var i = parent.jjtGetNumChildren() - 1; i >= index; i--)
+				replaceChild(parent, i + statements.size(), parent.jjtGetChild(i));
+			for (var i = 0; i < statements.size(); i++)
+				replaceChild(parent, index + i, statements.get(i));
+			return;
+		}
+		var block = positioned(new ASTBlock(RelangTreeConstants.JJTBLOCK), statement);
+		for (var i = 0; i < statements.size(); i++)
+			replaceChild(block, i, statements.get(i));
+		replaceChild(block, statements.size(), statement);
+		replaceChild(parent, index, newStatement(block));
+	}
+
+	static boolean isEmpty(Node statement) {
+		var content = statement.jjtGetChild(0);
+		return content instanceof ASTBlock && content.jjtGetNumChildren() == 0;
+	}
+
+	static boolean definesOperators(Node node) {
+		if (node instanceof ASTFnDef || node instanceof ASTFnDefPure)
+			return true;
+		for (var i = 0; i < node.jjtGetNumChildren(); i++)
+			if (definesOperators(node.jjtGetChild(i)))
+				return true;
+		return false;
+	}
+
+	/*
+	 * Optimise the statements of an Execute, Evaluate, Block or FnBody. Removed statements are dropped, and blocks
+	 * flattened into the list, which is only valid because blocks don't scope variables. Return the list, or a new
+	 * node of the same kind if its statements changed.
+	 */
+	private SimpleNode statementList(SimpleNode list) {
+		var children = new ArrayList<Node>();
+		var rebuild = false;
+		for (var i = 0; i < list.jjtGetNumChildren(); i++) {
+			var child = list.jjtGetChild(i);
+			if (!(child instanceof ASTStatement)) {
+				// The return expression of an Evaluate.
+				replaceChild(child, 0, expression(child.jjtGetChild(0)));
+				children.add(child);
+				continue;
+			}
+			var statement = statement((ASTStatement)child);
+			if (statement == null)
+				rebuild = true;
+			else if (statement.jjtGetChild(0) instanceof ASTBlock) {
+				var block = statement.jjtGetChild(0);
+				for (var j = 0; j < block.jjtGetNumChildren(); j++)
+					children.add(block.jjtGetChild(j));
+				rebuild = true;
+			} else {
+				if (statement != child)
+					replaceChild(list, i, statement);
+				children.add(statement);
+			}
+		}
+		if (!rebuild)
+			return list;
+		changed = true;
+		var newList = newStatementList(list);
+		for (var i = 0; i < children.size(); i++)
+			replaceChild(newList, i, children.get(i));
+		return newList;
+	}
+
+	// Optimise a statement. Return it, a statement to replace it with, or null to remove it.
+	private ASTStatement statement(ASTStatement statement) {
+		var content = statement.jjtGetChild(0);
+		if (content instanceof ASTAssignment) {
+			replaceChild(content, 1, expression(content.jjtGetChild(1)));
+			if (!isRead(getToken(content.jjtGetChild(0))) && cannotFail(content.jjtGetChild(1))) {
+				changed = true;
+				return null;
+			}
+		} else if (content instanceof ASTBlock) {
+			var block = statementList((SimpleNode)content);
+			if (block.jjtGetNumChildren() == 0)
+				return null;
+			if (block != content)
+				replaceChild(statement, 0, block);
+		} else if (content instanceof ASTIfStatement)
+			return ifStatement(statement, (ASTIfStatement)content);
+		else if (content instanceof ASTForLoop)
+			return forLoop(statement, (ASTForLoop)content);
+		else if (content instanceof ASTFnDef) {
+			var body = statementList((SimpleNode)content.jjtGetChild(2));
+			if (body != content.jjtGetChild(2))
+				replaceChild(content, 2, body);
+			if (content.jjtGetNumChildren() == 4)
+				replaceChild(content.jjtGetChild(3), 0, expression(content.jjtGetChild(3).jjtGetChild(0)));
+		} else if (content instanceof ASTFnDefPure)
+			replaceChild(content.jjtGetChild(2), 0, expression(content.jjtGetChild(2).jjtGetChild(0)));
+		else if (content instanceof ASTWrite)
+			replaceChild(content, 0, expression(content.jjtGetChild(0)));
+		else if (content instanceof ASTCall) {
+			var arglist = content.jjtGetChild(1);
+			for (var i = 0; i < arglist.jjtGetNumChildren(); i++)
+				replaceChild(arglist, i, expression(arglist.jjtGetChild(i)));
+		}
+		return statement;
+	}
+
+	// Optimise the statement that is the given child of an IF or FOR. It can't be removed, so it may become an empty block.
+	private ASTStatement branch(SimpleNode parent, int childIndex) {
+		var statement = (ASTStatement)parent.jjtGetChild(childIndex);
+		if (isEmpty(statement))
+			return statement;
+		var optimised = statement(statement);
+		if (optimised == null)
+			optimised = emptyStatement(statement);
+		if (optimised != statement)
+			replaceChild(parent, childIndex, optimised);
+		return optimised;
+	}
+
+	private ASTStatement ifStatement(ASTStatement statement, ASTIfStatement ifStatement) {
+		var condition = expression(ifStatement.jjtGetChild(0));
+		replaceChild(ifStatement, 0, condition);
+		var thenBranch = branch(ifStatement, 1);
+		var elseBranch = ifStatement.ifHasElse ? branch(ifStatement, 2) : null;
+		var value = Constants.valueOf(condition);
+		if (value instanceof Boolean) {
+			var taken = (Boolean)value ? thenBranch : elseBranch;
+			var discarded = (Boolean)value ? elseBranch : thenBranch;
+			if (discarded == null || !definesOperators(discarded)) {
+				changed = true;
+				return (taken == null || isEmpty(taken)) ? null : taken;
+			}
+		}
+		if (isEmpty(thenBranch) && (elseBranch == null || isEmpty(elseBranch)) && cannotFail(condition)) {
+			changed = true;
+			return null;
+		}
+		return statement;
+	}
+
+	private ASTStatement forLoop(ASTStatement statement, ASTForLoop loop) {
+		var initialisation = loop.jjtGetChild(0);
+		replaceChild(initialisation, 1, expression(initialisation.jjtGetChild(1)));
+		var condition = expression(loop.jjtGetChild(1));
+		replaceChild(loop, 1, condition);
+		var update = loop.jjtGetChild(2);
+		replaceChild(update, 1, expression(update.jjtGetChild(1)));
+		var body = branch(loop, 3);
+		if (Boolean.FALSE.equals(Constants.valueOf(condition)) && !definesOperators(body)) {
+			changed = true;
+			return newStatement(initialisation);
+		}
+		if (isDeadLoop(loop)) {
+			changed = true;
+			return null;
+		}
+		return statement;
+	}
+
+	/*
+	 * Return true if a loop can be removed: it has the form FOR (i = a; i op b; i = i + c) where a, b and c are
+	 * integer literals that make it terminate, and its body only assigns variables, other than i, without failing.
+	 * None of the variables it assigns may be read outside it.
+	 */
+	private boolean isDeadLoop(ASTForLoop loop) {
+		var initialisation = loop.jjtGetChild(0);
+		var condition = loop.jjtGetChild(1);
+		var update = loop.jjtGetChild(2);
+		var variable = getToken(initialisation.jjtGetChild(0));
+		if (!(Constants.valueOf(initialisation.jjtGetChild(1)) instanceof Long) || !variable.equals(getToken(update.jjtGetChild(0))))
+			return false;
+		if (!(condition instanceof ASTCompLT || condition instanceof ASTCompLTE || condition instanceof ASTCompGT || condition instanceof ASTCompGTE))
+			return false;
+		if (!isDereferenceOf(condition.jjtGetChild(0), variable) || !(Constants.valueOf(condition.jjtGetChild(1)) instanceof Long))
+			return false;
+		var bound = (Long)Constants.valueOf(condition.jjtGetChild(1));
+		var step = getStep(update.jjtGetChild(1), variable);
+		if (step == null)
+			return false;
+		var ascending = condition instanceof ASTCompLT || condition instanceof ASTCompLTE;
+		if (ascending ? step <= 0 : step >= 0)
+			return false;
+		// An inclusive bound must be passed without overflowing, or the loop never ends.
+		if (condition instanceof ASTCompLTE || condition instanceof ASTCompGTE) {
+			try {
+				Math.addExact(bound, step);
+			} catch (ArithmeticException overflow) {
+				return false;
+			}
+		}
+		var assigned = new HashSet<String>();
+		if (!hasNoEffect(loop.jjtGetChild(3), assigned) || assigned.contains(variable))
+			return false;
+		assigned.add(variable);
+		var readsInLoop = new HashMap<String, Integer>();
+		countReads(loop, readsInLoop);
+		for (var name : assigned)
+			if (live.contains(name) || reads.getOrDefault(name, 0) > readsInLoop.getOrDefault(name, 0))
+				return false;
+		return true;
+	}
+
+	static boolean isDereferenceOf(Node node, String name) {
+		return node instanceof ASTDereference && name.equals(getToken(node));
+	}
+
+	// Get c from i + c or i - c as the step of a loop over the given variable. Null if it isn't one of those.
+	static Long getStep(Node expression, String variable) {
+		if (!(expression instanceof ASTAdd || expression instanceof ASTSubtract) || !isDereferenceOf(expression.jjtGetChild(0), variable))
+			return null;
+		var value = Constants.valueOf(expression.jjtGetChild(1));
+		if (!(value instanceof Long) || (Long)value == Long.MIN_VALUE)
+			return null;
+		return (expression instanceof ASTAdd) ? (Long)value : -(Long)value;
+	}
+
+	// Return true if a statement only assigns variables, whose names are added to assigned, and can't fail.
+	private boolean hasNoEffect(Node node, Set<String> assigned) {
+		if (node instanceof ASTStatement || node instanceof ASTBlock) {
+			for (var i = 0; i < node.jjtGetNumChildren(); i++)
+				if (!hasNoEffect(node.jjtGetChild(i), assigned))
+					return false;
+			return true;
+		}
+		if (node instanceof ASTAssignment) {
+			assigned.add(getToken(node.jjtGetChild(0)));
+			return cannotFail(node.jjtGetChild(1));
+		}
+		if (node instanceof ASTIfStatement) {
+			for (var i = 1; i < node.jjtGetNumChildren(); i++)
+				if (!hasNoEffect(node.jjtGetChild(i), assigned))
+					return false;
+			return cannotFail(node.jjtGetChild(0));
+		}
+		return false;
+	}
+
+	// Return true if evaluating an expression can't fail or have side effects.
+	private boolean cannotFail(Node expression) {
+		return cannotFail(expression, defined::contains);
+	}
+
+	/**
+	 * Return true if evaluating an expression can't fail or have side effects: it invokes nothing, only divides by
+	 * nonzero literals, and only reads variables that are defined.
+	 *
+	 * @param isDefined - true for the name of a variable that is certainly assigned where the expression is evaluated.
+	 */
+	public static boolean cannotFail(Node expression, Predicate<String> isDefined) {
+		if (expression instanceof ASTFnInvoke)
+			return false;
+		if (expression instanceof ASTDereference)
+			return isDefined.test(getToken(expression));
+		if (expression instanceof ASTDivide) {
+			var divisor = Constants.valueOf(expression.jjtGetChild(1));
+			if (!(divisor instanceof Double || (divisor instanceof Long && (Long)divisor != 0)))
+				return false;
+		}
+		for (var i = 0; i < expression.jjtGetNumChildren(); i++)
+			if (!cannotFail(expression.jjtGetChild(i), isDefined))
+				return false;
+		return true;
+	}
+
+	// Fold an expression. Return it, or the expression to replace it with.
+	private Node expression(Node expression) {
+		for (var i = 0; i < expression.jjtGetNumChildren(); i++) {
+			var child = expression.jjtGetChild(i);
+			var folded = expression(child);
+			if (folded != child)
+				replaceChild(expression, i, folded);
+		}
+		var folded = Constants.fold(expression);
+		if (folded == null)
+			return expression;
+		changed = true;
+		return folded;
+	}
+
+}
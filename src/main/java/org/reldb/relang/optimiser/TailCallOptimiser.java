@@ -0,0 +1,306 @@
+package org.reldb.relang.optimiser;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.reldb.relang.parser.ast.*;
+import org.reldb.relang.transpiler.TypeInference;
+
+import static org.reldb.relang.optimiser.Optimiser.getToken;
+import static org.reldb.relang.optimiser.Optimiser.isDereferenceOf;
+import static org.reldb.relang.optimiser.Optimiser.newStatement;
+import static org.reldb.relang.optimiser.Optimiser.positioned;
+import static org.reldb.relang.optimiser.Optimiser.replaceChild;
+
+/**
+ * Turn self-recursive tail calls into loops. A tail call is an operator invoking itself as the last thing it does:
+ * the last statement of its body, or of a branch of an IF that is, is r = f(...), where r is the variable it
+ * returns, or f(...) if it returns nothing. The body becomes the body of a FOR loop, and a tail call assigns the
+ * arguments to the parameters and goes round again, so recursion takes no stack and the frame is reused.
+ * <p>
+ * Where f returns a long, r = e + f(...) and r = e * f(...), or f(...) + e and f(...) * e, are tail calls too: e
+ * is added to, or multiplied into, an accumulator that the result is combined with at the end. Long arithmetic
+ * wraps, so this doesn't change the result. If f(...) comes first, e is then evaluated before the work of the
+ * call rather than after it, so it mustn't invoke operators or divide. When independent invocations are to be
+ * evaluated in parallel, e + f(...) and e * f(...) are left alone if e invokes operators, as they're independent.
+ * <p>
+ * Operators that define operators are left alone. Pure operators have no conditionals, so can't end recursion.
+ */
+class TailCallOptimiser {
+
+	private static final String recursePrefix = "__recurse";
+	private static final String argumentPrefix = "__argument";
+	private static final String accumulatorPrefix = "__accumulator";
+
+	private final Set<String> names = new HashSet<>();
+	private final boolean parallel;
+	private int temporaryCount = 0;
+
+	/**
+	 * Ctor.
+	 *
+	 * @param live - names of variables that are defined before the program runs, which new variables mustn't use.
+	 * @param parallel - if true, invocations that may be evaluated in parallel aren't separated by accumulation.
+	 */
+	TailCallOptimiser(Set<String> live, boolean parallel) {
+		names.addAll(live);
+		this.parallel = parallel;
+	}
+
+	/** Optimise the tail calls of a program, in place. Return true if anything changed. */
+	boolean optimise(SimpleNode program) {
+		collectNames(program);
+		var types = new TypeInference(program);
+		var changed = false;
+		for (var definition : findDefinitions(program, new ArrayList<>()))
+			changed |= definition(definition, types.getReturnType(definition));
+		return changed;
+	}
+
+	private void collectNames(Node node) {
+		if (node instanceof ASTIdentifier || node instanceof ASTDereference)
+			names.add(getToken(node));
+		for (var i = 0; i < node.jjtGetNumChildren(); i++)
+			collectNames(node.jjtGetChild(i));
+	}
+
+	private static List<ASTFnDef> findDefinitions(Node node, List<ASTFnDef> definitions) {
+		if (node instanceof ASTFnDef && !Optimiser.definesOperators(node.jjtGetChild(2)))
+			definitions.add((ASTFnDef)node);
+		for (var i = 0; i < node.jjtGetNumChildren(); i++)
+			findDefinitions(node.jjtGetChild(i), definitions);
+		return definitions;
+	}
+
+	private String newTemporary(String prefix) {
+		String name;
+		do {
+			name = prefix + temporaryCount++;
+		} while (names.contains(name));
+		names.add(name);
+		return name;
+	}
+
+	/** A tail call: the statement that makes it, the invocation, and any expression it's combined with. */
+	private static class TailCall {
+		final ASTStatement statement;
+		final SimpleNode invocation;
+		final Node accumulated;
+		final boolean accumulatedFirst;
+
+		TailCall(ASTStatement statement, SimpleNode invocation, Node accumulated, boolean accumulatedFirst) {
+			this.statement = statement;
+			this.invocation = invocation;
+			this.accumulated = accumulated;
+			this.accumulatedFirst = accumulatedFirst;
+		}
+	}
+
+	/** An operator's name, parameters, the variable it returns if it returns one, and how it accumulates. */
+	private static class Definition {
+		final String name;
+		final List<String> parameters = new ArrayList<>();
+		final String result;
+		final boolean accumulates;
+		// ASTAdd or ASTTimes, once an accumulating tail call has been found.
+		Class<?> accumulation = null;
+
+		Definition(ASTFnDef definition, String result, boolean accumulates) {
+			name = getToken(definition.jjtGetChild(0));
+			var parameterList = definition.jjtGetChild(1);
+			for (var i = 0; i < parameterList.jjtGetNumChildren(); i++)
+				parameters.add(getToken(parameterList.jjtGetChild(i).jjtGetChild(1)));
+			this.result = result;
+			this.accumulates = accumulates;
+		}
+	}
+
+	private boolean definition(ASTFnDef node, String returnType) {
+		String result = null;
+		if (node.jjtGetNumChildren() > 3) {
+			var returned = node.jjtGetChild(3).jjtGetChild(0);
+			if (!(returned instanceof ASTDereference) || returnType == null)
+				return false;
+			result = getToken(returned);
+		}
+		var definition = new Definition(node, result, TypeInference.typeLong.equals(returnType));
+		var body = node.jjtGetChild(2);
+		var tailCalls = new ArrayList<TailCall>();
+		findTailCalls(body, definition, tailCalls);
+		if (tailCalls.isEmpty())
+			return false;
+		var recurse = newTemporary(recursePrefix);
+		var accumulator = (definition.accumulation != null) ? newTemporary(accumulatorPrefix) : null;
+		for (var tailCall : tailCalls)
+			replaceTailCall(tailCall, definition, recurse, accumulator);
+		// The body becomes for (recurse = true; recurse; recurse = recurse) {recurse = false ...}
+		var loopBody = positioned(new ASTBlock(RelangTreeConstants.JJTBLOCK), body);
+		replaceChild(loopBody, 0, assignment(recurse, Constants.literal(false, body), body));
+		for (var i = 0; i < body.jjtGetNumChildren(); i++)
+			replaceChild(loopBody, i + 1, body.jjtGetChild(i));
+		var loop = positioned(new ASTForLoop(RelangTreeConstants.JJTFORLOOP), body);
+		replaceChild(loop, 0, assignment(recurse, Constants.literal(true, body), body).jjtGetChild(0));
+		replaceChild(loop, 1, dereference(recurse, body));
+		replaceChild(loop, 2, assignment(recurse, dereference(recurse, body), body).jjtGetChild(0));
+		replaceChild(loop, 3, newStatement(loopBody));
+		var newBody = positioned(new ASTFnBody(RelangTreeConstants.JJTFNBODY), body);
+		// The result is assigned on every path out of the body, but not certainly before the loop.
+		if (result != null && !definition.parameters.contains(result))
+			replaceChild(newBody, newBody.jjtGetNumChildren(), assignment(result, Constants.literal(zero(returnType), body), body));
+		if (accumulator != null) {
+			var identity = (definition.accumulation == ASTTimes.class) ? 1L : 0L;
+			replaceChild(newBody, newBody.jjtGetNumChildren(), assignment(accumulator, Constants.literal(identity, body), body));
+			var returnExpression = node.jjtGetChild(3);
+			replaceChild(returnExpression, 0, accumulate(definition, accumulator, returnExpression.jjtGetChild(0), returnExpression));
+		}
+		replaceChild(newBody, newBody.jjtGetNumChildren(), newStatement(loop));
+		replaceChild(node, 2, newBody);
+		return true;
+	}
+
+	private static Object zero(String type) {
+		if (TypeInference.typeDouble.equals(type))
+			return 0.0;
+		if (TypeInference.typeBoolean.equals(type))
+			return false;
+		return 0L;
+	}
+
+	// Find the tail calls in the last statement of a list of them.
+	private void findTailCalls(Node statements, Definition definition, List<TailCall> tailCalls) {
+		var count = statements.jjtGetNumChildren();
+		if (count > 0)
+			findTailCall((ASTStatement)statements.jjtGetChild(count - 1), definition, tailCalls);
+	}
+
+	private void findTailCall(ASTStatement statement, Definition definition, List<TailCall> tailCalls) {
+		var content = statement.jjtGetChild(0);
+		if (content instanceof ASTBlock)
+			findTailCalls(content, definition, tailCalls);
+		else if (content instanceof ASTIfStatement) {
+			findTailCall((ASTStatement)content.jjtGetChild(1), definition, tailCalls);
+			if (((ASTIfStatement)content).ifHasElse)
+				findTailCall((ASTStatement)content.jjtGetChild(2), definition, tailCalls);
+		} else if (content instanceof ASTCall && definition.result == null && isSelfInvocation(content, definition))
+			tailCalls.add(new TailCall(statement, (SimpleNode)content, null, false));
+		else if (content instanceof ASTAssignment && definition.result != null && definition.result.equals(getToken(content.jjtGetChild(0)))) {
+			var source = content.jjtGetChild(1);
+			if (isSelfInvocation(source, definition))
+				tailCalls.add(new TailCall(statement, (SimpleNode)source, null, false));
+			else if (definition.accumulates && (source instanceof ASTAdd || source instanceof ASTTimes)
+					&& (definition.accumulation == null || definition.accumulation == source.getClass())) {
+				var operand0 = source.jjtGetChild(0);
+				var operand1 = source.jjtGetChild(1);
+				if (isSelfInvocation(operand1, definition) && !(parallel && invokes(operand0)))
+					tailCalls.add(new TailCall(statement, (SimpleNode)operand1, operand0, true));
+				else if (isSelfInvocation(operand0, definition) && isInert(operand1))
+					tailCalls.add(new TailCall(statement, (SimpleNode)operand0, operand1, false));
+				else
+					return;
+				definition.accumulation = source.getClass();
+			}
+		}
+	}
+
+	private static boolean isSelfInvocation(Node node, Definition definition) {
+		return (node instanceof ASTFnInvoke || node instanceof ASTCall)
+				&& definition.name.equals(getToken(node.jjtGetChild(0)))
+				&& node.jjtGetChild(1).jjtGetNumChildren() == definition.parameters.size();
+	}
+
+	// Return true if evaluating an expression can't fail or have effects, so it can be evaluated early.
+	private static boolean isInert(Node expression) {
+		if (expression instanceof ASTFnInvoke || expression instanceof ASTDivide)
+			return false;
+		for (var i = 0; i < expression.jjtGetNumChildren(); i++)
+			if (!isInert(expression.jjtGetChild(i)))
+				return false;
+		return true;
+	}
+
+	private static boolean invokes(Node expression) {
+		if (expression instanceof ASTFnInvoke)
+			return true;
+		for (var i = 0; i < expression.jjtGetNumChildren(); i++)
+			if (invokes(expression.jjtGetChild(i)))
+				return true;
+		return false;
+	}
+
+	private static boolean reads(Node expression, String name) {
+		if (isDereferenceOf(expression, name))
+			return true;
+		for (var i = 0; i < expression.jjtGetNumChildren(); i++)
+			if (reads(expression.jjtGetChild(i), name))
+				return true;
+		return false;
+	}
+
+	/*
+	 * Replace a tail call with assignments of its arguments to the parameters, in the order the arguments would be
+	 * evaluated. An argument goes via a temporary if a parameter it's assigned to is read by a later argument, or by
+	 * an accumulated expression evaluated after it.
+	 */
+	private void replaceTailCall(TailCall tailCall, Definition definition, String recurse, String accumulator) {
+		var like = tailCall.statement;
+		var block = positioned(new ASTBlock(RelangTreeConstants.JJTBLOCK), like);
+		if (tailCall.accumulated != null && tailCall.accumulatedFirst)
+			append(block, assignment(accumulator, accumulate(definition, accumulator, tailCall.accumulated, like), like));
+		var arguments = tailCall.invocation.jjtGetChild(1);
+		var moves = new ArrayList<ASTStatement>();
+		for (var i = 0; i < arguments.jjtGetNumChildren(); i++) {
+			var parameter = definition.parameters.get(i);
+			var argument = arguments.jjtGetChild(i);
+			if (isDereferenceOf(argument, parameter))
+				continue;
+			var readLater = tailCall.accumulated != null && !tailCall.accumulatedFirst && reads(tailCall.accumulated, parameter);
+			for (var j = i + 1; j < arguments.jjtGetNumChildren(); j++)
+				readLater |= reads(arguments.jjtGetChild(j), parameter);
+			if (readLater) {
+				var temporary = newTemporary(argumentPrefix);
+				append(block, assignment(temporary, argument, like));
+				moves.add(assignment(parameter, dereference(temporary, like), like));
+			} else
+				append(block, assignment(parameter, argument, like));
+		}
+		if (tailCall.accumulated != null && !tailCall.accumulatedFirst)
+			append(block, assignment(accumulator, accumulate(definition, accumulator, tailCall.accumulated, like), like));
+		for (var move : moves)
+			append(block, move);
+		append(block, assignment(recurse, Constants.literal(true, like), like));
+		replaceChild(tailCall.statement, 0, block);
+	}
+
+	private static void append(ASTBlock block, ASTStatement statement) {
+		replaceChild(block, block.jjtGetNumChildren(), statement);
+	}
+
+	// Get accumulator + expression, or accumulator * expression.
+	private static SimpleNode accumulate(Definition definition, String accumulator, Node expression, Node like) {
+		var operation = (definition.accumulation == ASTTimes.class)
+				? new ASTTimes(RelangTreeConstants.JJTTIMES)
+				: new ASTAdd(RelangTreeConstants.JJTADD);
+		positioned(operation, like);
+		replaceChild(operation, 0, dereference(accumulator, like));
+		replaceChild(operation, 1, expression);
+		return operation;
+	}
+
+	private static ASTStatement assignment(String name, Node expression, Node like) {
+		var identifier = positioned(new ASTIdentifier(RelangTreeConstants.JJTIDENTIFIER), like);
+		identifier.tokenValue = name;
+		var assignment = positioned(new ASTAssignment(RelangTreeConstants.JJTASSIGNMENT), like);
+		replaceChild(assignment, 0, identifier);
+		replaceChild(assignment, 1, expression);
+		return newStatement(assignment);
+	}
+
+	private static ASTDereference dereference(String name, Node like) {
+		var dereference = positioned(new ASTDereference(RelangTreeConstants.JJTDEREFERENCE), like);
+		dereference.tokenValue = name;
+		return dereference;
+	}
+
+}
@@ -0,0 +1,160 @@
+package org.reldb.relang.runtime;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded cache of the results of a memoised operator, used by generated code. Keys are up to three arguments
+ * and values are a result, each as the long that holds its bits, so nothing is boxed: a double is held as its raw
+ * bits, and a boolean as 0 or 1. Unused key arguments are 0.
+ * <p>
+ * Entries are immutable and replace each other in a fixed table, so the cache may be shared by concurrent threads
+ * without locking. A thread may miss an entry another has just stored, which only costs evaluating it again.
+ * Hits and misses are counted, for reporting.
+ */
+public class MemoCache {
+
+	public static final int defaultCapacity = 4096;
+
+	/** How an entry is chosen to make way for a new one. */
+	public enum Eviction {
+		/** Each key has one place in the table, and a new entry replaces whatever is there. */
+		DIRECT_MAPPED,
+		/** Each key has two places in the table, and a new entry replaces the less recently used. */
+		TWO_WAY_LRU
+	}
+
+	/** A cached result. */
+	public static class Entry {
+		private final long key0;
+		private final long key1;
+		private final long key2;
+		private final long value;
+
+		Entry(long key0, long key1, long key2, long value) {
+			this.key0 = key0;
+			this.key1 = key1;
+			this.key2 = key2;
+			this.value = value;
+		}
+
+		public long getValue() {
+			return value;
+		}
+	}
+
+	private final String name;
+	private final Eviction eviction;
+	private final Entry[] entries;
+	private final int mask;
+	// Per set of two entries, which was used most recently. Only used by TWO_WAY_LRU.
+	private final byte[] recent;
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+
+	/**
+	 * Ctor.
+	 *
+	 * @param name - name of the operator whose results are cached, for reporting.
+	 * @param capacity - most entries held. Rounded up to a power of two.
+	 * @param eviction - how entries make way for new ones.
+	 */
+	public MemoCache(String name, int capacity, Eviction eviction) {
+		if (capacity < 2 || capacity > 1 << 30)
+			throw new IllegalArgumentException("Capacity must be from 2 to 2^30, but was " + capacity);
+		this.name = name;
+		this.eviction = eviction;
+		var size = Integer.highestOneBit(capacity - 1) << 1;
+		entries = new Entry[size];
+		if (eviction == Eviction.TWO_WAY_LRU) {
+			mask = size / 2 - 1;
+			recent = new byte[size / 2];
+		} else {
+			mask = size - 1;
+			recent = null;
+		}
+	}
+
+	private int index(long key0, long key1, long key2) {
+		// Mix the arguments, then finish as MurmurHash3 does, so nearby keys spread over the table.
+		var hash = (key0 * 0x9E3779B97F4A7C15L + key1) * 0x9E3779B97F4A7C15L + key2;
+		hash ^= hash >>> 33;
+		hash *= 0xFF51AFD7ED558CCDL;
+		hash ^= hash >>> 33;
+		return (int)hash & mask;
+	}
+
+	private static boolean matches(Entry entry, long key0, long key1, long key2) {
+		return entry != null && entry.key0 == key0 && entry.key1 == key1 && entry.key2 == key2;
+	}
+
+	/** Find the entry for the given arguments. Null if there isn't one. */
+	public Entry find(long key0, long key1, long key2) {
+		var index = index(key0, key1, key2);
+		if (recent == null) {
+			var entry = entries[index];
+			if (matches(entry, key0, key1, key2)) {
+				hits.increment();
+				return entry;
+			}
+		} else {
+			for (var way = 0; way < 2; way++) {
+				var entry = entries[2 * index + way];
+				if (matches(entry, key0, key1, key2)) {
+					if (recent[index] != way)
+						recent[index] = (byte)way;
+					hits.increment();
+					return entry;
+				}
+			}
+		}
+		misses.increment();
+		return null;
+	}
+
+	/** Store the result for the given arguments, evicting an entry if need be. */
+	public void put(long key0, long key1, long key2, long value) {
+		var entry = new Entry(key0, key1, key2, value);
+		var index = index(key0, key1, key2);
+		if (recent == null) {
+			entries[index] = entry;
+			return;
+		}
+		var way = (entries[2 * index] == null) ? 0 : 1 - recent[index];
+		entries[2 * index + way] = entry;
+		recent[index] = (byte)way;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public Eviction getEviction() {
+		return eviction;
+	}
+
+	/** Number of entries the table holds. */
+	public int getCapacity() {
+		return entries.length;
+	}
+
+	public long getHits() {
+		return hits.sum();
+	}
+
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	/** Fraction of lookups that found an entry. 0 if there have been none. */
+	public double getHitRate() {
+		var hitCount = getHits();
+		var lookups = hitCount + getMisses();
+		return (lookups == 0) ? 0 : (double)hitCount / lookups;
+	}
+
+	public String toString() {
+		return String.format("%s: %d hits, %d misses, hit rate %.1f%%", name, getHits(), getMisses(), getHitRate() * 100);
+	}
+
+}
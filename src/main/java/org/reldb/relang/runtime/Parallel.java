@@ -0,0 +1,247 @@
+package org.reldb.relang.runtime;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.BooleanSupplier;
+import java.util.function.DoubleSupplier;
+import java.util.function.LongSupplier;
+
+/**
+ * Evaluate independent invocations of pure operators in parallel, as ForkJoin tasks, for generated code. Results
+ * are held as primitives, so nothing is boxed.
+ * <p>
+ * Generated code runs in a ForkJoinPool with a worker per processor: an invocation made outside it is passed to the
+ * pool with one of the invoke methods, and waited for. The pool is its own, rather than the common pool, because a
+ * thread that waits for a task in the common pool may evaluate it itself, outside the pool.
+ * <p>
+ * Within the pool, invocations are forked until the current worker has more than a cutoff of forked tasks that no
+ * other worker has taken, as then every worker has work and a task would cost more than it gains. So once a
+ * computation fills the pool, its smaller invocations are evaluated inline.
+ * <p>
+ * A PARALLEL FOR loop is a Loop, whose range of iterations is split in halves, each evaluated by its own part of
+ * the loop, until the parts are small enough or every worker has work. The parts are then combined.
+ */
+public class Parallel {
+
+	/** Default most surplus tasks a worker may have queued for another to be forked. */
+	public static final int defaultCutoff = 3;
+
+	private static final ForkJoinPool pool = new ForkJoinPool();
+	// With one worker, nothing forked would be taken by another, so nothing is.
+	private static final boolean forking = pool.getParallelism() > 1;
+
+	private Parallel() {}
+
+	/** A forked invocation that returns a long. */
+	public static class LongTask extends ForkJoinTask<Void> {
+		private static final long serialVersionUID = 1L;
+
+		private final transient LongSupplier invocation;
+		private long result;
+
+		LongTask(LongSupplier invocation) {
+			this.invocation = invocation;
+		}
+
+		/** Wait for the invocation to finish, or evaluate it here if no worker has started it, and return its result. */
+		public long joinLong() {
+			join();
+			return result;
+		}
+
+		@Override
+		protected boolean exec() {
+			result = invocation.getAsLong();
+			return true;
+		}
+
+		@Override
+		public Void getRawResult() {
+			return null;
+		}
+
+		@Override
+		protected void setRawResult(Void value) {}
+	}
+
+	/** A forked invocation that returns a double. */
+	public static class DoubleTask extends ForkJoinTask<Void> {
+		private static final long serialVersionUID = 1L;
+
+		private final transient DoubleSupplier invocation;
+		private double result;
+
+		DoubleTask(DoubleSupplier invocation) {
+			this.invocation = invocation;
+		}
+
+		/** Wait for the invocation to finish, or evaluate it here if no worker has started it, and return its result. */
+		public double joinDouble() {
+			join();
+			return result;
+		}
+
+		@Override
+		protected boolean exec() {
+			result = invocation.getAsDouble();
+			return true;
+		}
+
+		@Override
+		public Void getRawResult() {
+			return null;
+		}
+
+		@Override
+		protected void setRawResult(Void value) {}
+	}
+
+	/** A forked invocation that returns a boolean. */
+	public static class BooleanTask extends ForkJoinTask<Void> {
+		private static final long serialVersionUID = 1L;
+
+		private final transient BooleanSupplier invocation;
+		private boolean result;
+
+		BooleanTask(BooleanSupplier invocation) {
+			this.invocation = invocation;
+		}
+
+		/** Wait for the invocation to finish, or evaluate it here if no worker has started it, and return its result. */
+		public boolean joinBoolean() {
+			join();
+			return result;
+		}
+
+		@Override
+		protected boolean exec() {
+			result = invocation.getAsBoolean();
+			return true;
+		}
+
+		@Override
+		public Void getRawResult() {
+			return null;
+		}
+
+		@Override
+		protected void setRawResult(Void value) {}
+	}
+
+	/**
+	 * Part of a PARALLEL FOR loop, which evaluates a range of its iterations, numbered from 0, and holds its own
+	 * partial reductions.
+	 */
+	public abstract static class Loop {
+		/** Get a new part of the same loop, with reductions at their identities. */
+		protected abstract Loop split();
+
+		/** Evaluate iterations first to last - 1, adding to this part's reductions. */
+		protected abstract void iterate(long first, long last);
+
+		/** Combine a part that evaluated later iterations into this one. */
+		protected abstract void combine(Loop part);
+	}
+
+	private static class LoopTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final transient Loop loop;
+		private final long first;
+		private final long last;
+		private final long grain;
+		private final int cutoff;
+
+		LoopTask(Loop loop, long first, long last, long grain, int cutoff) {
+			this.loop = loop;
+			this.first = first;
+			this.last = last;
+			this.grain = grain;
+			this.cutoff = cutoff;
+		}
+
+		@Override
+		protected void compute() {
+			if (last - first <= grain || !shouldFork(cutoff)) {
+				loop.iterate(first, last);
+				return;
+			}
+			var middle = first + (last - first) / 2;
+			var part = loop.split();
+			var later = new LoopTask(part, middle, last, grain, cutoff);
+			later.fork();
+			new LoopTask(loop, first, middle, grain, cutoff).compute();
+			later.join();
+			loop.combine(part);
+		}
+	}
+
+	/**
+	 * Evaluate iterations 0 to count - 1 of a loop, in parallel if there's more than one worker. Ranges are split
+	 * until they're no bigger than an eighth of a worker's share, or the current worker has more than the cutoff of
+	 * surplus tasks.
+	 */
+	public static void loop(Loop loop, long count, int cutoff) {
+		if (!forking || count <= 1) {
+			loop.iterate(0, Math.max(count, 0));
+			return;
+		}
+		var grain = Math.max(1, count / (8L * pool.getParallelism()));
+		var task = new LoopTask(loop, 0, count, grain, cutoff);
+		if (inPool())
+			task.invoke();
+		else
+			pool.invoke(task);
+	}
+
+	/** Return true if the current thread is a worker of a ForkJoinPool, so it may fork tasks. */
+	public static boolean inPool() {
+		return ForkJoinTask.inForkJoinPool();
+	}
+
+	/** Return true if invocations should be forked: there's more than one worker, and the current one has no more than the cutoff of surplus tasks. */
+	public static boolean shouldFork(int cutoff) {
+		return forking && ForkJoinTask.getSurplusQueuedTaskCount() <= cutoff;
+	}
+
+	public static LongTask forkLong(LongSupplier invocation) {
+		var task = new LongTask(invocation);
+		task.fork();
+		return task;
+	}
+
+	public static DoubleTask forkDouble(DoubleSupplier invocation) {
+		var task = new DoubleTask(invocation);
+		task.fork();
+		return task;
+	}
+
+	public static BooleanTask forkBoolean(BooleanSupplier invocation) {
+		var task = new BooleanTask(invocation);
+		task.fork();
+		return task;
+	}
+
+	/** Evaluate in the pool, from outside it, and return the result. */
+	public static long invokeLong(LongSupplier invocation) {
+		var task = new LongTask(invocation);
+		pool.invoke(task);
+		return task.result;
+	}
+
+	/** Evaluate in the pool, from outside it, and return the result. */
+	public static double invokeDouble(DoubleSupplier invocation) {
+		var task = new DoubleTask(invocation);
+		pool.invoke(task);
+		return task.result;
+	}
+
+	/** Evaluate in the pool, from outside it, and return the result. */
+	public static boolean invokeBoolean(BooleanSupplier invocation) {
+		var task = new BooleanTask(invocation);
+		pool.invoke(task);
+		return task.result;
+	}
+
+}
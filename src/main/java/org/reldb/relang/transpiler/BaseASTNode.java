@@ -1,5 +1,7 @@
 package org.reldb.relang.transpiler;
 
+import java.util.Map;
+
 import org.reldb.relang.parser.ast.Token;
 
 /** This is the base class for every AST node.  
@@ -7,11 +9,16 @@ import org.reldb.relang.parser.ast.Token;
  * tokenValue contains the actual value from which the token was constructed.
  * <p>
  * ifHasElse is set at parse-time to indicate to the compiler whether an IF clause has an ELSE.
+ * <p>
+ * isParallel is set at parse-time on a PARALLEL FOR loop, and reductions to the kind of each of its reduction
+ * variables, by name, or null if it has none.
  *
  */
 public class BaseASTNode {
 	public String tokenValue = null;
 	public boolean ifHasElse = false;
+	public boolean isParallel = false;
+	public Map<String, String> reductions = null;
 	public Token first_token;
 	public Token last_token;	
 }
@@ -0,0 +1,151 @@
+package org.reldb.relang.transpiler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import org.reldb.relang.ir.Operator;
+
+import static org.reldb.relang.transpiler.Formatter.indent;
+
+/**
+ * Independent invocations of pure operators in an expression, e.g., the operands of an arithmetic operator or the
+ * arguments of an invocation, that are evaluated in parallel. The other operands are values that invoke nothing.
+ * <p>
+ * The expression becomes an invocation of a method that's given the arguments and values, forks all the
+ * invocations but the last, evaluates the last, joins the rest, and combines the results.
+ */
+class ForkSite {
+
+	private static final String parallelClassName = "org.reldb.relang.runtime.Parallel";
+
+	/** An operand: an invocation of an operator, with Java code for its arguments, or a value. */
+	static class Operand {
+		final Operator operator;
+		final List<String> arguments;
+		final String typeName;
+
+		/** An invocation, returning a value of the given type. */
+		Operand(Operator operator, List<String> arguments, String typeName) {
+			this.operator = operator;
+			this.arguments = arguments;
+			this.typeName = typeName;
+		}
+
+		/** A value of the given type. */
+		Operand(String typeName, String value) {
+			this(null, List.of(value), typeName);
+		}
+
+		boolean isInvocation() {
+			return operator != null;
+		}
+	}
+
+	private final String name;
+	private final List<Operand> operands;
+	private final Function<List<String>, String> combination;
+	private final String typeName;
+	private final int cutoff;
+
+	/**
+	 * Ctor.
+	 *
+	 * @param name - name of the generated method.
+	 * @param operands - the invocations and values, in evaluation order.
+	 * @param combination - gets Java code that combines the results, given in the same order as the operands.
+	 * @param typeName - type of the combined value.
+	 * @param cutoff - most surplus tasks a worker may have queued for an invocation to be forked.
+	 */
+	ForkSite(String name, List<Operand> operands, Function<List<String>, String> combination, String typeName, int cutoff) {
+		this.name = name;
+		this.operands = operands;
+		this.combination = combination;
+		this.typeName = typeName;
+		this.cutoff = cutoff;
+	}
+
+	/** Return true if the types of the result and operands can be evaluated in parallel. */
+	static boolean isSupported(String typeName) {
+		return TypeInference.typeLong.equals(typeName) || TypeInference.typeDouble.equals(typeName) || TypeInference.typeBoolean.equals(typeName);
+	}
+
+	/** Get Java code for the expression. */
+	String getExpression() {
+		var arguments = operands.stream()
+				.flatMap(operand -> operand.arguments.stream())
+				.collect(Collectors.joining(", "));
+		return name + "(" + arguments + ")";
+	}
+
+	private static String getTaskKind(String typeName) {
+		return switch (typeName) {
+			case "double" -> "Double";
+			case "boolean" -> "Boolean";
+			default -> "Long";
+		};
+	}
+
+	/** Get the method that evaluates the invocations in parallel. */
+	String getSource() {
+		var parameterDecls = new ArrayList<String>();
+		var parameterNames = new ArrayList<String>();
+		// Java code for each operand, evaluated inline.
+		var inline = new ArrayList<String>();
+		for (var operand : operands) {
+			if (operand.isInvocation()) {
+				var arguments = new ArrayList<String>();
+				for (var parameter : operand.operator.getParameters()) {
+					var parameterName = "__a" + parameterNames.size();
+					parameterDecls.add(parameter.getType() + " " + parameterName);
+					parameterNames.add(parameterName);
+					arguments.add(parameterName);
+				}
+				inline.add(operand.operator.getName() + "(" + String.join(", ", arguments) + ")");
+			} else {
+				var parameterName = "__a" + parameterNames.size();
+				parameterDecls.add(operand.typeName + " " + parameterName);
+				parameterNames.add(parameterName);
+				inline.add(parameterName);
+			}
+		}
+		var last = 0;
+		for (var i = 0; i < operands.size(); i++)
+			if (operands.get(i).isInvocation())
+				last = i;
+		var forks = new StringBuilder();
+		var joins = new StringBuilder();
+		var results = new ArrayList<String>();
+		for (var i = 0; i < operands.size(); i++) {
+			var operand = operands.get(i);
+			if (!operand.isInvocation()) {
+				results.add(inline.get(i));
+				continue;
+			}
+			var result = "__result" + i;
+			results.add(result);
+			var kind = getTaskKind(operand.typeName);
+			if (i == last)
+				forks.append(operand.typeName).append(" ").append(result).append(" = ").append(inline.get(i)).append(";\n");
+			else {
+				var task = "__task" + i;
+				forks.append(parallelClassName).append(".").append(kind).append("Task ").append(task)
+						.append(" = ").append(parallelClassName).append(".fork").append(kind).append("(() -> ").append(inline.get(i)).append(");\n");
+				// Join in the reverse of the order forked, so a task no other worker has taken is evaluated here.
+				joins.insert(0, operand.typeName + " " + result + " = " + task + ".join" + kind + "();\n");
+			}
+		}
+		return "private static " + typeName + " " + name + "(" + String.join(", ", parameterDecls) + ") {\n" +
+				indent(
+					"if (!" + parallelClassName + ".inPool())\n" +
+					"\treturn " + parallelClassName + ".invoke" + getTaskKind(typeName) + "(() -> " + name + "(" + String.join(", ", parameterNames) + "));\n" +
+					"if (!" + parallelClassName + ".shouldFork(" + cutoff + "))\n" +
+					"\treturn " + combination.apply(inline) + ";\n" +
+					forks +
+					joins +
+					"return " + combination.apply(results) + ";\n") +
+				"}\n";
+	}
+
+}
@@ -0,0 +1,52 @@
+package org.reldb.relang.transpiler;
+
+/**
+ * Decide which invocations ir.Inlining inlines. Only operators defined by an expression, as in f(x) -> e, are
+ * inlined, and only where every slot the expression uses is visible at the call site, or is a parameter of an
+ * operator being inlined. Small operators are inlined everywhere; larger ones where they're invoked at only
+ * one place in the program, or a profile shows they're hot. Operators they invoke are inlined too, up to a depth.
+ * <p>
+ * Size is the number of nodes in the operator's expression, e.g., x * x has three.
+ */
+public class InliningPolicy {
+
+	/** Inline nothing. */
+	public static final InliningPolicy none = new InliningPolicy(0, 0, 0);
+
+	/** Inline operators of up to 8 nodes, and single call site or hot ones of up to 32, up to 4 deep. */
+	public static final InliningPolicy standard = new InliningPolicy(8, 32, 4);
+
+	private final int smallSize;
+	private final int largeSize;
+	private final int depth;
+
+	/**
+	 * Ctor.
+	 *
+	 * @param smallSize - largest operator inlined at every call site.
+	 * @param largeSize - largest operator inlined at its only call site, or if a profile shows it's hot.
+	 * @param depth - most operators inlined in one another at a call site.
+	 */
+	public InliningPolicy(int smallSize, int largeSize, int depth) {
+		if (smallSize < 0 || largeSize < 0 || depth < 0)
+			throw new IllegalArgumentException("Sizes and depth must not be negative");
+		this.smallSize = smallSize;
+		this.largeSize = largeSize;
+		this.depth = depth;
+	}
+
+	/** Return true if an operator of the given size is inlined, given whether it has one call site or is hot. */
+	public boolean isInlined(int size, boolean singleOrHot) {
+		return size <= smallSize || (singleOrHot && size <= largeSize);
+	}
+
+	public int getDepth() {
+		return depth;
+	}
+
+	/** A description that differs between policies that generate different code, e.g., for cache keys. */
+	public String toString() {
+		return (depth == 0) ? "none" : smallSize + " " + largeSize + " " + depth;
+	}
+
+}
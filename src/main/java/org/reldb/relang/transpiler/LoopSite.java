@@ -0,0 +1,204 @@
+package org.reldb.relang.transpiler;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.reldb.relang.ir.Slot;
+import org.reldb.relang.ir.Statement;
+
+import static org.reldb.relang.transpiler.Formatter.indent;
+
+/**
+ * A PARALLEL FOR loop, checked by ParallelLoop, whose body only invokes pure operators, evaluated in parallel.
+ * <p>
+ * Its body is emitted in a class, after the operator it's in, that extends runtime.Parallel.Loop. Each part of the
+ * loop is an instance, with its own loop variable, private variables and partial reductions as locals, and the
+ * variables and parameters the body only reads as fields, copied from the operator. The loop is replaced by code
+ * that counts its iterations from the loop variable's value, evaluates them, and combines the reductions into the
+ * operator's variables.
+ */
+class LoopSite {
+
+	private static final String parallelClassName = "org.reldb.relang.runtime.Parallel";
+
+	private final String name;
+	private final Statement.Loop.Parallel loop;
+	private final int cutoff;
+	// The loop variable, reductions and private variables, by name in the body.
+	private final Map<Slot, String> locals = new LinkedHashMap<>();
+	// Slots the body reads but doesn't assign, by name in the body, and with Java code for them in the operator.
+	private final Map<Slot, String> inputNames = new LinkedHashMap<>();
+	private final Map<Slot, String> inputs = new LinkedHashMap<>();
+	private final Set<String> names = new HashSet<>();
+	// Java code, in the operator, for the loop variable and reductions.
+	private final Map<Slot, String> targets = new LinkedHashMap<>();
+	private String bound;
+	private String body;
+
+	/**
+	 * Ctor.
+	 *
+	 * @param name - name of the generated class.
+	 * @param loop - the loop.
+	 * @param cutoff - most surplus tasks a worker may have queued for a range of iterations to be split.
+	 */
+	LoopSite(String name, Statement.Loop.Parallel loop, int cutoff) {
+		this.name = name;
+		this.loop = loop;
+		this.cutoff = cutoff;
+		addLocal(loop.getVariable());
+		loop.getReductions().keySet().forEach(this::addLocal);
+		loop.getPrivates().forEach(this::addLocal);
+	}
+
+	private void addLocal(Slot slot) {
+		locals.put(slot, slot.getName());
+		names.add(slot.getName());
+	}
+
+	/** Set Java code, evaluated in the operator, for the bound of the loop, and for the loop variable and reductions. */
+	void setTargets(String bound, Map<Slot, String> targets) {
+		this.bound = bound;
+		this.targets.putAll(targets);
+	}
+
+	/** Set Java code for the body, which refers to slots as reference() does. */
+	void setBody(String body) {
+		this.body = body;
+	}
+
+	/** Get Java code for a slot in the body, given a supplier of Java code for it in the operator. */
+	String reference(Slot slot, Supplier<String> outer) {
+		var local = locals.get(slot);
+		if (local != null)
+			return local;
+		var input = inputNames.get(slot);
+		if (input != null)
+			return input;
+		// Slots of different operators may share a name, once operators have been inlined.
+		input = slot.getName();
+		for (var suffix = 1; names.contains(input); suffix++)
+			input = slot.getName() + "__" + suffix;
+		names.add(input);
+		inputNames.put(slot, input);
+		inputs.put(slot, outer.get());
+		return input;
+	}
+
+	/** Get Java code for the loop. */
+	String getStatement() {
+		var step = loop.getStep();
+		var count = loop.isAscending()
+				? (loop.isInclusive()
+					? "(__bound >= __start) ? (__bound - __start) / " + step + "L + 1 : 0"
+					: "(__bound > __start) ? (__bound - __start - 1) / " + step + "L + 1 : 0")
+				: (loop.isInclusive()
+					? "(__start >= __bound) ? (__start - __bound) / " + step + "L + 1 : 0"
+					: "(__start > __bound) ? (__start - __bound - 1) / " + step + "L + 1 : 0");
+		var arguments = Stream.concat(Stream.of("__start"), inputs.values().stream()).collect(Collectors.joining(", "));
+		var combination = new StringBuilder();
+		for (var reduction : loop.getReductions().entrySet()) {
+			var target = targets.get(reduction.getKey());
+			combination.append(target).append(" = ").append(combine(reduction.getValue(), target, "__loop." + locals.get(reduction.getKey()))).append(";\n");
+		}
+		var variable = loop.getVariable();
+		return "{\n" +
+				indent(
+					"long __start = " + targets.get(variable) + ";\n" +
+					"long __bound = " + bound + ";\n" +
+					"long __count = " + count + ";\n" +
+					name + " __loop = new " + name + "(" + arguments + ");\n" +
+					parallelClassName + ".loop(__loop, __count, " + cutoff + ");\n" +
+					combination +
+					targets.get(variable) + " = " + cast(variable.getType(), "__start " + (loop.isAscending() ? "+" : "-") + " __count * " + step + "L") + ";\n") +
+				"}\n";
+	}
+
+	private static String cast(String typeName, String expression) {
+		return TypeInference.typeInt.equals(typeName) ? "(int)(" + expression + ")" : expression;
+	}
+
+	/* Get Java code that combines a reduction with a part, of the same type, by the reduction's kind. */
+	private static String combine(String kind, String reduction, String part) {
+		return switch (kind) {
+			case "product" -> reduction + " * " + part;
+			case "min" -> "Math.min(" + reduction + ", " + part + ")";
+			case "max" -> "Math.max(" + reduction + ", " + part + ")";
+			default -> reduction + " + " + part;
+		};
+	}
+
+	/* Get Java code for the identity of a reduction of the given kind and type. */
+	private static String getIdentity(String kind, String typeName) {
+		var isDouble = TypeInference.typeDouble.equals(typeName);
+		var boxName = TypeInference.typeInt.equals(typeName) ? "Integer" : "Long";
+		return switch (kind) {
+			case "product" -> isDouble ? "1.0" : "1";
+			case "min" -> isDouble ? "Double.POSITIVE_INFINITY" : boxName + ".MAX_VALUE";
+			case "max" -> isDouble ? "Double.NEGATIVE_INFINITY" : boxName + ".MIN_VALUE";
+			default -> isDouble ? "0.0" : "0";
+		};
+	}
+
+	/** Get the class that evaluates the loop in parallel. */
+	String getSource() {
+		var fields = new StringBuilder("private final long __start;\n");
+		var parameterDecls = new StringBuilder("long __start");
+		var assignments = new StringBuilder("this.__start = __start;\n");
+		var arguments = new StringBuilder("__start");
+		for (var input : inputNames.entrySet()) {
+			var inputName = input.getValue();
+			var declaration = input.getKey().getType() + " " + inputName;
+			fields.append("private final ").append(declaration).append(";\n");
+			parameterDecls.append(", ").append(declaration);
+			assignments.append("this.").append(inputName).append(" = ").append(inputName).append(";\n");
+			arguments.append(", ").append(inputName);
+		}
+		var combination = new StringBuilder();
+		var loads = new StringBuilder();
+		var stores = new StringBuilder();
+		for (var reduction : loop.getReductions().entrySet()) {
+			var reductionName = locals.get(reduction.getKey());
+			var typeName = reduction.getKey().getType();
+			fields.append(typeName).append(" ").append(reductionName).append(" = ").append(getIdentity(reduction.getValue(), typeName)).append(";\n");
+			combination.append(reductionName).append(" = ").append(combine(reduction.getValue(), reductionName, "__other." + reductionName)).append(";\n");
+			loads.append(typeName).append(" ").append(reductionName).append(" = this.").append(reductionName).append(";\n");
+			stores.append("this.").append(reductionName).append(" = ").append(reductionName).append(";\n");
+		}
+		for (var privateSlot : loop.getPrivates())
+			loads.append(privateSlot.getType()).append(" ").append(locals.get(privateSlot)).append(" = ").append(SourceGenerator.getDefaultValue(privateSlot.getType())).append(";\n");
+		var variable = loop.getVariable();
+		var iteration = variable.getType() + " " + locals.get(variable) + " = " + cast(variable.getType(), "__start " + (loop.isAscending() ? "+" : "-") + " __k * " + loop.getStep() + "L") + ";\n";
+		return "private static final class " + name + " extends " + parallelClassName + ".Loop {\n" +
+				indent(
+					fields +
+					"\n" +
+					name + "(" + parameterDecls + ") {\n" +
+					indent(assignments.toString()) +
+					"}\n" +
+					"\n" +
+					"protected " + parallelClassName + ".Loop split() {\n" +
+					"\treturn new " + name + "(" + arguments + ");\n" +
+					"}\n" +
+					"\n" +
+					"protected void combine(" + parallelClassName + ".Loop part) {\n" +
+					indent(name + " __other = (" + name + ")part;\n" + combination) +
+					"}\n" +
+					"\n" +
+					"protected void iterate(long __first, long __last) {\n" +
+					indent(
+						loads +
+						"for (long __k = __first; __k < __last; __k++) {\n" +
+						indent(iteration + body) +
+						"}\n" +
+						stores) +
+					"}\n") +
+				"}\n";
+	}
+
+}
@@ -0,0 +1,61 @@
+package org.reldb.relang.transpiler;
+
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.reldb.relang.runtime.MemoCache;
+
+/**
+ * Decide which operators the transpiler memoises, and how their results are cached. Memoisation is opt-in, for
+ * every operator or for operators of given names. Either way, only operators that are found to be pure are
+ * memoised: see SourceGenerator.isPure(). When every operator is memoised, cheap ones, that invoke nothing and
+ * have no loops, are left alone, as they're quicker to evaluate than to look up.
+ */
+public class MemoisationPolicy {
+
+	/** Memoise nothing. */
+	public static final MemoisationPolicy none = new MemoisationPolicy(Set.of(), MemoCache.defaultCapacity, MemoCache.Eviction.TWO_WAY_LRU);
+
+	private final Set<String> operatorNames;
+	private final int capacity;
+	private final MemoCache.Eviction eviction;
+
+	/**
+	 * Ctor.
+	 *
+	 * @param operatorNames - names of the operators to memoise, or null to memoise every operator.
+	 * @param capacity - most results cached per operator.
+	 * @param eviction - how cached results make way for new ones.
+	 */
+	public MemoisationPolicy(Set<String> operatorNames, int capacity, MemoCache.Eviction eviction) {
+		this.operatorNames = (operatorNames == null) ? null : new TreeSet<>(operatorNames);
+		this.capacity = capacity;
+		this.eviction = eviction;
+	}
+
+	/** Ctor. Memoise every operator, with default caches. */
+	public MemoisationPolicy() {
+		this(null, MemoCache.defaultCapacity, MemoCache.Eviction.TWO_WAY_LRU);
+	}
+
+	/** Return true if the named operator should be memoised, if it's pure. Cheap is true if it invokes nothing and has no loops. */
+	public boolean isMemoised(String operatorName, boolean cheap) {
+		return (operatorNames == null) ? !cheap : operatorNames.contains(operatorName);
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	public MemoCache.Eviction getEviction() {
+		return eviction;
+	}
+
+	/** A description that differs between policies that generate different code, e.g., for cache keys. */
+	public String toString() {
+		if (operatorNames != null && operatorNames.isEmpty())
+			return "none";
+		return ((operatorNames == null) ? "all" : String.join(",", operatorNames)) + " " + capacity + " " + eviction;
+	}
+
+}
@@ -0,0 +1,324 @@
+package org.reldb.relang.transpiler;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import org.reldb.relang.exceptions.ExceptionSemantic;
+import org.reldb.relang.parser.ast.*;
+
+/**
+ * Check a PARALLEL FOR loop, and describe it for evaluation in parallel. Iterations of the loop may be evaluated in
+ * any order, on any thread, so:
+ * <ul>
+ * <li>It must count: it has the form FOR (i = a; i op b; i = i + c) or FOR (i = a; i op b; i = i - c), where op is
+ * &lt; or &lt;= if i goes up, &gt; or &gt;= if it goes down, and c is a positive integer literal. The bound b must
+ * invoke nothing and read no variable the body assigns, and the body mustn't assign i.</li>
+ * <li>Variables the body assigns must be reduction variables, or private. A reduction variable, declared with
+ * REDUCE kind name, is computed in parts that are then combined by its kind: sum and count by adding, product by
+ * multiplying, min and max by taking the least or greatest. A sum v is only used in v = v + e or v = e + v, a
+ * product in v = v * e or v = e * v, where e doesn't read v, and a count in v = v + 1. A min v is only used in
+ * IF (e &lt; v) v = e, and a max in IF (e &gt; v) v = e, so each part finds the least or greatest e, as the loop
+ * would. The comparison may be the other way round, or allow equality, and the assignment may come later in a block,
+ * after statements that don't assign what e reads. A private variable is used nowhere outside the body, so each
+ * part of the loop may have its own.</li>
+ * </ul>
+ * Any other variable the body assigns is shared, so the loop is rejected. As in the Optimiser, variables are
+ * identified by name alone.
+ * <p>
+ * A loop whose body writes output, defines operators or calls operators that return nothing is evaluated
+ * sequentially, as are loops whose body invokes operators that turn out not to be pure.
+ */
+public class ParallelLoop {
+
+	/** Kinds of reduction variable. */
+	public static final Set<String> reductionKinds = Set.of("sum", "product", "min", "max", "count");
+
+	private final ASTForLoop loop;
+	private final String variable;
+	private final boolean ascending;
+	private final boolean inclusive;
+	private final long step;
+	private final Map<String, String> reductions;
+	private final Set<String> privates = new LinkedHashSet<>();
+	private final boolean sequential;
+
+	/** Check a PARALLEL FOR loop. Throw ExceptionSemantic if it can't be evaluated in parallel. */
+	public ParallelLoop(ASTForLoop loop) {
+		this.loop = loop;
+		reductions = (loop.reductions != null) ? loop.reductions : Map.of();
+		var initialisation = loop.jjtGetChild(0);
+		var condition = loop.jjtGetChild(1);
+		var update = loop.jjtGetChild(2);
+		var body = loop.jjtGetChild(3);
+		variable = getToken(initialisation.jjtGetChild(0));
+		var stepExpression = update.jjtGetChild(1);
+		if (!variable.equals(getToken(update.jjtGetChild(0))) || !(stepExpression instanceof ASTAdd || stepExpression instanceof ASTSubtract)
+				|| !isDereferenceOf(stepExpression.jjtGetChild(0), variable) || !(stepExpression.jjtGetChild(1) instanceof ASTInteger))
+			throw new ExceptionSemantic("A PARALLEL FOR loop must step " + variable + " by an integer literal, as in " + variable + " = " + variable + " + 1", loop);
+		step = parseStep(stepExpression.jjtGetChild(1));
+		ascending = stepExpression instanceof ASTAdd;
+		inclusive = condition instanceof ASTCompLTE || condition instanceof ASTCompGTE;
+		var comparesUp = condition instanceof ASTCompLT || condition instanceof ASTCompLTE;
+		var comparesDown = condition instanceof ASTCompGT || condition instanceof ASTCompGTE;
+		if (!(ascending ? comparesUp : comparesDown) || !isDereferenceOf(condition.jjtGetChild(0), variable))
+			throw new ExceptionSemantic("A PARALLEL FOR loop must continue while " + variable + (ascending ? " < or <= " : " > or >= ") + "a bound", loop);
+		var assigned = new HashSet<String>();
+		collectAssigned(body, assigned);
+		if (assigned.contains(variable))
+			throw new ExceptionSemantic("A PARALLEL FOR loop mustn't assign its variable " + variable + " in its body", loop);
+		var bound = condition.jjtGetChild(1);
+		if (invokes(bound) || reads(bound, variable) || assigned.stream().anyMatch(name -> reads(bound, name)))
+			throw new ExceptionSemantic("The bound of a PARALLEL FOR loop mustn't invoke operators or read variables its body assigns", loop);
+		for (var reduction : reductions.entrySet()) {
+			if (!reductionKinds.contains(reduction.getValue()))
+				throw new ExceptionSemantic("The kind of reduction variable " + reduction.getKey() + " must be one of " + String.join(", ", new java.util.TreeSet<>(reductionKinds)) + ", not " + reduction.getValue(), loop);
+			if (reduction.getKey().equals(variable))
+				throw new ExceptionSemantic("The variable of a PARALLEL FOR loop can't be a reduction variable", loop);
+			if (reduction.getValue().equals("min") || reduction.getValue().equals("max"))
+				checkExtremum(body, reduction.getKey(), reduction.getValue());
+			else
+				checkReduction(body, reduction.getKey(), reduction.getValue());
+		}
+		var root = getRoot(loop);
+		for (var name : assigned) {
+			if (reductions.containsKey(name))
+				continue;
+			if (isUsedOutside(root, body, name))
+				throw new ExceptionSemantic("A PARALLEL FOR loop can't assign " + name + ", as it's used outside the loop. Only its REDUCE variables may be shared", loop);
+			privates.add(name);
+		}
+		sequential = hasEffects(body);
+	}
+
+	private static String getToken(Node node) {
+		return ((BaseASTNode)node).tokenValue;
+	}
+
+	private static boolean isDereferenceOf(Node node, String name) {
+		return node instanceof ASTDereference && name.equals(getToken(node));
+	}
+
+	private long parseStep(Node literal) {
+		long value;
+		try {
+			value = TypeInference.parseInteger(getToken(literal));
+		} catch (NumberFormatException nfe) {
+			value = 0;
+		}
+		if (value <= 0)
+			throw new ExceptionSemantic("A PARALLEL FOR loop must step by a positive integer", loop);
+		return value;
+	}
+
+	private static Node getRoot(Node node) {
+		var root = node;
+		while (root.jjtGetParent() != null)
+			root = root.jjtGetParent();
+		return root;
+	}
+
+	private static void collectAssigned(Node node, Set<String> assigned) {
+		if (node instanceof ASTAssignment)
+			assigned.add(getToken(node.jjtGetChild(0)));
+		for (var i = 0; i < node.jjtGetNumChildren(); i++)
+			collectAssigned(node.jjtGetChild(i), assigned);
+	}
+
+	private static boolean invokes(Node node) {
+		if (node instanceof ASTFnInvoke || node instanceof ASTCall)
+			return true;
+		for (var i = 0; i < node.jjtGetNumChildren(); i++)
+			if (invokes(node.jjtGetChild(i)))
+				return true;
+		return false;
+	}
+
+	private static boolean reads(Node node, String name) {
+		if (isDereferenceOf(node, name))
+			return true;
+		for (var i = 0; i < node.jjtGetNumChildren(); i++)
+			if (reads(node.jjtGetChild(i), name))
+				return true;
+		return false;
+	}
+
+	// Return true if a variable is read or assigned anywhere but in the given subtree.
+	private static boolean isUsedOutside(Node node, Node excluded, String name) {
+		if (node == excluded)
+			return false;
+		if (isDereferenceOf(node, name) || (node instanceof ASTAssignment && name.equals(getToken(node.jjtGetChild(0)))))
+			return true;
+		for (var i = 0; i < node.jjtGetNumChildren(); i++)
+			if (isUsedOutside(node.jjtGetChild(i), excluded, name))
+				return true;
+		return false;
+	}
+
+	// Return true if a body writes output, defines operators or calls operators.
+	private static boolean hasEffects(Node node) {
+		if (node instanceof ASTWrite || node instanceof ASTCall || node instanceof ASTFnDef || node instanceof ASTFnDefPure)
+			return true;
+		for (var i = 0; i < node.jjtGetNumChildren(); i++)
+			if (hasEffects(node.jjtGetChild(i)))
+				return true;
+		return false;
+	}
+
+	// Check that a sum, product or count is only used as its kind allows.
+	private void checkReduction(Node node, String name, String kind) {
+		if (node instanceof ASTAssignment && name.equals(getToken(node.jjtGetChild(0)))) {
+			if (!isReductionUpdate(node.jjtGetChild(1), name, kind))
+				throw new ExceptionSemantic(getReductionUsage(name, kind), node);
+			// The reduction variable itself has been accounted for.
+			return;
+		}
+		if (isDereferenceOf(node, name))
+			throw new ExceptionSemantic(getReductionUsage(name, kind), node);
+		for (var i = 0; i < node.jjtGetNumChildren(); i++)
+			checkReduction(node.jjtGetChild(i), name, kind);
+	}
+
+	// Check that a min or max is only used in IF (e < v) v = e or IF (e > v) v = e respectively, or their equivalents.
+	private void checkExtremum(Node node, String name, String kind) {
+		if (node instanceof ASTIfStatement) {
+			var candidate = getCandidate(node.jjtGetChild(0), name, kind);
+			if (candidate != null) {
+				checkGuarded(node.jjtGetChild(1).jjtGetChild(0), name, kind, candidate);
+				for (var i = 2; i < node.jjtGetNumChildren(); i++)
+					checkExtremum(node.jjtGetChild(i), name, kind);
+				return;
+			}
+		}
+		if (isDereferenceOf(node, name) || (node instanceof ASTAssignment && name.equals(getToken(node.jjtGetChild(0)))))
+			throw new ExceptionSemantic(getReductionUsage(name, kind), node);
+		for (var i = 0; i < node.jjtGetNumChildren(); i++)
+			checkExtremum(node.jjtGetChild(i), name, kind);
+	}
+
+	/*
+	 * Get e from a condition that compares e with a min or max v so that v = e keeps the least or greatest, i.e.,
+	 * e < v, e <= v, v > e or v >= e for a min, the opposite for a max. Null if it isn't one. Neither e nor anything
+	 * else in the condition may read v.
+	 */
+	private static Node getCandidate(Node condition, String name, String kind) {
+		var less = condition instanceof ASTCompLT || condition instanceof ASTCompLTE;
+		var greater = condition instanceof ASTCompGT || condition instanceof ASTCompGTE;
+		if (!less && !greater)
+			return null;
+		// The operand v is on the right if e < v for a min, or e > v for a max.
+		var right = less == kind.equals("min");
+		var variable = condition.jjtGetChild(right ? 1 : 0);
+		var candidate = condition.jjtGetChild(right ? 0 : 1);
+		return (isDereferenceOf(variable, name) && !reads(candidate, name)) ? candidate : null;
+	}
+
+	// Check the content of the statement an IF (e < v) guards, which must assign e to v, perhaps later in a block.
+	private void checkGuarded(Node content, String name, String kind, Node candidate) {
+		if (isUpdate(content, name, candidate))
+			return;
+		if (!(content instanceof ASTBlock)) {
+			checkExtremum(content, name, kind);
+			return;
+		}
+		var assigned = new HashSet<String>();
+		for (var i = 0; i < content.jjtGetNumChildren(); i++) {
+			var statement = content.jjtGetChild(i);
+			if (isUpdate(statement.jjtGetChild(0), name, candidate) && assigned.stream().noneMatch(variable -> reads(candidate, variable)))
+				continue;
+			checkExtremum(statement, name, kind);
+			collectAssigned(statement, assigned);
+		}
+	}
+
+	// Return true if a statement's content is v = e.
+	private static boolean isUpdate(Node content, String name, Node candidate) {
+		return content instanceof ASTAssignment && name.equals(getToken(content.jjtGetChild(0))) && isSame(content.jjtGetChild(1), candidate);
+	}
+
+	// Return true if two expressions are the same.
+	private static boolean isSame(Node expression1, Node expression2) {
+		if (expression1.getClass() != expression2.getClass() || !Objects.equals(getToken(expression1), getToken(expression2))
+				|| expression1.jjtGetNumChildren() != expression2.jjtGetNumChildren())
+			return false;
+		for (var i = 0; i < expression1.jjtGetNumChildren(); i++)
+			if (!isSame(expression1.jjtGetChild(i), expression2.jjtGetChild(i)))
+				return false;
+		return true;
+	}
+
+	// Return true if an expression assigned to a sum, product or count is allowed by its kind.
+	private static boolean isReductionUpdate(Node source, String name, String kind) {
+		switch (kind) {
+			case "count":
+				return source instanceof ASTAdd && isDereferenceOf(source.jjtGetChild(0), name)
+						&& source.jjtGetChild(1) instanceof ASTInteger && getToken(source.jjtGetChild(1)).equals("1");
+			default:
+				var operation = kind.equals("sum") ? ASTAdd.class : ASTTimes.class;
+				if (source.getClass() != operation)
+					return false;
+				var operand0 = source.jjtGetChild(0);
+				var operand1 = source.jjtGetChild(1);
+				return (isDereferenceOf(operand0, name) && !reads(operand1, name)) || (isDereferenceOf(operand1, name) && !reads(operand0, name));
+		}
+	}
+
+	private static String getReductionUsage(String name, String kind) {
+		return switch (kind) {
+			case "sum" -> "The sum " + name + " may only be used as " + name + " = " + name + " + e";
+			case "product" -> "The product " + name + " may only be used as " + name + " = " + name + " * e";
+			case "count" -> "The count " + name + " may only be used as " + name + " = " + name + " + 1";
+			case "min" -> "The min " + name + " may only be compared and assigned as in IF (e < " + name + ") " + name + " = e";
+			default -> "The max " + name + " may only be compared and assigned as in IF (e > " + name + ") " + name + " = e";
+		};
+	}
+
+	/** Get the variable the loop counts with. */
+	public String getVariable() {
+		return variable;
+	}
+
+	/** Get the expression that starts the loop variable. */
+	public Node getStart() {
+		return loop.jjtGetChild(0).jjtGetChild(1);
+	}
+
+	/** Get the expression that bounds the loop variable. */
+	public Node getBound() {
+		return loop.jjtGetChild(1).jjtGetChild(1);
+	}
+
+	/** Return true if the loop variable goes up. */
+	public boolean isAscending() {
+		return ascending;
+	}
+
+	/** Return true if the loop goes on while the loop variable equals the bound. */
+	public boolean isInclusive() {
+		return inclusive;
+	}
+
+	/** Get how much the loop variable changes each time round. Always positive. */
+	public long getStep() {
+		return step;
+	}
+
+	/** Get the kind of each reduction variable, by name. */
+	public Map<String, String> getReductions() {
+		return Collections.unmodifiableMap(reductions);
+	}
+
+	/** Get the names of variables only used in the body. */
+	public Set<String> getPrivates() {
+		return Collections.unmodifiableSet(privates);
+	}
+
+	/** Return true if the body has effects that mean it must be evaluated sequentially. */
+	public boolean isSequential() {
+		return sequential;
+	}
+
+}
@@ -0,0 +1,54 @@
+package org.reldb.relang.transpiler;
+
+import org.reldb.relang.runtime.Parallel;
+
+/**
+ * Decide whether the transpiler evaluates independent invocations of pure operators in parallel, and when they're
+ * too small to be worth it. Parallel evaluation is opt-in. Invocations of operators that invoke nothing and have no
+ * loops are always evaluated inline, as are all invocations once a worker has more than the cutoff of forked tasks
+ * that no other worker has taken: see runtime.Parallel. The same goes for PARALLEL FOR loops, whose ranges are
+ * only split while workers have no more than the cutoff; otherwise they're evaluated sequentially.
+ */
+public class ParallelisationPolicy {
+
+	/** Evaluate everything sequentially. */
+	public static final ParallelisationPolicy none = new ParallelisationPolicy(false, Parallel.defaultCutoff);
+
+	private final boolean parallel;
+	private final int cutoff;
+
+	private ParallelisationPolicy(boolean parallel, int cutoff) {
+		if (cutoff < 0)
+			throw new IllegalArgumentException("Cutoff must not be negative, but was " + cutoff);
+		this.parallel = parallel;
+		this.cutoff = cutoff;
+	}
+
+	/**
+	 * Ctor. Evaluate in parallel.
+	 *
+	 * @param cutoff - most surplus tasks a worker may have queued for an invocation to be forked rather than evaluated inline.
+	 */
+	public ParallelisationPolicy(int cutoff) {
+		this(true, cutoff);
+	}
+
+	/** Ctor. Evaluate in parallel, with the default cutoff. */
+	public ParallelisationPolicy() {
+		this(Parallel.defaultCutoff);
+	}
+
+	public boolean isParallel() {
+		return parallel;
+	}
+
+	public int getCutoff() {
+		return cutoff;
+	}
+
+	/** A description that differs between policies that generate different code, e.g., for cache keys. */
+	public String toString() {
+		return parallel ? "parallel " + cutoff : "sequential";
+	}
+
+}
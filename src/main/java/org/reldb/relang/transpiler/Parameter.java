@@ -1,7 +0,0 @@
-package org.reldb.relang.transpiler;
-
-public class Parameter extends Slot {
-	public Parameter(String type, String name) {
-		super(type, name);
-	}
-}
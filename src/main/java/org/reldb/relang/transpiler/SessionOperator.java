@@ -0,0 +1,49 @@
+package org.reldb.relang.transpiler;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A root operator compiled in an earlier submission to a session. Later submissions invoke it in the
+ * class it was compiled to, passing a closure of that class built from the current root variables.
+ */
+public class SessionOperator {
+
+	private final String className;
+	private final String name;
+	private final Map<String, String> parameterTypes;
+	private final String returnType;
+	private final List<String> closureVariables;
+
+	SessionOperator(String className, String name, Map<String, String> parameterTypes, String returnType, List<String> closureVariables) {
+		this.className = className;
+		this.name = name;
+		this.parameterTypes = parameterTypes;
+		this.returnType = returnType;
+		this.closureVariables = closureVariables;
+	}
+
+	public String getClassName() {
+		return className;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/** Get the types of the parameters, by name, in order. */
+	public Map<String, String> getParameterTypes() {
+		return parameterTypes;
+	}
+
+	/** Get the return type, or null if the operator doesn't return a value. */
+	public String getReturnType() {
+		return returnType;
+	}
+
+	/** Get the names of the root variables the closure the operator expects is built from, in constructor parameter order. */
+	public List<String> getClosureVariables() {
+		return closureVariables;
+	}
+
+}
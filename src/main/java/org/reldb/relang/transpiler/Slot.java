@@ -1,8 +0,0 @@
-package org.reldb.relang.transpiler;
-
-public class Slot extends Value {
-
-	public Slot(String type, String name) {
-		super(type, name);
-	}
-}
@@ -0,0 +1,710 @@
+package org.reldb.relang.transpiler;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.reldb.relang.exceptions.ExceptionFatal;
+import org.reldb.relang.ir.Expression;
+import org.reldb.relang.ir.Operator;
+import org.reldb.relang.ir.Slot;
+import org.reldb.relang.ir.Statement;
+import org.reldb.relang.ir.Traversal;
+
+import static org.reldb.relang.transpiler.Formatter.indent;
+
+/**
+ * Generate Java source from a program lowered to the IR, once the passes over the IR have run: a class with a
+ * static method for each operator.
+ * <p>
+ * An operator's closure parameter only holds the slots of enclosing operators that it, or the operators it defines
+ * or invokes, actually use. An operator whose slots are captured allocates one instance of its closure class, its
+ * frame, on entry. The captured slots live there rather than in locals, and its operators are passed the frame
+ * itself, so they see and make changes to those slots and invoking them allocates nothing.
+ * <p>
+ * A pure operator the MemoisationPolicy selects is memoised: it's emitted as a method that looks up its arguments
+ * in a MemoCache, and calls a method with its body to evaluate and store those it doesn't find.
+ * <p>
+ * If the ParallelisationPolicy allows, independent invocations of pure operators are evaluated in parallel, by
+ * ForkSites, and PARALLEL FOR loops whose bodies only invoke pure operators by LoopSites, emitted after the
+ * operator they're in.
+ */
+public class SourceGenerator {
+
+	public static final String generatedCodeMainMethodName = "__main";
+
+	/** Name of the parameter of a continuation's or session submission's main method that holds the root variables. */
+	public static final String continuationStateName = "__state";
+
+	private static final String generatedRootClosureClassName = generatedCodeMainMethodName + "_closure";
+
+	private static final String frameName = "__frame";
+	private static final String closureName = "__closure";
+
+	private static final String memoCacheClassName = "org.reldb.relang.runtime.MemoCache";
+	// Most parameters a memoised operator may have, as a MemoCache key holds that many arguments.
+	private static final int memoisedParameterLimit = 3;
+
+	private final String className;
+	private final MemoisationPolicy memoisationPolicy;
+	private final ParallelisationPolicy parallelisationPolicy;
+
+	// Slots of enclosing operators that each operator, or the operators it defines or invokes, uses.
+	private final Map<Operator, Set<Slot>> needs = new HashMap<>();
+
+	private Operator root = null;
+	private int forkSiteCount = 0;
+	private int loopSiteCount = 0;
+
+	// The operator whose body is being generated, and the methods and classes of its ForkSites and LoopSites.
+	private Operator operator = null;
+	private List<String> parallelSources = null;
+
+	// The PARALLEL FOR loop whose body is being generated to evaluate in parallel. Null if none.
+	private LoopSite loopSite = null;
+
+	/**
+	 * Ctor.
+	 *
+	 * @param className - name of the generated class.
+	 * @param memoisationPolicy - which pure operators of a program cache their results.
+	 * @param parallelisationPolicy - whether independent invocations of pure operators are evaluated in parallel.
+	 */
+	public SourceGenerator(String className, MemoisationPolicy memoisationPolicy, ParallelisationPolicy parallelisationPolicy) {
+		this.className = className;
+		this.memoisationPolicy = memoisationPolicy;
+		this.parallelisationPolicy = parallelisationPolicy;
+	}
+
+	public SourceGenerator(String className) {
+		this(className, MemoisationPolicy.none, ParallelisationPolicy.none);
+	}
+
+	/** Generate the Java source of a program, given its root operator. */
+	public String generate(Operator program) {
+		root = program;
+		findNeeds();
+		return
+				"public class " + className + " {\n" +
+				indent(getSource(program)) +
+				"}\n";
+	}
+
+	/** Get the root operators of the program generated, for invocation by later submissions to a session. */
+	public List<SessionOperator> getSessionOperators() {
+		var closureVariables = getClosureSlots(root).stream().map(Slot::getName).collect(Collectors.toList());
+		var sessionOperators = new ArrayList<SessionOperator>();
+		for (var operator : root.getOperators()) {
+			var parameterTypes = new LinkedHashMap<String, String>();
+			for (var parameter : operator.getParameters())
+				parameterTypes.put(parameter.getName(), parameter.getType());
+			sessionOperators.add(new SessionOperator(className, operator.getName(), parameterTypes, operator.getReturnType(),
+					takesClosure(operator) ? closureVariables : List.of()));
+		}
+		return sessionOperators;
+	}
+
+	/** Get Java code for the value a variable of the given type starts with. */
+	static String getDefaultValue(String typeName) {
+		return switch (typeName) {
+			case "long", "int" -> "0";
+			case "double" -> "0.0";
+			default -> "false";
+		};
+	}
+
+	private static String getBoxedTypeName(String typeName) {
+		return switch (typeName) {
+			case "long" -> "Long";
+			case "double" -> "Double";
+			case "int" -> "Integer";
+			default -> "Boolean";
+		};
+	}
+
+	// Analysis.
+
+	private static void collectOperators(Operator operator, List<Operator> operators) {
+		operators.add(operator);
+		for (var nested : operator.getOperators())
+			collectOperators(nested, operators);
+	}
+
+	// Get the operators a body invokes, including external ones.
+	private static Set<Operator> getInvoked(Operator operator) {
+		var invoked = new LinkedHashSet<Operator>();
+		Traversal.forEach(operator.getBody(), statement -> {}, expression -> {
+			if (expression instanceof Expression.Invoke)
+				invoked.add(((Expression.Invoke)expression).getOperator());
+		});
+		return invoked;
+	}
+
+	/* Return true if an operator encloses another. */
+	private static boolean encloses(Operator outer, Operator inner) {
+		for (var operator = inner.getParent(); operator != null; operator = operator.getParent())
+			if (operator == outer)
+				return true;
+		return false;
+	}
+
+	/* Propagate captures from operators to those that define or invoke them, until none change. */
+	private void findNeeds() {
+		var operators = new ArrayList<Operator>();
+		collectOperators(root, operators);
+		for (var operator : operators)
+			needs.put(operator, new LinkedHashSet<>(operator.getCaptures()));
+		boolean changed;
+		do {
+			changed = false;
+			for (var operator : operators) {
+				for (var nested : operator.getOperators())
+					changed |= needFrom(operator, nested);
+				for (var invoked : getInvoked(operator))
+					if (!invoked.isExternal())
+						changed |= needFrom(operator, invoked);
+			}
+		} while (changed);
+	}
+
+	/* Need those of the given operator's needs that are slots of operators enclosing this one. Return true if any are new. */
+	private boolean needFrom(Operator operator, Operator other) {
+		if (other == operator)
+			return false;
+		var changed = false;
+		for (var slot : needs.get(other))
+			if (encloses(slot.getOwner(), operator))
+				changed |= needs.get(operator).add(slot);
+		return changed;
+	}
+
+	/* Return true if an operator takes a closure parameter, i.e., it uses slots of enclosing operators. */
+	private boolean takesClosure(Operator operator) {
+		return operator.getParent() != null && !needs.get(operator).isEmpty();
+	}
+
+	/* Return true if an operator's operators need a closure of its slots. If not, it has no closure class. */
+	private boolean isClosureUsed(Operator operator) {
+		return operator.getOperators().stream().anyMatch(this::takesClosure);
+	}
+
+	/* Return true if an operator's closure needs a reference to its own closure parameter. */
+	private boolean closureHasParent(Operator operator) {
+		return operator.getOperators().stream().anyMatch(nested -> needs.get(nested).stream().anyMatch(slot -> slot.getOwner() != operator));
+	}
+
+	/* Return true if an operator's operators use the given slot of it, so it lives in the frame. */
+	private boolean isCaptured(Slot slot) {
+		return slot.getOwner().getOperators().stream().anyMatch(nested -> needs.get(nested).contains(slot));
+	}
+
+	/* Get the slots, parameters then variables, that an operator's operators use. */
+	private List<Slot> getClosureSlots(Operator operator) {
+		return Stream.concat(operator.getParameters().stream(), operator.getVariables().stream())
+				.filter(this::isCaptured)
+				.collect(Collectors.toList());
+	}
+
+	private static boolean hasEffects(Operator operator) {
+		var effects = new boolean[] {false};
+		Traversal.forEach(operator.getBody(), statement -> effects[0] |= statement instanceof Statement.Write, expression -> {});
+		return effects[0];
+	}
+
+	/*
+	 * Return true if an operator is pure: it returns a value that depends only on its arguments, and has no effects.
+	 * It writes nothing, uses no slots of enclosing operators, defines no operators, and only invokes pure operators
+	 * of this program. Operators being checked are assumed pure, so recursion doesn't make an operator impure.
+	 */
+	private boolean isPure(Operator operator, Set<Operator> checking) {
+		if (operator.isExternal())
+			return false;
+		if (!checking.add(operator))
+			return true;
+		return operator.getReturnType() != null && !hasEffects(operator) && !takesClosure(operator) && operator.getOperators().isEmpty()
+				&& getInvoked(operator).stream().allMatch(invoked -> isPure(invoked, checking));
+	}
+
+	private boolean isPure(Operator operator) {
+		return isPure(operator, new HashSet<>());
+	}
+
+	/* Return true if an operator's results are cached. */
+	private boolean isMemoised(Operator operator) {
+		return operator.getParent() != null
+				&& memoisationPolicy.isMemoised(operator.getName(), operator.isCheap())
+				&& operator.getParameters().size() <= memoisedParameterLimit
+				&& isPure(operator);
+	}
+
+	// Operators.
+
+	private static String getClosureClassName(Operator operator) {
+		return operator.getName() + "_closure";
+	}
+
+	private String getParmDecls(Operator operator) {
+		var parameters = new ArrayList<String>();
+		if (takesClosure(operator))
+			parameters.add(getClosureClassName(operator.getParent()) + " " + closureName);
+		if (operator.takesState())
+			parameters.add("java.util.Map<String, Object> " + continuationStateName);
+		for (var parameter : operator.getParameters())
+			parameters.add(parameter.getType() + " " + parameter.getName());
+		return "(" + String.join(", ", parameters) + ")";
+	}
+
+	private String getClosureDef(Operator operator) {
+		if (!isClosureUsed(operator))
+			return "";
+		var vardefs = new StringBuilder();
+		var ctorBody = new StringBuilder();
+		var ctorParmDefs = new ArrayList<String>();
+		if (closureHasParent(operator)) {
+			var parentClosureClassName = getClosureClassName(operator.getParent());
+			vardefs.append("\t").append(parentClosureClassName).append(" ").append(closureName).append(";\n");
+			ctorBody.append("\tthis.").append(closureName).append(" = ").append(closureName).append(";\n");
+			ctorParmDefs.add(parentClosureClassName + " " + closureName);
+		}
+		for (var slot : getClosureSlots(operator)) {
+			vardefs.append("\t").append(slot.getType()).append(" ").append(slot.getName()).append(";\n");
+			ctorBody.append("\tthis.").append(slot.getName()).append(" = ").append(slot.getName()).append(";\n");
+			ctorParmDefs.add(slot.getType() + " " + slot.getName());
+		}
+		var closureClassName = getClosureClassName(operator);
+		return "public static class " + closureClassName + " {\n" +
+				vardefs +
+				indent("public " + closureClassName + "(" + String.join(", ", ctorParmDefs) + ") {\n" + ctorBody + "}\n") +
+				"}\n";
+	}
+
+	/* Get the definition of an operator's frame, initialised from its parameters. Variables start at their defaults. */
+	private String getFrameDef(Operator operator) {
+		if (!isClosureUsed(operator))
+			return "";
+		var initialValues = new ArrayList<String>();
+		if (closureHasParent(operator))
+			initialValues.add(closureName);
+		for (var slot : getClosureSlots(operator))
+			initialValues.add(slot.isParameter() ? slot.getName() : getDefaultValue(slot.getType()));
+		var closureClassName = getClosureClassName(operator);
+		return closureClassName + " " + frameName + " = new " + closureClassName + "(" + String.join(", ", initialValues) + ");\n";
+	}
+
+	/* Declare the variables that aren't in the frame. A root that stores its state initialises them, so they can be stored. */
+	private String getVarDefs(Operator operator) {
+		return operator.getVariables().stream()
+				.filter(slot -> !isCaptured(slot))
+				.map(slot -> slot.getType() + " " + slot.getName() + (operator.storesState() ? " = " + getDefaultValue(slot.getType()) : "") + ";\n")
+				.collect(Collectors.joining());
+	}
+
+	private String getStateLoads(Operator operator) {
+		return operator.getStateVariables().stream()
+				.map(slot -> reference(slot) + " = (" + getBoxedTypeName(slot.getType()) + ")" + continuationStateName + ".get(\"" + slot.getName() + "\");\n")
+				.collect(Collectors.joining());
+	}
+
+	private String getStateStores() {
+		return root.getVariables().stream()
+				.map(slot -> continuationStateName + ".put(\"" + slot.getName() + "\", " + reference(slot) + ");\n")
+				.collect(Collectors.joining());
+	}
+
+	private static String getComment(Operator operator) {
+		var content = new ArrayList<String>();
+		for (var opDef = operator; opDef != null; opDef = opDef.getParent())
+			content.add(opDef.getName());
+		return "/** " + String.join(" in ", content) + " */\n\n";
+	}
+
+	private String getSource(Operator operator) {
+		var nestedSource = operator.getOperators().stream().map(this::getSource).collect(Collectors.joining());
+		this.operator = operator;
+		parallelSources = new ArrayList<>();
+		var statements = operator.getBody().getStatements();
+		var returns = !statements.isEmpty() && statements.get(statements.size() - 1) instanceof Statement.Return;
+		var bodySource = getStateLoads(operator) + block(operator.getBody()) + ((operator.storesState() && !returns) ? getStateStores() : "");
+		var body = indent(getFrameDef(operator) + getVarDefs(operator) + bodySource);
+		var returnTypeName = (operator.getReturnType() != null) ? operator.getReturnType() : "void";
+		var parallelSource = parallelSources.stream().map(source -> "\n" + source).collect(Collectors.joining());
+		if (isMemoised(operator))
+			return	nestedSource +
+					"\n" +
+					getComment(operator) +
+					getMemoisedSource(operator, returnTypeName) +
+					"\n" +
+					"private static " + returnTypeName + " " + getMemoisedBodyName(operator) + getParmDecls(operator) + " {\n" +
+					body +
+					"}\n" +
+					parallelSource;
+		return	nestedSource +
+				"\n" +
+				getComment(operator) +
+				getClosureDef(operator) +
+				(isClosureUsed(operator) ? "\n" : "") +
+				"public static " + returnTypeName + " " + operator.getName() + getParmDecls(operator) + " {\n" +
+				body +
+				"}\n" +
+				parallelSource;
+	}
+
+	// Memoisation.
+
+	/* Get the name of the method that holds a memoised operator's body. */
+	private static String getMemoisedBodyName(Operator operator) {
+		return operator.getName() + "__memoised";
+	}
+
+	/* Get the name of the field that holds a memoised operator's cache, unique to the operator. */
+	private static String getMemoCacheName(Operator operator) {
+		var path = new StringBuilder(operator.getName());
+		for (var opDef = operator.getParent(); opDef.getParent() != null; opDef = opDef.getParent())
+			path.insert(0, opDef.getName() + "__");
+		return "__memo__" + path;
+	}
+
+	/* Get Java code for a value of the given type as the long a MemoCache holds. */
+	private static String toMemoBits(String typeName, String expression) {
+		return switch (typeName) {
+			case "double" -> "Double.doubleToRawLongBits(" + expression + ")";
+			case "boolean" -> "(" + expression + " ? 1L : 0L)";
+			default -> expression;
+		};
+	}
+
+	/* Get Java code for a value of the given type from the long a MemoCache holds. */
+	private static String fromMemoBits(String typeName, String expression) {
+		return switch (typeName) {
+			case "double" -> "Double.longBitsToDouble(" + expression + ")";
+			case "boolean" -> "(" + expression + " != 0)";
+			case "int" -> "(int)" + expression;
+			default -> expression;
+		};
+	}
+
+	/* Get a memoised operator's cache, and the method that looks its arguments up, or evaluates and stores them. */
+	private String getMemoisedSource(Operator operator, String returnTypeName) {
+		var cache = getMemoCacheName(operator);
+		var keys = new ArrayList<String>();
+		for (var parameter : operator.getParameters())
+			keys.add(toMemoBits(parameter.getType(), parameter.getName()));
+		while (keys.size() < memoisedParameterLimit)
+			keys.add("0");
+		var key = String.join(", ", keys);
+		var arguments = operator.getParameters().stream().map(Slot::getName).collect(Collectors.joining(", "));
+		return "public static final " + memoCacheClassName + " " + cache + " = new " + memoCacheClassName +
+					"(\"" + operator.getName() + "\", " + memoisationPolicy.getCapacity() + ", " + memoCacheClassName + ".Eviction." + memoisationPolicy.getEviction() + ");\n" +
+				"\n" +
+				"public static " + returnTypeName + " " + operator.getName() + getParmDecls(operator) + " {\n" +
+				indent(
+					memoCacheClassName + ".Entry __entry = " + cache + ".find(" + key + ");\n" +
+					"if (__entry != null)\n" +
+					"\treturn " + fromMemoBits(returnTypeName, "__entry.getValue()") + ";\n" +
+					returnTypeName + " __result = " + getMemoisedBodyName(operator) + "(" + arguments + ");\n" +
+					cache + ".put(" + key + ", " + toMemoBits(returnTypeName, "__result") + ");\n" +
+					"return __result;\n") +
+				"}\n";
+	}
+
+	// Statements.
+
+	private String block(Statement.Block block) {
+		var out = new StringBuilder();
+		var statements = block.getStatements();
+		for (var i = 0; i < statements.size(); i++) {
+			var statement = statements.get(i);
+			// An assignment followed by a loop, as a FOR is lowered, is the loop's initialisation.
+			if (statement instanceof Statement.Assign && i + 1 < statements.size() && statements.get(i + 1) instanceof Statement.Loop) {
+				out.append(loop((Statement.Loop)statements.get(i + 1), assignment((Statement.Assign)statement)));
+				i++;
+			} else
+				out.append(statement(statement));
+		}
+		return out.toString();
+	}
+
+	private String statement(Statement statement) {
+		if (statement instanceof Statement.Block)
+			return block((Statement.Block)statement);
+		if (statement instanceof Statement.Assign || statement instanceof Statement.Increment)
+			return update(statement) + ";\n";
+		if (statement instanceof Statement.If) {
+			var ifStatement = (Statement.If)statement;
+			return "if (" + expression(ifStatement.getCondition()) + ") {\n" +
+					indent(block(ifStatement.getThen())) +
+					"}" + ((ifStatement.getOtherwise() != null) ? " else {\n" + indent(block(ifStatement.getOtherwise())) + "}" : "") +
+					"\n";
+		}
+		if (statement instanceof Statement.Loop)
+			return loop((Statement.Loop)statement, null);
+		if (statement instanceof Statement.Write)
+			return "System.out.println(" + expression(unwidened(((Statement.Write)statement).getValue())) + ");\n";
+		if (statement instanceof Statement.Call)
+			return invocation(((Statement.Call)statement).getInvocation(), false) + ";\n";
+		if (statement instanceof Statement.Return) {
+			var value = expression(unwidened(((Statement.Return)statement).getValue()));
+			return ((operator == root && root.storesState()) ? getStateStores() : "") + "return " + value + ";\n";
+		}
+		throw new ExceptionFatal("Unable to generate " + statement);
+	}
+
+	private String assignment(Statement.Assign assign) {
+		return reference(assign.getTarget()) + " = " + expression(unwidened(assign.getValue()));
+	}
+
+	// Get Java code for an assignment or increment, without a semicolon, e.g., for the update of a for loop.
+	private String update(Statement statement) {
+		if (statement instanceof Statement.Assign)
+			return assignment((Statement.Assign)statement);
+		var increment = (Statement.Increment)statement;
+		var target = reference(increment.getTarget());
+		var step = increment.getStep();
+		return target + " = " + target + ((step < 0) ? " - " : " + ") + Math.abs(step);
+	}
+
+	/* Get Java code for a loop, given Java code for the assignment that initialises it, if any. */
+	private String loop(Statement.Loop loop, String initialisation) {
+		var init = (initialisation != null) ? initialisation : "";
+		if (loop.getParallel() != null && parallelisationPolicy.isParallel() && loopSite == null) {
+			var parallel = parallelLoop(loop);
+			if (parallel != null)
+				return (initialisation != null ? initialisation + ";\n" : "") + parallel;
+		}
+		var condition = expression(loop.getCondition());
+		var updates = loop.getUpdate().getStatements();
+		if (updates.stream().allMatch(update -> update instanceof Statement.Assign || update instanceof Statement.Increment))
+			return "for (" + init + "; " +
+					"(" + condition + "); " +
+					updates.stream().map(this::update).collect(Collectors.joining(", ")) + ") {\n" +
+					indent(block(loop.getBody())) +
+					"}\n";
+		return (initialisation != null ? initialisation + ";\n" : "") +
+				"while (" + condition + ") {\n" +
+				indent(block(loop.getBody()) + block(loop.getUpdate())) +
+				"}\n";
+	}
+
+	private static boolean isCounter(String typeName) {
+		return TypeInference.typeLong.equals(typeName) || TypeInference.typeInt.equals(typeName);
+	}
+
+	/*
+	 * Get Java code that evaluates a PARALLEL FOR loop in parallel, by a LoopSite. The loop variable and bound must be
+	 * integers, reductions long, int or double, and every operator the body invokes pure. Null if it's evaluated
+	 * sequentially.
+	 */
+	private String parallelLoop(Statement.Loop loop) {
+		var parallel = loop.getParallel();
+		var variable = parallel.getVariable();
+		var bound = unwidened(((Expression.Binary)loop.getCondition()).getRight());
+		if (!isCounter(variable.getType()) || !isCounter(bound.getType()))
+			return null;
+		for (var reduction : parallel.getReductions().keySet())
+			if (!isCounter(reduction.getType()) && !TypeInference.typeDouble.equals(reduction.getType()))
+				return null;
+		var pure = new boolean[] {true};
+		Traversal.forEach(loop.getBody(), statement -> {}, expression -> {
+			if (expression instanceof Expression.Invoke && !isPure(((Expression.Invoke)expression).getOperator()))
+				pure[0] = false;
+		});
+		if (!pure[0])
+			return null;
+		var targets = new LinkedHashMap<Slot, String>();
+		targets.put(variable, reference(variable));
+		for (var reduction : parallel.getReductions().keySet())
+			targets.put(reduction, reference(reduction));
+		var site = new LoopSite("__parallel" + loopSiteCount++, parallel, parallelisationPolicy.getCutoff());
+		site.setTargets(expression(bound), targets);
+		loopSite = site;
+		try {
+			site.setBody(block(loop.getBody()));
+		} finally {
+			loopSite = null;
+		}
+		parallelSources.add(site.getSource());
+		return site.getStatement();
+	}
+
+	// References.
+
+	// Get Java code for a slot. In the body of a parallel loop, it's a local or field of the part evaluating it.
+	private String reference(Slot slot) {
+		if (loopSite != null)
+			return loopSite.reference(slot, () -> operatorReference(slot));
+		return operatorReference(slot);
+	}
+
+	private String operatorReference(Slot slot) {
+		if (slot.getOwner() == operator)
+			return isCaptured(slot) ? frameName + "." + slot.getName() : slot.getName();
+		var reference = new StringBuilder();
+		for (var opDef = operator; opDef != slot.getOwner(); opDef = opDef.getParent())
+			reference.append(closureName).append(".");
+		return reference + slot.getName();
+	}
+
+	/* Get Java code for the closure an operator of this program is passed, as seen from the operator being generated. */
+	private String getClosureArgument(Operator invoked) {
+		var owner = invoked.getParent();
+		if (owner == operator)
+			return frameName;
+		var closure = new ArrayList<String>();
+		for (var opDef = operator; opDef != owner; opDef = opDef.getParent())
+			closure.add(closureName);
+		return String.join(".", closure);
+	}
+
+	// Expressions.
+
+	// Get an expression without a conversion Java does implicitly where a value is assigned or passed.
+	private static Expression unwidened(Expression expression) {
+		if (expression instanceof Expression.Convert && !expression.getType().equals(TypeInference.typeInt))
+			return ((Expression.Convert)expression).getOperand();
+		return expression;
+	}
+
+	private static boolean isConvertedToDouble(Expression expression) {
+		return expression instanceof Expression.Convert && expression.getType().equals(TypeInference.typeDouble);
+	}
+
+	private static String getSymbol(Expression.Binary.Kind kind) {
+		return switch (kind) {
+			case NOT_EQUAL -> "!=";
+			case AND -> "&&";
+			case OR -> "||";
+			default -> kind.toString();
+		};
+	}
+
+	private static String literal(Expression.Constant constant) {
+		var value = constant.getValue();
+		if (value instanceof Long) {
+			var longValue = (Long)value;
+			return (longValue >= Integer.MIN_VALUE && longValue <= Integer.MAX_VALUE) ? longValue.toString() : longValue + "L";
+		}
+		if (value instanceof Double) {
+			var doubleValue = (Double)value;
+			if (doubleValue.isNaN())
+				return "Double.NaN";
+			if (doubleValue.isInfinite())
+				return (doubleValue > 0) ? "Double.POSITIVE_INFINITY" : "Double.NEGATIVE_INFINITY";
+		}
+		return value.toString();
+	}
+
+	private String expression(Expression expression) {
+		if (expression instanceof Expression.Constant)
+			return literal((Expression.Constant)expression);
+		if (expression instanceof Expression.Load)
+			return reference(((Expression.Load)expression).getSlot());
+		if (expression instanceof Expression.Convert) {
+			var convert = (Expression.Convert)expression;
+			var operand = expression(convert.getOperand());
+			if (convert.getType().equals(TypeInference.typeInt))
+				return "(int)(" + operand + ")";
+			return convert.getOperand().getType().equals(TypeInference.typeInt) ? "(long)" + operand : operand;
+		}
+		if (expression instanceof Expression.Binary) {
+			var binary = (Expression.Binary)expression;
+			var symbol = getSymbol(binary.getKind());
+			Function<List<String>, String> combination = operands -> "(" + operands.get(0) + ") " + symbol + " (" + operands.get(1) + ")";
+			// Java only converts a long operand to a double if the other is one, which, once operators are inlined, it may not be.
+			if (isConvertedToDouble(binary.getLeft()) && isConvertedToDouble(binary.getRight()))
+				return combination.apply(List.of("(double)" + expression(binary.getLeft()), "(double)" + expression(binary.getRight())));
+			if (binary.getKind().isArithmetic())
+				return fork(binary.getOperands(), this::expression, null, combination, binary.getType());
+			return combination.apply(List.of(expression(binary.getLeft()), expression(binary.getRight())));
+		}
+		if (expression instanceof Expression.Not)
+			return "!(" + expression(((Expression.Not)expression).getOperand()) + ")";
+		if (expression instanceof Expression.Negate)
+			return "-(" + expression(((Expression.Negate)expression).getOperand()) + ")";
+		if (expression instanceof Expression.Invoke)
+			return invocation((Expression.Invoke)expression, true);
+		throw new ExceptionFatal("Unable to generate " + expression);
+	}
+
+	private String argument(Expression expression) {
+		return expression(unwidened(expression));
+	}
+
+	/* Get Java code for an invocation. Invocations among the arguments may be evaluated in parallel, if it's not a call. */
+	private String invocation(Expression.Invoke invocation, boolean forkable) {
+		var invoked = invocation.getOperator();
+		if (invoked.isExternal())
+			return externalInvocation(invocation);
+		Function<List<String>, String> combination = arguments -> invoked.getName() + "(" +
+				Stream.concat(takesClosure(invoked) ? Stream.of(getClosureArgument(invoked)) : Stream.empty(), arguments.stream()).collect(Collectors.joining(", ")) + ")";
+		if (!forkable)
+			return combination.apply(invocation.getArguments().stream().map(this::argument).collect(Collectors.toList()));
+		return fork(invocation.getArguments(), this::argument, invoked, combination, invoked.getReturnType());
+	}
+
+	/* Get Java code that invokes an operator of an earlier session submission, in its class. Its closure is built from the root variables it needs. */
+	private String externalInvocation(Expression.Invoke invocation) {
+		var invoked = invocation.getOperator();
+		var arguments = new ArrayList<String>();
+		if (!invoked.getCaptures().isEmpty())
+			arguments.add("new " + invoked.getClassName() + "." + generatedRootClosureClassName + "(" +
+					invoked.getCaptures().stream().map(this::reference).collect(Collectors.joining(", ")) + ")");
+		for (var argument : invocation.getArguments())
+			arguments.add(argument(argument));
+		return invoked.getClassName() + "." + invoked.getName() + "(" + String.join(", ", arguments) + ")";
+	}
+
+	/*
+	 * Return the operator an operand invokes, if the invocation may be evaluated in parallel with others: it invokes
+	 * an operator of this program that isn't cheap, and its arguments invoke nothing. Otherwise return null.
+	 */
+	private static Operator getForkableOperator(Expression operand) {
+		if (!(operand instanceof Expression.Invoke))
+			return null;
+		var invocation = (Expression.Invoke)operand;
+		var invoked = invocation.getOperator();
+		if (invoked.isExternal() || invoked.isCheap() || invocation.getArguments().stream().anyMatch(Traversal::invokes))
+			return null;
+		return invoked;
+	}
+
+	/*
+	 * Get Java code for operands combined into a value of the given type. If at least two operands are invocations
+	 * of pure operators that may be evaluated in parallel, the others invoke nothing, and the combiner, if any, is
+	 * pure too, it's a ForkSite. Otherwise it's the sequential combination.
+	 */
+	private String fork(List<Expression> operands, Function<Expression, String> generator, Operator combiner, Function<List<String>, String> combination, String typeName) {
+		var siteOperands = new ArrayList<ForkSite.Operand>();
+		var values = new ArrayList<String>();
+		var parallel = parallelisationPolicy.isParallel() && ForkSite.isSupported(typeName) && (combiner == null || isPure(combiner));
+		var invocations = 0;
+		for (var operand : operands) {
+			var unwidened = unwidened(operand);
+			var forkable = parallel ? getForkableOperator(unwidened) : null;
+			if (forkable != null && isPure(forkable)) {
+				var arguments = ((Expression.Invoke)unwidened).getArguments().stream().map(this::argument).collect(Collectors.toList());
+				siteOperands.add(new ForkSite.Operand(forkable, arguments, forkable.getReturnType()));
+				values.add(forkable.getName() + "(" + String.join(", ", arguments) + ")");
+				invocations++;
+			} else {
+				var value = generator.apply(operand);
+				siteOperands.add(new ForkSite.Operand(unwidened.getType(), value));
+				values.add(value);
+				parallel &= ForkSite.isSupported(unwidened.getType()) && !Traversal.invokes(operand);
+			}
+		}
+		if (!parallel || invocations < 2)
+			return combination.apply(values);
+		var forkSite = new ForkSite("__fork" + forkSiteCount++, siteOperands, combination, typeName, parallelisationPolicy.getCutoff());
+		parallelSources.add(forkSite.getSource());
+		return forkSite.getExpression();
+	}
+
+}
@@ -0,0 +1,421 @@
+package org.reldb.relang.transpiler;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import org.reldb.relang.parser.ast.*;
+
+/**
+ * Infer the types of a program's variables and operators before code is generated from it, so each variable can
+ * be declared with one type for its whole life.
+ * <p>
+ * Arithmetic promotes: an operation on a long and a double is a double. A variable has the type all the values
+ * assigned to it promote to, so a variable assigned both longs and doubles is a double. Return types are found the
+ * same way, from return expressions, which lets recursive invocations be typed. The program is walked in the order
+ * the code generators visit it, resolving names as they do, until no type changes.
+ * <p>
+ * Then a long variable is narrowed to int if range analysis proves every value it can hold fits one, so the JIT
+ * sees int counted loops. Its values must be integer literals or arithmetic on such values, or it must be the
+ * variable of FOR loops that step it by a literal towards a bound that fits, without assigning it in their bodies.
+ * Parameters, variables used by nested operators, and, if requested, root variables, are never narrowed. Code
+ * generators should read an int variable as a long, so arithmetic on it can't overflow where a long wouldn't.
+ */
+public class TypeInference {
+
+	public static final String typeLong = "long";
+	public static final String typeDouble = "double";
+	public static final String typeBoolean = "boolean";
+	public static final String typeInt = "int";
+
+	/** A variable or parameter, as found by one walk of the program. */
+	private static class Variable {
+		final Scope scope;
+		final String name;
+		final boolean fixed;
+		final List<ASTAssignment> assignments = new ArrayList<>();
+		String type;
+		boolean captured = false;
+
+		Variable(Scope scope, String name, String type, boolean fixed) {
+			this.scope = scope;
+			this.name = name;
+			this.type = type;
+			this.fixed = fixed;
+		}
+	}
+
+	/** An operator, or the root of the program. */
+	private static class Scope {
+		final Scope parent;
+		final SimpleNode definition;
+		final Map<String, Variable> variables = new HashMap<>();
+		final Map<String, Scope> operators = new HashMap<>();
+
+		Scope(Scope parent, SimpleNode definition) {
+			this.parent = parent;
+			this.definition = definition;
+		}
+	}
+
+	/** The values a long expression may have. */
+	private static class Range {
+		static final Range unbounded = new Range(Long.MIN_VALUE, Long.MAX_VALUE);
+
+		final long low;
+		final long high;
+
+		Range(long low, long high) {
+			this.low = low;
+			this.high = high;
+		}
+
+		Range union(Range range) {
+			return new Range(Math.min(low, range.low), Math.max(high, range.high));
+		}
+
+		boolean fitsInt() {
+			return low >= Integer.MIN_VALUE && high <= Integer.MAX_VALUE;
+		}
+	}
+
+	private final Map<String, String> sessionReturnTypes;
+	private final boolean narrowRootVariables;
+
+	// Types carried from one walk to the next: of variables, by the node that defines their scope, and of operators.
+	private final Map<SimpleNode, Map<String, String>> variableTypes = new HashMap<>();
+	private final Map<SimpleNode, String> returnTypes = new HashMap<>();
+	private boolean changed;
+
+	// As found by the last walk.
+	private final List<Variable> variables = new ArrayList<>();
+	private final Map<Node, Variable> references = new IdentityHashMap<>();
+	private final Set<Variable> narrowed = new HashSet<>();
+
+	/**
+	 * Ctor. Infer the types of a program.
+	 *
+	 * @param program - root of an AST produced by Relang.execute() or Relang.evaluate().
+	 * @param rootVariableTypes - types of root variables that exist before the program runs, by name. They can't change.
+	 * @param sessionReturnTypes - return types of operators defined before the program runs, by name.
+	 * @param narrowRootVariables - if false, root variables are never narrowed, e.g., because they outlive the program.
+	 */
+	public TypeInference(SimpleNode program, Map<String, String> rootVariableTypes, Map<String, String> sessionReturnTypes, boolean narrowRootVariables) {
+		this.sessionReturnTypes = sessionReturnTypes;
+		this.narrowRootVariables = narrowRootVariables;
+		do {
+			changed = false;
+			variables.clear();
+			references.clear();
+			var root = new Scope(null, program);
+			rootVariableTypes.forEach((name, type) -> declare(root, name, type, true));
+			walkChildren(program, root);
+		} while (changed);
+		for (var variable : variables)
+			if (isNarrowable(variable))
+				narrowed.add(variable);
+	}
+
+	/** Ctor. Infer the types of a program that doesn't share variables or operators with others. */
+	public TypeInference(SimpleNode program) {
+		this(program, Map.of(), Map.of(), true);
+	}
+
+	/** Get the type of the variable an assignment assigns. Null if it can't be inferred. */
+	public String getVariableType(ASTAssignment assignment) {
+		var variable = references.get(assignment);
+		if (variable == null)
+			return null;
+		return narrowed.contains(variable) ? typeInt : variable.type;
+	}
+
+	/** Get the return type of an operator, given its definition. Null if it can't be inferred or it doesn't return a value. */
+	public String getReturnType(SimpleNode definition) {
+		return returnTypes.get(definition);
+	}
+
+	/** Parse an integer literal, which may be decimal, hex or octal with an optional L suffix. */
+	public static long parseInteger(String literal) {
+		if (literal.endsWith("l") || literal.endsWith("L"))
+			literal = literal.substring(0, literal.length() - 1);
+		return Long.decode(literal);
+	}
+
+	/** Get the type of values of an arithmetic operation on the given types. Null if either is unknown. */
+	public static String promote(String type0, String type1) {
+		if (type0 == null || type1 == null)
+			return (type0 == null) ? type1 : type0;
+		if (type0.equals(typeDouble) || type1.equals(typeDouble))
+			return typeDouble;
+		return typeLong;
+	}
+
+	// Get the type a variable or operator has if it has values of the given types. Conflicting types keep the first.
+	private static String merge(String type, String valueType) {
+		if (type == null || valueType == null)
+			return (type == null) ? valueType : type;
+		if (type.equals(valueType) || type.equals(typeBoolean) || valueType.equals(typeBoolean))
+			return type;
+		return typeDouble;
+	}
+
+	private Variable declare(Scope scope, String name, String type, boolean fixed) {
+		var variable = new Variable(scope, name, type, fixed);
+		scope.variables.put(name, variable);
+		variables.add(variable);
+		return variable;
+	}
+
+	private static Variable resolve(Scope scope, String name) {
+		for (var outer = scope; outer != null; outer = outer.parent) {
+			var variable = outer.variables.get(name);
+			if (variable != null) {
+				if (outer != scope)
+					variable.captured = true;
+				return variable;
+			}
+		}
+		return null;
+	}
+
+	private static String getToken(Node node) {
+		return ((BaseASTNode)node).tokenValue;
+	}
+
+	private void walkChildren(Node node, Scope scope) {
+		for (var i = 0; i < node.jjtGetNumChildren(); i++)
+			walk(node.jjtGetChild(i), scope);
+	}
+
+	// Walk a node. If it's an expression, return its type, or null if that isn't known yet.
+	private String walk(Node node, Scope scope) {
+		if (node instanceof ASTFnDef || node instanceof ASTFnDefPure)
+			defineOperator((SimpleNode)node, scope);
+		else if (node instanceof ASTAssignment)
+			assign((ASTAssignment)node, scope);
+		else if (node instanceof ASTReturnExpression)
+			setReturnType(scope.definition, walk(node.jjtGetChild(0), scope));
+		else if (node instanceof ASTDereference) {
+			var variable = resolve(scope, getToken(node));
+			if (variable == null)
+				return null;
+			references.put(node, variable);
+			return variable.type;
+		} else if (node instanceof ASTFnInvoke || node instanceof ASTCall) {
+			walkChildren(node.jjtGetChild(1), scope);
+			var name = getToken(node.jjtGetChild(0));
+			for (var outer = scope; outer != null; outer = outer.parent) {
+				var operator = outer.operators.get(name);
+				if (operator != null)
+					return returnTypes.get(operator.definition);
+			}
+			return sessionReturnTypes.get(name);
+		} else if (node instanceof ASTInteger)
+			return typeLong;
+		else if (node instanceof ASTRational)
+			return typeDouble;
+		else if (node instanceof ASTAdd || node instanceof ASTSubtract || node instanceof ASTTimes || node instanceof ASTDivide)
+			return promote(walk(node.jjtGetChild(0), scope), walk(node.jjtGetChild(1), scope));
+		else if (node instanceof ASTUnaryPlus || node instanceof ASTUnaryMinus)
+			return walk(node.jjtGetChild(0), scope);
+		else if (node instanceof ASTTrue || node instanceof ASTFalse)
+			return typeBoolean;
+		else if (node instanceof ASTOr || node instanceof ASTAnd || node instanceof ASTUnaryNot
+				|| node instanceof ASTCompEqual || node instanceof ASTCompNequal
+				|| node instanceof ASTCompLT || node instanceof ASTCompLTE
+				|| node instanceof ASTCompGT || node instanceof ASTCompGTE) {
+			walkChildren(node, scope);
+			return typeBoolean;
+		} else
+			walkChildren(node, scope);
+		return null;
+	}
+
+	private void defineOperator(SimpleNode definition, Scope scope) {
+		var operator = new Scope(scope, definition);
+		// Defined before its body is walked, so it can invoke itself.
+		scope.operators.put(getToken(definition.jjtGetChild(0)), operator);
+		var parmlist = definition.jjtGetChild(1);
+		for (var i = 0; i < parmlist.jjtGetNumChildren(); i++) {
+			var parameter = parmlist.jjtGetChild(i);
+			declare(operator, getToken(parameter.jjtGetChild(1)), getToken(parameter.jjtGetChild(0)), true);
+		}
+		for (var i = 2; i < definition.jjtGetNumChildren(); i++)
+			walk(definition.jjtGetChild(i), operator);
+	}
+
+	private void assign(ASTAssignment assignment, Scope scope) {
+		var valueType = walk(assignment.jjtGetChild(1), scope);
+		var name = getToken(assignment.jjtGetChild(0));
+		var variable = resolve(scope, name);
+		if (variable == null)
+			variable = declare(scope, name, variableTypes.getOrDefault(scope.definition, Map.of()).get(name), false);
+		variable.assignments.add(assignment);
+		references.put(assignment, variable);
+		if (variable.fixed)
+			return;
+		var type = merge(variable.type, valueType);
+		if (!Objects.equals(type, variable.type)) {
+			variable.type = type;
+			variableTypes.computeIfAbsent(variable.scope.definition, key -> new LinkedHashMap<>()).put(name, type);
+			changed = true;
+		}
+	}
+
+	private void setReturnType(SimpleNode definition, String valueType) {
+		var returnType = returnTypes.get(definition);
+		var type = merge(returnType, valueType);
+		if (!Objects.equals(type, returnType)) {
+			returnTypes.put(definition, type);
+			changed = true;
+		}
+	}
+
+	private boolean isNarrowable(Variable variable) {
+		if (!typeLong.equals(variable.type) || variable.fixed || variable.captured)
+			return false;
+		if (variable.scope.parent == null && !narrowRootVariables)
+			return false;
+		return rangeOf(variable, new HashSet<>()).fitsInt();
+	}
+
+	// Get the range of a variable. One whose range depends on itself is unbounded, unless it's a loop variable.
+	private Range rangeOf(Variable variable, Set<Variable> inferring) {
+		if (variable.fixed || variable.assignments.isEmpty() || inferring.contains(variable))
+			return Range.unbounded;
+		inferring.add(variable);
+		Range range = null;
+		for (var assignment : variable.assignments) {
+			var parent = assignment.jjtGetParent();
+			Range assigned;
+			if (parent instanceof ASTForLoop && isCountingLoop((ASTForLoop)parent, variable)) {
+				// The initialisation gives the range of the whole loop, update included.
+				if (parent.jjtGetChild(0) != assignment)
+					continue;
+				assigned = rangeOf((ASTForLoop)parent, inferring);
+			} else
+				assigned = rangeOf(assignment.jjtGetChild(1), inferring);
+			range = (range == null) ? assigned : range.union(assigned);
+		}
+		inferring.remove(variable);
+		return (range == null) ? Range.unbounded : range;
+	}
+
+	/*
+	 * Return true if a loop is FOR (v = a; v op b; v = v + s), with s an integer literal that moves v towards b as
+	 * op requires, and v isn't assigned in the body.
+	 */
+	private boolean isCountingLoop(ASTForLoop loop, Variable variable) {
+		var initialisation = loop.jjtGetChild(0);
+		var condition = loop.jjtGetChild(1);
+		var update = loop.jjtGetChild(2);
+		if (references.get(initialisation) != variable || references.get(update) != variable || references.get(condition.jjtGetChild(0)) != variable)
+			return false;
+		var step = getStep(update.jjtGetChild(1), variable);
+		if (step == null)
+			return false;
+		var ascending = condition instanceof ASTCompLT || condition instanceof ASTCompLTE;
+		var descending = condition instanceof ASTCompGT || condition instanceof ASTCompGTE;
+		if (!(ascending && step > 0) && !(descending && step < 0))
+			return false;
+		return !isAssignedIn(loop.jjtGetChild(3), variable);
+	}
+
+	// Get s from v + s or v - s. Null if the expression isn't one of those.
+	private Long getStep(Node expression, Variable variable) {
+		if (!(expression instanceof ASTAdd || expression instanceof ASTSubtract) || references.get(expression.jjtGetChild(0)) != variable)
+			return null;
+		if (!(expression.jjtGetChild(1) instanceof ASTInteger))
+			return null;
+		long step;
+		try {
+			step = parseInteger(getToken(expression.jjtGetChild(1)));
+		} catch (NumberFormatException nfe) {
+			return null;
+		}
+		if (step == 0 || step == Long.MIN_VALUE)
+			return null;
+		return (expression instanceof ASTAdd) ? step : -step;
+	}
+
+	private boolean isAssignedIn(Node node, Variable variable) {
+		if (node instanceof ASTAssignment && references.get(node) == variable)
+			return true;
+		for (var i = 0; i < node.jjtGetNumChildren(); i++)
+			if (isAssignedIn(node.jjtGetChild(i), variable))
+				return true;
+		return false;
+	}
+
+	// Get the range of a counting loop's variable: its initial values, and every value the update can take it to.
+	private Range rangeOf(ASTForLoop loop, Set<Variable> inferring) {
+		var initial = rangeOf(loop.jjtGetChild(0).jjtGetChild(1), inferring);
+		var condition = loop.jjtGetChild(1);
+		var bound = rangeOf(condition.jjtGetChild(1), inferring);
+		var step = getStep(loop.jjtGetChild(2).jjtGetChild(1), references.get(loop.jjtGetChild(0)));
+		try {
+			// The last value is the first past the bound, at most a step beyond it.
+			if (condition instanceof ASTCompLT)
+				return new Range(initial.low, Math.max(initial.high, Math.addExact(bound.high, step - 1)));
+			if (condition instanceof ASTCompLTE)
+				return new Range(initial.low, Math.max(initial.high, Math.addExact(bound.high, step)));
+			if (condition instanceof ASTCompGT)
+				return new Range(Math.min(initial.low, Math.addExact(bound.low, step + 1)), initial.high);
+			return new Range(Math.min(initial.low, Math.addExact(bound.low, step)), initial.high);
+		} catch (ArithmeticException overflow) {
+			return Range.unbounded;
+		}
+	}
+
+	// Get the range of a long expression.
+	private Range rangeOf(Node expression, Set<Variable> inferring) {
+		try {
+			if (expression instanceof ASTInteger) {
+				var value = parseInteger(getToken(expression));
+				return new Range(value, value);
+			}
+			if (expression instanceof ASTDereference) {
+				var variable = references.get(expression);
+				return (variable == null) ? Range.unbounded : rangeOf(variable, inferring);
+			}
+			if (expression instanceof ASTUnaryPlus)
+				return rangeOf(expression.jjtGetChild(0), inferring);
+			if (expression instanceof ASTUnaryMinus) {
+				var range = rangeOf(expression.jjtGetChild(0), inferring);
+				return new Range(Math.negateExact(range.high), Math.negateExact(range.low));
+			}
+			if (!(expression instanceof ASTAdd || expression instanceof ASTSubtract || expression instanceof ASTTimes || expression instanceof ASTDivide))
+				return Range.unbounded;
+			var range0 = rangeOf(expression.jjtGetChild(0), inferring);
+			if (expression instanceof ASTDivide) {
+				if (!(expression.jjtGetChild(1) instanceof ASTInteger))
+					return Range.unbounded;
+				var divisor = parseInteger(getToken(expression.jjtGetChild(1)));
+				if (divisor == 0 || (divisor == -1 && range0.low == Long.MIN_VALUE))
+					return Range.unbounded;
+				return new Range(Math.min(range0.low / divisor, range0.high / divisor), Math.max(range0.low / divisor, range0.high / divisor));
+			}
+			var range1 = rangeOf(expression.jjtGetChild(1), inferring);
+			if (expression instanceof ASTAdd)
+				return new Range(Math.addExact(range0.low, range1.low), Math.addExact(range0.high, range1.high));
+			if (expression instanceof ASTSubtract)
+				return new Range(Math.subtractExact(range0.low, range1.high), Math.subtractExact(range0.high, range1.low));
+			var products = new long[] {
+					Math.multiplyExact(range0.low, range1.low), Math.multiplyExact(range0.low, range1.high),
+					Math.multiplyExact(range0.high, range1.low), Math.multiplyExact(range0.high, range1.high)};
+			var range = new Range(products[0], products[0]);
+			for (var product : products)
+				range = range.union(new Range(product, product));
+			return range;
+		} catch (ArithmeticException | NumberFormatException unrepresentable) {
+			return Range.unbounded;
+		}
+	}
+
+}
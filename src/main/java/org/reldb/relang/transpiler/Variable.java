@@ -1,7 +0,0 @@
-package org.reldb.relang.transpiler;
-
-public class Variable extends Slot {
-	public Variable(String type, String name) {
-		super(type, name);
-	}
-}
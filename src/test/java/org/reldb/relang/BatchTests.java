@@ -0,0 +1,125 @@
+package org.reldb.relang;
+
+import org.junit.jupiter.api.Test;
+import org.reldb.relang.java.ProgramCache;
+import org.reldb.relang.optimiser.OptimisationLevel;
+import org.reldb.relang.transpiler.MemoisationPolicy;
+
+import java.util.LinkedHashMap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.reldb.relang.helper.ToInputStream.toInputStream;
+
+class BatchTests {
+    private static final String fib = """
+            fib(long n) -> {
+               if (n == 0 or n == 1)
+                  r = n
+               else
+                  r = fib(n - 1) + fib(n - 2)
+               return r
+            }
+            """;
+
+    @Test
+    void everyScriptIsCompiled() throws Exception {
+        var sources = new LinkedHashMap<String, String>();
+        for (var i = 0; i < 10; i++)
+            sources.put("script" + i, fib + "RETURN fib(" + i + ")\n");
+
+        var results = new ScriptBatch(3).compile(sources, true);
+
+        assertThat(results.keySet()).containsExactlyElementsOf(sources.keySet());
+        long[] expected = {0, 1, 1, 2, 3, 5, 8, 13, 21, 34};
+        for (var i = 0; i < 10; i++) {
+            var result = results.get("script" + i);
+            assertThat(result.getError()).isNull();
+            assertThat(result.getProgram().run()).isEqualTo(expected[i]);
+        }
+    }
+
+    @Test
+    void failuresAreReportedPerScript() throws Exception {
+        var sources = new LinkedHashMap<String, String>();
+        sources.put("good", "RETURN 1 + 2\n");
+        sources.put("syntax", "RETURN 1 +\n");
+        sources.put("semantic", "RETURN undefined(3)\n");
+        sources.put("alsoGood", "x = 4\nRETURN x * x\n");
+
+        var results = new ScriptBatch(2).compile(sources, true);
+
+        assertThat(results.get("good").getProgram().run()).isEqualTo(3L);
+        assertThat(results.get("alsoGood").getProgram().run()).isEqualTo(16L);
+        assertThat(results.get("syntax").isCompiled()).isFalse();
+        assertThat(results.get("syntax").getError()).isNotBlank();
+        assertThat(results.get("semantic").isCompiled()).isFalse();
+        assertThat(results.get("semantic").getError()).contains("undefined");
+    }
+
+    @Test
+    void executedScriptsRun() throws Exception {
+        var sources = new LinkedHashMap<String, String>();
+        sources.put("a", "WRITE 1\n");
+        sources.put("b", "WRITE 2\n");
+
+        var results = new ScriptBatch().compile(sources, false);
+
+        assertThat(results.get("a").isCompiled()).isTrue();
+        assertThat(results.get("b").getProgram().run()).isNull();
+    }
+
+    @Test
+    void identicalScriptsShareAProgram() throws Exception {
+        var sources = new LinkedHashMap<String, String>();
+        sources.put("first", "RETURN 7\n");
+        sources.put("second", "RETURN 7  \r\n");
+
+        var results = new ScriptBatch(2).compile(sources, true);
+
+        assertThat(results.get("first").getProgram()).isSameAs(results.get("second").getProgram());
+        assertThat(results.get("second").getProgram().run()).isEqualTo(7L);
+    }
+
+    @Test
+    void cacheIsSharedWithMain() throws Exception {
+        var cache = new ProgramCache();
+        var batch = new ScriptBatch(2);
+        batch.setProgramCache(cache);
+        var sources = new LinkedHashMap<String, String>();
+        sources.put("sum", "a = 2 + 3\nRETURN a\n");
+        batch.compile(sources, true);
+
+        var main = new Main(cache);
+        var result = main.evaluate(toInputStream(sources.get("sum")));
+        batch.compile(sources, true);
+
+        assertThat(result).isEqualTo(5L);
+        assertThat(cache.getMissCount()).isEqualTo(1);
+        assertThat(cache.getHitCount()).isEqualTo(2);
+    }
+
+    @Test
+    void scriptsAreCompiledWithMainsSettings() throws Exception {
+        var cache = new ProgramCache();
+        var main = new Main(cache);
+        main.setMemoisationPolicy(new MemoisationPolicy());
+        main.setOptimisationLevel(OptimisationLevel.O1);
+        var batch = new ScriptBatch(2);
+        batch.setProgramCache(cache);
+        var sources = new LinkedHashMap<String, String>();
+        sources.put("fib", fib + "RETURN fib(30)\n");
+
+        var result = batch.compile(sources, true).get("fib");
+        assertThat(result.getProgram().getMemoCaches()).isEmpty();
+        batch.setCompilationSettings(main.getCompilationSettings());
+        var memoised = batch.compile(sources, true).get("fib");
+
+        assertThat(memoised.getProgram()).isNotSameAs(result.getProgram());
+        assertThat(memoised.getProgram().getMemoCaches()).isNotEmpty();
+        assertThat(main.evaluate(toInputStream(sources.get("fib")))).isEqualTo(832040L);
+        assertThat(cache.getHitCount()).isEqualTo(1);
+        assertThatThrownBy(() -> batch.setCompilationSettings(main.getCompilationSettings().withBackend(Main.Backends.BYTECODE)))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+}
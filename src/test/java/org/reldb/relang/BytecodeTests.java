@@ -0,0 +1,114 @@
+package org.reldb.relang;
+
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.reldb.relang.helper.LanguageTests;
+
+import static org.assertj.core.api.AssertionsForClassTypes.assertThat;
+
+/** Run the language tests against the bytecode backend, and check it agrees with the source backend. */
+class BytecodeTests extends LanguageTests {
+    BytecodeTests() {
+        backend = Main.Backends.BYTECODE;
+    }
+
+    @Nested
+    class Core extends CoreTests {
+        Core() {
+            backend = Main.Backends.BYTECODE;
+        }
+    }
+
+    @Nested
+    class Expression extends ExpressionTests {
+        Expression() {
+            backend = Main.Backends.BYTECODE;
+        }
+    }
+
+    @Nested
+    class Fn extends FnTests {
+        Fn() {
+            backend = Main.Backends.BYTECODE;
+        }
+    }
+
+    private Object evaluateWithSource(String source) throws Exception {
+        backend = Main.Backends.SOURCE;
+        try {
+            return evaluate(source);
+        } finally {
+            backend = Main.Backends.BYTECODE;
+        }
+    }
+
+    private void assertSameAsSource(String source) throws Exception {
+        assertThat(evaluate(source)).isEqualTo(evaluateWithSource(source));
+    }
+
+    @Test
+    void arithmeticAndComparison() throws Exception {
+        assertSameAsSource("RETURN 7 * 3 - 10 / 4 + -2");
+        assertSameAsSource("RETURN 1.5 * 4.0 - 0.25");
+        assertSameAsSource("RETURN 3 < 4 and not (2 >= 5) or false");
+        assertSameAsSource("RETURN 0x10 + 010 + 5L");
+    }
+
+    @Test
+    void recursionReturnsValue() throws Exception {
+        var source = """
+                fib(long n) -> {
+                   if (n == 0 or n == 1) {
+                      r = n
+                   } else {
+                      r = fib(n - 1) + fib(n - 2)
+                   }
+                   return r
+                }
+                RETURN fib(20)
+                """;
+
+        assertThat(evaluate(source)).isEqualTo(6765L);
+        assertSameAsSource(source);
+    }
+
+    @Test
+    void nestedOperatorsWithClosures() throws Exception {
+        var source = """
+                z = 2
+                zaz(long a) -> a
+                blah(long p) -> {
+                   q = 3
+                   zot(long r) -> zaz(r + p + q + z)
+                   zog(long n) -> zot(n + 2)
+                   return zot(p) * zog(p)
+                }
+                v = 3
+                RETURN blah(v)
+                """;
+
+        assertThat(evaluate(source)).isEqualTo(143L);
+        assertSameAsSource(source);
+    }
+
+    @Test
+    void recursiveReturnTypeIsDiscovered() throws Exception {
+        var source = """
+                half(double x) -> {
+                   if (x > 1.0)
+                      r = half(x / 2.0)
+                   else
+                      r = x
+                   return r
+                }
+                RETURN half(10.0)
+                """;
+
+        assertThat(evaluate(source)).isEqualTo(0.625);
+    }
+
+    @Test
+    void mixedArithmeticIsPromoted() throws Exception {
+        assertThat(evaluate("RETURN 1 + 0.5")).isEqualTo(1.5);
+    }
+}
@@ -0,0 +1,119 @@
+package org.reldb.relang;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.reldb.relang.java.ClassFileCache;
+import org.reldb.relang.java.ProgramCache;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.assertj.core.api.AssertionsForClassTypes.assertThat;
+import static org.reldb.relang.helper.ToInputStream.toInputStream;
+
+class CacheTests {
+    @Test
+    void repeatedSubmissionIsCached() throws Exception {
+        var source = """
+                a = 2 + 3
+                RETURN a
+                """;
+
+        var main = new Main();
+        var result1 = main.evaluate(toInputStream(source));
+        var result2 = main.evaluate(toInputStream(source.replace("\n", "  \r\n")));
+
+        assertThat(result1).isEqualTo(5L);
+        assertThat(result2).isEqualTo(5L);
+        assertThat(main.getProgramCache().getMissCount()).isEqualTo(1);
+        assertThat(main.getProgramCache().getHitCount()).isEqualTo(1);
+    }
+
+    @Test
+    void executeAndEvaluateAreCachedSeparately() throws Exception {
+        var source = """
+                write 1
+                """;
+
+        var main = new Main();
+        main.execute(toInputStream(source));
+        main.evaluate(toInputStream(source + "RETURN 1\n"));
+        main.execute(toInputStream(source));
+
+        assertThat(main.getProgramCache().size()).isEqualTo(2);
+        assertThat(main.getProgramCache().getHitCount()).isEqualTo(1);
+    }
+
+    @Test
+    void versionIdentifiesTheBuildOutsideAJar() {
+        // Tests run from target/classes, so the version must change with the code, not just be "development".
+        assertThat(ClassFileCache.getVersion()).containsPattern("relang=development-[0-9a-f]{64};");
+    }
+
+    @Test
+    void interpretingIgnoresCompiledPrograms(@TempDir Path dir) throws Exception {
+        var source = """
+                a = 2 + 3
+                RETURN a
+                """;
+
+        var main = new Main();
+        main.setClassFileCache(new ClassFileCache(dir));
+        main.evaluate(toInputStream(source));
+        main.setExecutionMode(Main.ExecutionModes.INTERPRET);
+        var result = main.evaluate(toInputStream(source));
+
+        assertThat(result).isEqualTo(5L);
+        assertThat(main.getProgramCache().getHitCount()).isEqualTo(0);
+        assertThat(main.getProgramCache().getMissCount()).isEqualTo(1);
+    }
+
+    @Test
+    void leastRecentlyUsedIsEvicted() throws Exception {
+        var main = new Main(new ProgramCache(2));
+        main.evaluate(toInputStream("RETURN 1"));
+        main.evaluate(toInputStream("RETURN 2"));
+        main.evaluate(toInputStream("RETURN 1"));
+        main.evaluate(toInputStream("RETURN 3"));
+        main.evaluate(toInputStream("RETURN 1"));
+        main.evaluate(toInputStream("RETURN 2"));
+
+        assertThat(main.getProgramCache().size()).isEqualTo(2);
+        assertThat(main.getProgramCache().getHitCount()).isEqualTo(2);
+        assertThat(main.getProgramCache().getMissCount()).isEqualTo(4);
+    }
+
+    @Test
+    void persistentCacheIsSharedBetweenInstances(@TempDir Path dir) throws Exception {
+        var source = """
+                a = 2 + 3
+                RETURN a
+                """;
+
+        var main1 = new Main();
+        main1.setClassFileCache(new ClassFileCache(dir));
+        var result1 = main1.evaluate(toInputStream(source));
+
+        var main2 = new Main();
+        main2.setClassFileCache(new ClassFileCache(dir));
+        var result2 = main2.evaluate(toInputStream(source));
+
+        assertThat(result1).isEqualTo(5L);
+        assertThat(result2).isEqualTo(5L);
+        try (var entries = Files.list(dir)) {
+            assertThat(entries.filter(path -> path.toString().endsWith(".rlc")).count()).isEqualTo(1);
+        }
+    }
+
+    @Test
+    void persistentCacheEvictsWhenOverCapacity(@TempDir Path dir) throws Exception {
+        var main = new Main();
+        main.setClassFileCache(new ClassFileCache(dir, 1));
+        main.evaluate(toInputStream("RETURN 1"));
+        main.evaluate(toInputStream("RETURN 2"));
+
+        try (var entries = Files.list(dir)) {
+            assertThat(entries.filter(path -> path.toString().endsWith(".rlc")).count()).isEqualTo(0);
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package org.reldb.relang;
+
+import org.junit.jupiter.api.Test;
+import org.reldb.relang.helper.LanguageTests;
+import org.reldb.relang.parser.ast.Relang;
+import org.reldb.relang.transpiler.InliningPolicy;
+
+import java.io.StringReader;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ClosureTests extends LanguageTests {
+    private static String transpile(String source) throws Exception {
+        return CompilationSettings.defaults.withInliningPolicy(InliningPolicy.none).transpile("ClosureTest", new Relang(new StringReader(source)).evaluate(), null);
+    }
+
+    @Test
+    void operatorThatCapturesNothingTakesNoClosure() throws Exception {
+        var source = """
+                fib(long n) -> {
+                   if (n == 0 or n == 1)
+                      r = n
+                   else
+                      r = fib(n - 1) + fib(n - 2)
+                   return r
+                }
+                x = 7
+                RETURN fib(x)
+                """;
+
+        var java = transpile(source);
+
+        assertThat(java).contains("long fib(long n)").doesNotContain("_closure");
+        assertThat(evaluate(source)).isEqualTo(13L);
+    }
+
+    @Test
+    void closureOnlyCapturesVariablesRead() throws Exception {
+        var source = """
+                a = 1
+                b = 2
+                c = 3
+                f(long x) -> x + b
+                RETURN f(10)
+                """;
+
+        var java = transpile(source);
+
+        assertThat(java).contains("__main_closure __frame = new __main_closure(0)").contains("public __main_closure(long b)");
+        assertThat(java).contains("int a;").contains("__frame.b = 2");
+        assertThat(evaluate(source)).isEqualTo(12L);
+    }
+
+    @Test
+    void capturesArePropagatedThroughNestedOperators() throws Exception {
+        var source = """
+                p = 3
+                q = 4
+                outer(long x) -> {
+                   inner(long y) -> p + y
+                   return inner(x)
+                }
+                RETURN outer(5)
+                """;
+
+        var java = transpile(source);
+
+        assertThat(java).contains("long outer(__main_closure __closure, long x)").contains("outer(__frame, 5)");
+        assertThat(java).contains("long inner(outer_closure __closure, long y)").contains("new outer_closure(__closure)");
+        assertThat(evaluate(source)).isEqualTo(8L);
+    }
+
+    @Test
+    void capturesArePropagatedThroughInvocations() throws Exception {
+        var source = """
+                p = 3
+                getP() -> p
+                caller(long x) -> x + getP()
+                RETURN caller(4)
+                """;
+
+        var java = transpile(source);
+
+        assertThat(java).contains("long caller(__main_closure __closure, long x)").contains("getP(__closure)");
+        assertThat(evaluate(source)).isEqualTo(7L);
+    }
+
+    @Test
+    void variableDefinedAfterInvocationIsNotCaptured() throws Exception {
+        var source = """
+                p = 2
+                f(long x) -> x * p
+                a = f(3)
+                b = a + f(4)
+                RETURN b
+                """;
+
+        assertThat(evaluate(source)).isEqualTo(14L);
+    }
+
+    @Test
+    void sessionOperatorsCaptureOnlyWhatTheyRead() throws Exception {
+        var session = new Session();
+        session.execute("""
+                a = 5
+                unused = 1
+                plusA(long x) -> x + a
+                twice(long x) -> x * 2
+                """);
+
+        assertThat(session.evaluate("RETURN plusA(twice(3))")).isEqualTo(11L);
+        assertThat(session.evaluate("""
+                nested(long y) -> {
+                   return plusA(y)
+                }
+                RETURN nested(1)
+                """)).isEqualTo(6L);
+    }
+
+    @Test
+    void nestedOperatorsShareTheFrameOfTheirActivation() throws Exception {
+        var source = """
+                count(long n) -> {
+                   total = 0
+                   add(long x) -> {
+                      total = total + x
+                   }
+                   for (i = 1; i <= n; i = i + 1)
+                      add(i)
+                   return total
+                }
+                RETURN count(10)
+                """;
+
+        assertEvaluatesEverywhereTo(source, 55L);
+    }
+
+    @Test
+    void invocationsInLoopsAllocateNothing() throws Exception {
+        var source = """
+                k = 3
+                scale(long x) -> x * k
+                sum = 0
+                for (i = 0; i < 100; i = i + 1)
+                   sum = sum + scale(i)
+                RETURN sum
+                """;
+
+        var java = transpile(source);
+
+        assertThat(java).containsOnlyOnce("new __main_closure(").contains("scale(__frame, i)");
+        assertThat(evaluate(source)).isEqualTo(14850L);
+    }
+}
@@ -0,0 +1,52 @@
+package org.reldb.relang;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.reldb.relang.helper.ToInputStream.toInputStream;
+
+class CommandLineTests {
+    private static final String fib = """
+            fib(long n) -> {
+               if (n < 2)
+                  r = n
+               else
+                  r = fib(n - 1) + fib(n - 2)
+               return r
+            }
+            RETURN fib(20)
+            """;
+
+    // Run source as the command line does, with the given arguments, and return its output.
+    private static String runCommand(String source, String... args) {
+        var out = System.out;
+        var output = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(output, true));
+        try {
+            Main.runCommand(new Main(), args, toInputStream(source));
+            return output.toString();
+        } finally {
+            System.setOut(out);
+        }
+    }
+
+    @Test
+    void memoisedOperatorsMayBeNamed() {
+        assertThat(runCommand(fib, "-c", "-m:fib", "-e")).isEqualTo("6765\n");
+        assertThat(runCommand(fib, "-c", "-m:fib,fib", "-e")).isEqualTo("6765\n");
+        assertThat(runCommand(fib, "-c", "-m:", "-e")).startsWith("Usage: ");
+        assertThat(runCommand(fib, "-c", "-m:fib,", "-e")).startsWith("Usage: ");
+    }
+
+    @Test
+    void parallelCutoffsMustBePositiveNumbers() {
+        assertThat(runCommand(fib, "-c", "-p:2", "-e")).isEqualTo("6765\n");
+        assertThat(runCommand(fib, "-c", "-p:abc", "-e")).startsWith("Usage: ");
+        assertThat(runCommand(fib, "-c", "-p:0", "-e")).startsWith("Usage: ");
+        assertThat(runCommand(fib, "-c", "-p:-1", "-e")).startsWith("Usage: ");
+        assertThat(runCommand(fib, "-c", "-p:", "-e")).startsWith("Usage: ");
+    }
+}
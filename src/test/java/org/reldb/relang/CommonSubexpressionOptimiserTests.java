@@ -0,0 +1,126 @@
+package org.reldb.relang;
+
+import org.junit.jupiter.api.Test;
+import org.reldb.relang.helper.LanguageTests;
+import org.reldb.relang.optimiser.Optimiser;
+import org.reldb.relang.parser.ast.Relang;
+import org.reldb.relang.transpiler.InliningPolicy;
+
+import java.io.StringReader;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CommonSubexpressionOptimiserTests extends LanguageTests {
+    private static String transpile(String source) throws Exception {
+        var program = new Optimiser(Set.of(), false).optimise(new Relang(new StringReader(source)).evaluate());
+        return CompilationSettings.defaults.withInliningPolicy(InliningPolicy.none).transpile("CommonSubexpressionTest", program, null);
+    }
+
+    @Test
+    void repeatedExpressionsAndPureInvocationsAreEvaluatedOnce() throws Exception {
+        var source = """
+                sq(long x) -> x * x
+                f(long p, long x, long r) -> {
+                   if (p + x * r > 10)
+                      y = p + x * r
+                   else
+                      y = sq(p) + sq(p)
+                   x = x + 1
+                   return y + p + x * r + (x * r) / 2
+                }
+                RETURN f(3, 4, 5) + f(1, 1, 1)
+                """;
+
+        var java = transpile(source);
+
+        assertThat(java)
+                .contains("__common0 = (p) + ((x) * (r));")
+                .contains("if ((__common0) > (10)) {")
+                .contains("y = __common0;")
+                .contains("y = (__common1) + (__common1);")
+                .contains("__common2 = (x) * (r);");
+        assertEvaluatesEverywhereTo(source, 23L + 3 + 25 + 12 + 2 + 1 + 2 + 1);
+    }
+
+    @Test
+    void assignmentsWritesAndImpureInvocationsEndReuse() throws Exception {
+        var source = """
+                noisy(long x) -> {
+                   write x
+                   return x
+                }
+                f(long p, long q) -> {
+                   a = p * q + noisy(1)
+                   b = p * q
+                   write b
+                   c = p * q
+                   p = p + 1
+                   d = p * q
+                   return a + b + c + d
+                }
+                RETURN f(2, 3)
+                """;
+
+        assertEvaluatesEverywhereTo(source, 28L);
+    }
+
+    @Test
+    void assigningAVariableEndsReuseOfExpressionsContainingReusedOnes() throws Exception {
+        var source = """
+                a = 7
+                b = a * a + a * a
+                a = 3
+                c = a * a + a * a
+                RETURN b * 100 + c
+                """;
+
+        assertEvaluatesEverywhereTo(source, 9818L);
+        assertThat(evaluate(source, Main.Backends.SOURCE, Main.ExecutionModes.TIERED)).isEqualTo(9818L);
+        var inOperator = """
+                f(long a) -> {
+                   b = a * a + a * a
+                   a = a + 1
+                   c = a * a + a * a
+                   return b * 1000 + c
+                }
+                RETURN f(7)
+                """;
+        assertEvaluatesEverywhereTo(inOperator, 98128L);
+    }
+
+    @Test
+    void valuesThatMayNotBeEvaluatedAreNotReused() throws Exception {
+        var source = """
+                f(long a, long b) -> {
+                   d = 0
+                   t = a > 0 and b / a > 1
+                   if (a > 0)
+                      d = b / a
+                   return d
+                }
+                RETURN f(0, 5) + f(2, 7)
+                """;
+
+        assertEvaluatesEverywhereTo(source, 3L);
+    }
+
+    @Test
+    void rootVariablesThatOutliveTheProgramAreNotAdded() throws Exception {
+        var source = """
+                a = 2
+                b = a * 3 + 1
+                c = a * 3 + 2
+                f(long x) -> {
+                   y = x * 3 + 1
+                   return y + x * 3
+                }
+                RETURN f(b + c)
+                """;
+
+        var session = new Session();
+        assertThat(session.evaluate(source)).isEqualTo(15L * 6 + 1);
+        assertThat(session.getVariables().keySet()).containsExactlyInAnyOrder("a", "b", "c");
+        assertEvaluatesEverywhereTo(source, 15L * 6 + 1);
+    }
+}
@@ -0,0 +1,86 @@
+package org.reldb.relang;
+
+import org.junit.jupiter.api.Test;
+import org.reldb.relang.java.JavaCompiler;
+import org.reldb.relang.java.MemoryClassLoader;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.reldb.relang.helper.ToInputStream.toInputStream;
+
+class ConcurrencyTests {
+    private static final String script = """
+            fib(long n) -> {
+               if (n == 0 or n == 1)
+                  r = n
+               else
+                  r = fib(n - 1) + fib(n - 2)
+               return r
+            }
+            RETURN fib(%d) + %d
+            """;
+
+    private static long fib(int n) {
+        return (n < 2) ? n : fib(n - 1) + fib(n - 2);
+    }
+
+    @Test
+    void sharedMainEvaluatesConcurrently() throws Exception {
+        var main = new Main();
+        var tasks = new ArrayList<Callable<Boolean>>();
+        for (var i = 0; i < 40; i++) {
+            // Half the scripts are distinct; the rest repeat, so compilation and cache hits interleave.
+            var n = i % 15;
+            var offset = (i < 20) ? i : 0;
+            tasks.add(() -> main.evaluate(toInputStream(String.format(script, n, offset))).equals(fib(n) + offset));
+        }
+        var executor = Executors.newFixedThreadPool(8);
+        try {
+            for (var future : executor.invokeAll(tasks))
+                assertThat(future.get()).isTrue();
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void concurrentCompilationsOnDiskAreIsolated() throws Exception {
+        var tasks = new ArrayList<Callable<Object>>();
+        for (var i = 0; i < 4; i++) {
+            var value = i;
+            // Same class name, different code.
+            var java = "public class SameName { public static Object get() { return " + value + "L; } }";
+            tasks.add(() -> {
+                var classes = new JavaCompiler(false, true).compile("SameName", java);
+                var loader = new MemoryClassLoader(classes);
+                return loader.loadClass("SameName").getMethod("get").invoke(null);
+            });
+        }
+        var executor = Executors.newFixedThreadPool(4);
+        try {
+            var futures = executor.invokeAll(tasks);
+            for (var i = 0; i < futures.size(); i++)
+                assertThat(futures.get(i).get()).isEqualTo((long)i);
+        } finally {
+            executor.shutdown();
+            removeCompilationDirectories("SameName_");
+        }
+    }
+
+    private static void removeCompilationDirectories(String prefix) throws IOException {
+        try (var directories = Files.list(Path.of(JavaCompiler.dataDir))) {
+            for (var directory : directories.filter(path -> path.getFileName().toString().startsWith(prefix)).toList())
+                try (var files = Files.walk(directory)) {
+                    for (var file : files.sorted(Comparator.reverseOrder()).toList())
+                        Files.delete(file);
+                }
+        }
+    }
+}
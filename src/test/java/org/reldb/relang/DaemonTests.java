@@ -0,0 +1,109 @@
+package org.reldb.relang;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.reldb.relang.helper.ToInputStream.toInputStream;
+
+class DaemonTests {
+    @TempDir
+    Path dir;
+
+    private Path socketPath;
+    private Daemon daemon;
+
+    @BeforeEach
+    void startDaemon() throws Exception {
+        socketPath = dir.resolve("relang.sock");
+        daemon = new Daemon(socketPath, null);
+        daemon.start();
+    }
+
+    @AfterEach
+    void stopDaemon() throws Exception {
+        daemon.close();
+    }
+
+    private String run(String source, String... args) throws Exception {
+        var output = new ByteArrayOutputStream();
+        var errors = new ByteArrayOutputStream();
+        assertThat(Client.run(socketPath, args, toInputStream(source), output, errors)).isTrue();
+        return output.toString();
+    }
+
+    @Test
+    void writeOutputIsReturned() throws Exception {
+        var output = run("""
+                for (i = 1; i <= 3; i = i + 1)
+                   write i
+                """);
+
+        assertThat(output).isEqualTo("1\n2\n3\n");
+    }
+
+    @Test
+    void evaluatedValueIsReturned() throws Exception {
+        assertThat(run("RETURN 6 * 7\n", "-e")).isEqualTo("42\n");
+    }
+
+    @Test
+    void flagsAreApplied() throws Exception {
+        assertThat(run("write 1\n", "-d1")).contains("Execute").doesNotContain("1\n1");
+        assertThat(run("write 1\n", "-d0", "-c")).contains("Compiling...").endsWith("1\n");
+    }
+
+    @Test
+    void errorsAreReported() throws Exception {
+        assertThat(run("write undefined(1)\n")).contains("undefined");
+        assertThat(run("write 1\n", "-x")).startsWith("Usage:");
+    }
+
+    @Test
+    void compiledProgramsAreShared() throws Exception {
+        var source = "write 3 + 4\n";
+        run(source, "-c");
+        run(source, "-c");
+
+        assertThat(daemon.getProgramCache().getMissCount()).isEqualTo(1);
+        assertThat(daemon.getProgramCache().getHitCount()).isEqualTo(1);
+    }
+
+    @Test
+    void concurrentRequestsGetTheirOwnOutput() throws Exception {
+        var tasks = new ArrayList<Callable<String>>();
+        for (var i = 0; i < 8; i++) {
+            var value = i;
+            tasks.add(() -> run("for (i = 0; i < 50; i = i + 1)\n   write " + value + "\n", "-c"));
+        }
+        var executor = Executors.newFixedThreadPool(8);
+        try {
+            var futures = executor.invokeAll(tasks);
+            for (var i = 0; i < futures.size(); i++)
+                assertThat(futures.get(i).get()).isEqualTo((i + "\n").repeat(50));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void noDaemonIsReported() throws Exception {
+        daemon.close();
+
+        assertThat(Client.run(socketPath, new String[0], toInputStream("write 1\n"), new ByteArrayOutputStream(), new ByteArrayOutputStream())).isFalse();
+    }
+
+    @Test
+    void secondDaemonIsRejected() {
+        assertThatThrownBy(() -> new Daemon(socketPath, null).start()).hasMessageContaining("already listening");
+    }
+}
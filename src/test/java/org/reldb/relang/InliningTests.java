@@ -0,0 +1,135 @@
+package org.reldb.relang;
+
+import org.junit.jupiter.api.Test;
+import org.reldb.relang.java.GeneratedProgram;
+import org.reldb.relang.java.JavaCompiler;
+import org.reldb.relang.parser.ast.Relang;
+import org.reldb.relang.transpiler.InliningPolicy;
+import org.reldb.relang.transpiler.SourceGenerator;
+
+import java.io.StringReader;
+import java.lang.reflect.InvocationTargetException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.reldb.relang.helper.ToInputStream.toInputStream;
+
+class InliningTests {
+    private static String transpile(String source, InliningPolicy policy) throws Exception {
+        var program = new Relang(new StringReader(source)).evaluate();
+        return CompilationSettings.defaults.withInliningPolicy(policy).transpile("InliningTest", program, null);
+    }
+
+    private static Object run(String source, InliningPolicy policy) throws Exception {
+        var java = transpile(source, policy);
+        return new GeneratedProgram(new JavaCompiler(false).compile("InliningTest", java), "InliningTest", SourceGenerator.generatedCodeMainMethodName).run();
+    }
+
+    private static Object interpret(String source) throws Exception {
+        var main = new Main();
+        main.setExecutionMode(Main.ExecutionModes.INTERPRET);
+        return main.evaluate(toInputStream(source));
+    }
+
+    @Test
+    void nestedOperatorsAreInlinedWithTheirCaptures() throws Exception {
+        var source = """
+                p = 3
+                blah(long start, long fin) -> {
+                   zot(long x, long y) -> {
+                      zaz(long r) -> p + x * r
+                      return x * y + zaz(y)
+                   }
+                   t = 0
+                   for (i = start; i <= fin; i = i + 1)
+                      t = t + zot(i, p)
+                   return t
+                }
+                RETURN blah(5, 10)
+                """;
+
+        var java = transpile(source, InliningPolicy.standard);
+
+        assertThat(java).doesNotContain("zot(").doesNotContain("zaz(").doesNotContain("blah_closure");
+        assertThat(run(source, InliningPolicy.standard)).isEqualTo(interpret(source));
+        assertThat(transpile(source, InliningPolicy.none)).contains("zot(").contains("zaz(");
+    }
+
+    @Test
+    void shadowedNamesDoNotPreventInlining() throws Exception {
+        var source = """
+                p = 3
+                f(long x) -> p + x
+                g(long p) -> f(p) * 2
+                RETURN g(10) + f(g(1) * g(2))
+                """;
+
+        var java = transpile(source, InliningPolicy.standard);
+
+        assertThat(java).contains("return ((__closure.p) + (p)) * (2);").contains("(((__frame.p) + (10)) * (2))");
+        assertThat(run(source, InliningPolicy.standard)).isEqualTo(interpret(source));
+    }
+
+    @Test
+    void recursiveOperatorsAndDuplicatedArgumentsAreNotInlined() throws Exception {
+        var source = """
+                fact(long n) -> {
+                   if (n < 2)
+                      r = 1
+                   else
+                      r = n * fact(n - 1)
+                   return r
+                }
+                sq(long x) -> x * x
+                twice(long x) -> sq(x) + sq(x)
+                RETURN fact(5) + twice(fact(3) + 1) + twice(2)
+                """;
+
+        var java = transpile(source, InliningPolicy.standard);
+
+        assertThat(java).contains("fact(5)").contains("twice((fact(3)) + (1))").contains("return ((x) * (x)) + ((x) * (x));");
+        assertThat(run(source, InliningPolicy.standard)).isEqualTo(interpret(source));
+    }
+
+    @Test
+    void largeOperatorsAreOnlyInlinedAtTheirOnlyCallSite() throws Exception {
+        var big = "big(long a, long b) -> a * a + b * b + a * b + a - b + a * 3 + b * 5\n";
+
+        assertThat(transpile(big + "RETURN big(1, 2)", InliningPolicy.standard)).doesNotContain("big(1, 2)");
+        assertThat(transpile(big + "RETURN big(1, 2) + big(3, 4)", InliningPolicy.standard)).contains("big(1, 2)").contains("big(3, 4)");
+        assertThat(transpile(big + "RETURN big(1, 2)", new InliningPolicy(8, 8, 4))).contains("big(1, 2)");
+        assertThat(run(big + "RETURN big(1, 2) + big(3, 4)", InliningPolicy.standard)).isEqualTo(interpret(big + "RETURN big(1, 2) + big(3, 4)"));
+    }
+
+    @Test
+    void argumentsThatMayFailAreStillEvaluated() throws Exception {
+        var unused = """
+                d = 0
+                f(long x) -> 1
+                RETURN f(5 / d)
+                """;
+        var conditional = """
+                d = 0
+                g(long x, boolean b) -> b and x > 0
+                RETURN g(5 / d, false)
+                """;
+        var used = """
+                d = 2
+                h(long x) -> x + 1
+                RETURN h(10 / d)
+                """;
+
+        assertThatThrownBy(() -> run(unused, InliningPolicy.standard)).isInstanceOf(InvocationTargetException.class).hasRootCauseInstanceOf(ArithmeticException.class);
+        assertThatThrownBy(() -> run(conditional, InliningPolicy.standard)).isInstanceOf(InvocationTargetException.class).hasRootCauseInstanceOf(ArithmeticException.class);
+        assertThatThrownBy(() -> interpret(unused)).isInstanceOf(InvocationTargetException.class);
+        assertThat(transpile(used, InliningPolicy.standard)).doesNotContain("h((10)");
+        assertThat(run(used, InliningPolicy.standard)).isEqualTo(6L);
+    }
+
+    @Test
+    void sizesAndDepthMustNotBeNegative() {
+        assertThatThrownBy(() -> new InliningPolicy(-1, 0, 0)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> new InliningPolicy(0, 0, -1)).isInstanceOf(IllegalArgumentException.class);
+        assertThat(InliningPolicy.standard.toString()).isNotEqualTo(new InliningPolicy(8, 32, 3).toString()).isNotEqualTo(InliningPolicy.none.toString());
+    }
+}
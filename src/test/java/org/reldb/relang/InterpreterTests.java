@@ -0,0 +1,171 @@
+package org.reldb.relang;
+
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.reldb.relang.exceptions.ExceptionSemantic;
+import org.reldb.relang.helper.LanguageTests;
+import org.reldb.relang.interpreter.InterpretationPolicy;
+import org.reldb.relang.parser.ast.Relang;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.lang.reflect.InvocationTargetException;
+
+import static org.assertj.core.api.AssertionsForClassTypes.assertThat;
+import static org.assertj.core.api.AssertionsForClassTypes.assertThatThrownBy;
+
+/** Run the language tests with the interpreter where the policy allows, and check it agrees with compiled code. */
+class InterpreterTests extends LanguageTests {
+    InterpreterTests() {
+        executionMode = Main.ExecutionModes.INTERPRET;
+    }
+
+    // Long loops and deep recursion are compiled by the policy, so AUTOMATIC keeps these quick.
+    @Nested
+    class Core extends CoreTests {
+        Core() {
+            executionMode = Main.ExecutionModes.AUTOMATIC;
+        }
+    }
+
+    @Nested
+    class Expression extends ExpressionTests {
+        Expression() {
+            executionMode = Main.ExecutionModes.AUTOMATIC;
+        }
+    }
+
+    @Nested
+    class Fn extends FnTests {
+        Fn() {
+            executionMode = Main.ExecutionModes.AUTOMATIC;
+        }
+    }
+
+    // Run source in the given mode, and return its output followed by its value.
+    private String run(String source, Main.ExecutionModes mode) throws Exception {
+        var out = System.out;
+        var output = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(output, true));
+        executionMode = mode;
+        try {
+            var value = evaluate(source);
+            return output + "=" + value;
+        } finally {
+            System.setOut(out);
+            executionMode = Main.ExecutionModes.INTERPRET;
+        }
+    }
+
+    private void assertSameAsCompiled(String source) throws Exception {
+        assertThat(run(source, Main.ExecutionModes.INTERPRET)).isEqualTo(run(source, Main.ExecutionModes.COMPILE));
+    }
+
+    @Test
+    void arithmeticAndComparison() throws Exception {
+        assertSameAsCompiled("RETURN 7 * 3 - 10 / 4 + -2");
+        assertSameAsCompiled("RETURN 1.5 * 4.0 - 0.25");
+        assertSameAsCompiled("RETURN 3 < 4 and not (2 >= 5) or false");
+        assertSameAsCompiled("RETURN 0x10 + 010 + 5L");
+        assertSameAsCompiled("RETURN 1 + 0.5 == 1.5");
+    }
+
+    @Test
+    void loopsAndWrites() throws Exception {
+        assertSameAsCompiled("""
+                t = 0
+                for (i = 1; i < 10; i = i + 1) {
+                    if (i / 2 * 2 == i)
+                        write i
+                    else
+                        t = t + i
+                }
+                write 2.5
+                write t > 20
+                RETURN t
+                """);
+    }
+
+    @Test
+    void nestedOperatorsWithClosures() throws Exception {
+        var source = """
+                z = 2
+                zaz(long a) -> a
+                blah(long p) -> {
+                   q = 3
+                   zot(long r) -> zaz(r + p + q + z)
+                   zog(long n) -> zot(n + 2)
+                   return zot(p) * zog(p)
+                }
+                v = 3
+                RETURN blah(v)
+                """;
+
+        assertThat(evaluate(source)).isEqualTo(143L);
+        assertSameAsCompiled(source);
+    }
+
+    @Test
+    void closuresShareTheirActivation() throws Exception {
+        assertSameAsCompiled("""
+                x = 1
+                bump() -> {
+                   x = x + 10
+                   write x
+                }
+                bump()
+                bump()
+                write x
+                RETURN x
+                """);
+    }
+
+    @Test
+    void recursionReturnsValue() throws Exception {
+        var source = """
+                fib(long n) -> {
+                   if (n == 0 or n == 1) {
+                      r = n
+                   } else {
+                      r = fib(n - 1) + fib(n - 2)
+                   }
+                   return r
+                }
+                RETURN fib(15)
+                """;
+
+        assertThat(evaluate(source)).isEqualTo(610L);
+        assertSameAsCompiled(source);
+    }
+
+    @Test
+    void runTimeErrorsAreWrapped() {
+        assertThatThrownBy(() -> evaluate("RETURN 1 / 0"))
+                .isInstanceOf(InvocationTargetException.class)
+                .hasCauseInstanceOf(ArithmeticException.class);
+        assertThatThrownBy(() -> evaluate("RETURN x + 1"))
+                .isInstanceOf(ExceptionSemantic.class);
+    }
+
+    private static boolean shouldInterpret(String source) throws Exception {
+        return new InterpretationPolicy().shouldInterpret(new Relang(new StringReader(source)).execute());
+    }
+
+    @Test
+    void policyInterpretsCheapPrograms() throws Exception {
+        assertThat(shouldInterpret("write 1 + 2")).isTrue();
+        assertThat(shouldInterpret("for (i = 0; i < 100; i = i + 1) write i")).isTrue();
+    }
+
+    @Test
+    void policyCompilesLongLoopsAndRecursion() throws Exception {
+        assertThat(shouldInterpret("for (i = 0; i < 100000000; i = i + 1) {}")).isFalse();
+        assertThat(shouldInterpret("""
+                f(long n) -> {
+                   if (n > 0) f(n - 1)
+                }
+                f(10)
+                """)).isFalse();
+    }
+}
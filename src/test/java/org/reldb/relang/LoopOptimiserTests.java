@@ -0,0 +1,126 @@
+package org.reldb.relang;
+
+import org.junit.jupiter.api.Test;
+import org.reldb.relang.helper.LanguageTests;
+import org.reldb.relang.optimiser.Optimiser;
+import org.reldb.relang.parser.ast.Relang;
+
+import java.io.StringReader;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class LoopOptimiserTests extends LanguageTests {
+    private static String transpile(String source) throws Exception {
+        var program = new Optimiser().optimise(new Relang(new StringReader(source)).evaluate());
+        return CompilationSettings.defaults.transpile("LoopOptimiserTest", program, null);
+    }
+
+    private static String before(String java, String text) {
+        return java.substring(0, java.indexOf(text));
+    }
+
+    @Test
+    void invariantExpressionsAndPureInvocationsAreHoisted() throws Exception {
+        var source = """
+                sq(long x) -> x * x
+                f(long p, long n) -> {
+                   t = 0
+                   for (i = 0; i < n * 2; i = i + 1)
+                      t = t + p * 1000 + sq(p + 1)
+                   return t
+                }
+                RETURN f(3, 5)
+                """;
+
+        var java = transpile(source);
+
+        assertThat(before(java, "for (i = 0;"))
+                .contains("__invariant0 = (n) * (2);")
+                .contains("= (p) * (1000);")
+                .contains("= sq((p) + (1));");
+        assertEvaluatesEverywhereTo(source, 30160L);
+    }
+
+    @Test
+    void expressionsThatMayFailOrHaveEffectsStayInTheLoop() throws Exception {
+        var source = """
+                g(long x) -> {
+                   write x
+                   return x
+                }
+                f(long p, long n) -> {
+                   t = 0
+                   for (i = 0; i < n; i = i + 1)
+                      t = t + g(p) + 10 / p
+                   return t
+                }
+                RETURN f(0, 0) + f(5, 2)
+                """;
+
+        assertEvaluatesEverywhereTo(source, 14L);
+    }
+
+    @Test
+    void variablesAssignedInTheLoopAreNotInvariant() throws Exception {
+        var source = """
+                f(long n) -> {
+                   t = 0
+                   k = 1
+                   for (i = 0; i < n; i = i + 1) {
+                      t = t + k * 3
+                      k = k + 1
+                   }
+                   return t
+                }
+                RETURN f(4)
+                """;
+
+        assertEvaluatesEverywhereTo(source, 30L);
+    }
+
+    @Test
+    void productsOfTheLoopVariableBecomeAdditions() throws Exception {
+        var source = """
+                f(long n) -> {
+                   t = 0
+                   for (i = 0; i < n; i = i + 1)
+                      for (j = 1; j <= n; j = j + 2)
+                         t = t + i * j + j * n
+                   return t
+                }
+                RETURN f(7) + f(0) * 1000 + f(1) * 10000
+                """;
+
+        assertEvaluatesEverywhereTo(source, 1120L + 10000);
+    }
+
+    @Test
+    void descendingLoopsAreReduced() throws Exception {
+        var source = """
+                f(long n, long m) -> {
+                   t = 0
+                   for (i = n; i > 0; i = i - 3)
+                      t = t + i * m
+                   return t
+                }
+                RETURN f(10, 4) + f(2, 100) * 1000
+                """;
+
+        assertEvaluatesEverywhereTo(source, 88L + 200000);
+    }
+
+    @Test
+    void doubleProductsAreNotReduced() throws Exception {
+        var source = """
+                f(long n, double x) -> {
+                   t = 0.0
+                   for (i = 0; i < n; i = i + 1)
+                      t = t + x * i
+                   return t
+                }
+                RETURN f(4, 0.1)
+                """;
+
+        assertEvaluatesEverywhereTo(source, 0.0 + 0.1 * 0 + 0.1 * 1 + 0.1 * 2 + 0.1 * 3);
+    }
+}
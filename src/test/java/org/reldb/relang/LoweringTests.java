@@ -0,0 +1,118 @@
+package org.reldb.relang;
+
+import org.junit.jupiter.api.Test;
+import org.reldb.relang.bytecode.BytecodeGenerator;
+import org.reldb.relang.exceptions.ExceptionSemantic;
+import org.reldb.relang.helper.LanguageTests;
+import org.reldb.relang.ir.Expression;
+import org.reldb.relang.ir.Lowering;
+import org.reldb.relang.ir.Operator;
+import org.reldb.relang.ir.Slot;
+import org.reldb.relang.ir.Statement;
+import org.reldb.relang.optimiser.OptimisationLevel;
+import org.reldb.relang.optimiser.Optimiser;
+import org.reldb.relang.parser.ast.Relang;
+import org.reldb.relang.transpiler.InliningPolicy;
+import org.reldb.relang.transpiler.MemoisationPolicy;
+import org.reldb.relang.transpiler.ParallelisationPolicy;
+
+import java.io.StringReader;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.reldb.relang.helper.ToInputStream.toInputStream;
+
+class LoweringTests extends LanguageTests {
+    private static Operator lower(String source, OptimisationLevel level) throws Exception {
+        var program = new Optimiser(Set.of(), false, false, level).optimise(new Relang(new StringReader(source)).evaluate());
+        return Lowering.createPassManager(level, InliningPolicy.none, MemoisationPolicy.none, ParallelisationPolicy.none, null).run(Lowering.lower(BytecodeGenerator.generatedCodeMainMethodName, program));
+    }
+
+    private static Slot variable(Operator operator, String name) {
+        return operator.getVariables().stream().filter(slot -> slot.getName().equals(name)).findFirst().orElseThrow();
+    }
+
+    @Test
+    void slotsAreTypedAndCapturesAreFound() throws Exception {
+        var source = """
+                z = 2
+                blah(long p, double d) -> {
+                   q = 3
+                   w = d
+                   zot(long r) -> r + p + q + z
+                   return zot(p) + w
+                }
+                RETURN blah(3, 0.5)
+                """;
+
+        var root = lower(source, OptimisationLevel.O2);
+
+        assertThat(root.getReturnType()).isEqualTo("double");
+        assertThat(variable(root, "z").isCaptured()).isTrue();
+        var blah = root.getOperators().get(0);
+        var zot = blah.getOperators().get(0);
+        assertThat(blah.getParameters()).extracting(Slot::getType).containsExactly("long", "double");
+        assertThat(blah.getParameters()).extracting(Slot::isCaptured).containsExactly(true, false);
+        assertThat(variable(blah, "q").isCaptured()).isTrue();
+        assertThat(variable(blah, "w").getType()).isEqualTo("double");
+        assertThat(variable(blah, "w").isCaptured()).isFalse();
+        assertThat(blah.getCaptures()).extracting(Slot::getName).containsExactly("z");
+        assertThat(zot.getCaptures()).extracting(Slot::getName).containsExactlyInAnyOrder("p", "q", "z");
+        assertEvaluatesEverywhereTo(source, 11.5);
+    }
+
+    @Test
+    void passesNarrowCountedLoopsAboveO0() throws Exception {
+        var source = """
+                t = 0
+                for (i = 0; i < 1000; i = i + 1)
+                   t = t + i
+                RETURN t
+                """;
+
+        assertThat(Lowering.createPassManager(OptimisationLevel.O0).getNames()).isEmpty();
+        assertThat(Lowering.createPassManager(OptimisationLevel.O1).getNames()).containsExactly("inline", "narrow", "increments");
+        var unoptimised = (Statement.Loop)lower(source, OptimisationLevel.O0).getBody().getStatements().get(2);
+        assertThat(((Expression.Binary)unoptimised.getCondition()).getOperandType()).isEqualTo("long");
+        assertThat(unoptimised.getUpdate().getStatements().get(0)).isInstanceOf(Statement.Assign.class);
+        var loop = (Statement.Loop)lower(source, OptimisationLevel.O2).getBody().getStatements().get(2);
+        assertThat(((Expression.Binary)loop.getCondition()).getOperandType()).isEqualTo("int");
+        assertThat(((Statement.Increment)loop.getUpdate().getStatements().get(0)).getStep()).isEqualTo(1);
+        for (var level : OptimisationLevel.values()) {
+            var main = new Main();
+            main.setBackend(Main.Backends.BYTECODE);
+            main.setOptimisationLevel(level);
+            assertThat(main.evaluate(toInputStream(source))).isEqualTo(499500L);
+        }
+    }
+
+    @Test
+    void conversionsAreExplicit() throws Exception {
+        var source = "f(double x) -> x * 2\nRETURN f(3) + 1";
+
+        var sum = (Expression.Binary)((Statement.Return)lower(source, OptimisationLevel.O0).getBody().getStatements().get(0)).getValue();
+        assertThat(sum.getType()).isEqualTo("double");
+        assertThat(((Expression.Invoke)sum.getLeft()).getArguments().get(0)).isInstanceOf(Expression.Convert.class);
+        assertThat(sum.getRight()).isInstanceOf(Expression.Convert.class);
+        var folded = (Expression.Binary)((Statement.Return)lower(source, OptimisationLevel.O2).getBody().getStatements().get(0)).getValue();
+        assertThat(((Expression.Constant)folded.getRight()).getValue()).isEqualTo(1.0);
+        assertEvaluatesEverywhereTo(source, 7.0);
+    }
+
+    @Test
+    void typeErrorsAreReportedWhenLowering() {
+        assertThatThrownBy(() -> lower("f(long n) -> {\n n = n / 2.0\n return n\n}\nRETURN f(3)", OptimisationLevel.O2))
+                .isInstanceOf(ExceptionSemantic.class)
+                .hasMessageContaining("Expected a value of type long but got double");
+        assertThatThrownBy(() -> lower("f(long n) -> {\n write n\n}\nwrite f(3)\nRETURN 1", OptimisationLevel.O2))
+                .isInstanceOf(ExceptionSemantic.class)
+                .hasMessageContaining("Operator does not return a value");
+        assertThatThrownBy(() -> lower("RETURN 1 + true", OptimisationLevel.O0))
+                .isInstanceOf(ExceptionSemantic.class)
+                .hasMessageContaining("Expected numeric operands but got long and boolean");
+        assertThatThrownBy(() -> lower("g(1)\nRETURN 1", OptimisationLevel.O2))
+                .isInstanceOf(ExceptionSemantic.class)
+                .hasMessageContaining("Can't find operator g");
+    }
+}
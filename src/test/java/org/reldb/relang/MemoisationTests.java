@@ -0,0 +1,136 @@
+package org.reldb.relang;
+
+import org.junit.jupiter.api.Test;
+import org.reldb.relang.java.GeneratedProgram;
+import org.reldb.relang.java.JavaCompiler;
+import org.reldb.relang.optimiser.Optimiser;
+import org.reldb.relang.parser.ast.Relang;
+import org.reldb.relang.runtime.MemoCache;
+import org.reldb.relang.transpiler.MemoisationPolicy;
+import org.reldb.relang.transpiler.SourceGenerator;
+
+import java.io.StringReader;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.reldb.relang.helper.ToInputStream.toInputStream;
+
+class MemoisationTests {
+    private static final String fib = """
+            fib(long n) -> {
+               if (n < 2)
+                  r = n
+               else
+                  r = fib(n - 1) + fib(n - 2)
+               return r
+            }
+            """;
+
+    private static String transpile(String source, MemoisationPolicy policy) throws Exception {
+        var program = new Optimiser().optimise(new Relang(new StringReader(source)).evaluate());
+        return CompilationSettings.defaults.withMemoisationPolicy(policy).transpile("MemoisationTest", program, null);
+    }
+
+    private static GeneratedProgram compile(String source, MemoisationPolicy policy) throws Exception {
+        var java = transpile(source, policy);
+        return new GeneratedProgram(new JavaCompiler(false).compile("MemoisationTest", java), "MemoisationTest", SourceGenerator.generatedCodeMainMethodName);
+    }
+
+    @Test
+    void pureRecursiveOperatorsAreMemoised() throws Exception {
+        var program = compile(fib + "RETURN fib(90)", new MemoisationPolicy());
+
+        assertThat(program.run()).isEqualTo(2880067194370816120L);
+        var caches = program.getMemoCaches();
+        assertThat(caches).hasSize(1);
+        assertThat(caches.get(0).getName()).isEqualTo("fib");
+        assertThat(caches.get(0).getMisses()).isLessThanOrEqualTo(91);
+        assertThat(caches.get(0).getHitRate()).isGreaterThan(0.9);
+    }
+
+    @Test
+    void memoisationIsOptIn() throws Exception {
+        var main = new Main();
+        main.setMemoisationPolicy(new MemoisationPolicy(Set.of("fib"), 64, MemoCache.Eviction.DIRECT_MAPPED));
+
+        assertThat(main.evaluate(toInputStream(fib + "RETURN fib(70)"))).isEqualTo(190392490709135L);
+        assertThat(transpile(fib + "RETURN fib(5)", MemoisationPolicy.none)).doesNotContain("MemoCache");
+        assertThat(transpile(fib + "RETURN fib(5)", new MemoisationPolicy(Set.of("other"), 64, MemoCache.Eviction.DIRECT_MAPPED))).doesNotContain("MemoCache");
+    }
+
+    @Test
+    void operatorsThatMayHaveEffectsOrReadVariablesAreNotMemoised() throws Exception {
+        var java = transpile("""
+                k = 3
+                scaled(long x) -> x * k
+                noisy(long x) -> {
+                   write x
+                   return x
+                }
+                callsNoisy(long x) -> noisy(x) + 1
+                square(long x) -> x * x
+                sumOfSquares(long n) -> {
+                   t = 0
+                   for (i = 1; i <= n; i = i + 1)
+                      t = t + square(i)
+                   return t
+                }
+                RETURN scaled(1) + callsNoisy(2) + sumOfSquares(3)
+                """, new MemoisationPolicy());
+
+        assertThat(java).contains("__memo__sumOfSquares =");
+        assertThat(java).doesNotContain("__memo__scaled").doesNotContain("__memo__noisy").doesNotContain("__memo__callsNoisy");
+        // Cheap, so only memoised if named.
+        assertThat(java).doesNotContain("__memo__square");
+    }
+
+    @Test
+    void cachesAreBoundedAndEvictAsConfigured() {
+        var direct = new MemoCache("direct", 4, MemoCache.Eviction.DIRECT_MAPPED);
+        var twoWay = new MemoCache("twoWay", 2, MemoCache.Eviction.TWO_WAY_LRU);
+        for (var key = 0L; key < 100; key++) {
+            direct.put(key, 0, 0, key * 10);
+            twoWay.put(key, 0, 0, key * 10);
+        }
+
+        assertThat(direct.getCapacity()).isEqualTo(4);
+        var found = 0;
+        for (var key = 0L; key < 100; key++) {
+            var entry = direct.find(key, 0, 0);
+            if (entry != null) {
+                assertThat(entry.getValue()).isEqualTo(key * 10);
+                found++;
+            }
+        }
+        assertThat(found).isLessThanOrEqualTo(4);
+        assertThat(direct.getHits()).isEqualTo(found);
+        assertThat(direct.getMisses()).isEqualTo(100 - found);
+
+        // The two most recent entries share the only set; reading one keeps it when a third arrives.
+        assertThat(twoWay.find(98, 0, 0).getValue()).isEqualTo(980);
+        twoWay.put(100, 0, 0, 1000);
+        assertThat(twoWay.find(98, 0, 0)).isNotNull();
+        assertThat(twoWay.find(99, 0, 0)).isNull();
+        assertThat(twoWay.find(100, 0, 0)).isNotNull();
+    }
+
+    @Test
+    void doubleKeysAreDistinguishedByTheirBits() throws Exception {
+        var cache = new MemoCache("signs", 16, MemoCache.Eviction.TWO_WAY_LRU);
+        cache.put(Double.doubleToRawLongBits(0.0), 0, 0, 1);
+
+        assertThat(cache.find(Double.doubleToRawLongBits(-0.0), 0, 0)).isNull();
+        assertThat(cache.find(Double.doubleToRawLongBits(0.0), 0, 0).getValue()).isEqualTo(1);
+
+        var source = """
+                inverse(double x) -> {
+                   t = 0.0
+                   for (i = 0; i < 2; i = i + 1)
+                      t = t + 0.5 / x
+                   return t
+                }
+                RETURN inverse(-0.0) < inverse(0.0)
+                """;
+        assertThat(compile(source, new MemoisationPolicy()).run()).isEqualTo(true);
+    }
+}
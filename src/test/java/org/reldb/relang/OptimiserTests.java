@@ -0,0 +1,192 @@
+package org.reldb.relang;
+
+import org.junit.jupiter.api.Test;
+import org.reldb.relang.bytecode.BytecodeGenerator;
+import org.reldb.relang.exceptions.ExceptionSemantic;
+import org.reldb.relang.helper.LanguageTests;
+import org.reldb.relang.ir.Expression;
+import org.reldb.relang.ir.Lowering;
+import org.reldb.relang.ir.Slot;
+import org.reldb.relang.ir.Statement;
+import org.reldb.relang.optimiser.OptimisationLevel;
+import org.reldb.relang.optimiser.Optimiser;
+import org.reldb.relang.parser.ast.Relang;
+import org.reldb.relang.transpiler.InliningPolicy;
+
+import java.io.StringReader;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.reldb.relang.helper.ToInputStream.toInputStream;
+
+class OptimiserTests extends LanguageTests {
+    private static String transpile(String source, boolean evaluate) throws Exception {
+        var relang = new Relang(new StringReader(source));
+        var program = new Optimiser().optimise(evaluate ? relang.evaluate() : relang.execute());
+        return CompilationSettings.defaults.withInliningPolicy(InliningPolicy.none).transpile("OptimiserTest", program, null);
+    }
+
+    @Test
+    void constantExpressionsAreFolded() throws Exception {
+        assertEvaluatesEverywhereTo("RETURN 2 + 3 * 4 - 10 / 4", 12L);
+        assertEvaluatesEverywhereTo("RETURN -(1.5 * 4) + 1", -5.0);
+        assertEvaluatesEverywhereTo("RETURN not (3 < 4) or 2.0 == 2", true);
+        assertEvaluatesEverywhereTo("RETURN 3000000000 * 2", 6000000000L);
+    }
+
+    @Test
+    void divisionByZeroIsLeftToFailAtRunTime() throws Exception {
+        var source = """
+                unused = 1 / 0
+                RETURN 2
+                """;
+
+        assertThatThrownBy(() -> evaluate(source)).isInstanceOf(InvocationTargetException.class);
+        assertThatThrownBy(() -> evaluate(source, Main.Backends.BYTECODE, Main.ExecutionModes.COMPILE)).isInstanceOf(InvocationTargetException.class);
+    }
+
+    @Test
+    void constantConditionsPruneBranches() throws Exception {
+        var source = """
+                x = 1
+                if (1 > 2) x = 10 else x = 20
+                if (true and 2 == 2) {
+                   x = x + 1
+                }
+                RETURN x
+                """;
+
+        assertEvaluatesEverywhereTo(source, 21L);
+    }
+
+    @Test
+    void branchesThatDefineOperatorsAreKept() throws Exception {
+        var source = """
+                if (false) {
+                   f(long x) -> x * 2
+                }
+                RETURN f(4)
+                """;
+
+        assertThat(evaluate(source)).isEqualTo(8L);
+    }
+
+    @Test
+    void emptyCountingLoopsAreRemoved() throws Exception {
+        var source = """
+                write 0
+                for (i=0; i<100000000; i=i+1) {}
+                   write 1
+                """;
+
+        var java = transpile(source, false);
+
+        assertThat(java).doesNotContain("for (").doesNotContain("long i;");
+    }
+
+    @Test
+    void loopsWhoseResultsAreUsedAreKept() throws Exception {
+        var source = """
+                t = 0
+                for (i = 0; i < 10; i = i + 1)
+                   t = t + i
+                for (j = 0; j <= 5; j = j + 1) {}
+                RETURN t + j
+                """;
+
+        assertEvaluatesEverywhereTo(source, 51L);
+    }
+
+    @Test
+    void unusedVariablesAreRemovedUnlessTheirValuesMayFail() throws Exception {
+        var source = """
+                a = 1
+                b = 2
+                c = a + 1
+                f(long x) -> x + b
+                d = f(1)
+                RETURN b
+                """;
+
+        assertEvaluatesEverywhereTo(source, 2L);
+        assertThatThrownBy(() -> evaluate("zero = 0\nunused = 1 / zero\nRETURN 2")).isInstanceOf(InvocationTargetException.class);
+    }
+
+    @Test
+    void sessionRootVariablesAreKept() throws Exception {
+        var session = new Session();
+        session.execute("x = 2 * 3 unused = 1");
+        session.execute("getX() -> x");
+
+        assertThat(session.evaluate("RETURN getX() + 1")).isEqualTo(7L);
+        assertThat(session.getVariables()).containsKey("unused");
+    }
+
+    @Test
+    void optimisedProgramsGiveTheSameResultsEverywhere() throws Exception {
+        var source = """
+                scale = 2 * 3
+                g(long n) -> {
+                   r = 0
+                   if (n > 2 - 2)
+                      r = n * scale
+                   for (k = 0; k < 100; k = k + 1) {
+                      z = k * 2
+                   }
+                   return r + 4 / 4
+                }
+                RETURN g(7) + (1 + 1)
+                """;
+
+        assertEvaluatesEverywhereTo(source, 45L);
+    }
+
+    @Test
+    void optimisationLevelsChooseThePasses() throws Exception {
+        assertThat(new Optimiser(Set.of(), false, false, OptimisationLevel.O0).getPassManager().getNames())
+                .containsExactly("check");
+        assertThat(new Optimiser(Set.of(), false, false, OptimisationLevel.O1).getPassManager().getNames())
+                .containsExactly("check", "simplify", "tail calls", "simplify again");
+        assertThat(new Optimiser().getPassManager().getNames())
+                .containsExactly("check", "simplify", "tail calls", "loops", "common subexpressions", "simplify again");
+
+        var source = "unused = 1 + 2\nRETURN 3 * 4";
+        var program = new Optimiser(Set.of(), false, false, OptimisationLevel.O0).optimise(new Relang(new StringReader(source)).evaluate());
+        var root = Lowering.lower(BytecodeGenerator.generatedCodeMainMethodName, program);
+        assertThat(root.getVariables()).extracting(Slot::getName).containsExactly("unused");
+        assertThat(((Statement.Return)root.getBody().getStatements().get(1)).getValue()).isInstanceOf(Expression.Binary.class);
+
+        for (var level : OptimisationLevel.values()) {
+            var main = new Main();
+            main.setOptimisationLevel(level);
+            assertThat(main.evaluate(toInputStream(source))).isEqualTo(12L);
+            assertThatThrownBy(() -> main.evaluate(toInputStream("t = 0\nPARALLEL FOR (i = 0; i < 3; i = i + 1) t = t + i\nRETURN t")))
+                    .isInstanceOf(ExceptionSemantic.class)
+                    .hasMessageContaining("can't assign t");
+        }
+    }
+
+    @Test
+    void passesMayBeAddedAndAreTimed() throws Exception {
+        var optimiser = new Optimiser();
+        var passes = optimiser.getPassManager();
+        var seen = new ArrayList<String>();
+        passes.addBefore("simplify", "before simplify", program -> {
+            seen.add(program.getClass().getSimpleName());
+            return program;
+        });
+        passes.remove("tail calls");
+
+        optimiser.optimise(new Relang(new StringReader("RETURN 1")).evaluate());
+
+        assertThat(seen).isEqualTo(List.of("ASTEvaluate"));
+        assertThat(passes.getTimings().keySet()).containsExactly("check", "before simplify", "simplify", "loops", "common subexpressions", "simplify again");
+        assertThat(passes.getTimingReport()).startsWith("check ").contains(", before simplify ").endsWith(" ms");
+        assertThatThrownBy(() -> passes.add("simplify", program -> program)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> passes.addBefore("no such pass", "other", program -> program)).isInstanceOf(IllegalArgumentException.class);
+    }
+}
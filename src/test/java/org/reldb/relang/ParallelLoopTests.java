@@ -0,0 +1,217 @@
+package org.reldb.relang;
+
+import org.junit.jupiter.api.Test;
+import org.reldb.relang.exceptions.ExceptionSemantic;
+import org.reldb.relang.java.GeneratedProgram;
+import org.reldb.relang.java.JavaCompiler;
+import org.reldb.relang.optimiser.Optimiser;
+import org.reldb.relang.parser.ast.Relang;
+import org.reldb.relang.transpiler.ParallelisationPolicy;
+import org.reldb.relang.transpiler.SourceGenerator;
+
+import java.io.StringReader;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.reldb.relang.helper.ToInputStream.toInputStream;
+
+class ParallelLoopTests {
+    private static final String stats = """
+            square(long x) -> x * x
+            stats(long n, long k) -> {
+               s = 0
+               p = 1
+               c = 0
+               lo = 1000000
+               hi = 0 - 1
+               PARALLEL FOR (i = 1; i <= n; i = i + 1) REDUCE sum s, product p, count c, min lo, max hi {
+                  v = square(i) - square(i) / k * k
+                  s = s + v
+                  if (v == 3)
+                     c = c + 1
+                  if (v < lo)
+                     lo = v
+                  if (v > hi)
+                     hi = v
+                  if (i < 10)
+                     p = p * i
+               }
+               return s * 1000000 + p * 1000 + c * 100 + hi + lo + i
+            }
+            """;
+
+    private static String transpile(String source, ParallelisationPolicy policy) throws Exception {
+        var program = new Optimiser(Set.of(), false, policy.isParallel()).optimise(new Relang(new StringReader(source)).evaluate());
+        return CompilationSettings.defaults.withParallelisationPolicy(policy).transpile("ParallelLoopTest", program, null);
+    }
+
+    private static Object run(String source, ParallelisationPolicy policy) throws Exception {
+        var java = transpile(source, policy);
+        return new GeneratedProgram(new JavaCompiler(false).compile("ParallelLoopTest", java), "ParallelLoopTest", SourceGenerator.generatedCodeMainMethodName).run();
+    }
+
+    private static Object interpret(String source) throws Exception {
+        var main = new Main();
+        main.setExecutionMode(Main.ExecutionModes.INTERPRET);
+        return main.evaluate(toInputStream(source));
+    }
+
+    @Test
+    void reductionsAreCombinedFromPartsOfTheLoop() throws Exception {
+        var source = stats + "RETURN stats(100000, 97)";
+        var expected = interpret(source);
+
+        assertThat(transpile(source, new ParallelisationPolicy())).contains("extends org.reldb.relang.runtime.Parallel.Loop").contains("lo = Math.min(lo, __loop.lo);");
+        assertThat(run(source, new ParallelisationPolicy())).isEqualTo(expected);
+        assertThat(run(source, new ParallelisationPolicy(0))).isEqualTo(expected);
+        assertThat(run(source, ParallelisationPolicy.none)).isEqualTo(expected);
+    }
+
+    @Test
+    void loopsMayCountDownInSteps() throws Exception {
+        var source = """
+                f(long n, double scale) -> {
+                   t = 0.0
+                   PARALLEL FOR (i = n; i > 0 - n; i = i - 3) REDUCE sum t {
+                      x = i * scale
+                      t = t + x * x
+                   }
+                   return t + i
+                }
+                g() -> {
+                   c = 0
+                   PARALLEL FOR (j = 0; j < 1000; j = j + 7) REDUCE count c
+                      c = c + 1
+                   return c * 10000 + j
+                }
+                RETURN f(1000, 0.5) + g() + f(0, 1.0)
+                """;
+
+        var java = transpile(source, new ParallelisationPolicy());
+
+        assertThat(java).contains("int j = (int)(__start + __k * 7L);");
+        assertThat(run(source, new ParallelisationPolicy())).isEqualTo(interpret(source));
+    }
+
+    @Test
+    void parallelLoopsAreOptIn() throws Exception {
+        var main = new Main();
+        main.setParallelisationPolicy(new ParallelisationPolicy());
+
+        assertThat(main.evaluate(toInputStream(stats + "RETURN stats(1000, 7)"))).isEqualTo(interpret(stats + "RETURN stats(1000, 7)"));
+        assertThat(transpile(stats + "RETURN stats(10, 7)", ParallelisationPolicy.none)).doesNotContain("runtime.Parallel");
+    }
+
+    @Test
+    void loopsWithEffectsOrImpureInvocationsAreSequential() throws Exception {
+        var source = """
+                noisy(long x) -> {
+                   write x
+                   return x
+                }
+                f(long n) -> {
+                   t = 0
+                   PARALLEL FOR (i = 0; i < n; i = i + 1) REDUCE sum t
+                      t = t + noisy(i)
+                   PARALLEL FOR (i = 0; i < n; i = i + 1) REDUCE sum t {
+                      write i
+                      t = t + i
+                   }
+                   return t
+                }
+                RETURN f(3)
+                """;
+
+        assertThat(transpile(source, new ParallelisationPolicy())).doesNotContain("runtime.Parallel");
+        assertThat(run(source, new ParallelisationPolicy())).isEqualTo(6L);
+    }
+
+    @Test
+    void guardedMinimaAndMaximaMayBeUpdatedInBlocks() throws Exception {
+        var source = """
+                f(long n) -> {
+                   lo = 1000000
+                   hi = 0
+                   PARALLEL FOR (i = 0; i < n; i = i + 1) REDUCE min lo, max hi {
+                      v = i * 7919 - i * 7919 / 1009 * 1009
+                      if (lo >= v) {
+                         w = v
+                         lo = v
+                      } else if (v >= hi)
+                         hi = v
+                   }
+                   return lo * 10000 + hi
+                }
+                RETURN f(100000)
+                """;
+
+        assertThat(transpile(source, new ParallelisationPolicy())).contains("extends org.reldb.relang.runtime.Parallel.Loop");
+        assertThat(run(source, new ParallelisationPolicy(0))).isEqualTo(interpret(source));
+    }
+
+    @Test
+    void intReductionsAreParallel() throws Exception {
+        var source = """
+                f() -> {
+                   m = 1000
+                   c = 0
+                   PARALLEL FOR (i = 0; i < 100000; i = i + 1) REDUCE min m, count c {
+                      if (i + 5 < m)
+                         m = i + 5
+                      c = c + 1
+                   }
+                   return m + c
+                }
+                RETURN f()
+                """;
+
+        assertThat(transpile(source, new ParallelisationPolicy())).contains("int m = Integer.MAX_VALUE;");
+        assertThat(run(source, new ParallelisationPolicy(0))).isEqualTo(interpret(source));
+    }
+
+    @Test
+    void parallelAndReduceMayBeNames() throws Exception {
+        var source = """
+                reduce(long x) -> x / 2
+                parallel = 1
+                reduce = reduce(4)
+                t = 0
+                PARALLEL FOR (i = 0; i < 10; i = i + 1) REDUCE sum t
+                   t = t + reduce(i)
+                RETURN parallel + reduce + t
+                """;
+
+        assertThat(interpret(source)).isEqualTo(1L + 2 + 20);
+        assertThat(run(source, new ParallelisationPolicy())).isEqualTo(1L + 2 + 20);
+    }
+
+    private static void assertRejected(String loop, String message) {
+        var source = "f(long n) -> {\n t = 0\n m = 0\n" + loop + "\n return t + m\n}\nRETURN f(10)";
+        assertThatThrownBy(() -> transpile(source, new ParallelisationPolicy()))
+                .isInstanceOf(ExceptionSemantic.class)
+                .hasMessageContaining(message);
+        assertThatThrownBy(() -> interpret(source))
+                .isInstanceOf(ExceptionSemantic.class)
+                .hasMessageContaining(message);
+    }
+
+    @Test
+    void loopsThatShareVariablesAreRejected() {
+        assertRejected("PARALLEL FOR (i = 0; i < n; i = i + 1) t = t + i", "can't assign t");
+        assertRejected("PARALLEL FOR (i = 0; i < n; i = i + 1) REDUCE sum t t = t * i", "The sum t may only be used");
+        assertRejected("PARALLEL FOR (i = 0; i < n; i = i + 1) REDUCE sum t { t = t + i\n m = t }", "The sum t may only be used");
+        assertRejected("PARALLEL FOR (i = 0; i < n; i = i + 1) REDUCE max m m = m + i", "The max m may only be compared");
+        assertRejected("PARALLEL FOR (i = 0; i < n; i = i + 1) REDUCE min m m = i + 10", "The min m may only be compared");
+        assertRejected("PARALLEL FOR (i = 0; i < n; i = i + 1) REDUCE min m if (i > m) m = i", "The min m may only be compared");
+        assertRejected("PARALLEL FOR (i = 0; i < n; i = i + 1) REDUCE max m if (i > m) m = i + 1", "The max m may only be compared");
+        assertRejected("PARALLEL FOR (i = 0; i < n; i = i + 1) REDUCE max m if (i > m) { t = t + 1\n m = i }", "can't assign t");
+        assertRejected("PARALLEL FOR (i = 0; i < n; i = i + 1) REDUCE max m { k = i\n if (k > m) { k = 0\n m = k } }", "The max m may only be compared");
+        assertRejected("PARALLEL FOR (i = 0; i < n; i = i + 1) REDUCE count t t = t + 2", "The count t may only be used");
+        assertRejected("PARALLEL FOR (i = 0; i < n; i = i + 1) REDUCE total t t = t + i", "must be one of");
+        assertRejected("PARALLEL FOR (i = 0; i < n; i = i * 2) REDUCE sum t t = t + i", "must step i");
+        assertRejected("PARALLEL FOR (i = 0; i > n; i = i + 1) REDUCE sum t t = t + i", "must continue while");
+        assertRejected("PARALLEL FOR (i = 0; i < n; i = i + 1) REDUCE sum t { t = t + i\n i = i + 1 }", "mustn't assign its variable");
+        assertRejected("PARALLEL FOR (i = 0; i < n + q; i = i + 1) REDUCE sum t { q = i\n t = t + q }", "The bound");
+    }
+}
@@ -0,0 +1,114 @@
+package org.reldb.relang;
+
+import org.junit.jupiter.api.Test;
+import org.reldb.relang.java.GeneratedProgram;
+import org.reldb.relang.java.JavaCompiler;
+import org.reldb.relang.optimiser.Optimiser;
+import org.reldb.relang.parser.ast.Relang;
+import org.reldb.relang.transpiler.ParallelisationPolicy;
+import org.reldb.relang.transpiler.SourceGenerator;
+
+import java.io.StringReader;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.reldb.relang.helper.ToInputStream.toInputStream;
+
+class ParallelisationTests {
+    private static final String fib = """
+            fib(long n) -> {
+               if (n < 2)
+                  r = n
+               else
+                  r = fib(n - 1) + fib(n - 2)
+               return r
+            }
+            """;
+
+    private static final String work = """
+            work(long n) -> {
+               t = 0
+               for (i = 0; i < n; i = i + 1)
+                  t = t + i
+               return t
+            }
+            """;
+
+    private static String transpile(String source, ParallelisationPolicy policy) throws Exception {
+        var program = new Optimiser(Set.of(), false, policy.isParallel()).optimise(new Relang(new StringReader(source)).evaluate());
+        return CompilationSettings.defaults.withParallelisationPolicy(policy).transpile("ParallelisationTest", program, null);
+    }
+
+    private static Object run(String source, ParallelisationPolicy policy) throws Exception {
+        var java = transpile(source, policy);
+        return new GeneratedProgram(new JavaCompiler(false).compile("ParallelisationTest", java), "ParallelisationTest", SourceGenerator.generatedCodeMainMethodName).run();
+    }
+
+    @Test
+    void independentInvocationsOfPureOperatorsAreForked() throws Exception {
+        var java = transpile(fib + "RETURN fib(25)", new ParallelisationPolicy());
+
+        assertThat(java).contains("r = __fork0((n) - (1), (n) - (2));").contains("Parallel.forkLong(() -> fib(__a0))");
+        assertThat(run(fib + "RETURN fib(25)", new ParallelisationPolicy())).isEqualTo(75025L);
+        assertThat(run(fib + "RETURN fib(25)", new ParallelisationPolicy(0))).isEqualTo(75025L);
+    }
+
+    @Test
+    void parallelEvaluationIsOptIn() throws Exception {
+        var main = new Main();
+        main.setParallelisationPolicy(new ParallelisationPolicy());
+
+        assertThat(main.evaluate(toInputStream(fib + "RETURN fib(30)"))).isEqualTo(832040L);
+        assertThat(transpile(fib + "RETURN fib(5)", ParallelisationPolicy.none)).doesNotContain("runtime.Parallel");
+    }
+
+    @Test
+    void argumentsAreEvaluatedInParallel() throws Exception {
+        var source = work + """
+                larger(long a, long b, long c) -> {
+                   if (a > b)
+                      r = a + c
+                   else
+                      r = b + c
+                   return r
+                }
+                big(long n) -> work(n) > 100
+                both(boolean a, boolean b) -> a and b
+                RETURN both(big(20), big(30)) and larger(work(10), work(20), 3) == 193
+                """;
+
+        var java = transpile(source, new ParallelisationPolicy());
+
+        assertThat(java).contains("return larger(__result0, __result1, __a2);").contains("Parallel.forkBoolean(() -> big(__a0))");
+        assertThat(run(source, new ParallelisationPolicy())).isEqualTo(true);
+    }
+
+    @Test
+    void invocationsThatMayHaveEffectsOrAreCheapAreEvaluatedInline() throws Exception {
+        var source = work + """
+                noisy(long x) -> {
+                   t = work(x)
+                   write t
+                   return t
+                }
+                square(long x) -> x * x
+                report(long a, long b) -> {
+                   write a
+                   return b
+                }
+                RETURN noisy(1) + noisy(2) + square(3) * square(4) + work(square(2)) + work(3) + report(work(1), work(2))
+                """;
+
+        var java = transpile(source, new ParallelisationPolicy());
+
+        assertThat(java).doesNotContain("runtime.Parallel");
+        assertThat(run(source, new ParallelisationPolicy())).isEqualTo(0L + 1 + 144 + 6 + 3 + 1);
+    }
+
+    @Test
+    void cutoffsMustNotBeNegative() {
+        assertThatThrownBy(() -> new ParallelisationPolicy(-1)).isInstanceOf(IllegalArgumentException.class);
+        assertThat(new ParallelisationPolicy(2).toString()).isNotEqualTo(new ParallelisationPolicy(3).toString()).isNotEqualTo(ParallelisationPolicy.none.toString());
+    }
+}
@@ -0,0 +1,75 @@
+package org.reldb.relang;
+
+import org.junit.jupiter.api.Test;
+import org.reldb.relang.exceptions.ExceptionSemantic;
+
+import java.lang.reflect.InvocationTargetException;
+
+import static org.assertj.core.api.AssertionsForClassTypes.assertThat;
+import static org.assertj.core.api.AssertionsForClassTypes.assertThatThrownBy;
+
+class SessionTests {
+
+    @Test
+    void variablesPersistAcrossSubmissions() throws Exception {
+        var session = new Session();
+
+        session.execute("x = 3");
+        session.execute("y = 0.5 + x");
+
+        assertThat(session.evaluate("RETURN y * x")).isEqualTo(10.5);
+        assertThat(session.getVariables().get("x")).isEqualTo(3L);
+        assertThat(session.getSubmissionCount()).isEqualTo(3);
+    }
+
+    @Test
+    void operatorsPersistAndSeeCurrentVariables() throws Exception {
+        var session = new Session();
+
+        session.execute("z = 2");
+        session.execute("f(long a) -> a + z");
+        session.execute("z = 10");
+
+        assertThat(session.evaluate("RETURN f(1)")).isEqualTo(11L);
+    }
+
+    @Test
+    void operatorsInvokeOperatorsOfEarlierSubmissions() throws Exception {
+        var session = new Session();
+
+        session.execute("g(long a) -> a * 2");
+        session.execute("""
+                h(long a) -> {
+                   inner(long b) -> g(b) + 1
+                   return inner(a)
+                }
+                """);
+
+        assertThat(session.evaluate("RETURN h(5) + g(1)")).isEqualTo(13L);
+    }
+
+    @Test
+    void operatorsMayBeRedefined() throws Exception {
+        var session = new Session();
+
+        session.execute("f(long a) -> a + 1");
+        session.execute("f(long a) -> a + 2");
+
+        assertThat(session.evaluate("RETURN f(1)")).isEqualTo(3L);
+    }
+
+    @Test
+    void failedSubmissionLeavesSessionUnchanged() throws Exception {
+        var session = new Session();
+        session.execute("y = 1");
+
+        assertThatThrownBy(() -> session.execute("y = 5 f(long a) -> a write 1 / 0"))
+                .isInstanceOf(InvocationTargetException.class);
+        assertThatThrownBy(() -> session.execute("y = 2.5"))
+                .isInstanceOf(ExceptionSemantic.class);
+
+        assertThat(session.evaluate("RETURN y")).isEqualTo(1L);
+        assertThatThrownBy(() -> session.evaluate("RETURN f(1)"))
+                .hasMessageContaining("Can't find operator f");
+    }
+}
@@ -0,0 +1,129 @@
+package org.reldb.relang;
+
+import org.junit.jupiter.api.Test;
+import org.reldb.relang.helper.LanguageTests;
+import org.reldb.relang.optimiser.Optimiser;
+import org.reldb.relang.parser.ast.Relang;
+
+import java.io.StringReader;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TailCallOptimiserTests extends LanguageTests {
+    private static String transpile(String source) throws Exception {
+        var program = new Optimiser().optimise(new Relang(new StringReader(source)).evaluate());
+        return CompilationSettings.defaults.transpile("TailCallOptimiserTest", program, null);
+    }
+
+    @Test
+    void accumulatingRecursionRunsInConstantStack() throws Exception {
+        var source = """
+                sum(long n) -> {
+                   if (n > 0)
+                      p = n + sum(n - 1)
+                   else
+                      p = 0
+                   return p
+                }
+                RETURN sum(1000000)
+                """;
+
+        var java = transpile(source);
+
+        assertThat(java).doesNotContain("sum((n) - (1))").contains("__accumulator");
+        assertEvaluatesEverywhereTo(source, 500000500000L);
+    }
+
+    @Test
+    void argumentsThatReadReassignedParametersGoViaTemporaries() throws Exception {
+        var source = """
+                fib(long n, long a, long b) -> {
+                   if (n == 0)
+                      r = a
+                   else
+                      r = fib(n - 1, b, a + b)
+                   return r
+                }
+                swap(long n, long a, long b) -> {
+                   if (n == 0)
+                      r = a
+                   else
+                      r = swap(n - 1, b, a)
+                   return r
+                }
+                RETURN fib(90, 0, 1) + swap(1000001, 1, 2) * 10
+                """;
+
+        assertEvaluatesEverywhereTo(source, 2880067194370816120L + 20);
+    }
+
+    @Test
+    void doubleResultsAreNotAccumulated() throws Exception {
+        var source = """
+                halve(long n, double x) -> {
+                   if (n == 0)
+                      r = x
+                   else if (n > 100)
+                      r = 1.0 + halve(n - 1, x)
+                   else
+                      r = halve(n - 1, x / 2)
+                   return r
+                }
+                RETURN halve(10, 1024.0) + halve(103, 1.0)
+                """;
+
+        assertEvaluatesEverywhereTo(source, 1.0 + 3.0 + Math.pow(2, -100));
+    }
+
+    @Test
+    void theLastOfTwoRecursiveInvocationsIsATailCall() throws Exception {
+        var source = """
+                fib(long n) -> {
+                   if (n < 2)
+                      r = n
+                   else
+                      r = fib(n - 1) + fib(n - 2)
+                   return r
+                }
+                RETURN fib(20)
+                """;
+
+        assertEvaluatesEverywhereTo(source, 6765L);
+    }
+
+    @Test
+    void accumulatedExpressionsThatMayHaveEffectsArentMovedBeforeTheCall() throws Exception {
+        var source = """
+                g(long x) -> {
+                   write x
+                   return x
+                }
+                f(long n) -> {
+                   if (n == 0)
+                      r = 0
+                   else
+                      r = f(n - 1) + g(n)
+                   return r
+                }
+                RETURN f(3)
+                """;
+
+        assertEvaluatesEverywhereTo(source, 6L);
+    }
+
+    @Test
+    void operatorsThatReturnNothingMakeTailCalls() throws Exception {
+        var source = """
+                total = 0
+                count(long n) -> {
+                   total = total + n
+                   if (n > 0)
+                      count(n - 1)
+                }
+                count(100000)
+                RETURN total
+                """;
+
+        assertEvaluatesEverywhereTo(source, 5000050000L);
+    }
+}
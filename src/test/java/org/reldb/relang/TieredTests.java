@@ -0,0 +1,203 @@
+package org.reldb.relang;
+
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.reldb.relang.helper.LanguageTests;
+import org.reldb.relang.interpreter.TieredExecutor;
+import org.reldb.relang.optimiser.OptimisationLevel;
+import org.reldb.relang.parser.ast.ASTFnDefPure;
+import org.reldb.relang.parser.ast.ASTForLoop;
+import org.reldb.relang.parser.ast.Relang;
+import org.reldb.relang.parser.ast.SimpleNode;
+import org.reldb.relang.runtime.MemoCache;
+import org.reldb.relang.transpiler.InliningPolicy;
+import org.reldb.relang.transpiler.MemoisationPolicy;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.util.Set;
+
+import static org.assertj.core.api.AssertionsForClassTypes.assertThat;
+import static org.assertj.core.api.AssertionsForClassTypes.assertThatThrownBy;
+
+/** Run the language tests in tiered mode, and check hot programs switch to compiled code without changing their results. */
+class TieredTests extends LanguageTests {
+    TieredTests() {
+        executionMode = Main.ExecutionModes.TIERED;
+    }
+
+    @Nested
+    class Core extends CoreTests {
+        Core() {
+            executionMode = Main.ExecutionModes.TIERED;
+        }
+    }
+
+    @Nested
+    class Fn extends FnTests {
+        Fn() {
+            executionMode = Main.ExecutionModes.TIERED;
+        }
+    }
+
+    private static final String hotProgram = """
+            sq(long x) -> x * x
+            n = 2000
+            t = 0
+            for (i = 0; i < n; i = i + 1) {
+                t = t + sq(i) / 7
+                if (i / 500 * 500 == i)
+                    write i
+            }
+            write t
+            """;
+
+    private static SimpleNode parse(String source, boolean evaluate) throws Exception {
+        var relang = new Relang(new StringReader(source));
+        return evaluate ? relang.evaluate() : relang.execute();
+    }
+
+    // Run source with a TieredExecutor, and return its output followed by its value.
+    private static String runTiered(TieredExecutor executor, String source, boolean evaluate) throws Exception {
+        var out = System.out;
+        var output = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(output, true));
+        try {
+            var value = executor.run(parse(source, evaluate));
+            return output + "=" + value;
+        } finally {
+            System.setOut(out);
+        }
+    }
+
+    private String runCompiled(String source, boolean evaluate) throws Exception {
+        var out = System.out;
+        var output = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(output, true));
+        executionMode = Main.ExecutionModes.COMPILE;
+        try {
+            var value = evaluate ? evaluate(source) : null;
+            if (!evaluate)
+                execute(source);
+            return output + "=" + value;
+        } finally {
+            System.setOut(out);
+            executionMode = Main.ExecutionModes.TIERED;
+        }
+    }
+
+    @Test
+    void hotProgramSwitchesToCompiledCode() throws Exception {
+        var executor = new TieredExecutor("TieredTest", 100, false);
+
+        var result = runTiered(executor, hotProgram, false);
+
+        assertThat(executor.hasResumedCompiled()).isTrue();
+        assertThat(result).isEqualTo(runCompiled(hotProgram, false));
+    }
+
+    @Test
+    void hotProgramReturnsValueAfterSwitching() throws Exception {
+        var source = """
+                total = 0.0
+                limit = 300
+                for (i = 1; i <= limit; i = i + 1)
+                    total = total + 1.0 / i
+                RETURN total > 6.0 and total < 7.0
+                """;
+        var executor = new TieredExecutor("TieredTest", 50, false);
+
+        var result = runTiered(executor, source, true);
+
+        assertThat(executor.hasResumedCompiled()).isTrue();
+        assertThat(result).isEqualTo("=true");
+    }
+
+    @Test
+    void coldProgramIsOnlyInterpreted() throws Exception {
+        var executor = new TieredExecutor("TieredTest");
+
+        var result = runTiered(executor, hotProgram, false);
+
+        assertThat(executor.hasResumedCompiled()).isFalse();
+        assertThat(result).isEqualTo(runCompiled(hotProgram, false));
+    }
+
+    @Test
+    void profileCountsCallsAndTrips() throws Exception {
+        var program = parse(hotProgram, false);
+        var executor = new TieredExecutor("TieredTest");
+        var out = System.out;
+        System.setOut(new PrintStream(new ByteArrayOutputStream()));
+        try {
+            executor.run(program);
+        } finally {
+            System.setOut(out);
+        }
+
+        var profile = executor.getProfile();
+        var sq = program.jjtGetChild(0).jjtGetChild(0);
+        var loop = (ASTForLoop)program.jjtGetChild(3).jjtGetChild(0);
+        assertThat(sq).isInstanceOf(ASTFnDefPure.class);
+        assertThat(profile.getCallCount(sq)).isEqualTo(2000);
+        assertThat(profile.getTripCount(loop)).isEqualTo(2000);
+    }
+
+    @Test
+    void hotPureOperatorIsInlined() throws Exception {
+        // With a second call site, sq is only inlined where it's hot.
+        var program = parse(hotProgram + "write sq(3)\n", false);
+        var policy = new InliningPolicy(0, 32, 4);
+        var executor = new TieredExecutor("TieredTest");
+        var out = System.out;
+        System.setOut(new PrintStream(new ByteArrayOutputStream()));
+        try {
+            executor.run(program);
+        } finally {
+            System.setOut(out);
+        }
+
+        var unprofiled = CompilationSettings.defaults.withInliningPolicy(policy).transpile("TieredTest", program, null);
+        var profiled = CompilationSettings.defaults.withInliningPolicy(policy).transpile("TieredTest", program, executor.getProfile());
+
+        assertThat(unprofiled).contains("(sq(i))");
+        assertThat(profiled).doesNotContain("(sq(i))");
+    }
+
+    // Run a hot program with the given settings, verbosely, and return its output.
+    private static String runVerbose(String source, CompilationSettings settings) throws Exception {
+        var executor = new TieredExecutor("TieredTest", 100, true, settings);
+        var output = runTiered(executor, source, false);
+        assertThat(executor.hasResumedCompiled()).isTrue();
+        return output;
+    }
+
+    @Test
+    void compilationFollowsTheSettings() throws Exception {
+        var defaults = runVerbose(hotProgram, CompilationSettings.defaults);
+        var memoised = runVerbose(hotProgram, CompilationSettings.defaults.withMemoisationPolicy(new MemoisationPolicy(Set.of("sq"), MemoCache.defaultCapacity, MemoCache.Eviction.TWO_WAY_LRU)));
+        var unoptimised = runVerbose(hotProgram + "write sq(3)\n", CompilationSettings.defaults.withOptimisationLevel(OptimisationLevel.O0));
+
+        assertThat(defaults).doesNotContain("MemoCache").doesNotContain("(sq(i))");
+        assertThat(memoised).contains("MemoCache");
+        assertThat(unoptimised).contains("(sq(i))");
+        assertThatThrownBy(() -> new TieredExecutor("TieredTest", 100, false, CompilationSettings.defaults.withBackend(Main.Backends.BYTECODE)))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void bytecodeProgramsRunWithoutSwitching() throws Exception {
+        backend = Main.Backends.BYTECODE;
+        var out = System.out;
+        var output = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(output, true));
+        try {
+            execute(hotProgram);
+        } finally {
+            System.setOut(out);
+            backend = Main.Backends.SOURCE;
+        }
+        assertThat(output.toString()).isEqualTo(runCompiled(hotProgram, false).replace("=null", ""));
+    }
+}
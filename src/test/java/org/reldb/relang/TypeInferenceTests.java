@@ -0,0 +1,140 @@
+package org.reldb.relang;
+
+import org.junit.jupiter.api.Test;
+import org.reldb.relang.exceptions.ExceptionSemantic;
+import org.reldb.relang.helper.LanguageTests;
+import org.reldb.relang.parser.ast.Relang;
+
+import java.io.StringReader;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class TypeInferenceTests extends LanguageTests {
+    private static String transpile(String source) throws Exception {
+        return CompilationSettings.defaults.transpile("TypeInferenceTest", new Relang(new StringReader(source)).evaluate(), null);
+    }
+
+    @Test
+    void mixedArithmeticIsPromotedToDouble() throws Exception {
+        var source = """
+                f(long n) -> {
+                   x = n + 0.5
+                   return x * 2
+                }
+                RETURN 1 + f(3)
+                """;
+
+        assertEvaluatesEverywhereTo(source, 8.0);
+    }
+
+    @Test
+    void variablesAssignedLongsAndDoublesHoldDoublesInEveryTier() throws Exception {
+        var source = """
+                a = 5
+                a = a + 1.5
+                RETURN a
+                """;
+        var loop = """
+                t = 0
+                for (i = 0; i < 3; i = i + 1)
+                   t = t + i
+                i = i / 2.0
+                RETURN t + i
+                """;
+
+        assertEvaluatesEverywhereTo(source, 6.5);
+        assertThat(evaluate(source, Main.Backends.SOURCE, Main.ExecutionModes.TIERED)).isEqualTo(6.5);
+        assertEvaluatesEverywhereTo(loop, 4.5);
+        assertThat(evaluate(loop, Main.Backends.SOURCE, Main.ExecutionModes.TIERED)).isEqualTo(4.5);
+    }
+
+    @Test
+    void variablesFirstAssignedARecursiveInvocationAreTyped() throws Exception {
+        var source = """
+                count(long n) -> {
+                   if (n > 0)
+                      r = count(n - 1) + 1
+                   else
+                      r = 0
+                   return r
+                }
+                RETURN count(5)
+                """;
+
+        assertEvaluatesEverywhereTo(source, 5L);
+    }
+
+    @Test
+    void loopVariablesWithLiteralBoundsAreNarrowedToInt() throws Exception {
+        var source = """
+                t = 0
+                for (i = 0; i <= 100000; i = i + 1)
+                   t = i * i
+                RETURN t
+                """;
+
+        assertThat(transpile(source)).contains("int i;");
+        assertEvaluatesEverywhereTo(source, 10000000000L);
+    }
+
+    @Test
+    void loopVariablesThatMayNotFitAreNotNarrowed() throws Exception {
+        assertEvaluatesEverywhereTo("""
+                f(long n) -> {
+                   t = 0
+                   for (i = n - 3; i < n; i = i + 1)
+                      t = t + i
+                   return t
+                }
+                RETURN f(2147483650)
+                """, 2147483647L + 2147483648L + 2147483649L);
+        assertEvaluatesEverywhereTo("""
+                t = 0
+                for (i = 2147483645; i <= 2147483647; i = i + 1)
+                   t = t + 1
+                RETURN t + i
+                """, 3L + 2147483648L);
+        assertEvaluatesEverywhereTo("""
+                t = 0
+                for (i = 2147483646; i < 2147483649; i = i + 1)
+                   t = t + i
+                RETURN t
+                """, 2147483646L + 2147483647L + 2147483648L);
+    }
+
+    @Test
+    void arithmeticOnNarrowedVariablesDoesNotOverflow() throws Exception {
+        assertEvaluatesEverywhereTo("""
+                t = 0
+                for (i = 46340; i <= 46341; i = i + 1)
+                   t = i * i
+                RETURN t
+                """, 46341L * 46341L);
+        assertEvaluatesEverywhereTo("""
+                t = 0
+                for (i = 2147483640; i < 2147483647; i = i + 1)
+                   t = i + 10
+                RETURN t
+                """, 2147483646L + 10);
+        assertEvaluatesEverywhereTo("""
+                a = 2147483647
+                RETURN a + 1
+                """, 2147483648L);
+    }
+
+    @Test
+    void doublesCannotBeAssignedToLongs() {
+        var source = """
+                f(long n) -> {
+                   n = n / 2.0
+                   return n
+                }
+                RETURN f(3)
+                """;
+
+        assertThatThrownBy(() -> transpile(source))
+                .isInstanceOf(ExceptionSemantic.class)
+                .hasMessageContaining("Expected a value of type long but got double");
+    }
+}
@@ -0,0 +1,99 @@
+package org.reldb.relang.benchmarks;
+
+import org.reldb.relang.CompilationSettings;
+import org.reldb.relang.java.GeneratedProgram;
+import org.reldb.relang.java.JavaCompiler;
+import org.reldb.relang.parser.ast.Relang;
+import org.reldb.relang.transpiler.SourceGenerator;
+
+import java.io.StringReader;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Measure the heap allocated by runs of compiled programs that invoke operators heavily, after warm-up,
+ * so allocations the JIT eliminates aren't counted.
+ * <p>
+ * Run with: java -cp target/classes:target/test-classes:target/lib/* org.reldb.relang.benchmarks.AllocationBenchmark [runs]
+ */
+public class AllocationBenchmark {
+
+    private static final String fib = """
+            fib(long n) -> {
+               if (n == 0 or n == 1) {
+                  r = n
+               } else {
+                  r = fib(n - 1) + fib(n - 2)
+               }
+               return r
+            }
+            total = 0
+            for (i = 0; i < 20; i = i + 1)
+               total = total + fib(i)
+            RETURN total
+            """;
+
+    private static final String sum = """
+            sum(long n) -> {
+               if (n > 0)
+                  p = n + sum(n - 1)
+               else
+                  p = 0
+               return p
+            }
+            total = 0
+            for (i = 0; i < 1000; i = i + 1)
+               total = total + sum(50)
+            RETURN total
+            """;
+
+    private static final String nested = """
+            p = 3
+            blah(long start, long fin) -> {
+               zot(long x, long y) -> {
+                  zaz(long r) -> p + x * r
+                  return x * y + zaz(y)
+               }
+               total = 0
+               for (i = start; i <= fin; i = i + 1)
+                  total = total + zot(i, p)
+               return total
+            }
+            total = 0
+            for (j = 0; j < 1000; j = j + 1)
+               total = total + blah(j, j + 50)
+            RETURN total
+            """;
+
+    private static GeneratedProgram compile(String name, String source) throws Exception {
+        var className = "Allocation_" + name;
+        var program = new Relang(new StringReader(source)).evaluate();
+        var java = CompilationSettings.defaults.transpile(className, program, null);
+        return new GeneratedProgram(new JavaCompiler(false).compile(className, java), className, SourceGenerator.generatedCodeMainMethodName);
+    }
+
+    private static void measure(String name, String source, int runs) throws Exception {
+        var program = compile(name, source);
+        var threads = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+        var threadId = Thread.currentThread().getId();
+        for (var i = 0; i < runs; i++)
+            program.run();
+        var startBytes = threads.getThreadAllocatedBytes(threadId);
+        var start = System.nanoTime();
+        for (var i = 0; i < runs; i++)
+            program.run();
+        var nanoseconds = System.nanoTime() - start;
+        var bytes = threads.getThreadAllocatedBytes(threadId) - startBytes;
+        System.out.printf("%-8s %12.0f bytes/run   %8.1f MB/s   %8.3f ms/run%n",
+                name,
+                (double)bytes / runs,
+                bytes / 1e6 / (nanoseconds / 1e9),
+                nanoseconds / 1e6 / runs);
+    }
+
+    public static void main(String[] args) throws Exception {
+        var runs = (args.length > 0) ? Integer.parseInt(args[0]) : 200;
+        measure("fib", fib, runs);
+        measure("sum", sum, runs);
+        measure("nested", nested, runs);
+    }
+}
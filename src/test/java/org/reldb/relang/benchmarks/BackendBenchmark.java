@@ -0,0 +1,74 @@
+package org.reldb.relang.benchmarks;
+
+import org.reldb.relang.Main;
+
+import java.util.Arrays;
+
+import static org.reldb.relang.helper.ToInputStream.toInputStream;
+
+/**
+ * Compare end-to-end latency (parse, generate, compile, load and run) of the Java source and
+ * bytecode backends. Each submission is distinct, so no cache is hit.
+ * <p>
+ * Run with: java -cp target/classes:target/test-classes:target/lib/* org.reldb.relang.benchmarks.BackendBenchmark [submissions]
+ */
+public class BackendBenchmark {
+
+    private static final String script = """
+            p = %d
+
+            blah(long start, long fin) -> {
+               zot(long x, long y) -> {
+                  zaz(long r) -> p + x * r
+                  return x * y + zaz(y)
+               }
+               total = 0
+               for (i = start; i <= fin; i = i + 1)
+                  total = total + zot(i, p)
+               return total
+            }
+
+            fib(long n) -> {
+               if (n == 0 or n == 1)
+                  r = n
+               else
+                  r = fib(n - 1) + fib(n - 2)
+               return r
+            }
+
+            RETURN blah(5, 10) + fib(15)
+            """;
+
+    private static long[] run(Main.Backends backend, int submissions, int offset) throws Exception {
+        var main = new Main();
+        main.setBackend(backend);
+        var times = new long[submissions];
+        for (var i = 0; i < submissions; i++) {
+            var source = String.format(script, offset + i);
+            var start = System.nanoTime();
+            main.evaluate(toInputStream(source));
+            times[i] = System.nanoTime() - start;
+        }
+        return times;
+    }
+
+    private static void report(String name, long[] times) {
+        var warm = Arrays.copyOfRange(times, 1, times.length);
+        Arrays.sort(warm);
+        System.out.printf("%-10s first: %8.2f ms   warm median: %6.3f ms   warm p90: %6.3f ms%n",
+                name,
+                times[0] / 1e6,
+                warm[warm.length / 2] / 1e6,
+                warm[warm.length * 9 / 10] / 1e6);
+    }
+
+    public static void main(String[] args) throws Exception {
+        var submissions = (args.length > 0) ? Integer.parseInt(args[0]) : 500;
+        // The first round includes loading each backend and JIT warm-up; the second shows steady state.
+        for (var round = 0; round < 2; round++) {
+            System.out.println("Round " + round + ", " + submissions + " submissions per backend:");
+            for (var backend : Main.Backends.values())
+                report(backend.name(), run(backend, submissions, round * submissions));
+        }
+    }
+}
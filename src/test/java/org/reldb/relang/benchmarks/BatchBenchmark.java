@@ -0,0 +1,69 @@
+package org.reldb.relang.benchmarks;
+
+import org.reldb.relang.Main;
+import org.reldb.relang.ScriptBatch;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.reldb.relang.helper.ToInputStream.toInputStream;
+
+/**
+ * Compare the time to deploy many distinct scripts one at a time through Main against compiling
+ * them together with ScriptBatch, single-threaded and with a thread per processor.
+ * <p>
+ * Run with: java -cp target/classes:target/test-classes:target/lib/* org.reldb.relang.benchmarks.BatchBenchmark [scripts]
+ */
+public class BatchBenchmark {
+
+    private static final String script = """
+            p = %d
+
+            blah(long start, long fin) -> {
+               zot(long x, long y) -> {
+                  zaz(long r) -> p + x * r
+                  return x * y + zaz(y)
+               }
+               total = 0
+               for (i = start; i <= fin; i = i + 1)
+                  total = total + zot(i, p)
+               return total
+            }
+
+            RETURN blah(5, 10)
+            """;
+
+    private static Map<String, String> sources(int scripts, int offset) {
+        var sources = new LinkedHashMap<String, String>();
+        for (var i = 0; i < scripts; i++)
+            sources.put("script" + i, String.format(script, offset + i));
+        return sources;
+    }
+
+    private static double oneAtATime(Map<String, String> sources) throws Exception {
+        var main = new Main();
+        var start = System.nanoTime();
+        for (var source : sources.values())
+            main.evaluate(toInputStream(source));
+        return (System.nanoTime() - start) / 1e6;
+    }
+
+    private static double batch(Map<String, String> sources, int parallelism) throws Exception {
+        var start = System.nanoTime();
+        var results = new ScriptBatch(parallelism).compile(sources, true);
+        for (var result : results.values())
+            result.getProgram().run();
+        return (System.nanoTime() - start) / 1e6;
+    }
+
+    public static void main(String[] args) throws Exception {
+        var scripts = (args.length > 0) ? Integer.parseInt(args[0]) : 100;
+        var processors = Runtime.getRuntime().availableProcessors();
+        // Warm up the compiler, so the first measurement isn't penalised.
+        batch(sources(scripts, -scripts), processors);
+        System.out.printf("%d scripts, %d processors%n", scripts, processors);
+        System.out.printf("one at a time:       %8.1f ms%n", oneAtATime(sources(scripts, 0)));
+        System.out.printf("batch, 1 thread:     %8.1f ms%n", batch(sources(scripts, scripts), 1));
+        System.out.printf("batch, %2d threads:   %8.1f ms%n", processors, batch(sources(scripts, 2 * scripts), processors));
+    }
+}
@@ -0,0 +1,107 @@
+package org.reldb.relang.benchmarks;
+
+import org.reldb.relang.CompilationSettings;
+import org.reldb.relang.interpreter.Interpreter;
+import org.reldb.relang.java.GeneratedProgram;
+import org.reldb.relang.java.JavaCompiler;
+import org.reldb.relang.optimiser.Optimiser;
+import org.reldb.relang.parser.ast.Relang;
+import org.reldb.relang.parser.ast.SimpleNode;
+import org.reldb.relang.transpiler.SourceGenerator;
+
+import java.io.StringReader;
+
+/**
+ * Compare nested-loop programs with and without the Optimiser, which hoists loop invariants and strength-reduces
+ * products of loop variables. Cold runs are the first interpretation, and the first run of the compiled program,
+ * including compiling it. Warm runs are of the compiled program after warm-up.
+ * <p>
+ * Run with: java -cp target/classes:target/test-classes:target/lib/* org.reldb.relang.benchmarks.LoopBenchmark [runs]
+ */
+public class LoopBenchmark {
+
+    private static final String grid = """
+            total = 0
+            size = 120
+            for (i = 0; i < size; i = i + 1)
+               for (j = 0; j < size; j = j + 1)
+                  for (k = 0; k < size; k = k + 1)
+                     total = total + (i * size + j) * size + k * (size + 1)
+            RETURN total
+            """;
+
+    private static final String invariants = """
+            sq(long x) -> x * x
+            weight(long a, long b) -> sq(a) + 3 * b
+            scan(long p, long n) -> {
+               t = 0
+               for (i = 0; i < n; i = i + 1)
+                  for (j = 0; j < n * 2; j = j + 1)
+                     t = t + weight(p, n) + i * p + j * (p + 1)
+               return t
+            }
+            total = 0
+            for (q = 1; q <= 10; q = q + 1)
+               total = total + scan(q, 150)
+            RETURN total
+            """;
+
+    private static final String triangle = """
+            f(long n, double scale) -> {
+               s = 0.0
+               for (i = 1; i <= n; i = i + 1)
+                  for (j = 1; j <= i; j = j + 1)
+                     s = s + scale / 2 * j + i * n
+               return s
+            }
+            RETURN f(600, 1.5)
+            """;
+
+    private static SimpleNode parse(String source, boolean optimise) throws Exception {
+        var program = new Relang(new StringReader(source)).evaluate();
+        return optimise ? new Optimiser().optimise(program) : program;
+    }
+
+    private static GeneratedProgram compile(String className, String source, boolean optimise) throws Exception {
+        var java = CompilationSettings.defaults.transpile(className, parse(source, optimise), null);
+        return new GeneratedProgram(new JavaCompiler(false).compile(className, java), className, SourceGenerator.generatedCodeMainMethodName);
+    }
+
+    private static double millisecondsSince(long start) {
+        return (System.nanoTime() - start) / 1e6;
+    }
+
+    private static void measure(String name, String source, boolean optimise, int runs) throws Exception {
+        var className = "Loop_" + name + (optimise ? "_optimised" : "_plain");
+        var start = System.nanoTime();
+        var interpreted = new Interpreter().run(parse(source, optimise));
+        var interpretation = millisecondsSince(start);
+        start = System.nanoTime();
+        var program = compile(className, source, optimise);
+        var result = program.run();
+        var firstRun = millisecondsSince(start);
+        if (!result.equals(interpreted))
+            throw new IllegalStateException(name + " gave " + result + " compiled but " + interpreted + " interpreted");
+        for (var i = 0; i < runs; i++)
+            program.run();
+        start = System.nanoTime();
+        for (var i = 0; i < runs; i++)
+            program.run();
+        var warm = millisecondsSince(start) / runs;
+        System.out.printf("%-10s %-9s %12.1f ms interpreted %10.1f ms compiled %10.3f ms warm   = %s%n",
+                name, optimise ? "optimised" : "plain", interpretation, firstRun, warm, result);
+    }
+
+    public static void main(String[] args) throws Exception {
+        var runs = (args.length > 0) ? Integer.parseInt(args[0]) : 50;
+        // Load and warm the parser, interpreter and compiler, so the first cold run isn't charged for it.
+        var warmUp = "t = 0 for (i = 0; i < 1000; i = i + 1) t = t + i * 2 RETURN t";
+        new Interpreter().run(parse(warmUp, true));
+        compile("Loop_warmUp", warmUp, true).run();
+        for (var optimise : new boolean[] {false, true}) {
+            measure("grid", grid, optimise, runs);
+            measure("invariants", invariants, optimise, runs);
+            measure("triangle", triangle, optimise, runs);
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package org.reldb.relang.benchmarks;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compare the startup of a Relang process with and without the class-data-sharing archive built by
+ * mvn package: time to first output, and time to exit. Each run is a fresh JVM in a fresh working
+ * directory, so no class file cache is warm.
+ * <p>
+ * Run after mvn package with: java -cp target/test-classes org.reldb.relang.benchmarks.StartupBenchmark [runs] [script] [relang arguments...]
+ */
+public class StartupBenchmark {
+
+    private static final Path jar = Path.of("target", "org.reldb.relang-0.0.1-SNAPSHOT.jar").toAbsolutePath();
+    private static final Path archive = Path.of("target", "relang.jsa").toAbsolutePath();
+
+    /** Run once. Return nanoseconds to first output and to exit. */
+    private static long[] run(boolean useArchive, Path script, List<String> relangArguments) throws IOException, InterruptedException {
+        var command = new ArrayList<String>();
+        command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        command.add(useArchive ? "-XX:SharedArchiveFile=" + archive : "-Xshare:auto");
+        command.add("-jar");
+        command.add(jar.toString());
+        command.addAll(relangArguments);
+        var workingDirectory = Files.createTempDirectory("relang-startup");
+        var start = System.nanoTime();
+        var process = new ProcessBuilder(command)
+                .directory(workingDirectory.toFile())
+                .redirectInput(script.toFile())
+                .redirectError(ProcessBuilder.Redirect.DISCARD)
+                .start();
+        long firstOutput;
+        try (var output = process.getInputStream()) {
+            if (output.read() < 0)
+                throw new IOException("No output from " + script);
+            firstOutput = System.nanoTime() - start;
+            output.transferTo(OutputStream.nullOutputStream());
+        }
+        process.waitFor();
+        var exit = System.nanoTime() - start;
+        try (var files = Files.walk(workingDirectory)) {
+            files.sorted((a, b) -> b.compareTo(a)).forEach(path -> path.toFile().delete());
+        }
+        return new long[] {firstOutput, exit};
+    }
+
+    private static double median(long[] times) {
+        Arrays.sort(times);
+        return times[times.length / 2] / 1e6;
+    }
+
+    private static void report(String name, boolean useArchive, int runs, Path script, List<String> relangArguments) throws Exception {
+        var firstOutputs = new long[runs];
+        var exits = new long[runs];
+        for (var i = 0; i < runs; i++) {
+            var times = run(useArchive, script, relangArguments);
+            firstOutputs[i] = times[0];
+            exits[i] = times[1];
+        }
+        System.out.printf("%-16s first output median: %7.1f ms   exit median: %7.1f ms%n", name, median(firstOutputs), median(exits));
+    }
+
+    public static void main(String[] args) throws Exception {
+        var runs = (args.length > 0) ? Integer.parseInt(args[0]) : 10;
+        var script = Path.of((args.length > 1) ? args[1] : "examples/test03.rl");
+        var relangArguments = (args.length > 2) ? Arrays.asList(args).subList(2, args.length) : List.<String>of();
+        if (!Files.exists(archive))
+            throw new IOException(archive + " not found. Run mvn package first.");
+        System.out.printf("%s %s, %d runs each%n", script, relangArguments, runs);
+        report("without archive", false, runs, script, relangArguments);
+        report("with archive", true, runs, script, relangArguments);
+    }
+}
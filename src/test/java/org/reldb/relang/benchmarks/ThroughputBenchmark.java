@@ -0,0 +1,68 @@
+package org.reldb.relang.benchmarks;
+
+import org.reldb.relang.Main;
+
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+
+import static org.reldb.relang.helper.ToInputStream.toInputStream;
+
+/**
+ * Measure the throughput of evaluate() calls on one Main shared by increasing numbers of threads.
+ * Scripts are compiled once, in the warm-up, so this measures cache lookup and run time.
+ * <p>
+ * Run with: java -cp target/classes:target/test-classes:target/lib/* org.reldb.relang.benchmarks.ThroughputBenchmark [seconds per thread count]
+ */
+public class ThroughputBenchmark {
+
+    private static final int scripts = 16;
+
+    private static final String script = """
+            fib(long n) -> {
+               if (n == 0 or n == 1)
+                  r = n
+               else
+                  r = fib(n - 1) + fib(n - 2)
+               return r
+            }
+            RETURN fib(20) + %d
+            """;
+
+    private static long evaluateFor(Main main, int threads, long nanoseconds) throws Exception {
+        var deadline = System.nanoTime() + nanoseconds;
+        var tasks = new ArrayList<Callable<Long>>();
+        for (var thread = 0; thread < threads; thread++) {
+            var first = thread;
+            tasks.add(() -> {
+                var calls = 0L;
+                for (var i = first; System.nanoTime() < deadline; i++, calls++)
+                    main.evaluate(toInputStream(String.format(script, i % scripts)));
+                return calls;
+            });
+        }
+        var executor = Executors.newFixedThreadPool(threads);
+        try {
+            var calls = 0L;
+            for (var future : executor.invokeAll(tasks))
+                calls += future.get();
+            return calls;
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        var seconds = (args.length > 0) ? Integer.parseInt(args[0]) : 3;
+        var processors = Runtime.getRuntime().availableProcessors();
+        var main = new Main();
+        for (var i = 0; i < scripts; i++)
+            main.evaluate(toInputStream(String.format(script, i)));
+        evaluateFor(main, processors, 1_000_000_000L);
+        System.out.printf("%d processors%n", processors);
+        for (var threads = 1; threads <= 2 * processors; threads *= 2) {
+            var calls = evaluateFor(main, threads, seconds * 1_000_000_000L);
+            System.out.printf("%3d threads: %10.0f evaluate/s%n", threads, (double)calls / seconds);
+        }
+    }
+}
@@ -5,10 +5,13 @@ import org.reldb.relang.parser.ast.ParseException;
 
 import java.lang.reflect.InvocationTargetException;
 
+import static org.assertj.core.api.Assertions.assertThat;
 import static org.reldb.relang.helper.ToInputStream.toInputStream;
 
 public class LanguageTests {
     protected Main.DebugModes debugMode = Main.DebugModes.NORMAL;
+    protected Main.Backends backend = Main.Backends.SOURCE;
+    protected Main.ExecutionModes executionMode = Main.ExecutionModes.COMPILE;
 
     protected void execute(String source) throws
             ParseException,
@@ -18,6 +21,8 @@ public class LanguageTests {
             NoSuchMethodException {
         var main = new Main();
         main.setDebugMode(debugMode);
+        main.setBackend(backend);
+        main.setExecutionMode(executionMode);
         main.execute(toInputStream(source));
     }
 
@@ -27,8 +32,27 @@ public class LanguageTests {
             InvocationTargetException,
             IllegalAccessException,
             NoSuchMethodException {
+        return evaluate(source, backend, executionMode);
+    }
+
+    /** Evaluate with the given backend and execution mode, rather than this test's. */
+    protected Object evaluate(String source, Main.Backends backend, Main.ExecutionModes executionMode) throws
+            ParseException,
+            ClassNotFoundException,
+            InvocationTargetException,
+            IllegalAccessException,
+            NoSuchMethodException {
         var main = new Main();
         main.setDebugMode(debugMode);
+        main.setBackend(backend);
+        main.setExecutionMode(executionMode);
         return main.evaluate(toInputStream(source));
     }
+
+    /** Check that compiling via Java source, compiling to bytecode and interpreting all give the expected value. */
+    protected void assertEvaluatesEverywhereTo(String source, Object expected) throws Exception {
+        assertThat(evaluate(source, Main.Backends.SOURCE, Main.ExecutionModes.COMPILE)).isEqualTo(expected);
+        assertThat(evaluate(source, Main.Backends.BYTECODE, Main.ExecutionModes.COMPILE)).isEqualTo(expected);
+        assertThat(evaluate(source, Main.Backends.SOURCE, Main.ExecutionModes.INTERPRET)).isEqualTo(expected);
+    }
 }